@@ -0,0 +1,171 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.Beta;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Exports the metrics of the SDK to a Micrometer {@link MeterRegistry}.
+ *
+ * <pre>{@code
+ * Confidence.builder(clientSecret).metrics(new MicrometerConfidenceMetrics(registry)).build();
+ * }</pre>
+ *
+ * <p>Latencies are recorded in timers with percentile histograms, tagged with their outcome, and
+ * the values the SDK counts itself are read whenever the registry publishes.
+ */
+@Beta
+public class MicrometerConfidenceMetrics implements ConfidenceMetrics {
+  static final String RESOLVES = "confidence.resolve";
+  static final String EVALUATIONS = "confidence.evaluations";
+  static final String EVENT_UPLOADS = "confidence.events.upload";
+  static final String EVENT_BATCH_SIZE = "confidence.events.batch.size";
+  static final String EVENTS_DROPPED = "confidence.events.dropped";
+  static final String EVENTS_REJECTED = "confidence.events.rejected";
+
+  private final MeterRegistry registry;
+  private final Tags tags;
+  private final Timer resolves;
+  private final Timer failedResolves;
+  private final Timer uploads;
+  private final Timer failedUploads;
+  private final DistributionSummary batchSizes;
+  private final Counter retryableRejections;
+  private final Counter finalRejections;
+  private final Map<String, Counter> drops = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Counter>> namedDrops = new ConcurrentHashMap<>();
+  private final Map<String, DistributionSummary> distributions = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Counter>> evaluations = new ConcurrentHashMap<>();
+  // the registry only references the values of gauges and function counters weakly
+  private final List<LongSupplier> registered = new CopyOnWriteArrayList<>();
+
+  public MicrometerConfidenceMetrics(MeterRegistry registry) {
+    this(registry, Tags.empty());
+  }
+
+  /**
+   * @param registry the registry to register the meters of the SDK with
+   * @param tags added to every meter, for example to tell several SDK instances apart
+   */
+  public MicrometerConfidenceMetrics(MeterRegistry registry, Iterable<Tag> tags) {
+    this.registry = registry;
+    this.tags = Tags.of(tags);
+    this.resolves = timer(RESOLVES, "success");
+    this.failedResolves = timer(RESOLVES, "failure");
+    this.uploads = timer(EVENT_UPLOADS, "success");
+    this.failedUploads = timer(EVENT_UPLOADS, "failure");
+    this.batchSizes =
+        DistributionSummary.builder(EVENT_BATCH_SIZE).tags(this.tags).register(registry);
+    this.retryableRejections = rejections(true);
+    this.finalRejections = rejections(false);
+  }
+
+  private Timer timer(String name, String outcome) {
+    return Timer.builder(name)
+        .tags(tags)
+        .tag("outcome", outcome)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private Counter rejections(boolean retryable) {
+    return Counter.builder(EVENTS_REJECTED)
+        .tags(tags)
+        .tag("retryable", Boolean.toString(retryable))
+        .register(registry);
+  }
+
+  @Override
+  public void registerGauge(String name, LongSupplier value) {
+    registered.add(value);
+    Gauge.builder(name, value, LongSupplier::getAsLong).tags(tags).register(registry);
+  }
+
+  @Override
+  public void registerCounter(String name, LongSupplier total) {
+    registered.add(total);
+    FunctionCounter.builder(name, total, LongSupplier::getAsLong).tags(tags).register(registry);
+  }
+
+  @Override
+  public void recordDistribution(String name, long value) {
+    distributions
+        .computeIfAbsent(
+            name,
+            n ->
+                DistributionSummary.builder(n)
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .register(registry))
+        .record(value);
+  }
+
+  @Override
+  public void recordResolve(long latencyNanos, boolean failed) {
+    (failed ? failedResolves : resolves).record(latencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordEvaluation(String reason, String errorCode) {
+    evaluations
+        .computeIfAbsent(reason, r -> new ConcurrentHashMap<>())
+        .computeIfAbsent(
+            errorCode,
+            code ->
+                Counter.builder(EVALUATIONS)
+                    .tags(tags)
+                    .tag("reason", reason)
+                    .tag("error_code", code)
+                    .register(registry))
+        .increment();
+  }
+
+  @Override
+  public void recordEventDropped(String reason) {
+    drops
+        .computeIfAbsent(
+            reason,
+            r -> Counter.builder(EVENTS_DROPPED).tags(tags).tag("reason", r).register(registry))
+        .increment();
+  }
+
+  @Override
+  public void recordEventDropped(String reason, String eventName) {
+    namedDrops
+        .computeIfAbsent(reason, r -> new ConcurrentHashMap<>())
+        .computeIfAbsent(
+            eventName,
+            name ->
+                Counter.builder(EVENTS_DROPPED)
+                    .tags(tags)
+                    .tag("reason", reason)
+                    .tag("event_name", name)
+                    .register(registry))
+        .increment();
+  }
+
+  @Override
+  public void recordEventUpload(long latencyNanos, int events, boolean failed) {
+    (failed ? failedUploads : uploads).record(latencyNanos, TimeUnit.NANOSECONDS);
+    batchSizes.record(events);
+  }
+
+  @Override
+  public void recordEventsRejected(int events, boolean retryable) {
+    if (events > 0) {
+      (retryable ? retryableRejections : finalRejections).increment(events);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class MicrometerConfidenceMetricsTest {
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final MicrometerConfidenceMetrics metrics =
+      new MicrometerConfidenceMetrics(registry, Tags.of("client", "test"));
+
+  @Test
+  public void recordsLatenciesByOutcome() {
+    metrics.recordResolve(Duration.ofMillis(20).toNanos(), false);
+    metrics.recordResolve(Duration.ofMillis(40).toNanos(), true);
+    metrics.recordEventUpload(Duration.ofMillis(5).toNanos(), 25, false);
+
+    assertThat(
+            registry
+                .get(MicrometerConfidenceMetrics.RESOLVES)
+                .tags("client", "test", "outcome", "failure")
+                .timer()
+                .totalTime(TimeUnit.MILLISECONDS))
+        .isEqualTo(40);
+    assertThat(
+            registry
+                .get(MicrometerConfidenceMetrics.EVENT_UPLOADS)
+                .tag("outcome", "success")
+                .timer()
+                .count())
+        .isEqualTo(1);
+    assertThat(registry.get(MicrometerConfidenceMetrics.EVENT_BATCH_SIZE).summary().totalAmount())
+        .isEqualTo(25);
+  }
+
+  @Test
+  public void countsEvaluationsDropsAndRejectionsByTheirTags() {
+    metrics.recordEvaluation("targeting_match", "unspecified");
+    metrics.recordEvaluation("targeting_match", "unspecified");
+    metrics.recordEvaluation("error", "flag_not_found");
+    metrics.recordEventDropped(ConfidenceMetrics.DROPPED_QUEUE_FULL);
+    metrics.recordEventsRejected(3, false);
+
+    assertThat(
+            registry
+                .get(MicrometerConfidenceMetrics.EVALUATIONS)
+                .tags("reason", "targeting_match", "error_code", "unspecified")
+                .counter()
+                .count())
+        .isEqualTo(2);
+    assertThat(
+            registry
+                .get(MicrometerConfidenceMetrics.EVENTS_DROPPED)
+                .tag("reason", ConfidenceMetrics.DROPPED_QUEUE_FULL)
+                .counter()
+                .count())
+        .isEqualTo(1);
+    assertThat(
+            registry
+                .get(MicrometerConfidenceMetrics.EVENTS_REJECTED)
+                .tag("retryable", "false")
+                .counter()
+                .count())
+        .isEqualTo(3);
+  }
+
+  @Test
+  public void tagsLimitedDropsWithTheEventName() {
+    metrics.recordEventDropped(ConfidenceMetrics.DROPPED_SAMPLED, "impression");
+    metrics.recordEventDropped(ConfidenceMetrics.DROPPED_SAMPLED, "impression");
+    metrics.recordEventDropped(ConfidenceMetrics.DROPPED_RATE_LIMITED, "impression");
+
+    assertThat(
+            registry
+                .get(MicrometerConfidenceMetrics.EVENTS_DROPPED)
+                .tags("reason", ConfidenceMetrics.DROPPED_SAMPLED, "event_name", "impression")
+                .counter()
+                .count())
+        .isEqualTo(2);
+    assertThat(
+            registry
+                .get(MicrometerConfidenceMetrics.EVENTS_DROPPED)
+                .tags("reason", ConfidenceMetrics.DROPPED_RATE_LIMITED, "event_name", "impression")
+                .counter()
+                .count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void recordsDistributionsByName() {
+    metrics.recordDistribution(ConfidenceMetrics.RESOLVE_BATCH_SIZE, 3);
+    metrics.recordDistribution(ConfidenceMetrics.RESOLVE_BATCH_SIZE, 5);
+
+    assertThat(registry.get(ConfidenceMetrics.RESOLVE_BATCH_SIZE).summary().totalAmount())
+        .isEqualTo(8);
+    assertThat(registry.get(ConfidenceMetrics.RESOLVE_BATCH_SIZE).summary().count()).isEqualTo(2);
+  }
+
+  @Test
+  public void readsRegisteredValuesWhenPublished() {
+    final AtomicLong queueSize = new AtomicLong();
+    final AtomicLong retried = new AtomicLong();
+    metrics.registerGauge(ConfidenceMetrics.EVENT_QUEUE_SIZE, queueSize::get);
+    metrics.registerCounter(ConfidenceMetrics.EVENTS_RETRIED, retried::get);
+
+    queueSize.set(7);
+    retried.set(3);
+
+    assertThat(registry.get(ConfidenceMetrics.EVENT_QUEUE_SIZE).gauge().value()).isEqualTo(7);
+    assertThat(registry.get(ConfidenceMetrics.EVENTS_RETRIED).functionCounter().count())
+        .isEqualTo(3);
+  }
+}
@@ -0,0 +1,167 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.Beta;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Exports the metrics of the SDK to an OpenTelemetry {@link Meter}.
+ *
+ * <pre>{@code
+ * Confidence.builder(clientSecret)
+ *     .metrics(new OpenTelemetryConfidenceMetrics(openTelemetry))
+ *     .build();
+ * }</pre>
+ *
+ * <p>Latencies are recorded in histograms in seconds, with their outcome as an attribute, and the
+ * values the SDK counts itself are observed whenever metrics are collected.
+ */
+@Beta
+public class OpenTelemetryConfidenceMetrics implements ConfidenceMetrics {
+  static final String INSTRUMENTATION_SCOPE = "com.spotify.confidence";
+  static final String RESOLVE_DURATION = "confidence.resolve.duration";
+  static final String EVALUATIONS = "confidence.evaluations";
+  static final String EVENT_UPLOAD_DURATION = "confidence.events.upload.duration";
+  static final String EVENT_BATCH_SIZE = "confidence.events.batch.size";
+  static final String EVENTS_DROPPED = "confidence.events.dropped";
+  static final String EVENTS_REJECTED = "confidence.events.rejected";
+  static final AttributeKey<String> OUTCOME = AttributeKey.stringKey("outcome");
+  static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+  static final AttributeKey<String> ERROR_CODE = AttributeKey.stringKey("error_code");
+  static final AttributeKey<String> EVENT_NAME = AttributeKey.stringKey("event_name");
+  static final AttributeKey<Boolean> RETRYABLE = AttributeKey.booleanKey("retryable");
+  private static final Attributes SUCCESS = Attributes.of(OUTCOME, "success");
+  private static final Attributes FAILURE = Attributes.of(OUTCOME, "failure");
+  private static final Attributes RETRYABLE_REJECTION = Attributes.of(RETRYABLE, true);
+  private static final Attributes FINAL_REJECTION = Attributes.of(RETRYABLE, false);
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final Meter meter;
+  private final DoubleHistogram resolveDuration;
+  private final DoubleHistogram uploadDuration;
+  private final LongHistogram batchSize;
+  private final LongCounter evaluations;
+  private final LongCounter drops;
+  private final LongCounter rejections;
+  // attributes are cached, as evaluations and drops are recorded on the threads of the SDK
+  private final Map<String, Map<String, Attributes>> evaluationAttributes =
+      new ConcurrentHashMap<>();
+  private final Map<String, Attributes> dropAttributes = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Attributes>> namedDropAttributes =
+      new ConcurrentHashMap<>();
+  private final Map<String, LongHistogram> distributions = new ConcurrentHashMap<>();
+  // the callbacks of observed values, which stay registered for as long as the meter exists
+  private final List<AutoCloseable> observers = new CopyOnWriteArrayList<>();
+
+  public OpenTelemetryConfidenceMetrics(OpenTelemetry openTelemetry) {
+    this(openTelemetry.getMeter(INSTRUMENTATION_SCOPE));
+  }
+
+  /**
+   * @param meter the meter to create the instruments of the SDK with
+   */
+  public OpenTelemetryConfidenceMetrics(Meter meter) {
+    this.meter = meter;
+    this.resolveDuration =
+        meter
+            .histogramBuilder(RESOLVE_DURATION)
+            .setDescription("The duration of resolve requests")
+            .setUnit("s")
+            .build();
+    this.uploadDuration =
+        meter
+            .histogramBuilder(EVENT_UPLOAD_DURATION)
+            .setDescription("The duration of event upload attempts")
+            .setUnit("s")
+            .build();
+    this.batchSize =
+        meter
+            .histogramBuilder(EVENT_BATCH_SIZE)
+            .setDescription("The number of events per upload attempt")
+            .ofLongs()
+            .build();
+    this.evaluations = meter.counterBuilder(EVALUATIONS).setDescription("Flag evaluations").build();
+    this.drops =
+        meter.counterBuilder(EVENTS_DROPPED).setDescription("Events dropped on emit").build();
+    this.rejections =
+        meter
+            .counterBuilder(EVENTS_REJECTED)
+            .setDescription("Events rejected by the backend")
+            .build();
+  }
+
+  @Override
+  public void registerGauge(String name, LongSupplier value) {
+    observers.add(
+        meter
+            .gaugeBuilder(name)
+            .ofLongs()
+            .buildWithCallback(measurement -> measurement.record(value.getAsLong())));
+  }
+
+  @Override
+  public void registerCounter(String name, LongSupplier total) {
+    observers.add(
+        meter
+            .counterBuilder(name)
+            .buildWithCallback(measurement -> measurement.record(total.getAsLong())));
+  }
+
+  @Override
+  public void recordDistribution(String name, long value) {
+    distributions
+        .computeIfAbsent(name, n -> meter.histogramBuilder(n).ofLongs().build())
+        .record(value);
+  }
+
+  @Override
+  public void recordResolve(long latencyNanos, boolean failed) {
+    resolveDuration.record(latencyNanos / NANOS_PER_SECOND, failed ? FAILURE : SUCCESS);
+  }
+
+  @Override
+  public void recordEvaluation(String reason, String errorCode) {
+    evaluations.add(
+        1,
+        evaluationAttributes
+            .computeIfAbsent(reason, r -> new ConcurrentHashMap<>())
+            .computeIfAbsent(errorCode, code -> Attributes.of(REASON, reason, ERROR_CODE, code)));
+  }
+
+  @Override
+  public void recordEventDropped(String reason) {
+    drops.add(1, dropAttributes.computeIfAbsent(reason, r -> Attributes.of(REASON, r)));
+  }
+
+  @Override
+  public void recordEventDropped(String reason, String eventName) {
+    drops.add(
+        1,
+        namedDropAttributes
+            .computeIfAbsent(reason, r -> new ConcurrentHashMap<>())
+            .computeIfAbsent(eventName, name -> Attributes.of(REASON, reason, EVENT_NAME, name)));
+  }
+
+  @Override
+  public void recordEventUpload(long latencyNanos, int events, boolean failed) {
+    uploadDuration.record(latencyNanos / NANOS_PER_SECOND, failed ? FAILURE : SUCCESS);
+    batchSize.record(events);
+  }
+
+  @Override
+  public void recordEventsRejected(int events, boolean retryable) {
+    if (events > 0) {
+      rejections.add(events, retryable ? RETRYABLE_REJECTION : FINAL_REJECTION);
+    }
+  }
+}
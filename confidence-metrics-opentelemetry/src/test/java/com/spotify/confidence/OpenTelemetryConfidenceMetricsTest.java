@@ -0,0 +1,135 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class OpenTelemetryConfidenceMetricsTest {
+  private final InMemoryMetricReader reader = InMemoryMetricReader.create();
+  private final SdkMeterProvider meterProvider =
+      SdkMeterProvider.builder().registerMetricReader(reader).build();
+  private final OpenTelemetryConfidenceMetrics metrics =
+      new OpenTelemetryConfidenceMetrics(
+          meterProvider.get(OpenTelemetryConfidenceMetrics.INSTRUMENTATION_SCOPE));
+
+  @AfterEach
+  public void tearDown() {
+    meterProvider.close();
+  }
+
+  @Test
+  public void recordsLatenciesInSecondsByOutcome() {
+    metrics.recordResolve(Duration.ofMillis(250).toNanos(), true);
+
+    final HistogramPointData point =
+        metric(OpenTelemetryConfidenceMetrics.RESOLVE_DURATION)
+            .getHistogramData()
+            .getPoints()
+            .iterator()
+            .next();
+    assertThat(point.getSum()).isEqualTo(0.25);
+    assertThat(point.getAttributes())
+        .isEqualTo(Attributes.of(OpenTelemetryConfidenceMetrics.OUTCOME, "failure"));
+  }
+
+  @Test
+  public void countsEvaluationsByReasonAndErrorCode() {
+    metrics.recordEvaluation("targeting_match", "unspecified");
+    metrics.recordEvaluation("targeting_match", "unspecified");
+
+    final LongPointData point =
+        metric(OpenTelemetryConfidenceMetrics.EVALUATIONS)
+            .getLongSumData()
+            .getPoints()
+            .iterator()
+            .next();
+    assertThat(point.getValue()).isEqualTo(2);
+    assertThat(point.getAttributes())
+        .isEqualTo(
+            Attributes.of(
+                OpenTelemetryConfidenceMetrics.REASON,
+                "targeting_match",
+                OpenTelemetryConfidenceMetrics.ERROR_CODE,
+                "unspecified"));
+  }
+
+  @Test
+  public void countsLimitedDropsByReasonAndEventName() {
+    metrics.recordEventDropped(ConfidenceMetrics.DROPPED_SAMPLED, "impression");
+    metrics.recordEventDropped(ConfidenceMetrics.DROPPED_SAMPLED, "impression");
+
+    final LongPointData point =
+        metric(OpenTelemetryConfidenceMetrics.EVENTS_DROPPED)
+            .getLongSumData()
+            .getPoints()
+            .iterator()
+            .next();
+    assertThat(point.getValue()).isEqualTo(2);
+    assertThat(point.getAttributes())
+        .isEqualTo(
+            Attributes.of(
+                OpenTelemetryConfidenceMetrics.REASON,
+                ConfidenceMetrics.DROPPED_SAMPLED,
+                OpenTelemetryConfidenceMetrics.EVENT_NAME,
+                "impression"));
+  }
+
+  @Test
+  public void recordsDistributionsByName() {
+    metrics.recordDistribution(ConfidenceMetrics.RESOLVE_BATCH_SIZE, 3);
+    metrics.recordDistribution(ConfidenceMetrics.RESOLVE_BATCH_SIZE, 5);
+
+    final HistogramPointData point =
+        metric(ConfidenceMetrics.RESOLVE_BATCH_SIZE)
+            .getHistogramData()
+            .getPoints()
+            .iterator()
+            .next();
+    assertThat(point.getSum()).isEqualTo(8);
+    assertThat(point.getCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void observesRegisteredValuesWhenCollected() {
+    final AtomicLong queueSize = new AtomicLong();
+    final AtomicLong retried = new AtomicLong();
+    metrics.registerGauge(ConfidenceMetrics.EVENT_QUEUE_SIZE, queueSize::get);
+    metrics.registerCounter(ConfidenceMetrics.EVENTS_RETRIED, retried::get);
+
+    queueSize.set(7);
+    retried.set(3);
+
+    assertThat(
+            metric(ConfidenceMetrics.EVENT_QUEUE_SIZE)
+                .getLongGaugeData()
+                .getPoints()
+                .iterator()
+                .next()
+                .getValue())
+        .isEqualTo(7);
+    assertThat(
+            metric(ConfidenceMetrics.EVENTS_RETRIED)
+                .getLongSumData()
+                .getPoints()
+                .iterator()
+                .next()
+                .getValue())
+        .isEqualTo(3);
+  }
+
+  private MetricData metric(String name) {
+    return reader.collectAllMetrics().stream()
+        .filter(metric -> metric.getName().equals(name))
+        .findFirst()
+        .orElseThrow();
+  }
+}
@@ -191,6 +191,7 @@ public class ConfidenceFeatureProvider implements FeatureProvider {
                 "Unexpected flag '%s' from remote", responseFlagName.replaceFirst("^flags/", "")));
       }
 
+      confidence.client().applyFlag(requestFlagName, resolveFlagResponse.getResolveToken());
       final ResolvedFlag resolvedFlag = resolveFlagResponse.getResolvedFlags(0);
       final String reason = resolvedFlag.getReason().toString();
 
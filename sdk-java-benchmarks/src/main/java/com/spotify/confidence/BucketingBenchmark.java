@@ -0,0 +1,45 @@
+package com.spotify.confidence;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link Bucketing} to hashing the salted unit with Guava's murmur3. Run with {@code -prof
+ * gc} to see the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BucketingBenchmark {
+  private static final HashFunction MURMUR3 = Hashing.murmur3_128();
+  private static final String SALT = "accounts/k2b7h3xqzr9s1m4ppv2c";
+
+  @Param({"user-123456", "0f8e2c1a-7d4b-4e9a-b6c3-5a1d2e3f4b5c"})
+  public String unit;
+
+  @Benchmark
+  public int bucketing() {
+    return Bucketing.bucket(SALT, unit, Bucketing.BITSET_BUCKETS);
+  }
+
+  @Benchmark
+  public int guava() {
+    final long hash = MURMUR3.hashString(SALT + "|" + unit, StandardCharsets.UTF_8).asLong();
+    return (int) Long.remainderUnsigned(hash >>> 4, Bucketing.BITSET_BUCKETS);
+  }
+}
@@ -0,0 +1,68 @@
+package com.spotify.confidence;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and sizes an event with a large context, like the thread that batches events does, with
+ * and without reusing the encoding of the context. The context is rebuilt around the same entries
+ * for every event, like {@link Confidence#getContext()} does. Run with {@code -prof gc} to see the
+ * allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventEncodingBenchmark {
+  private static final Instant EVENT_TIME = Instant.parse("2024-05-01T12:30:15Z");
+  private static final Optional<ConfidenceValue.Struct> DATA =
+      Optional.of(ConfidenceValue.of(Map.of("screen", ConfidenceValue.of("home"))));
+
+  private Map<String, ConfidenceValue> contextEntries;
+  private ContextEncoder contextEncoder;
+
+  @Setup
+  public void setUp() {
+    final Map<String, ConfidenceValue> device = new HashMap<>();
+    final Map<String, ConfidenceValue> experiments = new HashMap<>();
+    for (int i = 0; i < 20; i++) {
+      device.put("property-" + i, ConfidenceValue.of("value-" + i));
+      experiments.put("experiment-" + i, ConfidenceValue.of("variant-" + i % 3));
+    }
+    contextEntries =
+        Map.of(
+            "targeting_key", ConfidenceValue.of("0f8e2c1a-7d4b-4e9a-b6c3-5a1d2e3f4b5c"),
+            "device", ConfidenceValue.of(device),
+            "experiments", ConfidenceValue.of(experiments));
+    contextEncoder = new ContextEncoder();
+  }
+
+  @Benchmark
+  public int encode() {
+    return event().toEvent().getSerializedSize();
+  }
+
+  @Benchmark
+  public int encodeReusingContext() {
+    return event().toEvent(contextEncoder).getSerializedSize();
+  }
+
+  private PendingEvent event() {
+    return new PendingEvent("navigate", ConfidenceValue.of(contextEntries), DATA, EVENT_TIME);
+  }
+}
@@ -0,0 +1,56 @@
+package com.spotify.confidence;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Three threads offering to an {@link EventQueue} while one thread polls it, like threads emitting
+ * events to the thread batching them. Run with {@code -prof gc} to see the allocation rate of each
+ * queue. Offers to a full ring buffer and polls of an empty queue fail fast, and are counted too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class EventQueueBenchmark {
+  private static final Object EVENT = new Object();
+
+  @Param({"unbounded", "ringBuffer"})
+  public String queue;
+
+  private EventQueue<Object> eventQueue;
+
+  @Setup
+  public void setUp() {
+    eventQueue =
+        "ringBuffer".equals(queue) ? new MpscRingBuffer<>(1 << 16) : EventQueue.unbounded();
+  }
+
+  @Benchmark
+  @Group("emit")
+  @GroupThreads(3)
+  public boolean offer() {
+    return eventQueue.offer(EVENT);
+  }
+
+  @Benchmark
+  @Group("emit")
+  @GroupThreads(1)
+  public Object poll() {
+    return eventQueue.poll();
+  }
+}
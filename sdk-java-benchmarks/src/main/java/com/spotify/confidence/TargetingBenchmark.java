@@ -0,0 +1,174 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.types.v1.Expression;
+import com.spotify.confidence.shaded.flags.types.v1.Targeting;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares evaluating segment targeting with {@link TargetingMatcher}, which walks the protos, to
+ * evaluating the {@link TargetingCompiler compiled} form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TargetingBenchmark {
+  private static final Predicate<String> NO_SEGMENTS = segment -> false;
+
+  @Param({"matching", "rejected"})
+  public String context;
+
+  private Targeting targeting;
+  private TargetingCompiler.CompiledTargeting compiled;
+  private Struct evaluationContext;
+
+  @Setup
+  public void setup() {
+    targeting = targeting();
+    compiled = TargetingCompiler.compile(targeting);
+    evaluationContext =
+        Struct.newBuilder()
+            .putFields("country", Values.of("matching".equals(context) ? "SE" : "US"))
+            .putFields(
+                "app",
+                Values.of(Structs.of("version", Values.of("5.2.1"), "platform", Values.of("ios"))))
+            .putFields("age", Values.of(31))
+            .putFields(
+                "tags",
+                Values.of(
+                    ListValue.newBuilder()
+                        .addValues(Values.of("free"))
+                        .addValues(Values.of("beta"))
+                        .build()))
+            .build();
+  }
+
+  @Benchmark
+  public boolean interpreted() {
+    return TargetingMatcher.matches(targeting, evaluationContext, NO_SEGMENTS);
+  }
+
+  @Benchmark
+  public boolean compiled() {
+    return compiled.matches(evaluationContext, NO_SEGMENTS);
+  }
+
+  @Benchmark
+  public TargetingCompiler.CompiledTargeting compile() {
+    return TargetingCompiler.compile(targeting);
+  }
+
+  /** Targets nordic iOS users on a recent version who are adults or beta testers. */
+  private static Targeting targeting() {
+    final Targeting.SetRule.Builder countries = Targeting.SetRule.newBuilder();
+    for (String country :
+        List.of("SE", "NO", "DK", "FI", "IS", "EE", "LV", "LT", "DE", "NL", "BE", "FR")) {
+      countries.addValues(Targeting.Value.newBuilder().setStringValue(country));
+    }
+    return Targeting.newBuilder()
+        .putCriteria("not-excluded", segment("segments/excluded"))
+        .putCriteria(
+            "platform",
+            attribute(
+                "app.platform",
+                Targeting.Criterion.AttributeCriterion.newBuilder()
+                    .setEqRule(
+                        Targeting.EqRule.newBuilder()
+                            .setValue(Targeting.Value.newBuilder().setStringValue("ios")))))
+        .putCriteria(
+            "version",
+            attribute(
+                "app.version",
+                Targeting.Criterion.AttributeCriterion.newBuilder()
+                    .setRangeRule(
+                        Targeting.RangeRule.newBuilder()
+                            .setStartInclusive(
+                                Targeting.Value.newBuilder()
+                                    .setVersionValue(
+                                        Targeting.SemanticVersion.newBuilder()
+                                            .setVersion("5.0.0"))))))
+        .putCriteria(
+            "adult",
+            attribute(
+                "age",
+                Targeting.Criterion.AttributeCriterion.newBuilder()
+                    .setRangeRule(
+                        Targeting.RangeRule.newBuilder()
+                            .setStartInclusive(Targeting.Value.newBuilder().setNumberValue(18)))))
+        .putCriteria(
+            "beta",
+            attribute(
+                "tags",
+                Targeting.Criterion.AttributeCriterion.newBuilder()
+                    .setAnyRule(
+                        Targeting.AnyRule.newBuilder()
+                            .setRule(
+                                Targeting.InnerRule.newBuilder()
+                                    .setEqRule(
+                                        Targeting.EqRule.newBuilder()
+                                            .setValue(
+                                                Targeting.Value.newBuilder()
+                                                    .setStringValue("beta")))))))
+        .putCriteria(
+            "country",
+            attribute(
+                "country",
+                Targeting.Criterion.AttributeCriterion.newBuilder().setSetRule(countries)))
+        .setExpression(
+            and(
+                Expression.newBuilder()
+                    .setNot(Expression.newBuilder().setRef("not-excluded"))
+                    .build(),
+                or(ref("adult"), ref("beta")),
+                ref("version"),
+                ref("platform"),
+                ref("country")))
+        .build();
+  }
+
+  private static Targeting.Criterion segment(String segment) {
+    return Targeting.Criterion.newBuilder()
+        .setSegment(Targeting.Criterion.SegmentCriterion.newBuilder().setSegment(segment))
+        .build();
+  }
+
+  private static Targeting.Criterion attribute(
+      String name, Targeting.Criterion.AttributeCriterion.Builder rule) {
+    return Targeting.Criterion.newBuilder().setAttribute(rule.setAttributeName(name)).build();
+  }
+
+  private static Expression ref(String ref) {
+    return Expression.newBuilder().setRef(ref).build();
+  }
+
+  private static Expression and(Expression... operands) {
+    return Expression.newBuilder()
+        .setAnd(Expression.Operands.newBuilder().addAllOperands(List.of(operands)))
+        .build();
+  }
+
+  private static Expression or(Expression... operands) {
+    return Expression.newBuilder()
+        .setOr(Expression.Operands.newBuilder().addAllOperands(List.of(operands)))
+        .build();
+  }
+}
@@ -0,0 +1,209 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.Value;
+import com.spotify.confidence.shaded.flags.types.v1.Expression;
+import com.spotify.confidence.shaded.flags.types.v1.Targeting;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Evaluates {@link Targeting} against an evaluation context.
+ *
+ * <p>Attribute values from the context are converted to the type of the value in the rule before
+ * they are compared; a value that cannot be converted never matches. Segment criteria are delegated
+ * to the given segment predicate.
+ *
+ * <p>This is the straightforward interpreter that {@link TargetingCompiler} replaced in the SDK,
+ * kept here as the baseline of {@link TargetingBenchmark}.
+ */
+final class TargetingMatcher {
+  // returned when values can't be compared, every range check fails on it
+  private static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+  private TargetingMatcher() {}
+
+  static boolean matches(Targeting targeting, Struct context, Predicate<String> segmentMatcher) {
+    return evaluate(targeting.getExpression(), targeting, context, segmentMatcher);
+  }
+
+  private static boolean evaluate(
+      Expression expression,
+      Targeting targeting,
+      Struct context,
+      Predicate<String> segmentMatcher) {
+    switch (expression.getExpressionCase()) {
+      case REF:
+        final Targeting.Criterion criterion = targeting.getCriteriaMap().get(expression.getRef());
+        return criterion != null && matches(criterion, context, segmentMatcher);
+      case NOT:
+        return !evaluate(expression.getNot(), targeting, context, segmentMatcher);
+      case AND:
+        for (Expression operand : expression.getAnd().getOperandsList()) {
+          if (!evaluate(operand, targeting, context, segmentMatcher)) {
+            return false;
+          }
+        }
+        return true;
+      case OR:
+        for (Expression operand : expression.getOr().getOperandsList()) {
+          if (evaluate(operand, targeting, context, segmentMatcher)) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        // no expression means everyone is targeted
+        return true;
+    }
+  }
+
+  private static boolean matches(
+      Targeting.Criterion criterion, Struct context, Predicate<String> segmentMatcher) {
+    switch (criterion.getCriterionCase()) {
+      case ATTRIBUTE:
+        return matches(criterion.getAttribute(), context);
+      case SEGMENT:
+        return segmentMatcher.test(criterion.getSegment().getSegment());
+      default:
+        return false;
+    }
+  }
+
+  private static boolean matches(Targeting.Criterion.AttributeCriterion criterion, Struct context) {
+    final Value attribute = TargetingValues.getAttribute(context, criterion.getAttributeName());
+    switch (criterion.getRuleCase()) {
+      case EQ_RULE:
+        return attribute != null && equalsAny(attribute, List.of(criterion.getEqRule().getValue()));
+      case SET_RULE:
+        return attribute != null && equalsAny(attribute, criterion.getSetRule().getValuesList());
+      case RANGE_RULE:
+        return attribute != null && inRange(attribute, criterion.getRangeRule());
+      case ANY_RULE:
+        {
+          final List<Value> values = listValues(attribute);
+          for (Value value : values) {
+            if (matches(criterion.getAnyRule().getRule(), value)) {
+              return true;
+            }
+          }
+          return false;
+        }
+      case ALL_RULE:
+        {
+          final List<Value> values = listValues(attribute);
+          for (Value value : values) {
+            if (!matches(criterion.getAllRule().getRule(), value)) {
+              return false;
+            }
+          }
+          return true;
+        }
+      default:
+        return false;
+    }
+  }
+
+  private static boolean matches(Targeting.InnerRule rule, Value value) {
+    switch (rule.getRuleCase()) {
+      case EQ_RULE:
+        return equalsAny(value, List.of(rule.getEqRule().getValue()));
+      case SET_RULE:
+        return equalsAny(value, rule.getSetRule().getValuesList());
+      case RANGE_RULE:
+        return inRange(value, rule.getRangeRule());
+      default:
+        return false;
+    }
+  }
+
+  private static boolean equalsAny(Value attribute, List<Targeting.Value> expected) {
+    for (Targeting.Value value : expected) {
+      final Comparable<?> converted = TargetingValues.convert(attribute, value.getValueCase());
+      if (converted != null && compare(converted, value) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean inRange(Value attribute, Targeting.RangeRule range) {
+    switch (range.getStartCase()) {
+      case START_INCLUSIVE:
+        if (!atLeast(compareTo(attribute, range.getStartInclusive()), 0)) return false;
+        break;
+      case START_EXCLUSIVE:
+        if (!atLeast(compareTo(attribute, range.getStartExclusive()), 1)) return false;
+        break;
+      default:
+        break;
+    }
+    switch (range.getEndCase()) {
+      case END_INCLUSIVE:
+        return atMost(compareTo(attribute, range.getEndInclusive()), 0);
+      case END_EXCLUSIVE:
+        return atMost(compareTo(attribute, range.getEndExclusive()), -1);
+      default:
+        return true;
+    }
+  }
+
+  private static boolean atLeast(int comparison, int min) {
+    return comparison != INCOMPARABLE && comparison >= min;
+  }
+
+  private static boolean atMost(int comparison, int max) {
+    return comparison != INCOMPARABLE && comparison <= max;
+  }
+
+  /**
+   * Compares the attribute with a rule value, returning a value that fails every range check if the
+   * attribute cannot be compared.
+   */
+  private static int compareTo(Value attribute, Targeting.Value bound) {
+    final Comparable<?> converted = TargetingValues.convert(attribute, bound.getValueCase());
+    if (converted == null || converted instanceof Boolean || converted instanceof String) {
+      return INCOMPARABLE;
+    }
+    return compare(converted, bound);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static int compare(Comparable converted, Targeting.Value value) {
+    final Comparable<?> expected = ruleValue(value);
+    if (expected == null) {
+      return INCOMPARABLE;
+    }
+    final int result = converted.compareTo(expected);
+    return result == INCOMPARABLE ? -1 : result;
+  }
+
+  @Nullable
+  private static Comparable<?> ruleValue(Targeting.Value value) {
+    switch (value.getValueCase()) {
+      case BOOL_VALUE:
+        return value.getBoolValue();
+      case NUMBER_VALUE:
+        return value.getNumberValue();
+      case STRING_VALUE:
+        return value.getStringValue();
+      case TIMESTAMP_VALUE:
+        final Timestamp timestamp = value.getTimestampValue();
+        return Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+      case VERSION_VALUE:
+        return TargetingValues.SemanticVersion.parse(value.getVersionValue().getVersion());
+      default:
+        return null;
+    }
+  }
+
+  private static List<Value> listValues(@Nullable Value attribute) {
+    if (attribute == null || !attribute.hasListValue()) {
+      return List.of();
+    }
+    return attribute.getListValue().getValuesList();
+  }
+}
@@ -0,0 +1,333 @@
+package com.spotify.confidence;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link EventSenderEngine} that folds events with the same name, context and data into one
+ * event per window, carrying the number of events it stands for in its {@value #COUNT_FIELD} field.
+ *
+ * <p>Only events with one of the configured names are aggregated, other events are passed straight
+ * to the delegate, as are events whose data already has a {@value #COUNT_FIELD} field. Events are
+ * keyed by their name, context and data, hashed by a 64 bit fingerprint that is computed without
+ * encoding them. Once {@code maxKeys} distinct events are being aggregated, events that would add
+ * another one are passed through instead, so that no event is lost to the limit.
+ *
+ * <p>An aggregate that receives no events for a whole window is removed, and its events counted
+ * while it was being removed are sent with the next window.
+ */
+class AggregatingEventSender implements EventSenderEngine {
+  static final String COUNT_FIELD = "count";
+
+  private final EventSenderEngine delegate;
+  private final Set<String> eventNames;
+  private final int maxKeys;
+  @Nullable private final EventLimits limits;
+  private final ScheduledExecutorService scheduler;
+  private final ConcurrentHashMap<AggregateKey, Aggregate> aggregates = new ConcurrentHashMap<>();
+  // removed aggregates, which emitting threads may still have been counting events on
+  private List<Aggregate> retired = new ArrayList<>();
+  private final LongAdder aggregatedEvents = new LongAdder();
+  private final LongAdder passedThroughEvents = new LongAdder();
+  private final LongAdder sentAggregates = new LongAdder();
+  private volatile boolean closed = false;
+
+  AggregatingEventSender(
+      EventSenderEngine delegate, Set<String> eventNames, Duration window, int maxKeys) {
+    this(delegate, eventNames, window, maxKeys, null);
+  }
+
+  /**
+   * @param limits the sampling and rate limits of emitted events, which are applied here rather
+   *     than by the delegate, so that the events sent for an aggregate are never dropped
+   */
+  AggregatingEventSender(
+      EventSenderEngine delegate,
+      Set<String> eventNames,
+      Duration window,
+      int maxKeys,
+      @Nullable EventLimits limits) {
+    if (window.isNegative() || window.isZero()) {
+      throw new IllegalArgumentException("window must be positive");
+    }
+    if (maxKeys <= 0) {
+      throw new IllegalArgumentException("maxKeys must be positive");
+    }
+    this.delegate = delegate;
+    this.eventNames = Set.copyOf(eventNames);
+    this.maxKeys = maxKeys;
+    this.limits = limits;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-event-aggregator-%d")
+                .setDaemon(true)
+                .build());
+    final long windowNanos = window.toNanos();
+    scheduler.scheduleAtFixedRate(this::sendWindow, windowNanos, windowNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void emit(
+      String name, ConfidenceValue.Struct context, Optional<ConfidenceValue.Struct> data) {
+    if (limits != null && !limits.admit(name)) {
+      return;
+    }
+    if (closed || !eventNames.contains(name)) {
+      delegate.emit(name, context, data);
+      return;
+    }
+    final ConfidenceValue.Struct eventData = data.orElse(ConfidenceValue.Struct.EMPTY);
+    if (eventData.asMap().containsKey(COUNT_FIELD)) {
+      // the count of an aggregate would replace it
+      passedThroughEvents.increment();
+      delegate.emit(name, context, data);
+      return;
+    }
+    final AggregateKey key = new AggregateKey(name, context, eventData);
+    Aggregate aggregate = aggregates.get(key);
+    if (aggregate == null) {
+      if (aggregates.size() >= maxKeys) {
+        passedThroughEvents.increment();
+        delegate.emit(name, context, data);
+        return;
+      }
+      aggregate = aggregates.computeIfAbsent(key, Aggregate::new);
+    }
+    aggregate.count.increment();
+    aggregatedEvents.increment();
+  }
+
+  @Override
+  public void flush() {
+    sendWindow();
+    delegate.flush();
+  }
+
+  /** Sends one event for every aggregate that counted events since the last window. */
+  synchronized void sendWindow() {
+    final List<Aggregate> removed = retired;
+    retired = new ArrayList<>();
+    removed.forEach(aggregate -> send(aggregate, aggregate.count.sumThenReset()));
+    aggregates.forEach(
+        (key, aggregate) -> {
+          final long count = aggregate.count.sumThenReset();
+          if (count > 0) {
+            send(aggregate, count);
+          } else if (aggregates.remove(key, aggregate)) {
+            retired.add(aggregate);
+          }
+        });
+  }
+
+  private void send(Aggregate aggregate, long count) {
+    if (count == 0) {
+      return;
+    }
+    final AggregateKey key = aggregate.key;
+    final Map<String, ConfidenceValue> data = new HashMap<>(key.data.asMap());
+    data.put(
+        COUNT_FIELD,
+        count <= Integer.MAX_VALUE
+            ? ConfidenceValue.of((int) count)
+            : ConfidenceValue.of((double) count));
+    delegate.emit(key.name, key.context, Optional.of(ConfidenceValue.of(data)));
+    sentAggregates.increment();
+  }
+
+  /** The number of events folded into aggregates. */
+  long getAggregatedEventCount() {
+    return aggregatedEvents.sum();
+  }
+
+  /**
+   * The number of events passed through because there were {@code maxKeys} aggregates, or because
+   * they had a {@value #COUNT_FIELD} field.
+   */
+  long getPassedThroughEventCount() {
+    return passedThroughEvents.sum();
+  }
+
+  /** The number of aggregated events sent to the delegate. */
+  long getSentAggregateCount() {
+    return sentAggregates.sum();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // the second window sends what was counted on aggregates removed by the first
+    sendWindow();
+    sendWindow();
+    delegate.close();
+  }
+
+  /**
+   * A hash of a value that is equal for equal values, regardless of the order of struct fields. It
+   * walks the value without allocating, unlike {@link ConfidenceValue#hashCode()}.
+   */
+  static long fingerprint(ConfidenceValue value) {
+    if (value instanceof ConfidenceValue.Struct) {
+      long hash = 0;
+      for (Map.Entry<String, ConfidenceValue> field :
+          ((ConfidenceValue.Struct) value).asMap().entrySet()) {
+        // summed, so that the order of the fields doesn't matter
+        hash += mix(fingerprint(field.getKey()) * 31 + fingerprint(field.getValue()));
+      }
+      return mix(hash + 1);
+    } else if (value.isList()) {
+      long hash = 2;
+      for (ConfidenceValue element : value.asList()) {
+        hash = hash * 31 + fingerprint(element);
+      }
+      return mix(hash);
+    } else if (value.isString()) {
+      return mix(fingerprint(value.asString()) + 3);
+    } else if (value.isInteger()) {
+      return mix(value.asInteger() * 31L + 4);
+    } else if (value.isDouble()) {
+      return mix(Double.doubleToLongBits(value.asDouble()) * 31 + 5);
+    } else if (value.isBoolean()) {
+      return mix(value.asBoolean() ? 6 : 7);
+    } else if (value.isTimestamp()) {
+      return mix(value.asInstant().getEpochSecond() * 1_000_000_000L + value.asInstant().getNano());
+    } else if (value.isDate()) {
+      return mix(value.asLocalDate().toEpochDay() * 31 + 8);
+    }
+    return mix(9);
+  }
+
+  private static long fingerprint(String string) {
+    long hash = 1125899906842597L;
+    for (int i = 0; i < string.length(); i++) {
+      hash = 31 * hash + string.charAt(i);
+    }
+    return hash;
+  }
+
+  /**
+   * Whether two values are equal, comparing struct fields regardless of their order. Like {@link
+   * #fingerprint(ConfidenceValue)} it walks the values without allocating, unlike {@link
+   * ConfidenceValue#equals}, which encodes both.
+   */
+  static boolean sameValue(ConfidenceValue a, ConfidenceValue b) {
+    if (a == b) {
+      return true;
+    }
+    if (a instanceof ConfidenceValue.Struct) {
+      if (!(b instanceof ConfidenceValue.Struct)) {
+        return false;
+      }
+      final Map<String, ConfidenceValue> fields = ((ConfidenceValue.Struct) a).asMap();
+      final Map<String, ConfidenceValue> otherFields = ((ConfidenceValue.Struct) b).asMap();
+      if (fields.size() != otherFields.size()) {
+        return false;
+      }
+      for (Map.Entry<String, ConfidenceValue> field : fields.entrySet()) {
+        final ConfidenceValue other = otherFields.get(field.getKey());
+        if (other == null || !sameValue(field.getValue(), other)) {
+          return false;
+        }
+      }
+      return true;
+    } else if (a.isList()) {
+      if (!b.isList()) {
+        return false;
+      }
+      final List<ConfidenceValue> elements = a.asList();
+      final List<ConfidenceValue> otherElements = b.asList();
+      if (elements.size() != otherElements.size()) {
+        return false;
+      }
+      for (int i = 0; i < elements.size(); i++) {
+        if (!sameValue(elements.get(i), otherElements.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    } else if (a.isString()) {
+      return b.isString() && a.asString().equals(b.asString());
+    } else if (a.isInteger()) {
+      return b.isInteger() && a.asInteger() == b.asInteger();
+    } else if (a.isDouble()) {
+      return b.isDouble()
+          && Double.doubleToLongBits(a.asDouble()) == Double.doubleToLongBits(b.asDouble());
+    } else if (a.isBoolean()) {
+      return b.isBoolean() && a.asBoolean() == b.asBoolean();
+    } else if (a.isTimestamp()) {
+      return b.isTimestamp() && a.asInstant().equals(b.asInstant());
+    } else if (a.isDate()) {
+      return b.isDate() && a.asLocalDate().equals(b.asLocalDate());
+    }
+    return a.isNull() && b.isNull();
+  }
+
+  // the finalizer of MurmurHash3, which spreads every input bit over the whole hash
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static class AggregateKey {
+    private final String name;
+    private final ConfidenceValue.Struct context;
+    private final ConfidenceValue.Struct data;
+    // only speeds up lookups, distinct events may share a fingerprint
+    private final long fingerprint;
+
+    private AggregateKey(String name, ConfidenceValue.Struct context, ConfidenceValue.Struct data) {
+      this.name = name;
+      this.context = context;
+      this.data = data;
+      this.fingerprint = 31 * fingerprint(context) + fingerprint(data);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof AggregateKey)) return false;
+      final AggregateKey other = (AggregateKey) o;
+      return fingerprint == other.fingerprint
+          && name.equals(other.name)
+          && sameValue(context, other.context)
+          && sameValue(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * name.hashCode() + Long.hashCode(fingerprint);
+    }
+  }
+
+  private static class Aggregate {
+    private final AggregateKey key;
+    private final LongAdder count = new LongAdder();
+
+    private Aggregate(AggregateKey key) {
+      this.key = key;
+    }
+  }
+}
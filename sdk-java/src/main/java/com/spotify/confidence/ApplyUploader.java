@@ -0,0 +1,14 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.ByteString;
+import com.spotify.confidence.shaded.flags.resolver.v1.AppliedFlag;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+interface ApplyUploader {
+  /**
+   * Uploads the applies of flags resolved with the given resolve token. The returned future
+   * completes with {@code false} if the upload failed and should be retried.
+   */
+  CompletableFuture<Boolean> upload(ByteString resolveToken, List<AppliedFlag> flags);
+}
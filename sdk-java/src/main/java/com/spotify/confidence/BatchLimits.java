@@ -0,0 +1,93 @@
+package com.spotify.confidence;
+
+import java.time.Duration;
+
+/**
+ * The number of events, and of serialized event bytes, that make up a full batch of events.
+ *
+ * <p>Fixed limits never change. Adaptive limits aim for a target request size: they start at it,
+ * and after every upload attempt either grow by an eighth, or halve while the recent error rate or
+ * average latency of uploads is above its target. The byte limit never grows past the target
+ * request size, and the event limit never past {@code maxEvents}.
+ */
+class BatchLimits {
+  static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+  static final long MIN_ADAPTIVE_BYTES = 1024;
+  // the error rate and latency are averaged over roughly the last ten upload attempts
+  private static final double SMOOTHING = 0.2;
+  private static final double MAX_ERROR_RATE = 0.1;
+
+  private final int maxEvents;
+  private final long maxBytes;
+  private final boolean adaptive;
+  private final long targetLatencyNanos;
+  private volatile int eventsTarget;
+  private volatile long bytesTarget;
+  private double errorRate;
+  private double latencyNanos;
+
+  private BatchLimits(
+      int initialEvents, int maxEvents, long maxBytes, boolean adaptive, Duration targetLatency) {
+    if (initialEvents <= 0 || maxEvents <= 0) {
+      throw new IllegalArgumentException("maxEvents must be positive");
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    this.maxEvents = maxEvents;
+    this.maxBytes = maxBytes;
+    this.adaptive = adaptive;
+    this.targetLatencyNanos = targetLatency.toNanos();
+    this.eventsTarget = Math.min(initialEvents, maxEvents);
+    this.bytesTarget = maxBytes;
+  }
+
+  static BatchLimits fixed(int maxEvents, long maxBytes) {
+    return new BatchLimits(maxEvents, maxEvents, maxBytes, false, Duration.ZERO);
+  }
+
+  /**
+   * @param initialEvents the event limit to start at
+   * @param maxEvents the largest event limit to grow to
+   * @param targetBytes the request size to aim for, in serialized event bytes
+   * @param targetLatency the average upload latency above which batches shrink
+   */
+  static BatchLimits adaptive(
+      int initialEvents, int maxEvents, long targetBytes, Duration targetLatency) {
+    if (targetLatency.isNegative() || targetLatency.isZero()) {
+      throw new IllegalArgumentException("targetLatency must be positive");
+    }
+    return new BatchLimits(initialEvents, maxEvents, targetBytes, true, targetLatency);
+  }
+
+  /** The number of events in a full batch. */
+  int maxEvents() {
+    return eventsTarget;
+  }
+
+  /** The number of serialized event bytes in a full batch. */
+  long maxBytes() {
+    return bytesTarget;
+  }
+
+  /**
+   * Records the outcome of one upload attempt.
+   *
+   * @param latencyNanos how long the attempt took
+   * @param failed whether the attempt failed and will be retried
+   */
+  synchronized void recordUpload(long latencyNanos, boolean failed) {
+    if (!adaptive) {
+      return;
+    }
+    errorRate += ((failed ? 1 : 0) - errorRate) * SMOOTHING;
+    this.latencyNanos += (latencyNanos - this.latencyNanos) * SMOOTHING;
+    if (errorRate > MAX_ERROR_RATE || this.latencyNanos > targetLatencyNanos) {
+      eventsTarget = Math.max(1, eventsTarget / 2);
+      bytesTarget = Math.max(Math.min(MIN_ADAPTIVE_BYTES, maxBytes), bytesTarget / 2);
+    } else {
+      eventsTarget = Math.min(maxEvents, eventsTarget + Math.max(1, eventsTarget / 8));
+      bytesTarget = Math.min(maxBytes, bytesTarget + Math.max(1, maxBytes / 8));
+    }
+  }
+}
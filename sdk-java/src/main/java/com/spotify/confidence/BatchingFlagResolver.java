@@ -0,0 +1,267 @@
+package com.spotify.confidence;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Struct;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolvedFlag;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+
+/**
+ * A {@link FlagResolver} that collects single-flag resolves sharing the same evaluation context and
+ * sends them to the delegate as one multi-flag request.
+ *
+ * <p>A batch is sent once it holds {@code maxBatchSize} flags, once no new flag has joined it for
+ * {@code window}, or at the latest {@code maxWait} after its first flag was added. Resolves of an
+ * explicit list of flags are passed straight through to the delegate.
+ */
+class BatchingFlagResolver implements FlagResolver {
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(BatchingFlagResolver.class);
+
+  private final FlagResolver delegate;
+  private final long windowNanos;
+  private final long maxWaitNanos;
+  private final int maxBatchSize;
+  private final ScheduledExecutorService scheduler;
+  private final ConcurrentHashMap<BatchKey, Batch> openBatches = new ConcurrentHashMap<>();
+  private final Histogram batchSizes = new Histogram();
+  private final LongAdder batchedResolves = new LongAdder();
+  private final ConfidenceMetrics metrics;
+  private volatile boolean closed = false;
+
+  BatchingFlagResolver(FlagResolver delegate, Duration window, int maxBatchSize, Duration maxWait) {
+    this(delegate, window, maxBatchSize, maxWait, ConfidenceMetrics.NOOP);
+  }
+
+  BatchingFlagResolver(
+      FlagResolver delegate,
+      Duration window,
+      int maxBatchSize,
+      Duration maxWait,
+      ConfidenceMetrics metrics) {
+    if (window.isNegative() || window.isZero()) {
+      throw new IllegalArgumentException("window must be positive");
+    }
+    if (maxWait.compareTo(window) < 0) {
+      throw new IllegalArgumentException("maxWait must not be shorter than window");
+    }
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    }
+    this.delegate = delegate;
+    this.windowNanos = window.toNanos();
+    this.maxWaitNanos = maxWait.toNanos();
+    this.maxBatchSize = maxBatchSize;
+    this.metrics = metrics;
+    metrics.registerCounter(ConfidenceMetrics.RESOLVE_BATCHED, this::getBatchedResolveCount);
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-resolve-batcher-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  @Override
+  public CompletableFuture<ResolveFlagsResponse> resolve(
+      String flag, Struct context, Boolean isProvider) {
+    if (closed) {
+      return delegate.resolve(flag, context, isProvider);
+    }
+    final BatchKey key = new BatchKey(ResolveKey.fingerprint(context), isProvider);
+    final CompletableFuture<ResolveFlagsResponse> result = new CompletableFuture<>();
+    while (true) {
+      final Batch batch = openBatches.computeIfAbsent(key, k -> new Batch(k, context));
+      final AddResult added = batch.add(flag, result);
+      if (added == AddResult.REJECTED) {
+        // the batch was sent concurrently, start over with a fresh one
+        openBatches.remove(key, batch);
+        continue;
+      }
+      batchedResolves.increment();
+      if (added == AddResult.FULL) {
+        send(batch);
+      } else if (added == AddResult.FIRST) {
+        schedule(batch, Math.min(windowNanos, maxWaitNanos));
+      }
+      return result;
+    }
+  }
+
+  @Override
+  public CompletableFuture<ResolveFlagsResponse> resolve(
+      List<String> flags, Struct context, Boolean isProvider) {
+    return delegate.resolve(flags, context, isProvider);
+  }
+
+  Histogram getBatchSizes() {
+    return batchSizes;
+  }
+
+  long getBatchedResolveCount() {
+    return batchedResolves.sum();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    openBatches.values().forEach(this::send);
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delegate.close();
+  }
+
+  private void schedule(Batch batch, long delayNanos) {
+    try {
+      scheduler.schedule(() -> onTimer(batch), delayNanos, TimeUnit.NANOSECONDS);
+    } catch (RuntimeException e) {
+      // the scheduler is shut down, send right away instead
+      send(batch);
+    }
+  }
+
+  private void onTimer(Batch batch) {
+    final long now = System.nanoTime();
+    final long remaining = batch.remainingNanos(now, windowNanos, maxWaitNanos);
+    if (remaining > 0) {
+      schedule(batch, remaining);
+    } else {
+      send(batch);
+    }
+  }
+
+  private void send(Batch batch) {
+    final Map<String, List<CompletableFuture<ResolveFlagsResponse>>> pending = batch.seal();
+    if (pending == null) {
+      return;
+    }
+    openBatches.remove(batch.key, batch);
+    batchSizes.record(pending.size());
+    metrics.recordDistribution(ConfidenceMetrics.RESOLVE_BATCH_SIZE, pending.size());
+    final List<String> flags = new ArrayList<>(pending.keySet());
+    final CompletableFuture<ResolveFlagsResponse> call;
+    try {
+      call = delegate.resolve(flags, batch.context, batch.key.isProvider);
+    } catch (RuntimeException e) {
+      pending.values().forEach(futures -> futures.forEach(f -> f.completeExceptionally(e)));
+      return;
+    }
+    call.whenComplete(
+        (response, throwable) -> {
+          if (throwable != null) {
+            pending
+                .values()
+                .forEach(futures -> futures.forEach(f -> f.completeExceptionally(throwable)));
+            return;
+          }
+          final Map<String, ResolvedFlag> resolvedFlags = new LinkedHashMap<>();
+          response.getResolvedFlagsList().forEach(f -> resolvedFlags.put(f.getFlag(), f));
+          pending.forEach(
+              (flag, futures) -> {
+                final ResolveFlagsResponse.Builder single =
+                    ResolveFlagsResponse.newBuilder()
+                        .setResolveToken(response.getResolveToken())
+                        .setResolveId(response.getResolveId());
+                final ResolvedFlag resolvedFlag = resolvedFlags.get(flag);
+                if (resolvedFlag != null) {
+                  single.addResolvedFlags(resolvedFlag);
+                } else {
+                  log.debug("Flag {} was missing from batched resolve response", flag);
+                }
+                final ResolveFlagsResponse singleResponse = single.build();
+                futures.forEach(f -> f.complete(singleResponse));
+              });
+        });
+  }
+
+  private static class BatchKey {
+    private final ByteString contextFingerprint;
+    private final boolean isProvider;
+
+    private BatchKey(ByteString contextFingerprint, boolean isProvider) {
+      this.contextFingerprint = contextFingerprint;
+      this.isProvider = isProvider;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof BatchKey)) return false;
+      final BatchKey other = (BatchKey) o;
+      return isProvider == other.isProvider && contextFingerprint.equals(other.contextFingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(contextFingerprint, isProvider);
+    }
+  }
+
+  private class Batch {
+    private final BatchKey key;
+    private final Struct context;
+    private final Map<String, List<CompletableFuture<ResolveFlagsResponse>>> pending =
+        new LinkedHashMap<>();
+    private long firstAddedNanos;
+    private long lastAddedNanos;
+    private boolean sealed = false;
+
+    private Batch(BatchKey key, Struct context) {
+      this.key = key;
+      this.context = context;
+    }
+
+    synchronized AddResult add(String flag, CompletableFuture<ResolveFlagsResponse> future) {
+      if (sealed) {
+        return AddResult.REJECTED;
+      }
+      final long now = System.nanoTime();
+      final boolean first = pending.isEmpty();
+      if (first) {
+        firstAddedNanos = now;
+      }
+      lastAddedNanos = now;
+      pending.computeIfAbsent(flag, f -> new ArrayList<>()).add(future);
+      if (pending.size() >= maxBatchSize) {
+        return AddResult.FULL;
+      }
+      return first ? AddResult.FIRST : AddResult.ADDED;
+    }
+
+    synchronized long remainingNanos(long now, long windowNanos, long maxWaitNanos) {
+      return Math.min(lastAddedNanos + windowNanos - now, firstAddedNanos + maxWaitNanos - now);
+    }
+
+    /** Closes the batch for new flags and returns its content, or null if already sealed. */
+    synchronized Map<String, List<CompletableFuture<ResolveFlagsResponse>>> seal() {
+      if (sealed) {
+        return null;
+      }
+      sealed = true;
+      return pending;
+    }
+  }
+
+  private enum AddResult {
+    FIRST,
+    ADDED,
+    FULL,
+    REJECTED
+  }
+}
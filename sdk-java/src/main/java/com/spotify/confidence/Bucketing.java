@@ -0,0 +1,138 @@
+package com.spotify.confidence;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Assigns randomization units to buckets. The unit is salted as {@code salt|unit}, the UTF-8 bytes
+ * are hashed with 128 bit murmur3, and the lower 64 bits of the hash, shifted right by four, are
+ * taken modulo the bucket count, the same assignment as Guava's {@code murmur3_128} gives.
+ *
+ * <p>Neither this formula nor the use of the configured account as the salt has been checked
+ * against assignments made by the resolver backend, so a unit resolved in-process may land in a
+ * different bucket than it would remotely.
+ *
+ * <p>The hash is computed without allocating: the salted unit is encoded into a per-thread scratch
+ * buffer, and murmur3 is implemented here rather than through Guava's hashers, which copy the
+ * input. Unpaired surrogates are encoded as {@code '?'}, like {@link String#getBytes}.
+ */
+final class Bucketing {
+  /** The number of buckets that segment bitsets are allocated over. */
+  static final int BITSET_BUCKETS = 1_000_000;
+
+  private static final int MAX_RETAINED_SCRATCH_BYTES = 1 << 16;
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+  private static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private Bucketing() {}
+
+  /** Hashes a salted unit. The hash can be mapped to any number of buckets with {@link #bucket}. */
+  static long hash(String salt, String unit) {
+    // at most three bytes per char, a surrogate pair takes four bytes for two chars
+    final int maxBytes = 3 * (salt.length() + unit.length() + 1);
+    byte[] scratch = SCRATCH.get();
+    if (scratch.length < maxBytes) {
+      scratch = new byte[Math.max(maxBytes, 2 * scratch.length)];
+      if (scratch.length <= MAX_RETAINED_SCRATCH_BYTES) {
+        SCRATCH.set(scratch);
+      }
+    }
+    int length = encode(salt, scratch, 0);
+    scratch[length++] = '|';
+    length = encode(unit, scratch, length);
+    return murmur3Lower64(scratch, length);
+  }
+
+  static int bucket(long hash, int bucketCount) {
+    return (int) Long.remainderUnsigned(hash >>> 4, bucketCount);
+  }
+
+  static int bucket(String salt, String unit, int bucketCount) {
+    return bucket(hash(salt, unit), bucketCount);
+  }
+
+  /** Encodes a string as UTF-8 into a buffer with enough room, returning the end offset. */
+  private static int encode(String value, byte[] output, int offset) {
+    int position = offset;
+    final int length = value.length();
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        output[position++] = (byte) c;
+      } else if (c < 0x800) {
+        output[position++] = (byte) (0xC0 | (c >>> 6));
+        output[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (!Character.isSurrogate(c)) {
+        output[position++] = (byte) (0xE0 | (c >>> 12));
+        output[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+        output[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        output[position++] = (byte) (0xF0 | (codePoint >>> 18));
+        output[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+        output[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+        output[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        output[position++] = '?';
+      }
+    }
+    return position;
+  }
+
+  /** The lower 64 bits of the 128 bit x64 murmur3 hash, with seed 0, of the first bytes. */
+  static long murmur3Lower64(byte[] bytes, int length) {
+    long h1 = 0;
+    long h2 = 0;
+    int offset = 0;
+    for (; offset + 16 <= length; offset += 16) {
+      h1 ^= mixK1((long) LONGS.get(bytes, offset));
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2((long) LONGS.get(bytes, offset + 8));
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    final int remaining = length - offset;
+    long k1 = 0;
+    long k2 = 0;
+    for (int i = remaining - 1; i >= 8; i--) {
+      k2 ^= (bytes[offset + i] & 0xFFL) << ((i - 8) * 8);
+    }
+    for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+      k1 ^= (bytes[offset + i] & 0xFFL) << (i * 8);
+    }
+    h1 ^= mixK1(k1);
+    h2 ^= mixK2(k2);
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    return h1 + h2;
+  }
+
+  private static long mixK1(long k1) {
+    return Long.rotateLeft(k1 * C1, 31) * C2;
+  }
+
+  private static long mixK2(long k2) {
+    return Long.rotateLeft(k2 * C2, 33) * C1;
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -7,7 +7,10 @@ import java.util.function.Supplier;
 interface Clock extends Supplier<Instant> {
 
   default Timestamp getTimestamp() {
-    final Instant time = get();
+    return timestampOf(get());
+  }
+
+  static Timestamp timestampOf(Instant time) {
     return Timestamp.newBuilder()
         .setSeconds(time.getEpochSecond())
         .setNanos(time.getNano())
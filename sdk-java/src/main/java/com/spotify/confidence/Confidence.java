@@ -10,6 +10,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closer;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
 import com.spotify.confidence.Exceptions.IllegalValueType;
@@ -23,15 +24,22 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collector;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -178,6 +186,7 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
                           ResolveReason.RESOLVE_REASON_ERROR, ErrorType.INTERNAL_ERROR);
                   return evaluation;
                 }
+                client().applyFlag(requestFlagName, response.getResolveToken());
                 if (resolvedFlag.getVariant().isEmpty()) {
                   final String errorMessage =
                       String.format(
@@ -264,6 +273,55 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
     return client().resolveFlags(flagName, getContext());
   }
 
+  /**
+   * Resolves the given flags for the current context in a single request and returns a child
+   * instance that serves evaluations of those flags from the resolved snapshot, without further
+   * network calls. Passing no flag names resolves all flags enabled for the client.
+   *
+   * <p>The child instance holds a copy of the current context, which its own context overrides like
+   * that of any child instance. Changing the context of the child discards the snapshot, after
+   * which evaluations are resolved remotely again. Evaluating a flag that was not part of an
+   * explicit prefetch list is also resolved remotely.
+   *
+   * <p>Requires {@link Builder#deferredApply}, so that only the flags that are read from the
+   * snapshot are applied, rather than every flag it holds.
+   *
+   * @param flagNames the names of the flags to resolve, without the {@code flags/} prefix
+   * @return a future that completes with the child instance once the snapshot is resolved
+   * @throws IllegalStateException if flags are not applied when read
+   */
+  public CompletableFuture<Confidence> prefetch(String... flagNames) {
+    if (!client().appliesWhenRead()) {
+      throw new IllegalStateException("prefetch requires deferredApply");
+    }
+    final List<String> requestFlagNames =
+        Arrays.stream(flagNames).map(name -> "flags/" + name).collect(Collectors.toList());
+    final ConfidenceValue.Struct context = getContext();
+    return client()
+        .resolveFlags(requestFlagNames, context)
+        .thenApply(response -> new SnapshotInstance(this, context, requestFlagNames, response));
+  }
+
+  /**
+   * Blocking variant of {@link #prefetch(String...)}. If the snapshot cannot be resolved, the
+   * returned child instance falls back to resolving each evaluation remotely.
+   *
+   * @param flagNames the names of the flags to resolve, without the {@code flags/} prefix
+   * @return a child instance serving evaluations from the resolved snapshot
+   * @throws IllegalStateException if flags are not applied when read
+   */
+  public Confidence withResolvedSnapshot(String... flagNames) {
+    try {
+      return prefetch(flagNames).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Interrupted while resolving flag snapshot", e);
+    } catch (ExecutionException e) {
+      log.warn("Failed to resolve flag snapshot, falling back to remote resolves", e.getCause());
+    }
+    return withContext(getContext());
+  }
+
   @VisibleForTesting
   static Confidence create(
       EventSenderEngine eventSenderEngine,
@@ -326,6 +384,22 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
       return flagResolverClient.resolveFlags(flag, context);
     }
 
+    @Override
+    public CompletableFuture<ResolveFlagsResponse> resolveFlags(
+        List<String> flags, ConfidenceValue.Struct context) {
+      return flagResolverClient.resolveFlags(flags, context);
+    }
+
+    @Override
+    public void applyFlag(String flag, ByteString resolveToken) {
+      flagResolverClient.applyFlag(flag, resolveToken);
+    }
+
+    @Override
+    public boolean appliesWhenRead() {
+      return flagResolverClient.appliesWhenRead();
+    }
+
     void trackEvaluation(ResolveReason resolveReason, @Nullable ErrorType errorType) {
       if (telemetry != null) {
         telemetry.appendEvaluation(
@@ -374,6 +448,85 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
     }
   }
 
+  private static class SnapshotInstance extends ChildInstance {
+
+    // the context of the parent when the snapshot was resolved, overridden by the own context
+    private final Map<String, ConfidenceValue> inheritedContext;
+    private final boolean coversAllFlags;
+    @Nullable private Map<String, ResolveFlagsResponse> snapshot;
+
+    private SnapshotInstance(
+        Confidence parent,
+        ConfidenceValue.Struct context,
+        List<String> requestedFlags,
+        ResolveFlagsResponse response) {
+      super(parent);
+      this.inheritedContext = context.asMap();
+      this.coversAllFlags = requestedFlags.isEmpty();
+      // split the response per flag up front so that evaluations don't allocate
+      final Map<String, ResolveFlagsResponse> snapshot = Maps.newHashMap();
+      for (ResolvedFlag resolvedFlag : response.getResolvedFlagsList()) {
+        snapshot.put(
+            resolvedFlag.getFlag(),
+            ResolveFlagsResponse.newBuilder()
+                .addResolvedFlags(resolvedFlag)
+                .setResolveToken(response.getResolveToken())
+                .setResolveId(response.getResolveId())
+                .build());
+      }
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    protected Stream<Map.Entry<String, ConfidenceValue>> contextEntries() {
+      final Set<String> ownKeys = context.keySet();
+      return Stream.concat(
+          inheritedContext.entrySet().stream().filter(entry -> !ownKeys.contains(entry.getKey())),
+          context.entrySet().stream().filter(entry -> !entry.getValue().isNull()));
+    }
+
+    @Override
+    CompletableFuture<ResolveFlagsResponse> resolveFlags(String flagName) {
+      final Map<String, ResolveFlagsResponse> snapshot = this.snapshot;
+      if (snapshot != null) {
+        final ResolveFlagsResponse response = snapshot.get(flagName);
+        if (response != null) {
+          return CompletableFuture.completedFuture(response);
+        }
+        if (coversAllFlags) {
+          // client() throws if this instance has been closed
+          client();
+          return CompletableFuture.completedFuture(ResolveFlagsResponse.getDefaultInstance());
+        }
+      }
+      return super.resolveFlags(flagName);
+    }
+
+    @Override
+    public void setContext(ConfidenceValue.Struct context) {
+      snapshot = null;
+      super.setContext(context);
+    }
+
+    @Override
+    public void updateContextEntry(String key, ConfidenceValue value) {
+      snapshot = null;
+      super.updateContextEntry(key, value);
+    }
+
+    @Override
+    public void removeContextEntry(String key) {
+      snapshot = null;
+      super.removeContextEntry(key);
+    }
+
+    @Override
+    public void clearContext() {
+      snapshot = null;
+      super.clearContext();
+    }
+  }
+
   private static class RootInstance extends Confidence {
     @Nullable private ClientDelegate client;
 
@@ -412,9 +565,37 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
             .build();
     private ManagedChannel flagResolverManagedChannel = DEFAULT_CHANNEL;
     private boolean disableTelemetry = false;
+    private Duration telemetryInterval = TelemetryClientInterceptor.DEFAULT_ENCODE_INTERVAL;
+    private ConfidenceMetrics metrics = ConfidenceMetrics.NOOP;
     private boolean isProvider = false;
     private int resolveDeadlineMs = 10_000;
     private int eventSenderDeadlineMs = 5_000;
+    @Nullable private Duration resolveCacheTtl;
+    private int resolveCacheMaxEntries;
+    private long resolveCacheMaxBytes;
+    private boolean coalesceResolves = false;
+    @Nullable private Duration resolveBatchWindow;
+    private int resolveBatchMaxSize;
+    @Nullable private Duration resolveBatchMaxWait;
+    private boolean deferredApply = false;
+    private int eventQueueCapacity;
+    private BatchLimits eventBatchLimits =
+        BatchLimits.fixed(EventSenderEngineImpl.DEFAULT_BATCH_SIZE, BatchLimits.DEFAULT_MAX_BYTES);
+    private WaitStrategy eventWaitStrategy = WaitStrategy.PARK;
+    private int maxInFlightEventUploads = EventSenderEngineImpl.DEFAULT_MAX_IN_FLIGHT_UPLOADS;
+    @Nullable private Path eventSpillDirectory;
+    private final Map<String, EventLimits.Limit> eventLimits = new HashMap<>();
+    private Set<String> aggregatedEventNames = Set.of();
+    @Nullable private Duration eventAggregationWindow;
+    private int eventAggregationMaxKeys;
+    private long eventSpillHighWaterMark;
+    private long eventSpillMaxBytes;
+    @Nullable private Path localResolverStateFile;
+    @Nullable private ResolverStateSource localResolverStateSource;
+    private Duration localResolverRefreshInterval = ResolverStateRefresher.DEFAULT_INTERVAL;
+    @Nullable private Path localResolverSnapshotFile;
+    @Nullable private ManagedChannel flagLogsManagedChannel;
+    private String localResolverAccount = "";
 
     public Builder(@Nonnull String clientSecret) {
       this.clientSecret = clientSecret;
@@ -431,6 +612,293 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
       return this;
     }
 
+    /**
+     * Enables caching of resolve responses per flag and evaluation context.
+     *
+     * <p>Cached responses are served without a network call until they expire. Once the cache holds
+     * more than {@code maxEntries} responses, or more than {@code maxBytes} bytes, the least
+     * recently used responses are evicted.
+     *
+     * <p>Requires {@link #deferredApply}, so that flags served from the cache are still applied
+     * when they are read.
+     *
+     * @param ttl how long a resolved flag is served from the cache
+     * @param maxEntries the maximum number of cached responses
+     * @param maxBytes the maximum estimated size in bytes of all cached responses
+     * @return this builder
+     */
+    public Builder resolveCache(Duration ttl, int maxEntries, long maxBytes) {
+      this.resolveCacheTtl = ttl;
+      this.resolveCacheMaxEntries = maxEntries;
+      this.resolveCacheMaxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Lets concurrent resolves of the same flag with an identical context share a single network
+     * call.
+     *
+     * @param coalesceResolves whether identical concurrent resolves should be coalesced
+     * @return this builder
+     */
+    public Builder coalesceResolves(boolean coalesceResolves) {
+      this.coalesceResolves = coalesceResolves;
+      return this;
+    }
+
+    /**
+     * Collects resolves of different flags that share the same context and sends them as one
+     * request.
+     *
+     * <p>A batch is sent once it holds {@code maxBatchSize} flags, once no new flag has joined it
+     * for {@code window}, or at the latest {@code maxWait} after the first flag joined it.
+     *
+     * @param window how long a batch waits for more flags to join
+     * @param maxBatchSize the maximum number of flags in one request
+     * @param maxWait the maximum time a resolve is held back
+     * @return this builder
+     */
+    public Builder resolveBatching(Duration window, int maxBatchSize, Duration maxWait) {
+      this.resolveBatchWindow = window;
+      this.resolveBatchMaxSize = maxBatchSize;
+      this.resolveBatchMaxWait = maxWait;
+      return this;
+    }
+
+    /**
+     * Resolves flags without applying them, and applies each flag once its value is read instead.
+     *
+     * <p>Applies are sent in the background, in batches grouped by resolve token. This keeps
+     * prefetched and cached resolves from being counted as exposures for flags that are never read.
+     * Can't be combined with resolving flags in-process, whose flags are applied by {@link
+     * #localResolverFlagLogs}.
+     *
+     * @param deferredApply whether flags should be applied when read rather than when resolved
+     * @return this builder
+     */
+    public Builder deferredApply(boolean deferredApply) {
+      this.deferredApply = deferredApply;
+      return this;
+    }
+
+    /**
+     * Sends tracked events in requests of at most {@code maxEvents} events, and at most {@code
+     * maxBytes} bytes of serialized events. A single event larger than {@code maxBytes} is sent on
+     * its own. Defaults to 25 events and 1 MiB.
+     *
+     * @param maxEvents the maximum number of events in one request
+     * @param maxBytes the maximum size of the events in one request
+     * @return this builder
+     */
+    public Builder eventBatching(int maxEvents, long maxBytes) {
+      this.eventBatchLimits = BatchLimits.fixed(maxEvents, maxBytes);
+      return this;
+    }
+
+    /**
+     * Adapts the size of the requests sending tracked events to how the events backend responds.
+     *
+     * <p>Requests grow towards {@code targetBytes} of serialized events, and at most {@code
+     * maxEvents} events, while uploads succeed within {@code targetLatency} on average. They shrink
+     * while uploads fail or are slower than that.
+     *
+     * @param targetBytes the size of the events in one request to aim for
+     * @param maxEvents the maximum number of events in one request
+     * @param targetLatency the average upload latency above which requests shrink
+     * @return this builder
+     */
+    public Builder adaptiveEventBatching(long targetBytes, int maxEvents, Duration targetLatency) {
+      this.eventBatchLimits =
+          BatchLimits.adaptive(
+              Math.min(EventSenderEngineImpl.DEFAULT_BATCH_SIZE, maxEvents),
+              maxEvents,
+              targetBytes,
+              targetLatency);
+      return this;
+    }
+
+    /**
+     * Limits how many batches of tracked events are uploaded concurrently, including batches that
+     * wait to be retried. Once every upload is in flight, new events stay queued until one
+     * completes. Defaults to 4.
+     *
+     * @param maxInFlightUploads the maximum number of batches uploaded at the same time
+     * @return this builder
+     */
+    public Builder eventUploadConcurrency(int maxInFlightUploads) {
+      this.maxInFlightEventUploads = maxInFlightUploads;
+      return this;
+    }
+
+    /**
+     * Writes tracked events to disk instead of dropping them when the events backend can't keep up,
+     * and keeps the events still pending on close there too.
+     *
+     * <p>Once queued and in-flight events take up more than {@code highWaterMarkBytes} of memory,
+     * new events are appended to files in {@code directory}. They are read back and sent once
+     * memory use has dropped to half of that, including by the next process started with the same
+     * directory. Events are dropped when the files would exceed {@code maxBytes}.
+     *
+     * @param directory the directory to write events to, used by one process at a time
+     * @param highWaterMarkBytes the memory use above which events are written to disk
+     * @param maxBytes the maximum size of the files in the directory
+     * @return this builder
+     */
+    public Builder eventSpill(Path directory, long highWaterMarkBytes, long maxBytes) {
+      this.eventSpillDirectory = directory;
+      this.eventSpillHighWaterMark = highWaterMarkBytes;
+      this.eventSpillMaxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Sends only a share of the events with the given name, picked at random. Sampled out events
+     * are dropped before anything is built for them.
+     *
+     * @param eventName the name of the events to sample
+     * @param sampleRate the share of events to send, from 0 to 1
+     * @return this builder
+     */
+    public Builder eventSampling(String eventName, double sampleRate) {
+      eventLimits.put(
+          eventName,
+          eventLimits.getOrDefault(eventName, EventLimits.Limit.NONE).withSampleRate(sampleRate));
+      return this;
+    }
+
+    /**
+     * Limits how many events with the given name are sent, dropping the events above the limit.
+     *
+     * <p>After a quiet period up to {@code burst} events are sent at once, and after that at most
+     * {@code eventsPerSecond} on average. Applies to the events kept by {@link #eventSampling}.
+     * Events counted by {@link #eventAggregation} are limited before they are counted.
+     *
+     * @param eventName the name of the events to limit
+     * @param eventsPerSecond the sustained rate of events to send
+     * @param burst the number of events that may be sent at once
+     * @return this builder
+     */
+    public Builder eventRateLimit(String eventName, double eventsPerSecond, int burst) {
+      eventLimits.put(
+          eventName,
+          eventLimits
+              .getOrDefault(eventName, EventLimits.Limit.NONE)
+              .withRateLimit(eventsPerSecond, burst));
+      return this;
+    }
+
+    /**
+     * Counts repeated events instead of sending each of them, for events tracked so often that only
+     * their number matters.
+     *
+     * <p>Events with one of the given names and the same context and data are folded into one event
+     * per {@code window}, whose {@code count} field holds the number of events it stands for. Up to
+     * {@code maxKeys} distinct events are counted at a time, further ones are sent as they are.
+     * {@link #eventSampling} and {@link #eventRateLimit} apply to the events before they are
+     * counted, never to the events sent with their count.
+     *
+     * @param eventNames the names of the events to count
+     * @param window how long events are counted before they are sent
+     * @param maxKeys the maximum number of distinct events counted at a time
+     * @return this builder
+     */
+    public Builder eventAggregation(Set<String> eventNames, Duration window, int maxKeys) {
+      this.aggregatedEventNames = Set.copyOf(eventNames);
+      this.eventAggregationWindow = window;
+      this.eventAggregationMaxKeys = maxKeys;
+      return this;
+    }
+
+    /**
+     * Queues tracked events in a preallocated ring buffer instead of an unbounded queue.
+     *
+     * <p>Emitting an event then neither allocates a queue node nor blocks, and the thread sending
+     * events is only woken up once a full batch is queued. Events emitted while the buffer is full
+     * are dropped.
+     *
+     * @param capacity the maximum number of queued events, rounded up to a power of two
+     * @param waitStrategy how the thread sending events waits for new ones
+     * @return this builder
+     */
+    public Builder eventQueue(int capacity, WaitStrategy waitStrategy) {
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("capacity must be positive");
+      }
+      this.eventQueueCapacity = capacity;
+      this.eventWaitStrategy = waitStrategy;
+      return this;
+    }
+
+    /**
+     * Resolves flags in-process from a resolver state file instead of calling the resolver API.
+     *
+     * <p>The file holds a serialized {@code ResolverState}, or its JSON representation if the file
+     * name ends with {@code .json}. Flags resolved locally are only applied with {@link
+     * #localResolverFlagLogs}. Can't be combined with {@link #localResolverStateSource}.
+     *
+     * <p>Units are bucketed in-process, which is not verified to agree with the resolver API, so a
+     * unit may be assigned a different variant than a remote resolve would assign it.
+     *
+     * @param stateFile the file to load the resolver state from
+     * @param account the account the state belongs to, used to salt bucketing
+     * @return this builder
+     */
+    public Builder localResolverState(Path stateFile, String account) {
+      this.localResolverStateFile = stateFile;
+      this.localResolverAccount = account;
+      return this;
+    }
+
+    /**
+     * Resolves flags in-process from a resolver state that is fetched from a source in the
+     * background, instead of calling the resolver API.
+     *
+     * <p>The state is fetched every {@code refreshInterval}, give or take a random jitter, and
+     * replaced without blocking resolves. Until the first state has been fetched, resolves fail and
+     * evaluations fall back to their default values, see {@link #localResolverSnapshot}. Flags
+     * resolved locally are only applied with {@link #localResolverFlagLogs}, and their assignments
+     * may differ from remote ones, like those of {@link #localResolverState}.
+     *
+     * @param source where to fetch the resolver state from
+     * @param account the account the state belongs to, used to salt bucketing. States of another
+     *     account, as reported by {@link ResolverStateSource#account()}, are rejected
+     * @param refreshInterval how often the state is fetched
+     * @return this builder
+     */
+    public Builder localResolverStateSource(
+        ResolverStateSource source, String account, Duration refreshInterval) {
+      this.localResolverStateSource = source;
+      this.localResolverAccount = account;
+      this.localResolverRefreshInterval = refreshInterval;
+      return this;
+    }
+
+    /**
+     * Keeps a snapshot of the last fetched resolver state in a file, and resolves from it on
+     * startup until a fresh state has been fetched. Only used with {@link
+     * #localResolverStateSource}.
+     *
+     * @param snapshotFile the file to keep the snapshot in
+     * @return this builder
+     */
+    public Builder localResolverSnapshot(Path snapshotFile) {
+      this.localResolverSnapshotFile = snapshotFile;
+      return this;
+    }
+
+    /**
+     * Logs flags resolved in-process as assigned, by writing them to the Confidence flag logger
+     * service in batches. Without this, flags resolved locally are never applied.
+     *
+     * @param managedChannel the channel to the flag logger service, carrying the credentials of the
+     *     account
+     * @return this builder
+     */
+    public Builder localResolverFlagLogs(ManagedChannel managedChannel) {
+      this.flagLogsManagedChannel = managedChannel;
+      return this;
+    }
+
     public Builder flagResolverManagedChannel(String host, int port) {
       this.flagResolverManagedChannel =
           ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
@@ -448,25 +916,160 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
       return this;
     }
 
+    /**
+     * Sets how often the telemetry sent with resolve requests is encoded, on a background thread.
+     * Telemetry is also encoded early once enough of it has been recorded.
+     *
+     * @param telemetryInterval the interval between encodings of the telemetry header
+     * @return this builder
+     */
+    public Builder telemetryInterval(Duration telemetryInterval) {
+      this.telemetryInterval = telemetryInterval;
+      return this;
+    }
+
+    /**
+     * Exports metrics about resolves and events, like resolve latencies, cache hits, the size of
+     * the event queue and dropped events. Flag evaluations are recorded along with the telemetry,
+     * so not while it is disabled. No metrics are recorded by default.
+     *
+     * @param metrics receives the metrics, for example an adapter to Micrometer or OpenTelemetry
+     * @return this builder
+     */
+    public Builder metrics(ConfidenceMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
     Confidence buildForProvider() {
       this.isProvider = true;
       return build();
     }
 
     public Confidence build() {
+      validate();
       final FlagResolverClient flagResolverClient;
-      final Telemetry telemetry = disableTelemetry ? null : new Telemetry(isProvider);
+      final Telemetry telemetry = disableTelemetry ? null : new Telemetry(isProvider, metrics);
       final TelemetryClientInterceptor telemetryInterceptor =
-          new TelemetryClientInterceptor(telemetry);
-      final GrpcFlagResolver flagResolver =
-          new GrpcFlagResolver(
-              clientSecret, flagResolverManagedChannel, telemetryInterceptor, resolveDeadlineMs);
+          new TelemetryClientInterceptor(telemetry, telemetryInterval);
+      closer.register(telemetryInterceptor);
+      final FlagResolver baseFlagResolver;
+      final boolean resolveLocally =
+          localResolverStateFile != null || localResolverStateSource != null;
+      final FlagLogWriter flagLogs =
+          resolveLocally && flagLogsManagedChannel != null
+              ? new FlagLogWriter(
+                  new GrpcFlagLogUploader(flagLogsManagedChannel, eventSenderDeadlineMs))
+              : null;
+      if (flagLogs != null) {
+        closer.register(flagLogs);
+      }
+      if (localResolverStateSource != null) {
+        final ResolverStateRefresher refresher =
+            new ResolverStateRefresher(
+                localResolverStateSource,
+                localResolverAccount,
+                Instant::now,
+                localResolverRefreshInterval,
+                ResolverStateRefresher.DEFAULT_JITTER,
+                localResolverSnapshotFile,
+                ResolverStateRefresher.DEFAULT_MAX_SNAPSHOT_AGE,
+                metrics);
+        closer.register(refresher);
+        refresher.start();
+        baseFlagResolver = new LocalFlagResolver(refresher, clientSecret, flagLogs, Instant::now);
+      } else if (localResolverStateFile != null) {
+        try {
+          final LocalResolverState state =
+              LocalResolverState.fromFile(localResolverStateFile, localResolverAccount);
+          baseFlagResolver =
+              new LocalFlagResolver(() -> state, clientSecret, flagLogs, Instant::now);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Failed to load resolver state", e);
+        }
+      } else {
+        baseFlagResolver =
+            new GrpcFlagResolver(
+                clientSecret,
+                flagResolverManagedChannel,
+                telemetryInterceptor,
+                resolveDeadlineMs,
+                !deferredApply);
+      }
+      final FlagResolver flagResolver =
+          resolveBatchWindow == null
+              ? baseFlagResolver
+              : new BatchingFlagResolver(
+                  baseFlagResolver,
+                  resolveBatchWindow,
+                  resolveBatchMaxSize,
+                  resolveBatchMaxWait,
+                  metrics);
 
-      flagResolverClient = new FlagResolverClientImpl(flagResolver, telemetry);
+      final ResolveCache resolveCache =
+          resolveCacheTtl == null
+              ? null
+              : new ResolveCache(
+                  Instant::now, resolveCacheTtl, resolveCacheMaxEntries, resolveCacheMaxBytes);
 
-      final EventSenderEngine eventSenderEngine =
+      flagResolverClient =
+          new FlagResolverClientImpl(
+              flagResolver,
+              telemetry,
+              resolveCache,
+              coalesceResolves ? new InFlightResolves() : null,
+              deferredApply
+                  ? new FlagApplier(
+                      new GrpcApplyUploader(
+                          clientSecret,
+                          Instant::now,
+                          flagResolverManagedChannel,
+                          resolveDeadlineMs,
+                          isProvider),
+                      Instant::now)
+                  : null,
+              metrics);
+
+      final EventSpill eventSpill;
+      try {
+        eventSpill =
+            eventSpillDirectory == null
+                ? null
+                : new EventSpill(
+                    eventSpillDirectory,
+                    eventSpillHighWaterMark,
+                    eventSpillMaxBytes,
+                    Math.min(EventSpill.DEFAULT_SEGMENT_BYTES, eventSpillMaxBytes));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to open the event spill directory", e);
+      }
+      final EventLimits limits =
+          eventLimits.isEmpty() ? null : new EventLimits(eventLimits, metrics);
+      final EventSenderEngine engine =
           new EventSenderEngineImpl(
-              clientSecret, DEFAULT_CHANNEL, Instant::now, eventSenderDeadlineMs);
+              clientSecret,
+              DEFAULT_CHANNEL,
+              Instant::now,
+              eventSenderDeadlineMs,
+              eventBatchLimits,
+              eventQueueCapacity > 0
+                  ? new MpscRingBuffer<>(eventQueueCapacity)
+                  : EventQueue.unbounded(),
+              eventWaitStrategy,
+              maxInFlightEventUploads,
+              eventSpill,
+              aggregatedEventNames.isEmpty() ? limits : null,
+              metrics);
+      // limits are applied before aggregation, so that counts aren't sampled out
+      final EventSenderEngine eventSenderEngine =
+          aggregatedEventNames.isEmpty()
+              ? engine
+              : new AggregatingEventSender(
+                  engine,
+                  aggregatedEventNames,
+                  eventAggregationWindow,
+                  eventAggregationMaxKeys,
+                  limits);
       closer.register(flagResolverClient);
       closer.register(eventSenderEngine);
       return new RootInstance(
@@ -474,6 +1077,28 @@ public abstract class Confidence implements FlagEvaluator, EventSender, Closeabl
               closer, flagResolverClient, eventSenderEngine, clientSecret, telemetry));
     }
 
+    private void validate() {
+      final boolean resolveLocally =
+          localResolverStateFile != null || localResolverStateSource != null;
+      if (localResolverStateFile != null && localResolverStateSource != null) {
+        throw new IllegalStateException(
+            "localResolverState and localResolverStateSource can't be combined");
+      }
+      if (localResolverSnapshotFile != null && localResolverStateSource == null) {
+        throw new IllegalStateException("localResolverSnapshot requires localResolverStateSource");
+      }
+      if (flagLogsManagedChannel != null && !resolveLocally) {
+        throw new IllegalStateException("localResolverFlagLogs requires a local resolver state");
+      }
+      if (deferredApply && resolveLocally) {
+        throw new IllegalStateException(
+            "deferredApply can't be combined with a local resolver state");
+      }
+      if (resolveCacheTtl != null && !deferredApply) {
+        throw new IllegalStateException("resolveCache requires deferredApply");
+      }
+    }
+
     private void registerChannelForShutdown(ManagedChannel channel) {
       this.closer.register(
           () -> {
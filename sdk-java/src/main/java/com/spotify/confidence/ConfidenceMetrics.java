@@ -0,0 +1,142 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.Beta;
+import java.util.function.LongSupplier;
+
+/**
+ * Receives metrics about resolves and events from the SDK, to export them to a metrics system, see
+ * {@link Confidence.Builder#metrics}. Adapters for Micrometer and OpenTelemetry are published as
+ * separate modules.
+ *
+ * <p>Every method has an empty default, so an implementation only overrides what it exports, and
+ * the SDK records nothing beyond what it keeps track of anyway when metrics are not configured.
+ *
+ * <p>Values the SDK already counts, like queue sizes and cache hits, are registered once as
+ * callbacks, which a metrics system reads whenever it collects. Only outcomes without a count of
+ * their own, like the latency of each resolve, are recorded as they happen, from the threads of the
+ * SDK, so implementations must be thread-safe and should not block.
+ */
+@Beta
+public interface ConfidenceMetrics {
+  /** Records nothing. */
+  ConfidenceMetrics NOOP = new ConfidenceMetrics() {};
+
+  // gauges, the current value
+  String EVENT_QUEUE_SIZE = "confidence.events.queue.size";
+  String EVENT_MEMORY_BYTES = "confidence.events.memory.bytes";
+  String EVENT_UPLOADS_IN_FLIGHT = "confidence.events.uploads.in_flight";
+  // 0 while closed, 1 while open and 2 while half-open
+  String EVENT_CIRCUIT_BREAKER_STATE = "confidence.events.circuit_breaker.state";
+  String EVENT_BATCH_SIZE_TARGET = "confidence.events.batch.size.target";
+  String EVENT_BATCH_BYTES_TARGET = "confidence.events.batch.bytes.target";
+  // -1 until a state is loaded
+  String RESOLVER_STATE_AGE_MILLIS = "confidence.resolver.state.age.millis";
+
+  // counters, the total since the SDK was created
+  String RESOLVE_CACHE_HITS = "confidence.resolve.cache.hits";
+  String RESOLVE_CACHE_MISSES = "confidence.resolve.cache.misses";
+  String RESOLVE_CACHE_EVICTIONS = "confidence.resolve.cache.evictions";
+  String RESOLVE_COALESCED = "confidence.resolve.coalesced";
+  String RESOLVE_BATCHED = "confidence.resolve.batched";
+  String EVENTS_RETRIED = "confidence.events.retried";
+  String EVENTS_ABANDONED = "confidence.events.abandoned";
+  String EVENTS_SPILLED = "confidence.events.spilled";
+  String EVENTS_REPLAYED = "confidence.events.replayed";
+  String EVENT_CIRCUIT_BREAKER_OPENED = "confidence.events.circuit_breaker.opened";
+  String EVENT_CIRCUIT_BREAKER_CLOSED_MILLIS = "confidence.events.circuit_breaker.closed.millis";
+  String EVENT_CIRCUIT_BREAKER_OPEN_MILLIS = "confidence.events.circuit_breaker.open.millis";
+  String EVENT_CIRCUIT_BREAKER_HALF_OPEN_MILLIS =
+      "confidence.events.circuit_breaker.half_open.millis";
+  String RESOLVER_STATE_PUBLISHED = "confidence.resolver.state.published";
+  String RESOLVER_STATE_UNCHANGED = "confidence.resolver.state.unchanged";
+  String RESOLVER_STATE_FAILURES = "confidence.resolver.state.failures";
+
+  // distributions, recorded per value
+  String RESOLVE_BATCH_SIZE = "confidence.resolve.batch.size";
+  String RESOLVER_STATE_COMPILE_MICROS = "confidence.resolver.state.compile.micros";
+
+  // reasons for dropping an event
+  String DROPPED_CLOSED = "closed";
+  // recorded with the name of the event
+  String DROPPED_SAMPLED = "sampled";
+  String DROPPED_RATE_LIMITED = "rate_limited";
+  String DROPPED_OVERLOADED = "overloaded";
+  String DROPPED_QUEUE_FULL = "queue_full";
+  String DROPPED_SPILL_FULL = "spill_full";
+
+  /**
+   * Registers a value that goes up and down, like the size of a queue.
+   *
+   * @param name one of the gauge names of this interface
+   * @param value reads the current value
+   */
+  default void registerGauge(String name, LongSupplier value) {}
+
+  /**
+   * Registers a count that only goes up.
+   *
+   * @param name one of the counter names of this interface
+   * @param total reads the total count so far
+   */
+  default void registerCounter(String name, LongSupplier total) {}
+
+  /**
+   * Records a value of a distribution, like the number of flags in a batched resolve.
+   *
+   * @param name one of the distribution names of this interface
+   * @param value the value to record
+   */
+  default void recordDistribution(String name, long value) {}
+
+  /**
+   * Records a resolve request to the backend.
+   *
+   * @param latencyNanos how long the request took
+   * @param failed whether the request failed
+   */
+  default void recordResolve(long latencyNanos, boolean failed) {}
+
+  /**
+   * Records the evaluation of a flag.
+   *
+   * @param reason why the value was chosen, like {@code targeting_match} or {@code error}
+   * @param errorCode what went wrong, or {@code unspecified}
+   */
+  default void recordEvaluation(String reason, String errorCode) {}
+
+  /**
+   * Records an event that was dropped before it was uploaded.
+   *
+   * @param reason one of the {@code DROPPED_} reasons of this interface
+   */
+  default void recordEventDropped(String reason) {}
+
+  /**
+   * Records an event that was dropped by the limits of its name. Only names with limits are
+   * recorded, so their number is bounded by the configuration. Records the drop without its name
+   * unless overridden.
+   *
+   * @param reason {@link #DROPPED_SAMPLED} or {@link #DROPPED_RATE_LIMITED}
+   * @param eventName the name of the event
+   */
+  default void recordEventDropped(String reason, String eventName) {
+    recordEventDropped(reason);
+  }
+
+  /**
+   * Records an attempt to upload a batch of events.
+   *
+   * @param latencyNanos how long the attempt took
+   * @param events the number of events in the batch
+   * @param failed whether the whole batch failed, and is retried
+   */
+  default void recordEventUpload(long latencyNanos, int events, boolean failed) {}
+
+  /**
+   * Records events of an uploaded batch that the backend rejected.
+   *
+   * @param events the number of rejected events
+   * @param retryable whether the events are uploaded again
+   */
+  default void recordEventsRejected(int events, boolean retryable) {}
+}
@@ -82,6 +82,18 @@ public class ConfidenceStub extends Confidence {
     return this;
   }
 
+  @Override
+  public CompletableFuture<Confidence> prefetch(String... flagNames) {
+    // No-op
+    return CompletableFuture.completedFuture(this);
+  }
+
+  @Override
+  public Confidence withResolvedSnapshot(String... flagNames) {
+    // No-op
+    return this;
+  }
+
   @Override
   public <T> CompletableFuture<T> getValueFuture(String key, T defaultValue) {
     return CompletableFuture.completedFuture(getValue(key, defaultValue));
@@ -181,6 +193,12 @@ public class ConfidenceStub extends Confidence {
       return CompletableFuture.completedFuture(ResolveFlagsResponse.getDefaultInstance());
     }
 
+    @Override
+    public CompletableFuture<ResolveFlagsResponse> resolveFlags(
+        List<String> flags, ConfidenceValue.Struct context) {
+      return CompletableFuture.completedFuture(ResolveFlagsResponse.getDefaultInstance());
+    }
+
     @Override
     public void close() {
       // No-op
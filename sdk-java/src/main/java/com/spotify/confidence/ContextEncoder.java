@@ -0,0 +1,81 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.Value;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Encodes the context of events to protos, reusing the encoding of contexts, and of nested structs
+ * and lists in them, that were encoded before. Emitters attach the same context to many events, and
+ * {@link Confidence#getContext()} builds a new struct around the same entry values for every event,
+ * so both are remembered by identity. Sharing the encoded values also shares their memoized
+ * serialized size between the events in a request.
+ *
+ * <p>Values are remembered until the cache is full, after which it starts over. Not thread safe, it
+ * is used by the thread that batches events.
+ */
+class ContextEncoder {
+  static final int DEFAULT_MAX_ENTRIES = 1024;
+
+  private final int maxEntries;
+  // ConfidenceValue equality compares encoded protos, so values are looked up by identity
+  private final Map<ConfidenceValue, Value> encoded = new IdentityHashMap<>();
+  private long hits;
+  private long misses;
+
+  ContextEncoder() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  ContextEncoder(int maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    this.maxEntries = maxEntries;
+  }
+
+  Value encode(ConfidenceValue.Struct context) {
+    final Value cached = encoded.get(context);
+    if (cached != null) {
+      hits++;
+      return cached;
+    }
+    final com.google.protobuf.Struct.Builder struct = com.google.protobuf.Struct.newBuilder();
+    for (Map.Entry<String, ConfidenceValue> entry : context.asMap().entrySet()) {
+      struct.putFields(entry.getKey(), encodeEntry(entry.getValue()));
+    }
+    return remember(context, Value.newBuilder().setStructValue(struct).build());
+  }
+
+  private Value encodeEntry(ConfidenceValue value) {
+    // scalars are cheaper to encode again than to look up
+    if (!value.isStruct() && !value.isList()) {
+      return value.toProto();
+    }
+    final Value cached = encoded.get(value);
+    if (cached != null) {
+      hits++;
+      return cached;
+    }
+    return remember(value, value.toProto());
+  }
+
+  private Value remember(ConfidenceValue value, Value proto) {
+    misses++;
+    if (encoded.size() >= maxEntries) {
+      encoded.clear();
+    }
+    encoded.put(value, proto);
+    return proto;
+  }
+
+  /** The number of contexts and context entries whose encoding was reused. */
+  long getHitCount() {
+    return hits;
+  }
+
+  /** The number of contexts and context entries that were encoded. */
+  long getMissCount() {
+    return misses;
+  }
+}
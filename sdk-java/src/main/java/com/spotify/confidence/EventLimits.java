@@ -0,0 +1,142 @@
+package com.spotify.confidence;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Samples and rate limits events by name, before anything is built for them.
+ *
+ * <p>Sampling keeps each event of a name with a fixed probability. Rate limits are token buckets
+ * holding {@code burst} tokens, refilled at {@code eventsPerSecond}. A bucket is kept as the time
+ * at which it will be full again, which is advanced with a single compare-and-set per event, so
+ * admitting an event takes no locks. Names without limits are always admitted. Dropped events are
+ * recorded with their name.
+ */
+class EventLimits {
+  private final Map<String, NameLimiter> limiters;
+  private final LongSupplier nanoTime;
+
+  EventLimits(Map<String, Limit> limits, ConfidenceMetrics metrics) {
+    this(limits, System::nanoTime, metrics);
+  }
+
+  EventLimits(Map<String, Limit> limits, LongSupplier nanoTime) {
+    this(limits, nanoTime, ConfidenceMetrics.NOOP);
+  }
+
+  EventLimits(Map<String, Limit> limits, LongSupplier nanoTime, ConfidenceMetrics metrics) {
+    final Map<String, NameLimiter> limiters = new HashMap<>();
+    limits.forEach(
+        (name, limit) -> limiters.put(name, new NameLimiter(name, limit, nanoTime, metrics)));
+    this.limiters = Map.copyOf(limiters);
+    this.nanoTime = nanoTime;
+  }
+
+  /** Whether an event with the given name should be sent, counting it if it should not. */
+  boolean admit(String name) {
+    final NameLimiter limiter = limiters.get(name);
+    return limiter == null || limiter.admit(nanoTime.getAsLong());
+  }
+
+  /** The number of events with the given name that were dropped by sampling. */
+  long getSampledOutCount(String name) {
+    final NameLimiter limiter = limiters.get(name);
+    return limiter == null ? 0 : limiter.sampledOut.sum();
+  }
+
+  /** The number of events with the given name that were dropped by the rate limit. */
+  long getRateLimitedCount(String name) {
+    final NameLimiter limiter = limiters.get(name);
+    return limiter == null ? 0 : limiter.rateLimitedOut.sum();
+  }
+
+  /** The sampling rate and rate limit of one event name. */
+  static final class Limit {
+    static final Limit NONE = new Limit(1, 0, 0);
+
+    private final double sampleRate;
+    private final double eventsPerSecond;
+    private final int burst;
+
+    private Limit(double sampleRate, double eventsPerSecond, int burst) {
+      this.sampleRate = sampleRate;
+      this.eventsPerSecond = eventsPerSecond;
+      this.burst = burst;
+    }
+
+    /**
+     * @param sampleRate the share of events to keep, from 0 to 1
+     */
+    Limit withSampleRate(double sampleRate) {
+      if (!(sampleRate >= 0 && sampleRate <= 1)) {
+        throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+      }
+      return new Limit(sampleRate, eventsPerSecond, burst);
+    }
+
+    /**
+     * @param eventsPerSecond the sustained rate of events to keep
+     * @param burst the number of events that may be kept at once after a quiet period
+     */
+    Limit withRateLimit(double eventsPerSecond, int burst) {
+      if (!(eventsPerSecond > 0)) {
+        throw new IllegalArgumentException("eventsPerSecond must be positive");
+      }
+      if (burst <= 0) {
+        throw new IllegalArgumentException("burst must be positive");
+      }
+      return new Limit(sampleRate, eventsPerSecond, burst);
+    }
+  }
+
+  private static class NameLimiter {
+    private final String name;
+    private final ConfidenceMetrics metrics;
+    private final double sampleRate;
+    private final boolean rateLimited;
+    private final long intervalNanos;
+    private final long burstNanos;
+    // the time at which every token taken so far has been refilled
+    private final AtomicLong refilledAt;
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder rateLimitedOut = new LongAdder();
+
+    private NameLimiter(
+        String name, Limit limit, LongSupplier nanoTime, ConfidenceMetrics metrics) {
+      this.name = name;
+      this.metrics = metrics;
+      this.sampleRate = limit.sampleRate;
+      this.rateLimited = limit.burst > 0;
+      this.intervalNanos = rateLimited ? Math.max(1, (long) (1e9 / limit.eventsPerSecond)) : 0;
+      this.burstNanos = intervalNanos * limit.burst;
+      this.refilledAt = new AtomicLong(nanoTime.getAsLong());
+    }
+
+    private boolean admit(long now) {
+      if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+        sampledOut.increment();
+        metrics.recordEventDropped(ConfidenceMetrics.DROPPED_SAMPLED, name);
+        return false;
+      }
+      if (!rateLimited) {
+        return true;
+      }
+      while (true) {
+        final long current = refilledAt.get();
+        final long next = Math.max(current, now) + intervalNanos;
+        if (next - now > burstNanos) {
+          rateLimitedOut.increment();
+          metrics.recordEventDropped(ConfidenceMetrics.DROPPED_RATE_LIMITED, name);
+          return false;
+        }
+        if (refilledAt.compareAndSet(current, next)) {
+          return true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.spotify.confidence;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * The queue between the threads emitting events and the single thread that batches them for upload.
+ * Any thread may offer, but only the batching thread polls.
+ */
+interface EventQueue<E> {
+
+  /** Adds an element, or returns false if the queue is full. */
+  boolean offer(E element);
+
+  /** Removes the oldest element, or returns null if there is none. */
+  @Nullable
+  E poll();
+
+  /** The number of queued elements, which is only an estimate while other threads offer. */
+  int size();
+
+  /** An unbounded queue, that allocates a node for every element. */
+  static <E> EventQueue<E> unbounded() {
+    final ConcurrentLinkedQueue<E> queue = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the whole queue
+    final AtomicInteger size = new AtomicInteger();
+    return new EventQueue<>() {
+      @Override
+      public boolean offer(E element) {
+        queue.offer(element);
+        size.incrementAndGet();
+        return true;
+      }
+
+      @Override
+      public E poll() {
+        final E element = queue.poll();
+        if (element != null) {
+          size.decrementAndGet();
+        }
+        return element;
+      }
+
+      @Override
+      public int size() {
+        return Math.max(0, size.get());
+      }
+    };
+  }
+}
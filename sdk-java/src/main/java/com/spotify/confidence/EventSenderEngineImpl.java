@@ -1,19 +1,20 @@
 package com.spotify.confidence;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.spotify.confidence.events.v1.Event;
-import dev.failsafe.Failsafe;
-import dev.failsafe.FailsafeExecutor;
-import dev.failsafe.RetryPolicy;
 import io.grpc.ManagedChannel;
 import java.io.IOException;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 
 class EventSenderEngineImpl implements EventSenderEngine {
@@ -22,20 +23,57 @@ class EventSenderEngineImpl implements EventSenderEngine {
   static final int DEFAULT_BATCH_SIZE = 25;
   static final Duration DEFAULT_MAX_FLUSH_INTERVAL = Duration.ofSeconds(60);
   static final long DEFAULT_MAX_MEMORY_CONSUMPTION = 1024 * 1024 * 1024; // 1GB
+  static final int DEFAULT_MAX_IN_FLIGHT_UPLOADS = 4;
+  // how often an event rejected on its own is uploaded before it is given up on
+  static final int MAX_EVENT_ATTEMPTS = 5;
+  private static final long MAX_EVENT_RETRY_DELAY_MILLIS = 10_000;
+  // how long a batch that failed as a whole is retried before it is given up on
+  private static final long MAX_BATCH_RETRY_NANOS = Duration.ofMinutes(30).toNanos();
+  // how long close() waits for uploads and retries to finish
+  private static final long CLOSE_TIMEOUT_NANOS = Duration.ofSeconds(10).toNanos();
   private static final Logger log = org.slf4j.LoggerFactory.getLogger(EventSenderEngineImpl.class);
   private final EventUploader eventUploader;
   private final Clock clock;
-  private final int maxBatchSize;
-  private final Duration maxFlushInterval;
-  private final FailsafeExecutor<Boolean> uploadExecutor;
-  private final ConcurrentLinkedQueue<com.spotify.confidence.events.v1.Event> sendQueue =
-      new ConcurrentLinkedQueue<>();
+  private final BatchLimits batchLimits;
+  private final long maxFlushIntervalNanos;
+  // starts upload attempts, while retry delays are timed on a thread of their own
+  private final ScheduledExecutorService uploadScheduler;
+  private final ScheduledExecutorService retryScheduler;
+  // shared by all batches, so that an outage parks them in the engine instead of retrying each
+  private final UploadCircuitBreaker circuitBreaker = new UploadCircuitBreaker();
+  // one permit per batch being uploaded
+  private final Semaphore uploadLanes;
+  private final int maxInFlightUploads;
+  @Nullable private final EventSpill spill;
+  @Nullable private final EventLimits limits;
+  private final ConfidenceMetrics metrics;
+  private final EventQueue<PendingEvent> sendQueue;
+  private final WaitStrategy waitStrategy;
+  // only used by the polling thread
+  private final ContextEncoder contextEncoder = new ContextEncoder();
+  // set by the polling thread before it parks, and cleared by the first thread to unpark it
+  private final AtomicBoolean pollerParked = new AtomicBoolean();
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  // the queue size, or accepted bytes, at which a parked polling thread has a full batch to send
+  private volatile int wakeUpEvents;
+  private volatile long wakeUpBytes = Long.MAX_VALUE;
   private final Set<CompletableFuture<?>> pendingBatches = ConcurrentHashMap.newKeySet();
   private final Thread pollingThread = new Thread(this::pollLoop);
   private final long maxMemoryConsumption;
   private volatile boolean intakeClosed = false;
   private volatile boolean joinWasInterrupted = false;
-  private final AtomicLong estimatedMemoryConsumption = new AtomicLong(0);
+  private volatile long closeDeadlineNanos;
+  // held while an upload attempt starts, so that close() cancels every attempt it races with
+  private final ReadWriteLock attemptStartLock = new ReentrantReadWriteLock();
+  private volatile boolean uploadsCancelled = false;
+  // the estimated size of all events ever queued, and of those whose upload has finished
+  private final AtomicLong acceptedBytes = new AtomicLong(0);
+  private final AtomicLong releasedBytes = new AtomicLong(0);
+  // failed events, waiting for their retry delay to pass, and then to be uploaded
+  private final Set<FailedEvents> delayedRetries = ConcurrentHashMap.newKeySet();
+  private final Queue<FailedEvents> retries = new ConcurrentLinkedQueue<>();
+  private final LongAdder retriedEvents = new LongAdder();
+  private final LongAdder abandonedEvents = new LongAdder();
 
   @VisibleForTesting
   EventSenderEngineImpl(
@@ -44,34 +82,140 @@ class EventSenderEngineImpl implements EventSenderEngine {
       Clock clock,
       Duration maxFlushInterval,
       long maxMemoryConsumption) {
+    this(
+        BatchLimits.fixed(maxBatchSize, BatchLimits.DEFAULT_MAX_BYTES),
+        eventUploader,
+        clock,
+        maxFlushInterval,
+        maxMemoryConsumption,
+        EventQueue.unbounded(),
+        WaitStrategy.PARK,
+        DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+        null,
+        null);
+  }
+
+  @VisibleForTesting
+  EventSenderEngineImpl(
+      BatchLimits batchLimits,
+      EventUploader eventUploader,
+      Clock clock,
+      Duration maxFlushInterval,
+      long maxMemoryConsumption,
+      EventQueue<PendingEvent> sendQueue,
+      WaitStrategy waitStrategy,
+      int maxInFlightUploads,
+      @Nullable EventSpill spill,
+      @Nullable EventLimits limits) {
+    this(
+        batchLimits,
+        eventUploader,
+        clock,
+        maxFlushInterval,
+        maxMemoryConsumption,
+        sendQueue,
+        waitStrategy,
+        maxInFlightUploads,
+        spill,
+        limits,
+        ConfidenceMetrics.NOOP);
+  }
+
+  EventSenderEngineImpl(
+      BatchLimits batchLimits,
+      EventUploader eventUploader,
+      Clock clock,
+      Duration maxFlushInterval,
+      long maxMemoryConsumption,
+      EventQueue<PendingEvent> sendQueue,
+      WaitStrategy waitStrategy,
+      int maxInFlightUploads,
+      @Nullable EventSpill spill,
+      @Nullable EventLimits limits,
+      ConfidenceMetrics metrics) {
     if (maxFlushInterval.isZero()) {
       throw new IllegalArgumentException("maxFlushInterval must be positive");
     }
+    if (maxInFlightUploads <= 0) {
+      throw new IllegalArgumentException("maxInFlightUploads must be positive");
+    }
     this.eventUploader = eventUploader;
     this.clock = clock;
-    this.maxBatchSize = maxBatchSize;
-    this.maxFlushInterval = maxFlushInterval;
+    this.batchLimits = batchLimits;
+    this.maxFlushIntervalNanos = maxFlushInterval.toNanos();
     this.maxMemoryConsumption = maxMemoryConsumption;
-    uploadExecutor =
-        Failsafe.with(
-            RetryPolicy.<Boolean>builder()
-                .handleResult(false)
-                .withBackoff(1, 10, ChronoUnit.SECONDS)
-                .withJitter(0.1)
-                .withMaxAttempts(-1)
-                .withMaxDuration(Duration.ofMinutes(30))
+    this.sendQueue = sendQueue;
+    this.waitStrategy = waitStrategy;
+    this.wakeUpEvents = batchLimits.maxEvents();
+    this.maxInFlightUploads = maxInFlightUploads;
+    this.spill = spill;
+    this.limits = limits;
+    this.metrics = metrics;
+    this.uploadLanes = new Semaphore(maxInFlightUploads);
+    this.uploadScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-event-upload-%d")
+                .setDaemon(true)
+                .build());
+    this.retryScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-event-retry-%d")
+                .setDaemon(true)
                 .build());
+    metrics.registerGauge(ConfidenceMetrics.EVENT_QUEUE_SIZE, sendQueue::size);
+    metrics.registerGauge(
+        ConfidenceMetrics.EVENT_MEMORY_BYTES, this::getEstimatedMemoryConsumption);
+    metrics.registerGauge(ConfidenceMetrics.EVENT_UPLOADS_IN_FLIGHT, this::getInFlightUploads);
+    metrics.registerGauge(
+        ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_STATE, () -> circuitBreaker.getState().ordinal());
+    metrics.registerCounter(ConfidenceMetrics.EVENTS_RETRIED, this::getRetriedEventCount);
+    metrics.registerCounter(ConfidenceMetrics.EVENTS_ABANDONED, this::getAbandonedEventCount);
+    metrics.registerGauge(ConfidenceMetrics.EVENT_BATCH_SIZE_TARGET, this::getBatchSizeTarget);
+    metrics.registerGauge(ConfidenceMetrics.EVENT_BATCH_BYTES_TARGET, this::getBatchBytesTarget);
+    metrics.registerCounter(
+        ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_OPENED, this::getCircuitBreakerOpenCount);
+    metrics.registerCounter(
+        ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_CLOSED_MILLIS,
+        () -> getTimeInCircuitBreakerState(UploadCircuitBreaker.State.CLOSED).toMillis());
+    metrics.registerCounter(
+        ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_OPEN_MILLIS,
+        () -> getTimeInCircuitBreakerState(UploadCircuitBreaker.State.OPEN).toMillis());
+    metrics.registerCounter(
+        ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_HALF_OPEN_MILLIS,
+        () -> getTimeInCircuitBreakerState(UploadCircuitBreaker.State.HALF_OPEN).toMillis());
+    if (spill != null) {
+      metrics.registerCounter(ConfidenceMetrics.EVENTS_SPILLED, spill::getSpilledCount);
+      metrics.registerCounter(ConfidenceMetrics.EVENTS_REPLAYED, spill::getReplayedCount);
+    }
     pollingThread.start();
   }
 
   EventSenderEngineImpl(
-      String clientSecret, ManagedChannel channel, Clock clock, int deadlineMillis) {
+      String clientSecret,
+      ManagedChannel channel,
+      Clock clock,
+      int deadlineMillis,
+      BatchLimits batchLimits,
+      EventQueue<PendingEvent> sendQueue,
+      WaitStrategy waitStrategy,
+      int maxInFlightUploads,
+      @Nullable EventSpill spill,
+      @Nullable EventLimits limits,
+      ConfidenceMetrics metrics) {
     this(
-        DEFAULT_BATCH_SIZE,
-        new GrpcEventUploader(clientSecret, clock, channel, deadlineMillis),
+        batchLimits,
+        new GrpcEventUploader(clientSecret, clock, channel, deadlineMillis, metrics),
         clock,
         DEFAULT_MAX_FLUSH_INTERVAL,
-        DEFAULT_MAX_MEMORY_CONSUMPTION);
+        DEFAULT_MAX_MEMORY_CONSUMPTION,
+        sendQueue,
+        waitStrategy,
+        maxInFlightUploads,
+        spill,
+        limits,
+        metrics);
   }
 
   @Override
@@ -79,74 +223,377 @@ class EventSenderEngineImpl implements EventSenderEngine {
       String name, ConfidenceValue.Struct context, Optional<ConfidenceValue.Struct> data) {
     if (intakeClosed) {
       log.warn("EventSenderEngine is closed, dropping event {}", name);
+      metrics.recordEventDropped(ConfidenceMetrics.DROPPED_CLOSED);
+      return;
+    }
+    if (limits != null && !limits.admit(name)) {
       return;
     }
-    final Event event =
-        EventUploader.event(name, context, data).setEventTime(clock.getTimestamp()).build();
-    if (estimatedMemoryConsumption.get() + event.getSerializedSize() > maxMemoryConsumption) {
+    // the proto is built by the polling thread, unless the event is spilled right away
+    final PendingEvent event = new PendingEvent(name, context, data, clock.get());
+    final int size = event.estimatedSize();
+    final long memoryConsumption = getEstimatedMemoryConsumption() + size;
+    if (spill != null && memoryConsumption > spill.highWaterMark()) {
+      spill(event.toEvent());
+      return;
+    }
+    if (memoryConsumption > maxMemoryConsumption) {
       log.warn("EventSenderEngine is overloaded, dropping event {}", name);
+      metrics.recordEventDropped(ConfidenceMetrics.DROPPED_OVERLOADED);
       return;
     }
-    sendQueue.add(event);
-    estimatedMemoryConsumption.addAndGet(event.getSerializedSize());
-    LockSupport.unpark(pollingThread);
+    final long accepted = acceptedBytes.addAndGet(size);
+    if (!sendQueue.offer(event)) {
+      acceptedBytes.addAndGet(-size);
+      if (spill != null) {
+        spill(event.toEvent());
+      } else {
+        log.warn("EventSenderEngine queue is full, dropping event {}", name);
+        metrics.recordEventDropped(ConfidenceMetrics.DROPPED_QUEUE_FULL);
+      }
+      return;
+    }
+    // the polling thread is only woken up once it has a full batch to send
+    if (pollerParked.get()
+        && (sendQueue.size() >= wakeUpEvents || accepted >= wakeUpBytes)
+        && pollerParked.compareAndSet(true, false)) {
+      LockSupport.unpark(pollingThread);
+    }
+  }
+
+  private void spill(Event event) {
+    if (!spill.append(event)) {
+      if (spill.isClosed()) {
+        log.warn("EventSenderEngine is closed, dropping event {}", event.getEventDefinition());
+        metrics.recordEventDropped(ConfidenceMetrics.DROPPED_CLOSED);
+      } else {
+        log.warn("EventSenderEngine spill is full, dropping event {}", event.getEventDefinition());
+        metrics.recordEventDropped(ConfidenceMetrics.DROPPED_SPILL_FULL);
+      }
+    }
   }
 
   @Override
   public void flush() {
-    sendQueue.add(Event.newBuilder().setEventDefinition("manual_flash").build());
+    flushRequested.set(true);
     LockSupport.unpark(pollingThread);
   }
 
   private void pollLoop() {
-    Instant latestFlushTime = Instant.now();
-    ArrayList<com.spotify.confidence.events.v1.Event> events = new ArrayList<>();
-    while (true) {
-      final var event = sendQueue.poll();
+    long flushDeadline = System.nanoTime() + maxFlushIntervalNanos;
+    List<Event> events = new ArrayList<>();
+    long batchBytes = 0;
+    // the estimated size of the batch, which is released from memory once it has been uploaded
+    long batchEstimate = 0;
+    // the estimated size of all events ever polled, which trails acceptedBytes by the queue
+    long polledEstimate = 0;
+    // set once the queue has to be drained before uploading, to include all events emitted before
+    // a flush or close was requested
+    boolean draining = false;
+    boolean closing = false;
+    // spilled events read back from disk, which are batched whenever the queue is empty
+    final Deque<Event> replaying = new ArrayDeque<>();
+    while (!joinWasInterrupted) {
+      if (!intakeClosed && !circuitBreaker.permitsUpload()) {
+        // new events stay in the queue, where the memory limit and spill apply to them
+        awaitCircuitBreaker();
+        continue;
+      }
+      final FailedEvents retry = retries.poll();
+      if (retry != null) {
+        // failed events are retried as a batch of their own
+        upload(retry.events, retry.bytes, retry.attempts, retry.firstAttemptNanos);
+        continue;
+      }
+      final PendingEvent pending = sendQueue.poll();
+      Event event = null;
+      int estimate = 0;
+      if (pending != null) {
+        event = pending.toEvent(contextEncoder);
+        estimate = pending.estimatedSize();
+      } else if (!replaying.isEmpty()) {
+        event = replaying.poll();
+        estimate = event.getSerializedSize();
+        acceptedBytes.addAndGet(estimate);
+      }
       if (event != null) {
-        if ("manual_flash".equals(event.getEventDefinition())) {
-          log.debug("Starting events upload due to manual flush");
-          upload(events);
+        final int size = event.getSerializedSize();
+        polledEstimate += estimate;
+        if (!events.isEmpty() && batchBytes + size > batchLimits.maxBytes()) {
+          upload(events, batchEstimate);
           events = new ArrayList<>();
-          continue;
-        } else {
-          events.add(event);
+          batchBytes = 0;
+          batchEstimate = 0;
         }
-      } else {
-        if (intakeClosed) break;
-        LockSupport.parkUntil(Instant.now().plus(maxFlushInterval).toEpochMilli());
+        events.add(event);
+        batchBytes += size;
+        batchEstimate += estimate;
+        if (events.size() >= batchLimits.maxEvents() || batchBytes >= batchLimits.maxBytes()) {
+          upload(events, batchEstimate);
+          events = new ArrayList<>();
+          batchBytes = 0;
+          batchEstimate = 0;
+          flushDeadline = System.nanoTime() + maxFlushIntervalNanos;
+        }
+        continue;
       }
-      final boolean passedMaxFlushInterval =
-          !maxFlushInterval.isZero()
-              && Duration.between(latestFlushTime, Instant.now()).compareTo(maxFlushInterval) > 0;
-      if (events.size() == maxBatchSize || passedMaxFlushInterval) {
-        upload(events);
+      if (draining) {
+        upload(events, batchEstimate);
+        if (closing) {
+          awaitUploadsOnClose();
+          break;
+        }
+        events = new ArrayList<>();
+        batchBytes = 0;
+        batchEstimate = 0;
+        flushDeadline = System.nanoTime() + maxFlushIntervalNanos;
+        draining = false;
+      } else if (intakeClosed) {
+        closing = true;
+        draining = true;
+      } else if (flushRequested.getAndSet(false)) {
+        log.debug("Starting events upload due to manual flush");
+        draining = true;
+      } else if (System.nanoTime() - flushDeadline >= 0
+          // adaptive limits may have shrunk below the current batch
+          || events.size() >= batchLimits.maxEvents()
+          || batchBytes >= batchLimits.maxBytes()) {
+        upload(events, batchEstimate);
         events = new ArrayList<>();
-        latestFlushTime = Instant.now();
+        batchBytes = 0;
+        batchEstimate = 0;
+        flushDeadline = System.nanoTime() + maxFlushIntervalNanos;
+      } else if (spill != null
+          && spill.hasRecords()
+          && uploadLanes.availablePermits() > 0
+          && getEstimatedMemoryConsumption() < spill.highWaterMark() / 2) {
+        // the backend keeps up with new events again, so spilled ones can follow
+        replaying.addAll(spill.replayNext());
+      } else {
+        await(
+            batchLimits.maxEvents() - events.size(),
+            // the queued events make a full batch once their estimate covers the missing bytes
+            polledEstimate + batchLimits.maxBytes() - batchBytes,
+            flushDeadline);
+      }
+    }
+  }
+
+  /** Keeps retrying failed events until every upload has finished, or close() times out. */
+  private void awaitUploadsOnClose() {
+    while (!joinWasInterrupted && System.nanoTime() - closeDeadlineNanos < 0) {
+      final FailedEvents retry = retries.poll();
+      if (retry != null) {
+        upload(retry.events, retry.bytes, retry.attempts, retry.firstAttemptNanos);
+      } else if (pendingBatches.isEmpty() && delayedRetries.isEmpty()) {
+        return;
+      } else {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
       }
     }
-    upload(events);
   }
 
-  private void upload(List<com.spotify.confidence.events.v1.Event> events) {
+  private void await(int missingEvents, long fullBatchBytes, long deadlineNanos) {
+    wakeUpEvents = missingEvents;
+    wakeUpBytes = fullBatchBytes;
+    final boolean parks = waitStrategy.parks();
+    if (parks) {
+      pollerParked.set(true);
+    }
+    // checked after announcing the park, so that a thread emitting concurrently either sees the
+    // announcement or has its event seen here
+    if (!isReadyToSend(missingEvents, fullBatchBytes)) {
+      waitStrategy.await(() -> isReadyToSend(missingEvents, fullBatchBytes), deadlineNanos);
+    }
+    if (parks) {
+      pollerParked.set(false);
+    }
+  }
+
+  private void awaitCircuitBreaker() {
+    final long nanos = circuitBreaker.nanosUntilProbe();
+    // a half-open breaker is waited on until its probe completes, which unparks this thread
+    LockSupport.parkNanos(nanos > 0 ? nanos : TimeUnit.SECONDS.toNanos(1));
+  }
+
+  private boolean isReadyToSend(int missingEvents, long fullBatchBytes) {
+    return sendQueue.size() >= missingEvents
+        || acceptedBytes.get() >= fullBatchBytes
+        || flushRequested.get()
+        || intakeClosed
+        || !retries.isEmpty();
+  }
+
+  private void upload(List<Event> events, long estimatedBytes) {
+    upload(events, estimatedBytes, 0, System.nanoTime());
+  }
+
+  /**
+   * @param attempts how many times the events were uploaded before
+   * @param firstAttemptNanos when the events were first uploaded
+   */
+  private void upload(
+      List<Event> events, long estimatedBytes, int attempts, long firstAttemptNanos) {
     if (events.isEmpty()) return;
-    final CompletableFuture<Boolean> batchUploaded =
-        uploadExecutor.getStageAsync(
-            () -> {
-              // we don't want to upload if the thread was interrupted on close
-              if (joinWasInterrupted) {
-                return CompletableFuture.completedFuture(true);
-              }
-              return eventUploader.upload(events);
-            });
+    final boolean holdsLane = acquireUploadLane();
+    final long probe = circuitBreaker.onUploadStarted();
+    final CompletableFuture<Boolean> batchUploaded = new CompletableFuture<>();
     pendingBatches.add(batchUploaded);
     batchUploaded.whenComplete(
-        (res, err) -> {
+        (uploaded, err) -> {
           // Errors from this is logged by the uploader
+          if (err != null) {
+            // keep events cancelled on close for a later attempt
+            if (spill != null) {
+              events.forEach(this::spill);
+            }
+          } else if (!uploaded) {
+            retryLater(events, attempts + 1, firstAttemptNanos, true);
+          }
+          // removed once parked, so that a closing engine always sees the events pending
           pendingBatches.remove(batchUploaded);
-          estimatedMemoryConsumption.addAndGet(
-              -events.stream().mapToLong(Event::getSerializedSize).sum());
+          releasedBytes.addAndGet(estimatedBytes);
+          if (holdsLane) {
+            uploadLanes.release();
+          }
         });
+    try {
+      uploadScheduler.execute(
+          () -> startAttempt(events, attempts, firstAttemptNanos, probe, batchUploaded));
+    } catch (RejectedExecutionException e) {
+      // the engine is closed
+      batchUploaded.cancel(true);
+    }
+  }
+
+  private void startAttempt(
+      List<Event> events,
+      int attempts,
+      long firstAttemptNanos,
+      long probe,
+      CompletableFuture<Boolean> batchUploaded) {
+    attemptStartLock.readLock().lock();
+    try {
+      // we don't want to upload if the thread was interrupted on close
+      if (joinWasInterrupted || uploadsCancelled) {
+        batchUploaded.cancel(true);
+        return;
+      }
+      final long start = System.nanoTime();
+      final CompletableFuture<EventUploader.Result> attempt =
+          eventUploader.uploadReportingFailures(events);
+      pendingBatches.add(attempt);
+      attempt.whenComplete(
+          (result, err) -> {
+            pendingBatches.remove(attempt);
+            final boolean failed = err != null || result.batchFailed();
+            final long latencyNanos = System.nanoTime() - start;
+            batchLimits.recordUpload(latencyNanos, failed);
+            metrics.recordEventUpload(latencyNanos, events.size(), failed);
+            final boolean wasClosed =
+                circuitBreaker.getState() == UploadCircuitBreaker.State.CLOSED;
+            circuitBreaker.recordUpload(failed, probe);
+            if (!wasClosed) {
+              // the polling thread waits for the outcome of a probe
+              LockSupport.unpark(pollingThread);
+            }
+            if (err != null) {
+              batchUploaded.completeExceptionally(err);
+            } else {
+              // only events rejected on their own are retried, unless the whole batch failed
+              retryLater(result.retryableEvents(), attempts + 1, firstAttemptNanos, false);
+              batchUploaded.complete(!result.batchFailed());
+            }
+          });
+    } finally {
+      attemptStartLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Parks failed events in the engine, to be uploaded again after a delay which doubles with every
+   * attempt. Events rejected on their own are given up on once they have been uploaded {@link
+   * #MAX_EVENT_ATTEMPTS} times, and batches that failed as a whole after 30 minutes.
+   *
+   * @param wholeBatch whether the events failed as a whole batch, rather than on their own
+   */
+  private void retryLater(
+      List<Event> events, int attempts, long firstAttemptNanos, boolean wholeBatch) {
+    if (events.isEmpty()) {
+      return;
+    }
+    if (wholeBatch
+        ? System.nanoTime() - firstAttemptNanos > MAX_BATCH_RETRY_NANOS
+        : attempts >= MAX_EVENT_ATTEMPTS) {
+      abandonedEvents.add(events.size());
+      log.warn("Giving up on {} events that failed {} times", events.size(), attempts);
+      return;
+    }
+    retriedEvents.add(events.size());
+    final long bytes = events.stream().mapToLong(Event::getSerializedSize).sum();
+    acceptedBytes.addAndGet(bytes);
+    final FailedEvents failed = new FailedEvents(events, bytes, attempts, firstAttemptNanos);
+    delayedRetries.add(failed);
+    final long delayMillis =
+        Math.min(MAX_EVENT_RETRY_DELAY_MILLIS, 1000L << Math.min(attempts - 1, 16));
+    try {
+      retryScheduler.schedule(
+          () -> {
+            if (delayedRetries.remove(failed)) {
+              retries.add(failed);
+              LockSupport.unpark(pollingThread);
+            }
+          },
+          delayMillis,
+          TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // the engine is closed
+      if (delayedRetries.remove(failed)) {
+        keep(failed);
+      }
+    }
+  }
+
+  /** Spills, or drops, the retries that are left once the polling thread has stopped. */
+  private void keepRetries() {
+    final List<FailedEvents> left = new ArrayList<>();
+    for (FailedEvents failed : delayedRetries) {
+      if (delayedRetries.remove(failed)) {
+        left.add(failed);
+      }
+    }
+    for (FailedEvents failed = retries.poll(); failed != null; failed = retries.poll()) {
+      left.add(failed);
+    }
+    left.forEach(this::keep);
+  }
+
+  private void keep(FailedEvents failed) {
+    if (spill != null) {
+      failed.events.forEach(this::spill);
+    } else {
+      log.warn("EventSenderEngine is closed, dropping {} events to retry", failed.events.size());
+    }
+    releasedBytes.addAndGet(failed.bytes);
+  }
+
+  /**
+   * Blocks the polling thread while every upload lane is busy, which leaves new events in the queue
+   * until the backend keeps up again. Returns whether a lane was acquired, which it is not once the
+   * engine is closing and the remaining events are sent regardless.
+   */
+  private boolean acquireUploadLane() {
+    try {
+      while (!uploadLanes.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+        if (intakeClosed) {
+          return false;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
   }
 
   private void joinPollingThread() {
@@ -154,7 +601,6 @@ class EventSenderEngineImpl implements EventSenderEngine {
       LockSupport.unpark(pollingThread);
       pollingThread.join();
     } catch (InterruptedException e) {
-      sendQueue.clear();
       joinWasInterrupted = true;
       Thread.currentThread().interrupt();
     }
@@ -166,7 +612,8 @@ class EventSenderEngineImpl implements EventSenderEngine {
           pendingBatches.stream()
               .map(future -> future.exceptionally(throwable -> null))
               .toArray(CompletableFuture[]::new);
-      CompletableFuture.allOf(pending).get(10, TimeUnit.SECONDS);
+      CompletableFuture.allOf(pending)
+          .get(Math.max(0, closeDeadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
     } catch (InterruptedException e) {
       // reset the interrupt status
       Thread.currentThread().interrupt();
@@ -174,21 +621,88 @@ class EventSenderEngineImpl implements EventSenderEngine {
     }
   }
 
-  @VisibleForTesting
   long getEstimatedMemoryConsumption() {
-    return estimatedMemoryConsumption.get();
+    return acceptedBytes.get() - releasedBytes.get();
+  }
+
+  /** The number of events in a full batch, which changes over time with adaptive batching. */
+  int getBatchSizeTarget() {
+    return batchLimits.maxEvents();
+  }
+
+  /** The serialized size of a full batch, which changes over time with adaptive batching. */
+  long getBatchBytesTarget() {
+    return batchLimits.maxBytes();
+  }
+
+  /** The number of events that failed to upload, and are uploaded again. */
+  long getRetriedEventCount() {
+    return retriedEvents.sum();
+  }
+
+  /** The number of failed events that were given up on. */
+  long getAbandonedEventCount() {
+    return abandonedEvents.sum();
+  }
+
+  /** The number of batches being uploaded. */
+  int getInFlightUploads() {
+    return maxInFlightUploads - uploadLanes.availablePermits();
+  }
+
+  /** The state of the circuit breaker shared by all uploads. */
+  UploadCircuitBreaker.State getCircuitBreakerState() {
+    return circuitBreaker.getState();
+  }
+
+  /** The total time the circuit breaker shared by all uploads spent in a state. */
+  Duration getTimeInCircuitBreakerState(UploadCircuitBreaker.State state) {
+    return circuitBreaker.getTimeInState(state);
+  }
+
+  /** The number of times the circuit breaker shared by all uploads opened. */
+  long getCircuitBreakerOpenCount() {
+    return circuitBreaker.getOpenCount();
   }
 
   @Override
   public synchronized void close() throws IOException {
     if (intakeClosed) return;
+    closeDeadlineNanos = System.nanoTime() + CLOSE_TIMEOUT_NANOS;
     intakeClosed = true;
     joinPollingThread();
     awaitPending();
 
-    pendingBatches.forEach(
-        batch -> {
-          batch.cancel(true);
-        });
+    // attempts are registered while holding the read lock, so none can start unnoticed
+    attemptStartLock.writeLock().lock();
+    try {
+      uploadsCancelled = true;
+      pendingBatches.forEach(
+          batch -> {
+            batch.cancel(true);
+          });
+    } finally {
+      attemptStartLock.writeLock().unlock();
+    }
+    uploadScheduler.shutdown();
+    retryScheduler.shutdown();
+    keepRetries();
+    if (spill != null) {
+      spill.close();
+    }
+  }
+
+  private static class FailedEvents {
+    private final List<Event> events;
+    private final long bytes;
+    private final int attempts;
+    private final long firstAttemptNanos;
+
+    private FailedEvents(List<Event> events, long bytes, int attempts, long firstAttemptNanos) {
+      this.events = events;
+      this.bytes = bytes;
+      this.attempts = attempts;
+      this.firstAttemptNanos = firstAttemptNanos;
+    }
   }
 }
@@ -0,0 +1,285 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.spotify.confidence.events.v1.Event;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+
+/**
+ * Keeps events on disk while the event sender engine is overloaded or closing, until they can be
+ * uploaded, which may be by the next process using the same directory.
+ *
+ * <p>Events are appended to memory-mapped segment files of a fixed size. A segment starts with a
+ * magic number and the format version, followed by records of a 4 byte payload length, the CRC32C
+ * of the payload and the serialized {@link Event}. Segments are preallocated with zeros, so a zero
+ * length marks the end of the written records, and a record that fails its checksum, like one torn
+ * by a crash, ends the segment.
+ *
+ * <p>Segments are replayed oldest first, and deleted once read, which makes a replayed segment the
+ * responsibility of the engine: events it fails to upload are spilled again.
+ */
+class EventSpill implements Closeable {
+  static final long DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+  static final int MAGIC = 0x43464556; // "CFEV"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 8;
+  // payload length and crc
+  static final int RECORD_HEADER_BYTES = 8;
+  private static final String SEGMENT_SUFFIX = ".events";
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(EventSpill.class);
+
+  private final Path directory;
+  private final long highWaterMark;
+  private final int segmentBytes;
+  private final int maxSegments;
+  // segments that are no longer written to, oldest first
+  private final Deque<Path> sealed = new ArrayDeque<>();
+  @Nullable private Path writing;
+  @Nullable private MappedByteBuffer writeBuffer;
+  private long nextSegment;
+  private volatile boolean hasRecords;
+  private volatile boolean closed;
+  private final LongAdder spilled = new LongAdder();
+  private final LongAdder replayed = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * @param directory the directory to keep segments in, which must not be shared with another
+   *     process at the same time
+   * @param highWaterMark the memory used by queued and in-flight events above which new events are
+   *     spilled
+   * @param maxBytes the maximum total size of all segments
+   * @param segmentBytes the size of each segment
+   */
+  EventSpill(Path directory, long highWaterMark, long maxBytes, long segmentBytes)
+      throws IOException {
+    if (highWaterMark <= 0) {
+      throw new IllegalArgumentException("highWaterMark must be positive");
+    }
+    if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES || segmentBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("segmentBytes must fit a record and a mapped buffer");
+    }
+    if (maxBytes < segmentBytes) {
+      throw new IllegalArgumentException("maxBytes must be at least segmentBytes");
+    }
+    this.directory = directory;
+    this.highWaterMark = highWaterMark;
+    this.segmentBytes = (int) segmentBytes;
+    this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes);
+    Files.createDirectories(directory);
+    final List<Path> existing = new ArrayList<>();
+    try (DirectoryStream<Path> segments =
+        Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      segments.forEach(existing::add);
+    }
+    // segment names are zero padded sequence numbers, so they sort by age
+    Collections.sort(existing);
+    sealed.addAll(existing);
+    for (Path segment : existing) {
+      nextSegment = Math.max(nextSegment, sequenceOf(segment) + 1);
+    }
+    hasRecords = !sealed.isEmpty();
+  }
+
+  long highWaterMark() {
+    return highWaterMark;
+  }
+
+  /** Whether there are spilled events left to replay. */
+  boolean hasRecords() {
+    return hasRecords;
+  }
+
+  /** Whether the spill is closed, after which no more events are appended or replayed. */
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Appends an event, or returns false if it was dropped because the spill is full or has been
+   * closed.
+   */
+  synchronized boolean append(Event event) {
+    if (closed) {
+      dropped.increment();
+      return false;
+    }
+    final byte[] payload = event.toByteArray();
+    final int recordBytes = RECORD_HEADER_BYTES + payload.length;
+    try {
+      if (recordBytes > segmentBytes - HEADER_BYTES) {
+        dropped.increment();
+        return false;
+      }
+      if (writeBuffer == null || writeBuffer.remaining() < recordBytes) {
+        if (!rotate()) {
+          dropped.increment();
+          return false;
+        }
+      }
+      final CRC32C crc = new CRC32C();
+      crc.update(payload);
+      final int position = writeBuffer.position();
+      writeBuffer.position(position + RECORD_HEADER_BYTES);
+      writeBuffer.put(payload);
+      writeBuffer.putInt(position + 4, (int) crc.getValue());
+      // the length is written last, so that a reader never sees a record without its payload
+      writeBuffer.putInt(position, payload.length);
+      hasRecords = true;
+      spilled.increment();
+      return true;
+    } catch (IOException e) {
+      log.warn("Failed to spill event to {}", directory, e);
+      dropped.increment();
+      return false;
+    }
+  }
+
+  /**
+   * Removes the oldest segment and returns its events. Returns an empty list once every spilled
+   * event has been replayed.
+   */
+  synchronized List<Event> replayNext() {
+    if (closed) {
+      // the segments are left for the next process, nothing could upload them any more
+      return List.of();
+    }
+    if (sealed.isEmpty()) {
+      sealWriting();
+    }
+    final Path segment = sealed.poll();
+    if (segment == null) {
+      hasRecords = false;
+      return List.of();
+    }
+    hasRecords = !sealed.isEmpty() || writing != null;
+    final List<Event> events = new ArrayList<>();
+    try {
+      readSegment(ByteBuffer.wrap(Files.readAllBytes(segment)), segment, events);
+      Files.delete(segment);
+    } catch (IOException e) {
+      log.warn("Failed to replay spilled events from {}", segment, e);
+    }
+    replayed.add(events.size());
+    return events;
+  }
+
+  private static void readSegment(ByteBuffer buffer, Path segment, List<Event> events) {
+    if (buffer.remaining() < HEADER_BYTES
+        || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION) {
+      log.warn("Skipping {}, which is not a spill segment of a supported version", segment);
+      return;
+    }
+    final CRC32C crc = new CRC32C();
+    while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+      final int length = buffer.getInt();
+      final int expectedCrc = buffer.getInt();
+      if (length <= 0 || length > buffer.remaining()) {
+        return;
+      }
+      final ByteBuffer payload = buffer.slice();
+      payload.limit(length);
+      buffer.position(buffer.position() + length);
+      crc.reset();
+      crc.update(payload.duplicate());
+      if ((int) crc.getValue() != expectedCrc) {
+        log.warn(
+            "Spilled event in {} failed its checksum, skipping the rest of the segment", segment);
+        return;
+      }
+      try {
+        events.add(Event.parseFrom(payload));
+      } catch (InvalidProtocolBufferException e) {
+        log.warn("Failed to parse spilled event in {}", segment, e);
+      }
+    }
+  }
+
+  private boolean rotate() throws IOException {
+    sealWriting();
+    if (sealed.size() >= maxSegments) {
+      return false;
+    }
+    final Path segment = directory.resolve(String.format("%020d%s", nextSegment++, SEGMENT_SUFFIX));
+    // an interrupt closes the channel while mapping it, and an interrupted close of the engine is
+    // exactly when events have to be spilled
+    final boolean interrupted = Thread.interrupted();
+    try (FileChannel channel =
+        FileChannel.open(
+            segment,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    } catch (IOException e) {
+      Files.deleteIfExists(segment);
+      throw e;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    writeBuffer.putInt(MAGIC);
+    writeBuffer.putInt(VERSION);
+    writing = segment;
+    return true;
+  }
+
+  private void sealWriting() {
+    if (writing == null) {
+      return;
+    }
+    writeBuffer.force();
+    sealed.add(writing);
+    writing = null;
+    writeBuffer = null;
+  }
+
+  private static long sequenceOf(Path segment) {
+    final String name = segment.getFileName().toString();
+    try {
+      return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** The number of events written to disk. */
+  long getSpilledCount() {
+    return spilled.sum();
+  }
+
+  /** The number of events read back from disk. */
+  long getReplayedCount() {
+    return replayed.sum();
+  }
+
+  /** The number of events that could not be spilled, because the spill was full or closed. */
+  long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  /** Flushes the segment being written to disk, where the next process replays it. */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    sealWriting();
+  }
+}
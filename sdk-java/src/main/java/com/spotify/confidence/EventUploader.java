@@ -1,25 +1,77 @@
 package com.spotify.confidence;
 
 import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
 import com.spotify.confidence.events.v1.Event;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 interface EventUploader {
   static Event.Builder event(
       String name, ConfidenceValue.Struct context, Optional<ConfidenceValue.Struct> data) {
-    final Map<String, ConfidenceValue> map = new HashMap<>(Map.of());
-    final ConfidenceValue.Struct dataStruct = data.orElse(ConfidenceValue.Struct.EMPTY);
-    map.putAll(dataStruct.asMap());
-    map.put("context", context);
+    return event(name, context.toProto(), data);
+  }
 
+  static Event.Builder event(String name, Value context, Optional<ConfidenceValue.Struct> data) {
+    final ConfidenceValue.Struct dataStruct = data.orElse(ConfidenceValue.Struct.EMPTY);
+    // the context replaces any data field of the same name
     return Event.newBuilder()
         .setEventDefinition(EventSenderEngineImpl.EVENT_NAME_PREFIX + name)
-        .setPayload(Struct.newBuilder().putAllFields(ConfidenceValue.of(map).asProtoMap()));
+        .setPayload(
+            Struct.newBuilder()
+                .putAllFields(dataStruct.asProtoMap())
+                .putFields("context", context));
   }
 
+  /**
+   * Uploads events, completing with false if the whole batch failed in a way that it should be
+   * uploaded again.
+   */
   CompletableFuture<Boolean> upload(List<Event> events);
+
+  /**
+   * Uploads events like {@link #upload}, and also tells which events of a batch that was accepted
+   * were rejected for a reason that may pass if they are uploaded again.
+   */
+  default CompletableFuture<Result> uploadReportingFailures(List<Event> events) {
+    final CompletableFuture<Boolean> upload = upload(events);
+    final CompletableFuture<Result> result =
+        upload.thenApply(uploaded -> uploaded ? Result.UPLOADED : Result.BATCH_FAILED);
+    // cancelling the result cancels the upload
+    result.whenComplete(
+        (ignored, throwable) -> {
+          if (result.isCancelled()) {
+            upload.cancel(true);
+          }
+        });
+    return result;
+  }
+
+  final class Result {
+    static final Result UPLOADED = new Result(false, List.of());
+    static final Result BATCH_FAILED = new Result(true, List.of());
+
+    private final boolean batchFailed;
+    private final List<Event> retryableEvents;
+
+    private Result(boolean batchFailed, List<Event> retryableEvents) {
+      this.batchFailed = batchFailed;
+      this.retryableEvents = retryableEvents;
+    }
+
+    static Result withRetryableEvents(List<Event> retryableEvents) {
+      return retryableEvents.isEmpty() ? UPLOADED : new Result(false, List.copyOf(retryableEvents));
+    }
+
+    /** Whether the whole batch failed, and should be uploaded again. */
+    boolean batchFailed() {
+      return batchFailed;
+    }
+
+    /** The events of an accepted batch that should be uploaded again on their own. */
+    List<Event> retryableEvents() {
+      return retryableEvents;
+    }
+  }
 }
@@ -0,0 +1,250 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import com.spotify.confidence.shaded.flags.resolver.v1.AppliedFlag;
+import dev.failsafe.Failsafe;
+import dev.failsafe.FailsafeExecutor;
+import dev.failsafe.RetryPolicy;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+
+/**
+ * Records flags that were resolved without apply and sends them to the backend in batches, grouped
+ * by resolve token.
+ *
+ * <p>Repeated applies of the same flag with the same resolve token are only sent once. They are
+ * recognized by a 128 bit hash of the flag and token rather than by the token itself, which holds
+ * the whole evaluation context, so the memory they take is bounded by the dedup capacity alone. The
+ * number of applies that are waiting to be sent, or are being sent, is bounded; applies beyond that
+ * bound are dropped.
+ */
+class FlagApplier implements Closeable {
+  static final int DEFAULT_MAX_BATCH_SIZE = 100;
+  static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(10);
+  static final int DEFAULT_MAX_PENDING_APPLIES = 100_000;
+  static final int DEFAULT_DEDUP_CAPACITY = 100_000;
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(FlagApplier.class);
+
+  private final ApplyUploader uploader;
+  private final Clock clock;
+  private final int maxBatchSize;
+  private final int maxPendingApplies;
+  private final FailsafeExecutor<Boolean> uploadExecutor;
+  private final ScheduledExecutorService scheduler;
+  private final Set<CompletableFuture<?>> pendingUploads = ConcurrentHashMap.newKeySet();
+  private final Map<ByteString, List<AppliedFlag>> pending = new LinkedHashMap<>();
+  private final Map<HashCode, Boolean> applied;
+  private final LongAdder dropped = new LongAdder();
+  private int outstanding = 0;
+  private volatile boolean closed = false;
+
+  FlagApplier(
+      ApplyUploader uploader,
+      Clock clock,
+      int maxBatchSize,
+      Duration flushInterval,
+      int maxPendingApplies,
+      int dedupCapacity) {
+    this(
+        uploader,
+        clock,
+        maxBatchSize,
+        flushInterval,
+        maxPendingApplies,
+        dedupCapacity,
+        RetryPolicy.<Boolean>builder()
+            .handleResult(false)
+            .withBackoff(1, 10, ChronoUnit.SECONDS)
+            .withJitter(0.1)
+            .withMaxAttempts(-1)
+            .withMaxDuration(Duration.ofMinutes(10))
+            .build());
+  }
+
+  /**
+   * @param retryPolicy retries uploads that complete with {@code false}
+   */
+  FlagApplier(
+      ApplyUploader uploader,
+      Clock clock,
+      int maxBatchSize,
+      Duration flushInterval,
+      int maxPendingApplies,
+      int dedupCapacity,
+      RetryPolicy<Boolean> retryPolicy) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    }
+    if (flushInterval.isNegative() || flushInterval.isZero()) {
+      throw new IllegalArgumentException("flushInterval must be positive");
+    }
+    if (maxPendingApplies <= 0) {
+      throw new IllegalArgumentException("maxPendingApplies must be positive");
+    }
+    if (dedupCapacity <= 0) {
+      throw new IllegalArgumentException("dedupCapacity must be positive");
+    }
+    this.uploader = uploader;
+    this.clock = clock;
+    this.maxBatchSize = maxBatchSize;
+    this.maxPendingApplies = maxPendingApplies;
+    this.applied =
+        new LinkedHashMap<>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<HashCode, Boolean> eldest) {
+            return size() > dedupCapacity;
+          }
+        };
+    this.uploadExecutor = Failsafe.with(retryPolicy);
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-flag-applier-%d")
+                .setDaemon(true)
+                .build());
+    final long intervalMillis = flushInterval.toMillis();
+    scheduler.scheduleWithFixedDelay(
+        this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  FlagApplier(ApplyUploader uploader, Clock clock) {
+    this(
+        uploader,
+        clock,
+        DEFAULT_MAX_BATCH_SIZE,
+        DEFAULT_FLUSH_INTERVAL,
+        DEFAULT_MAX_PENDING_APPLIES,
+        DEFAULT_DEDUP_CAPACITY);
+  }
+
+  void apply(String flag, ByteString resolveToken) {
+    if (resolveToken.isEmpty()) {
+      return;
+    }
+    if (closed) {
+      log.warn("FlagApplier is closed, dropping apply of {}", flag);
+      return;
+    }
+    final boolean batchFull;
+    synchronized (this) {
+      final HashCode key = applyKey(flag, resolveToken);
+      if (applied.containsKey(key)) {
+        return;
+      }
+      if (outstanding >= maxPendingApplies) {
+        dropped.increment();
+        log.warn("FlagApplier is overloaded, dropping apply of {}", flag);
+        return;
+      }
+      applied.put(key, Boolean.TRUE);
+      final List<AppliedFlag> flags = pending.computeIfAbsent(resolveToken, t -> new ArrayList<>());
+      flags.add(AppliedFlag.newBuilder().setFlag(flag).setApplyTime(clock.getTimestamp()).build());
+      outstanding++;
+      batchFull = flags.size() == maxBatchSize;
+    }
+    if (batchFull) {
+      try {
+        scheduler.execute(this::flush);
+      } catch (RejectedExecutionException e) {
+        // closing, the remaining applies are flushed by close
+      }
+    }
+  }
+
+  void flush() {
+    final Map<ByteString, List<AppliedFlag>> toSend;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      toSend = new LinkedHashMap<>(pending);
+      pending.clear();
+    }
+    toSend.forEach(
+        (resolveToken, flags) -> {
+          for (List<AppliedFlag> batch : Lists.partition(flags, maxBatchSize)) {
+            upload(resolveToken, batch);
+          }
+        });
+  }
+
+  private void upload(ByteString resolveToken, List<AppliedFlag> flags) {
+    final CompletableFuture<Boolean> uploaded =
+        uploadExecutor.getStageAsync(() -> uploader.upload(resolveToken, flags));
+    pendingUploads.add(uploaded);
+    uploaded.whenComplete(
+        (res, err) -> {
+          // errors are logged by the uploader
+          pendingUploads.remove(uploaded);
+          synchronized (this) {
+            outstanding -= flags.size();
+          }
+        });
+  }
+
+  @VisibleForTesting
+  long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  @VisibleForTesting
+  synchronized int getOutstandingCount() {
+    return outstanding;
+  }
+
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    try {
+      final CompletableFuture<?>[] uploads =
+          pendingUploads.stream()
+              .map(future -> future.exceptionally(throwable -> null))
+              .toArray(CompletableFuture[]::new);
+      CompletableFuture.allOf(uploads).get(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException ignored) {
+    }
+    pendingUploads.forEach(upload -> upload.cancel(true));
+  }
+
+  private static HashCode applyKey(String flag, ByteString resolveToken) {
+    return Hashing.murmur3_128()
+        .newHasher()
+        // the length keeps a flag and a token from hashing like another split of the same bytes
+        .putInt(flag.length())
+        .putString(flag, StandardCharsets.UTF_8)
+        .putBytes(resolveToken.asReadOnlyByteBuffer())
+        .hash();
+  }
+}
@@ -0,0 +1,13 @@
+package com.spotify.confidence;
+
+import com.spotify.confidence.shaded.flags.resolver.v1.WriteFlagLogsRequest;
+import java.util.concurrent.CompletableFuture;
+
+interface FlagLogUploader {
+
+  /**
+   * Writes a batch of flag logs. Completes with false if the write failed and should be retried,
+   * and with true once it succeeded or failed in a way that can't be retried.
+   */
+  CompletableFuture<Boolean> upload(WriteFlagLogsRequest request);
+}
@@ -0,0 +1,394 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.spotify.confidence.shaded.flags.admin.v1.ClientResolveInfo;
+import com.spotify.confidence.shaded.flags.admin.v1.EvaluationContextSchemaField;
+import com.spotify.confidence.shaded.flags.admin.v1.FlagResolveInfo;
+import com.spotify.confidence.shaded.flags.resolver.v1.TelemetryData;
+import com.spotify.confidence.shaded.flags.resolver.v1.WriteFlagLogsRequest;
+import com.spotify.confidence.shaded.flags.resolver.v1.events.FlagAssigned;
+import dev.failsafe.Failsafe;
+import dev.failsafe.FailsafeExecutor;
+import dev.failsafe.RetryPolicy;
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+
+/**
+ * Collects the logs of flags resolved in-process and writes them to the backend in batches through
+ * {@code InternalFlagLoggerService.WriteFlagLogs}.
+ *
+ * <p>{@link FlagAssigned} events are buffered in a bounded, lock-free queue; events beyond its
+ * capacity are dropped, and the number of dropped events is reported with the next batch as {@link
+ * TelemetryData}. Resolve counts are collapsed into one counter per flag, variant, rule and
+ * assignment, and the evaluation context schemas seen per client into a small set, so their size
+ * depends on the flags rather than on the number of resolves. A batch is written once {@code
+ * maxBatchSize} events are buffered, or every {@code flushInterval}.
+ */
+class FlagLogWriter implements Closeable {
+  static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+  static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(10);
+  static final int DEFAULT_CAPACITY = 100_000;
+  static final int MAX_SCHEMAS_PER_CLIENT = 10;
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(FlagLogWriter.class);
+
+  private final FlagLogUploader uploader;
+  private final int maxBatchSize;
+  private final int capacity;
+  private final Queue<FlagAssigned> assigned = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger buffered = new AtomicInteger();
+  // dropped since the last report, and in total
+  private final AtomicLong unreportedDropped = new AtomicLong();
+  private final LongAdder dropped = new LongAdder();
+  private final ConcurrentMap<ResolveKey, AtomicLong> resolveCounts = new ConcurrentHashMap<>();
+  private final ConcurrentMap<ClientKey, Set<ClientResolveInfo.EvaluationContextSchemaInstance>>
+      schemas = new ConcurrentHashMap<>();
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  private final FailsafeExecutor<Boolean> uploadExecutor;
+  private final ScheduledExecutorService scheduler;
+  private final Set<CompletableFuture<?>> pendingUploads = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed = false;
+
+  FlagLogWriter(FlagLogUploader uploader, int maxBatchSize, Duration flushInterval, int capacity) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    }
+    if (flushInterval.isNegative() || flushInterval.isZero()) {
+      throw new IllegalArgumentException("flushInterval must be positive");
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.uploader = uploader;
+    this.maxBatchSize = maxBatchSize;
+    this.capacity = capacity;
+    this.uploadExecutor =
+        Failsafe.with(
+            RetryPolicy.<Boolean>builder()
+                .handleResult(false)
+                .withBackoff(1, 10, ChronoUnit.SECONDS)
+                .withJitter(0.1)
+                .withMaxAttempts(-1)
+                .withMaxDuration(Duration.ofMinutes(10))
+                .build());
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-flag-logs-%d")
+                .setDaemon(true)
+                .build());
+    final long intervalMillis = flushInterval.toMillis();
+    scheduler.scheduleWithFixedDelay(
+        this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  FlagLogWriter(FlagLogUploader uploader) {
+    this(uploader, DEFAULT_MAX_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_CAPACITY);
+  }
+
+  void write(FlagAssigned event) {
+    if (closed) {
+      log.warn("FlagLogWriter is closed, dropping flag assigned event");
+      drop(1);
+      return;
+    }
+    if (buffered.incrementAndGet() > capacity) {
+      buffered.decrementAndGet();
+      drop(1);
+      return;
+    }
+    assigned.add(event);
+    if (buffered.get() >= maxBatchSize && flushRequested.compareAndSet(false, true)) {
+      try {
+        scheduler.execute(this::flush);
+      } catch (RejectedExecutionException e) {
+        // closing, the remaining events are flushed by close
+      }
+    }
+  }
+
+  /** Counts a resolve of a flag, with empty strings for the parts that weren't assigned. */
+  void countResolve(String flag, String variant, String rule, String assignmentId) {
+    resolveCounts
+        .computeIfAbsent(new ResolveKey(flag, variant, rule, assignmentId), key -> new AtomicLong())
+        .incrementAndGet();
+  }
+
+  /** Records the schema of a context that a client resolved with. */
+  void countClient(String client, String credential, Struct context) {
+    final Set<ClientResolveInfo.EvaluationContextSchemaInstance> clientSchemas =
+        schemas.computeIfAbsent(
+            new ClientKey(client, credential), key -> ConcurrentHashMap.newKeySet());
+    if (clientSchemas.size() < MAX_SCHEMAS_PER_CLIENT) {
+      final ClientResolveInfo.EvaluationContextSchemaInstance.Builder schema =
+          ClientResolveInfo.EvaluationContextSchemaInstance.newBuilder();
+      addSchema(schema, "", context);
+      clientSchemas.add(schema.build());
+    }
+  }
+
+  private static void addSchema(
+      ClientResolveInfo.EvaluationContextSchemaInstance.Builder schema,
+      String prefix,
+      Struct struct) {
+    for (Map.Entry<String, Value> field : struct.getFieldsMap().entrySet()) {
+      final String name = prefix + field.getKey();
+      switch (field.getValue().getKindCase()) {
+        case NULL_VALUE:
+          schema.putSchema(name, EvaluationContextSchemaField.Kind.NULL_KIND);
+          break;
+        case NUMBER_VALUE:
+          schema.putSchema(name, EvaluationContextSchemaField.Kind.NUMBER_KIND);
+          break;
+        case STRING_VALUE:
+          schema.putSchema(name, EvaluationContextSchemaField.Kind.STRING_KIND);
+          break;
+        case BOOL_VALUE:
+          schema.putSchema(name, EvaluationContextSchemaField.Kind.BOOL_KIND);
+          break;
+        case STRUCT_VALUE:
+          addSchema(schema, name + ".", field.getValue().getStructValue());
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /** Writes everything collected so far, in as many batches as needed. */
+  synchronized void flush() {
+    flushRequested.set(false);
+    boolean first = true;
+    while (true) {
+      final WriteFlagLogsRequest.Builder request = WriteFlagLogsRequest.newBuilder();
+      FlagAssigned event;
+      while (request.getFlagAssignedCount() < maxBatchSize && (event = assigned.poll()) != null) {
+        buffered.decrementAndGet();
+        request.addFlagAssigned(event);
+      }
+      if (first) {
+        // counters go with the first batch of each flush
+        addResolveInfo(request);
+        final long droppedEvents = unreportedDropped.getAndSet(0);
+        if (droppedEvents > 0) {
+          request.setTelemetryData(TelemetryData.newBuilder().setDroppedEvents(droppedEvents));
+        }
+        first = false;
+      }
+      if (request.getFlagAssignedCount() == 0
+          && request.getFlagResolveInfoCount() == 0
+          && request.getClientResolveInfoCount() == 0
+          && !request.hasTelemetryData()) {
+        return;
+      }
+      upload(request.build());
+      if (request.getFlagAssignedCount() < maxBatchSize) {
+        return;
+      }
+    }
+  }
+
+  private void addResolveInfo(WriteFlagLogsRequest.Builder request) {
+    final Map<String, FlagCounts> flags = new TreeMap<>();
+    for (Map.Entry<ResolveKey, AtomicLong> entry : resolveCounts.entrySet()) {
+      final long count = entry.getValue().getAndSet(0);
+      if (count > 0) {
+        final ResolveKey key = entry.getKey();
+        flags.computeIfAbsent(key.flag, flag -> new FlagCounts()).add(key, count);
+      }
+    }
+    flags.forEach((flag, counts) -> request.addFlagResolveInfo(counts.toProto(flag)));
+
+    schemas.forEach(
+        (client, clientSchemas) -> {
+          final ClientResolveInfo.Builder info =
+              ClientResolveInfo.newBuilder()
+                  .setClient(client.client)
+                  .setClientCredential(client.credential);
+          final Iterator<ClientResolveInfo.EvaluationContextSchemaInstance> iterator =
+              clientSchemas.iterator();
+          while (iterator.hasNext()) {
+            info.addSchema(iterator.next());
+            iterator.remove();
+          }
+          if (info.getSchemaCount() > 0) {
+            request.addClientResolveInfo(info);
+          }
+        });
+  }
+
+  private void upload(WriteFlagLogsRequest request) {
+    final CompletableFuture<Boolean> uploaded =
+        uploadExecutor.getStageAsync(() -> uploader.upload(request));
+    pendingUploads.add(uploaded);
+    uploaded.whenComplete(
+        (success, error) -> {
+          // errors are logged by the uploader
+          pendingUploads.remove(uploaded);
+          if (error != null || !success) {
+            drop(request.getFlagAssignedCount());
+          }
+        });
+  }
+
+  private void drop(int events) {
+    unreportedDropped.addAndGet(events);
+    dropped.add(events);
+  }
+
+  @VisibleForTesting
+  long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  @VisibleForTesting
+  int getBufferedCount() {
+    return buffered.get();
+  }
+
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    try {
+      final CompletableFuture<?>[] uploads =
+          pendingUploads.stream()
+              .map(future -> future.exceptionally(throwable -> null))
+              .toArray(CompletableFuture[]::new);
+      CompletableFuture.allOf(uploads).get(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException ignored) {
+    }
+    if (!pendingUploads.isEmpty()) {
+      log.warn("Closing with {} flag log batches still being written", pendingUploads.size());
+    }
+    pendingUploads.forEach(upload -> upload.cancel(true));
+  }
+
+  /** The resolve counts of a single flag. */
+  private static class FlagCounts {
+    private final Map<String, Long> variants = new TreeMap<>();
+    private final Map<String, Long> rules = new TreeMap<>();
+    private final Map<String, Map<String, Long>> assignments = new TreeMap<>();
+
+    void add(ResolveKey key, long count) {
+      variants.merge(key.variant, count, Long::sum);
+      if (!key.rule.isEmpty()) {
+        rules.merge(key.rule, count, Long::sum);
+        assignments
+            .computeIfAbsent(key.rule, rule -> new TreeMap<>())
+            .merge(key.assignmentId, count, Long::sum);
+      }
+    }
+
+    FlagResolveInfo toProto(String flag) {
+      final FlagResolveInfo.Builder info = FlagResolveInfo.newBuilder().setFlag(flag);
+      variants.forEach(
+          (variant, count) ->
+              info.addVariantResolveInfo(
+                  FlagResolveInfo.VariantResolveInfo.newBuilder()
+                      .setVariant(variant)
+                      .setCount(count)));
+      rules.forEach(
+          (rule, count) -> {
+            final FlagResolveInfo.RuleResolveInfo.Builder ruleInfo =
+                FlagResolveInfo.RuleResolveInfo.newBuilder().setRule(rule).setCount(count);
+            assignments
+                .get(rule)
+                .forEach(
+                    (assignmentId, assignmentCount) ->
+                        ruleInfo.addAssignmentResolveInfo(
+                            FlagResolveInfo.AssignmentResolveInfo.newBuilder()
+                                .setAssignmentId(assignmentId)
+                                .setCount(assignmentCount)));
+            info.addRuleResolveInfo(ruleInfo);
+          });
+      return info.build();
+    }
+  }
+
+  private static class ResolveKey {
+    private final String flag;
+    private final String variant;
+    private final String rule;
+    private final String assignmentId;
+
+    private ResolveKey(String flag, String variant, String rule, String assignmentId) {
+      this.flag = flag;
+      this.variant = variant;
+      this.rule = rule;
+      this.assignmentId = assignmentId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ResolveKey)) return false;
+      final ResolveKey other = (ResolveKey) o;
+      return flag.equals(other.flag)
+          && variant.equals(other.variant)
+          && rule.equals(other.rule)
+          && assignmentId.equals(other.assignmentId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(flag, variant, rule, assignmentId);
+    }
+  }
+
+  private static class ClientKey {
+    private final String client;
+    private final String credential;
+
+    private ClientKey(String client, String credential) {
+      this.client = client;
+      this.credential = credential;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ClientKey)) return false;
+      final ClientKey other = (ClientKey) o;
+      return client.equals(other.client) && credential.equals(other.credential);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(client, credential);
+    }
+  }
+}
@@ -2,11 +2,21 @@ package com.spotify.confidence;
 
 import com.google.protobuf.Struct;
 import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 interface FlagResolver {
   void close();
 
-  public CompletableFuture<ResolveFlagsResponse> resolve(
-      String flag, Struct context, Boolean isProvider);
+  default CompletableFuture<ResolveFlagsResponse> resolve(
+      String flag, Struct context, Boolean isProvider) {
+    return resolve(List.of(flag), context, isProvider);
+  }
+
+  /**
+   * Resolves a set of flags in a single request. An empty list of flags resolves all flags that are
+   * enabled for the client.
+   */
+  CompletableFuture<ResolveFlagsResponse> resolve(
+      List<String> flags, Struct context, Boolean isProvider);
 }
@@ -1,9 +1,31 @@
 package com.spotify.confidence;
 
+import com.google.protobuf.ByteString;
 import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
 import java.io.Closeable;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 interface FlagResolverClient extends Closeable {
   CompletableFuture<ResolveFlagsResponse> resolveFlags(String flag, ConfidenceValue.Struct context);
+
+  /**
+   * Resolves a set of flags in a single request. An empty list of flags resolves all flags that are
+   * enabled for the client.
+   */
+  CompletableFuture<ResolveFlagsResponse> resolveFlags(
+      List<String> flags, ConfidenceValue.Struct context);
+
+  /**
+   * Records that the value of a resolved flag was used. Only has an effect if flags are resolved
+   * without being applied by the backend.
+   */
+  default void applyFlag(String flag, ByteString resolveToken) {}
+
+  /**
+   * Whether resolved flags are only applied once {@link #applyFlag} records that they were used.
+   */
+  default boolean appliesWhenRead() {
+    return false;
+  }
 }
@@ -1,10 +1,12 @@
 package com.spotify.confidence;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Struct;
 import com.google.protobuf.Value;
 import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import javax.annotation.Nullable;
 
@@ -13,11 +15,60 @@ class FlagResolverClientImpl implements FlagResolverClient {
   private final FlagResolver grpcFlagResolver;
   private final @Nullable Telemetry telemetry;
   private final boolean isProvider;
+  private final @Nullable ResolveCache resolveCache;
+  private final @Nullable InFlightResolves inFlightResolves;
+  private final @Nullable FlagApplier flagApplier;
+  private final ConfidenceMetrics metrics;
 
   public FlagResolverClientImpl(FlagResolver grpcFlagResolver, @Nullable Telemetry telemetry) {
+    this(grpcFlagResolver, telemetry, null, null, null);
+  }
+
+  FlagResolverClientImpl(
+      FlagResolver grpcFlagResolver,
+      @Nullable Telemetry telemetry,
+      @Nullable ResolveCache resolveCache,
+      @Nullable InFlightResolves inFlightResolves,
+      @Nullable FlagApplier flagApplier) {
+    this(
+        grpcFlagResolver,
+        telemetry,
+        resolveCache,
+        inFlightResolves,
+        flagApplier,
+        ConfidenceMetrics.NOOP);
+  }
+
+  FlagResolverClientImpl(
+      FlagResolver grpcFlagResolver,
+      @Nullable Telemetry telemetry,
+      @Nullable ResolveCache resolveCache,
+      @Nullable InFlightResolves inFlightResolves,
+      @Nullable FlagApplier flagApplier,
+      ConfidenceMetrics metrics) {
+    if (resolveCache != null && flagApplier == null) {
+      // a cached resolve is not sent again, so it is only applied if flags are applied when read
+      throw new IllegalArgumentException("a resolve cache requires a flag applier");
+    }
     this.grpcFlagResolver = grpcFlagResolver;
     this.telemetry = telemetry;
     this.isProvider = telemetry != null && telemetry.isProvider();
+    this.resolveCache = resolveCache;
+    this.inFlightResolves = inFlightResolves;
+    this.flagApplier = flagApplier;
+    this.metrics = metrics;
+    if (resolveCache != null) {
+      metrics.registerCounter(
+          ConfidenceMetrics.RESOLVE_CACHE_HITS, () -> resolveCache.stats().getHits());
+      metrics.registerCounter(
+          ConfidenceMetrics.RESOLVE_CACHE_MISSES, () -> resolveCache.stats().getMisses());
+      metrics.registerCounter(
+          ConfidenceMetrics.RESOLVE_CACHE_EVICTIONS, () -> resolveCache.stats().getEvictions());
+    }
+    if (inFlightResolves != null) {
+      metrics.registerCounter(
+          ConfidenceMetrics.RESOLVE_COALESCED, inFlightResolves::getCoalescedCount);
+    }
   }
 
   public FlagResolverClientImpl(FlagResolver grpcFlagResolver) {
@@ -26,8 +77,95 @@ class FlagResolverClientImpl implements FlagResolverClient {
 
   public CompletableFuture<ResolveFlagsResponse> resolveFlags(
       String flagName, ConfidenceValue.Struct context) {
+    final Struct evaluationContext = toEvaluationContext(context);
+    if (resolveCache == null && inFlightResolves == null) {
+      return resolveRemotely(flagName, evaluationContext, null);
+    }
+
+    final ResolveKey resolveKey = ResolveKey.of(flagName, evaluationContext);
+    if (resolveCache != null) {
+      final ResolveFlagsResponse cached = resolveCache.get(resolveKey);
+      if (cached != null) {
+        return CompletableFuture.completedFuture(cached);
+      }
+    }
+    if (inFlightResolves != null) {
+      return inFlightResolves.resolve(
+          resolveKey, () -> resolveRemotely(flagName, evaluationContext, resolveKey));
+    }
+    return resolveRemotely(flagName, evaluationContext, resolveKey);
+  }
+
+  private CompletableFuture<ResolveFlagsResponse> resolveRemotely(
+      String flagName, Struct evaluationContext, @Nullable ResolveKey resolveKey) {
     final Instant start = Instant.now();
+    final long startNanos = System.nanoTime();
+    final CompletableFuture<ResolveFlagsResponse> call =
+        recordResolve(
+            this.grpcFlagResolver.resolve(flagName, evaluationContext, isProvider), startNanos);
+    final CompletableFuture<ResolveFlagsResponse> result =
+        call.thenApply(
+            response -> {
+              if (telemetry != null) {
+                final Instant end = Instant.now();
+                telemetry.appendLatency(Duration.between(start, end).toMillis());
+              }
+              if (resolveCache != null && resolveKey != null) {
+                resolveCache.put(resolveKey, response);
+              }
+              return response;
+            });
+    // let cancellation reach the underlying call
+    result.whenComplete(
+        (response, throwable) -> {
+          if (result.isCancelled()) {
+            call.cancel(true);
+          }
+        });
+    return result;
+  }
 
+  @Override
+  public CompletableFuture<ResolveFlagsResponse> resolveFlags(
+      List<String> flagNames, ConfidenceValue.Struct context) {
+    final Instant start = Instant.now();
+    final long startNanos = System.nanoTime();
+    return recordResolve(
+            this.grpcFlagResolver.resolve(flagNames, toEvaluationContext(context), isProvider),
+            startNanos)
+        .thenApply(
+            response -> {
+              if (telemetry != null) {
+                final Instant end = Instant.now();
+                telemetry.appendLatency(Duration.between(start, end).toMillis());
+              }
+              return response;
+            });
+  }
+
+  @Override
+  public void applyFlag(String flag, ByteString resolveToken) {
+    if (flagApplier != null) {
+      flagApplier.apply(flag, resolveToken);
+    }
+  }
+
+  @Override
+  public boolean appliesWhenRead() {
+    return flagApplier != null;
+  }
+
+  private CompletableFuture<ResolveFlagsResponse> recordResolve(
+      CompletableFuture<ResolveFlagsResponse> call, long startNanos) {
+    if (metrics != ConfidenceMetrics.NOOP) {
+      call.whenComplete(
+          (response, throwable) ->
+              metrics.recordResolve(System.nanoTime() - startNanos, throwable != null));
+    }
+    return call;
+  }
+
+  private static Struct toEvaluationContext(ConfidenceValue.Struct context) {
     final Struct.Builder evaluationContextBuilder = context.toProto().getStructValue().toBuilder();
     if (context.asMap().containsKey(OPEN_FEATURE_RESOLVE_CONTEXT_KEY)) {
       final Value openFeatureEvaluationContext =
@@ -37,21 +175,24 @@ class FlagResolverClientImpl implements FlagResolverClient {
           openFeatureEvaluationContext.getStructValue().getFieldsMap());
       evaluationContextBuilder.removeFields(OPEN_FEATURE_RESOLVE_CONTEXT_KEY);
     }
+    return evaluationContextBuilder.build();
+  }
 
-    return this.grpcFlagResolver
-        .resolve(flagName, evaluationContextBuilder.build(), isProvider)
-        .thenApply(
-            response -> {
-              if (telemetry != null) {
-                final Instant end = Instant.now();
-                telemetry.appendLatency(Duration.between(start, end).toMillis());
-              }
-              return response;
-            });
+  @Nullable
+  ResolveCache.Stats getResolveCacheStats() {
+    return resolveCache != null ? resolveCache.stats() : null;
+  }
+
+  @Nullable
+  InFlightResolves getInFlightResolves() {
+    return inFlightResolves;
   }
 
   @Override
   public void close() {
+    if (flagApplier != null) {
+      flagApplier.close();
+    }
     this.grpcFlagResolver.close();
   }
 }
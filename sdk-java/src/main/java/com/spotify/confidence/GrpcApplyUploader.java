@@ -0,0 +1,80 @@
+package com.spotify.confidence;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+import com.spotify.confidence.shaded.flags.resolver.v1.AppliedFlag;
+import com.spotify.confidence.shaded.flags.resolver.v1.ApplyFlagsRequest;
+import com.spotify.confidence.shaded.flags.resolver.v1.FlagResolverServiceGrpc;
+import com.spotify.confidence.shaded.flags.resolver.v1.Sdk;
+import com.spotify.confidence.shaded.flags.resolver.v1.SdkId;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+
+class GrpcApplyUploader implements ApplyUploader {
+
+  private static final Set<Status.Code> RETRYABLE_STATUS_CODES =
+      ImmutableSet.of(
+          Status.Code.UNKNOWN,
+          Status.Code.DEADLINE_EXCEEDED,
+          Status.Code.RESOURCE_EXHAUSTED,
+          Status.Code.UNAVAILABLE,
+          Status.Code.ABORTED,
+          Status.Code.INTERNAL,
+          Status.Code.DATA_LOSS);
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(GrpcApplyUploader.class);
+
+  private final String clientSecret;
+  private final Sdk sdk;
+  private final FlagResolverServiceGrpc.FlagResolverServiceFutureStub stub;
+  private final Clock clock;
+  private final int deadlineMillis;
+
+  GrpcApplyUploader(
+      String clientSecret,
+      Clock clock,
+      ManagedChannel managedChannel,
+      int deadlineMillis,
+      boolean isProvider) {
+    this.clientSecret = clientSecret;
+    this.stub = FlagResolverServiceGrpc.newFutureStub(managedChannel);
+    this.clock = clock;
+    this.deadlineMillis = deadlineMillis;
+    this.sdk =
+        Sdk.newBuilder()
+            .setId(isProvider ? SdkId.SDK_ID_JAVA_PROVIDER : SdkId.SDK_ID_JAVA_CONFIDENCE)
+            .setVersion(ConfidenceUtils.getSdkVersion())
+            .build();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> upload(ByteString resolveToken, List<AppliedFlag> flags) {
+    final ApplyFlagsRequest request =
+        ApplyFlagsRequest.newBuilder()
+            .setClientSecret(clientSecret)
+            .setResolveToken(resolveToken)
+            .setSendTime(clock.getTimestamp())
+            .setSdk(sdk)
+            .addAllFlags(flags)
+            .build();
+
+    return GrpcUtil.toCompletableFuture(
+            stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS).applyFlags(request))
+        .thenApply(
+            response -> {
+              log.debug(String.format("Successfully applied %d flags", flags.size()));
+              return true;
+            })
+        .exceptionally(
+            throwable -> {
+              log.error(
+                  String.format("Applying flags failed with reason: %s", throwable.getMessage()),
+                  throwable);
+              return !RETRYABLE_STATUS_CODES.contains(Status.fromThrowable(throwable).getCode());
+            });
+  }
+}
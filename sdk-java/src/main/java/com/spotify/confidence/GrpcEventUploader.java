@@ -2,12 +2,14 @@ package com.spotify.confidence;
 
 import com.google.common.collect.ImmutableSet;
 import com.spotify.confidence.events.v1.Event;
+import com.spotify.confidence.events.v1.EventError;
 import com.spotify.confidence.events.v1.EventsServiceGrpc;
 import com.spotify.confidence.events.v1.PublishEventsRequest;
 import com.spotify.confidence.events.v1.Sdk;
 import com.spotify.confidence.events.v1.SdkId;
 import io.grpc.ManagedChannel;
 import io.grpc.Status;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -32,11 +34,22 @@ class GrpcEventUploader implements EventUploader {
   private final EventsServiceGrpc.EventsServiceFutureStub stub;
   private final Clock clock;
   private final int deadlineMillis;
+  private final ConfidenceMetrics metrics;
 
   private static final Logger log = org.slf4j.LoggerFactory.getLogger(GrpcEventUploader.class);
 
   GrpcEventUploader(
       String clientSecret, Clock clock, ManagedChannel managedChannel, int deadlineMillis) {
+    this(clientSecret, clock, managedChannel, deadlineMillis, ConfidenceMetrics.NOOP);
+  }
+
+  GrpcEventUploader(
+      String clientSecret,
+      Clock clock,
+      ManagedChannel managedChannel,
+      int deadlineMillis,
+      ConfidenceMetrics metrics) {
+    this.metrics = metrics;
     this.clientSecret = clientSecret;
     this.managedChannel = managedChannel;
     this.stub = EventsServiceGrpc.newFutureStub(managedChannel);
@@ -51,6 +64,11 @@ class GrpcEventUploader implements EventUploader {
 
   @Override
   public CompletableFuture<Boolean> upload(List<Event> events) {
+    return uploadReportingFailures(events).thenApply(result -> !result.batchFailed());
+  }
+
+  @Override
+  public CompletableFuture<Result> uploadReportingFailures(List<Event> events) {
     final PublishEventsRequest request =
         PublishEventsRequest.newBuilder()
             .setClientSecret(clientSecret)
@@ -67,24 +85,52 @@ class GrpcEventUploader implements EventUploader {
               if (publishEventsResponse.getErrorsCount() == 0) {
                 log.debug(
                     String.format("Successfully published %d events", eventsInRequest.size()));
-              } else {
-                log.error(
-                    String.format(
-                        "Published batch with %d events, of which %d failed. Failed events are of type: %s",
-                        eventsInRequest.size(),
-                        publishEventsResponse.getErrorsCount(),
-                        publishEventsResponse.getErrorsList().stream()
-                            .map(e -> eventsInRequest.get(e.getIndex()).getEventDefinition())
-                            .collect(Collectors.toSet())));
+                return Result.UPLOADED;
+              }
+              final List<Event> retryable = new ArrayList<>();
+              for (EventError error : publishEventsResponse.getErrorsList()) {
+                if (error.getIndex() >= 0
+                    && error.getIndex() < eventsInRequest.size()
+                    && isRetryable(error.getReason())) {
+                  retryable.add(eventsInRequest.get(error.getIndex()));
+                }
               }
-              return true;
+              metrics.recordEventsRejected(retryable.size(), true);
+              metrics.recordEventsRejected(
+                  publishEventsResponse.getErrorsCount() - retryable.size(), false);
+              log.error(
+                  String.format(
+                      "Published batch with %d events, of which %d failed and %d will be retried."
+                          + " Failed events are of type: %s",
+                      eventsInRequest.size(),
+                      publishEventsResponse.getErrorsCount(),
+                      retryable.size(),
+                      publishEventsResponse.getErrorsList().stream()
+                          .filter(e -> e.getIndex() >= 0 && e.getIndex() < eventsInRequest.size())
+                          .map(e -> eventsInRequest.get(e.getIndex()).getEventDefinition())
+                          .collect(Collectors.toSet())));
+              return Result.withRetryableEvents(retryable);
             })
         .exceptionally(
             (throwable -> {
               log.error(
                   String.format("Publishing batch failed with reason: %s", throwable.getMessage()),
                   throwable);
-              return !RETRYABLE_STATUS_CODES.contains(Status.fromThrowable(throwable).getCode());
+              return RETRYABLE_STATUS_CODES.contains(Status.fromThrowable(throwable).getCode())
+                  ? Result.BATCH_FAILED
+                  : Result.UPLOADED;
             }));
   }
+
+  private static boolean isRetryable(EventError.Reason reason) {
+    switch (reason) {
+      case EVENT_DEFINITION_NOT_FOUND:
+      case EVENT_SCHEMA_VALIDATION_FAILED:
+        // the event is rejected again however often it is sent
+        return false;
+      default:
+        // unknown errors, including reasons added after this client was built
+        return true;
+    }
+  }
 }
@@ -0,0 +1,54 @@
+package com.spotify.confidence;
+
+import com.google.common.collect.ImmutableSet;
+import com.spotify.confidence.shaded.flags.resolver.v1.InternalFlagLoggerServiceGrpc;
+import com.spotify.confidence.shaded.flags.resolver.v1.WriteFlagLogsRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+
+class GrpcFlagLogUploader implements FlagLogUploader {
+
+  private static final Set<Status.Code> RETRYABLE_STATUS_CODES =
+      ImmutableSet.of(
+          Status.Code.UNKNOWN,
+          Status.Code.DEADLINE_EXCEEDED,
+          Status.Code.RESOURCE_EXHAUSTED,
+          Status.Code.UNAVAILABLE,
+          Status.Code.ABORTED,
+          Status.Code.INTERNAL,
+          Status.Code.DATA_LOSS);
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(GrpcFlagLogUploader.class);
+
+  private final InternalFlagLoggerServiceGrpc.InternalFlagLoggerServiceFutureStub stub;
+  private final int deadlineMillis;
+
+  GrpcFlagLogUploader(ManagedChannel managedChannel, int deadlineMillis) {
+    this.stub = InternalFlagLoggerServiceGrpc.newFutureStub(managedChannel);
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  @Override
+  public CompletableFuture<Boolean> upload(WriteFlagLogsRequest request) {
+    return GrpcUtil.toCompletableFuture(
+            stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS).writeFlagLogs(request))
+        .thenApply(
+            response -> {
+              log.debug(
+                  String.format(
+                      "Successfully wrote %d flag assigned events",
+                      request.getFlagAssignedCount()));
+              return true;
+            })
+        .exceptionally(
+            throwable -> {
+              log.error(
+                  String.format("Writing flag logs failed with reason: %s", throwable.getMessage()),
+                  throwable);
+              return !RETRYABLE_STATUS_CODES.contains(Status.fromThrowable(throwable).getCode());
+            });
+  }
+}
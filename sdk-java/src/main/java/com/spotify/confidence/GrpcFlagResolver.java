@@ -16,31 +16,47 @@ public class GrpcFlagResolver implements FlagResolver {
 
   private final FlagResolverServiceGrpc.FlagResolverServiceFutureStub stub;
   private final int deadlineMillis;
+  private final boolean apply;
 
   public GrpcFlagResolver(
       String clientSecret,
       ManagedChannel managedChannel,
       TelemetryClientInterceptor telemetryInterceptor,
       int deadlineMillis) {
+    this(clientSecret, managedChannel, telemetryInterceptor, deadlineMillis, true);
+  }
+
+  /**
+   * @param apply whether the backend should apply the resolved flags right away. If false, the
+   *     resolve token of the response must be passed to {@code ApplyFlags} when a flag is used.
+   */
+  GrpcFlagResolver(
+      String clientSecret,
+      ManagedChannel managedChannel,
+      TelemetryClientInterceptor telemetryInterceptor,
+      int deadlineMillis,
+      boolean apply) {
     if (Strings.isNullOrEmpty(clientSecret)) {
       throw new IllegalArgumentException("clientSecret must be a non-empty string.");
     }
     this.clientSecret = clientSecret;
     this.managedChannel = managedChannel;
     this.deadlineMillis = deadlineMillis;
+    this.apply = apply;
     this.stub =
         FlagResolverServiceGrpc.newFutureStub(managedChannel)
             .withInterceptors(telemetryInterceptor);
   }
 
+  @Override
   public CompletableFuture<ResolveFlagsResponse> resolve(
-      String flag, Struct context, Boolean isProvider) {
+      List<String> flags, Struct context, Boolean isProvider) {
     return GrpcUtil.toCompletableFuture(
         stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS)
             .resolveFlags(
                 ResolveFlagsRequest.newBuilder()
                     .setClientSecret(this.clientSecret)
-                    .addAllFlags(List.of(flag))
+                    .addAllFlags(flags)
                     .setEvaluationContext(context)
                     .setSdk(
                         sdkBuilder
@@ -49,7 +65,7 @@ public class GrpcFlagResolver implements FlagResolver {
                                     ? SdkId.SDK_ID_JAVA_PROVIDER
                                     : SdkId.SDK_ID_JAVA_CONFIDENCE)
                             .build())
-                    .setApply(true)
+                    .setApply(apply)
                     .build()));
   }
 
@@ -0,0 +1,75 @@
+package com.spotify.confidence;
+
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolverStateServiceGrpc;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolverStateUriRequest;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolverStateUriResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Fetches the resolver state from the signed URI handed out by the {@code ResolverStateService}.
+ * The URI is reused until shortly before it expires, or until a download from it fails. The service
+ * also reports the account of the state, which is checked against the configured one.
+ */
+class GrpcResolverStateSource implements ResolverStateSource {
+  // a new uri is requested this long before the current one expires
+  static final Duration EXPIRY_MARGIN = Duration.ofMinutes(1);
+
+  private final ResolverStateServiceGrpc.ResolverStateServiceBlockingStub stub;
+  private final HttpClient httpClient;
+  private final Duration timeout;
+  private final Clock clock;
+  @Nullable private ResolverStateUriResponse signedUri;
+  @Nullable private String account;
+
+  GrpcResolverStateSource(ManagedChannel channel, Duration timeout, Clock clock) {
+    this.stub = ResolverStateServiceGrpc.newBlockingStub(channel);
+    this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    this.timeout = timeout;
+    this.clock = clock;
+  }
+
+  @Override
+  public synchronized byte[] fetch() throws IOException {
+    if (signedUri == null || expiresSoon(signedUri)) {
+      try {
+        signedUri =
+            stub.withDeadlineAfter(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .resolverStateUri(ResolverStateUriRequest.getDefaultInstance());
+        account = signedUri.getAccount().isEmpty() ? null : signedUri.getAccount();
+      } catch (StatusRuntimeException e) {
+        throw new IOException("Failed to get resolver state uri: " + e.getStatus(), e);
+      }
+    }
+    try {
+      return HttpResolverStateSource.download(
+          httpClient, URI.create(signedUri.getSignedUri()), timeout);
+    } catch (IOException | IllegalArgumentException e) {
+      signedUri = null;
+      throw e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+  }
+
+  @Override
+  @Nullable
+  public synchronized String account() {
+    return account;
+  }
+
+  private boolean expiresSoon(ResolverStateUriResponse response) {
+    if (!response.hasExpireTime()) {
+      return true;
+    }
+    final Instant expireTime =
+        Instant.ofEpochSecond(
+            response.getExpireTime().getSeconds(), response.getExpireTime().getNanos());
+    return !clock.get().plus(EXPIRY_MARGIN).isBefore(expireTime);
+  }
+}
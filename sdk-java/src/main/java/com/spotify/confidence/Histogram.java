@@ -0,0 +1,118 @@
+package com.spotify.confidence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, lock-free histogram of non-negative long values with log-linear buckets.
+ *
+ * <p>Values below {@code 2^SUB_BUCKET_BITS} are counted exactly. Larger values are counted in one
+ * of {@code 2^SUB_BUCKET_BITS} linear sub-buckets per power of two, which bounds the relative error
+ * of a reported value to {@code 1 / 2^SUB_BUCKET_BITS}. Memory use is constant regardless of how
+ * many values are recorded.
+ */
+class Histogram {
+  static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  void record(long value) {
+    final long clamped = Math.max(0, value);
+    counts.incrementAndGet(bucketIndex(clamped));
+    count.increment();
+    sum.add(clamped);
+    long currentMax;
+    while (clamped > (currentMax = max.get()) && !max.compareAndSet(currentMax, clamped)) {
+      // retry until the max is updated or another thread recorded a larger value
+    }
+  }
+
+  long getCount() {
+    return count.sum();
+  }
+
+  long getSum() {
+    return sum.sum();
+  }
+
+  long getMax() {
+    return max.get();
+  }
+
+  long getBucketCount(int index) {
+    return counts.get(index);
+  }
+
+  /**
+   * Returns the count of a bucket and resets it to zero, for readers that report what was recorded
+   * since their last read. The total count, sum and max are not reset.
+   */
+  long takeBucketCount(int index) {
+    return counts.getAndSet(index, 0);
+  }
+
+  /** Like {@link #takeBucketCount(int)}, but takes at most {@code limit}, leaving the rest. */
+  long takeBucketCount(int index, long limit) {
+    while (true) {
+      final long current = counts.get(index);
+      final long taken = Math.min(current, limit);
+      if (counts.compareAndSet(index, current, current - taken)) {
+        return taken;
+      }
+    }
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the value at the given quantile, or 0 if the
+   * histogram is empty.
+   */
+  long valueAtQuantile(double quantile) {
+    final long total = getCount();
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long bucketLowerBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long subBucket = index % SUB_BUCKETS;
+    return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    if (index == BUCKET_COUNT - 1) {
+      return Long.MAX_VALUE;
+    }
+    return bucketLowerBound(index + 1) - 1;
+  }
+}
@@ -0,0 +1,43 @@
+package com.spotify.confidence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/** Downloads the resolver state with an HTTP GET request. */
+class HttpResolverStateSource implements ResolverStateSource {
+  private final HttpClient client;
+  private final URI uri;
+  private final Duration timeout;
+
+  HttpResolverStateSource(URI uri, Duration timeout) {
+    this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+    this.uri = uri;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public byte[] fetch() throws IOException {
+    return download(client, uri, timeout);
+  }
+
+  static byte[] download(HttpClient client, URI uri, Duration timeout) throws IOException {
+    final HttpRequest request = HttpRequest.newBuilder(uri).timeout(timeout).GET().build();
+    final HttpResponse<byte[]> response;
+    try {
+      response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching resolver state");
+    }
+    if (response.statusCode() != 200) {
+      // the uri may be signed, so it's not included in the message
+      throw new IOException("Failed to fetch resolver state: HTTP " + response.statusCode());
+    }
+    return response.body();
+  }
+}
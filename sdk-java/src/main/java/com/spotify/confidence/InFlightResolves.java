@@ -0,0 +1,137 @@
+package com.spotify.confidence;
+
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces identical concurrent resolves into a single upstream call.
+ *
+ * <p>Every caller gets its own future, so cancelling one caller does not affect the others. The
+ * upstream call is only cancelled once every caller waiting for it has cancelled.
+ */
+class InFlightResolves {
+  private final ConcurrentHashMap<ResolveKey, Call> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder started = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  CompletableFuture<ResolveFlagsResponse> resolve(
+      ResolveKey key, Supplier<CompletableFuture<ResolveFlagsResponse>> upstream) {
+    while (true) {
+      final Call existing = inFlight.get(key);
+      if (existing != null) {
+        final CompletableFuture<ResolveFlagsResponse> caller = existing.join();
+        if (caller != null) {
+          coalesced.increment();
+          return caller;
+        }
+        // the call was abandoned by all its callers, make room for a new one
+        inFlight.remove(key, existing);
+        continue;
+      }
+      final Call call = new Call(key);
+      if (inFlight.putIfAbsent(key, call) != null) {
+        continue;
+      }
+      final CompletableFuture<ResolveFlagsResponse> caller = call.join();
+      started.increment();
+      call.start(upstream);
+      return caller;
+    }
+  }
+
+  long getStartedCount() {
+    return started.sum();
+  }
+
+  long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  private class Call {
+    private final ResolveKey key;
+    private final CompletableFuture<ResolveFlagsResponse> result = new CompletableFuture<>();
+    @Nullable private volatile CompletableFuture<ResolveFlagsResponse> upstream;
+    private int callers = 0;
+    private boolean abandoned = false;
+
+    private Call(ResolveKey key) {
+      this.key = key;
+    }
+
+    private void start(Supplier<CompletableFuture<ResolveFlagsResponse>> supplier) {
+      final CompletableFuture<ResolveFlagsResponse> upstream;
+      try {
+        upstream = supplier.get();
+      } catch (RuntimeException e) {
+        inFlight.remove(key, this);
+        result.completeExceptionally(e);
+        return;
+      }
+      this.upstream = upstream;
+      upstream.whenComplete(
+          (response, throwable) -> {
+            inFlight.remove(key, this);
+            if (throwable != null) {
+              result.completeExceptionally(throwable);
+            } else {
+              result.complete(response);
+            }
+          });
+      synchronized (this) {
+        if (abandoned) {
+          upstream.cancel(true);
+        }
+      }
+    }
+
+    /** Registers a new caller, or returns null if the call has already been abandoned. */
+    @Nullable
+    private CompletableFuture<ResolveFlagsResponse> join() {
+      synchronized (this) {
+        if (abandoned) {
+          return null;
+        }
+        callers++;
+      }
+      final CompletableFuture<ResolveFlagsResponse> caller = new CompletableFuture<>();
+      result.whenComplete(
+          (response, throwable) -> {
+            if (throwable != null) {
+              caller.completeExceptionally(throwable);
+            } else {
+              caller.complete(response);
+            }
+          });
+      caller.whenComplete(
+          (response, throwable) -> {
+            if (caller.isCancelled()) {
+              leave();
+            }
+          });
+      return caller;
+    }
+
+    private void leave() {
+      final CompletableFuture<ResolveFlagsResponse> upstream;
+      synchronized (this) {
+        if (--callers > 0 || result.isDone()) {
+          return;
+        }
+        abandoned = true;
+        upstream = this.upstream;
+      }
+      inFlight.remove(key, this);
+      if (upstream != null) {
+        upstream.cancel(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,324 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.Value;
+import com.spotify.confidence.shaded.flags.admin.v1.Flag;
+import com.spotify.confidence.shaded.flags.admin.v1.Segment;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveReason;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveToken;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveTokenV1;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolvedFlag;
+import com.spotify.confidence.shaded.flags.resolver.v1.Sdk;
+import com.spotify.confidence.shaded.flags.resolver.v1.SdkId;
+import com.spotify.confidence.shaded.flags.resolver.v1.events.ClientInfo;
+import com.spotify.confidence.shaded.flags.resolver.v1.events.FallthroughAssignment;
+import com.spotify.confidence.shaded.flags.resolver.v1.events.FlagAssigned;
+import com.spotify.confidence.shaded.iam.v1.ClientCredential;
+import io.grpc.Status;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link FlagResolver} that resolves flags in-process from a {@link LocalResolverState}, without
+ * any network calls.
+ *
+ * <p>The state may be replaced at any time, for example by a {@link ResolverStateRefresher}.
+ *
+ * <p>The returned resolve token is a serialized {@link ResolveToken} describing the assignments.
+ * Flags are never applied through the resolve token. Instead, every resolve can be logged as
+ * assigned to a {@link FlagLogWriter}.
+ */
+class LocalFlagResolver implements FlagResolver {
+  static final String DEFAULT_TARGETING_KEY = "targeting_key";
+  private static final int MAX_SEGMENT_DEPTH = 16;
+  private static final Sdk SDK =
+      Sdk.newBuilder()
+          .setId(SdkId.SDK_ID_JAVA_CONFIDENCE)
+          .setVersion(ConfidenceUtils.getSdkVersion())
+          .build();
+  private static final Sdk PROVIDER_SDK = SDK.toBuilder().setId(SdkId.SDK_ID_JAVA_PROVIDER).build();
+
+  private final String clientSecret;
+  private final Supplier<LocalResolverState> state;
+  @Nullable private final FlagLogWriter flagLogs;
+  private final Clock clock;
+
+  LocalFlagResolver(LocalResolverState state, String clientSecret) {
+    this(() -> state, clientSecret);
+  }
+
+  LocalFlagResolver(Supplier<LocalResolverState> state, String clientSecret) {
+    this(state, clientSecret, null, Instant::now);
+  }
+
+  /**
+   * Resolves from the state returned by the supplier, which is read once per resolve, so that the
+   * state can be replaced while resolves are in flight. The supplier returns null until a state has
+   * been loaded. Resolves are logged as assigned to {@code flagLogs}, if set.
+   */
+  LocalFlagResolver(
+      Supplier<LocalResolverState> state,
+      String clientSecret,
+      @Nullable FlagLogWriter flagLogs,
+      Clock clock) {
+    this.state = state;
+    this.clientSecret = clientSecret;
+    this.flagLogs = flagLogs;
+    this.clock = clock;
+  }
+
+  @Override
+  public CompletableFuture<ResolveFlagsResponse> resolve(
+      List<String> flags, Struct context, Boolean isProvider) {
+    final LocalResolverState current = state.get();
+    if (current == null) {
+      return CompletableFuture.failedFuture(
+          Status.UNAVAILABLE
+              .withDescription("resolver state has not been loaded yet")
+              .asRuntimeException());
+    }
+    try {
+      return CompletableFuture.completedFuture(resolve(current, flags, context, isProvider));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private ResolveFlagsResponse resolve(
+      LocalResolverState state, List<String> flagNames, Struct context, boolean isProvider) {
+    final ClientCredential credential = state.getCredential(clientSecret);
+    if (credential == null) {
+      throw Status.UNAUTHENTICATED.withDescription("client secret not found").asRuntimeException();
+    }
+    final String client = clientName(credential);
+    final Collection<Flag> flags =
+        flagNames.isEmpty()
+            ? state.getFlags()
+            : flagNames.stream()
+                .map(state::getFlag)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+    final String resolveId = UUID.randomUUID().toString();
+    final ResolveFlagsResponse.Builder response =
+        ResolveFlagsResponse.newBuilder().setResolveId(resolveId);
+    final ResolveTokenV1.Builder token =
+        ResolveTokenV1.newBuilder()
+            .setEvaluationContext(context)
+            .setResolveId(resolveId)
+            .setAccount(state.getAccount());
+    for (Flag flag : flags) {
+      if (flag.getState() == Flag.State.ARCHIVED || !flag.getClientsList().contains(client)) {
+        continue;
+      }
+      final ResolveTokenV1.AssignedFlag.Builder assigned =
+          ResolveTokenV1.AssignedFlag.newBuilder().setFlag(flag.getName());
+      response.addResolvedFlags(resolveFlag(state, flag, context, assigned));
+      token.putAssignments(flag.getName(), assigned.build());
+    }
+    if (flagLogs != null) {
+      logAssigned(flagLogs, credential, client, token, isProvider);
+    }
+    return response
+        .setResolveToken(ResolveToken.newBuilder().setTokenV1(token).build().toByteString())
+        .build();
+  }
+
+  private static ResolvedFlag resolveFlag(
+      LocalResolverState state,
+      Flag flag,
+      Struct context,
+      ResolveTokenV1.AssignedFlag.Builder assigned) {
+    final ResolvedFlag.Builder resolved =
+        ResolvedFlag.newBuilder().setFlag(flag.getName()).setFlagSchema(flag.getSchema());
+    final List<FallthroughAssignment> fallthroughs = new ArrayList<>();
+    for (Flag.Rule rule : flag.getRulesList()) {
+      if (!rule.getEnabled()) {
+        continue;
+      }
+      final Segment segment = state.getSegment(rule.getSegment());
+      if (segment == null) {
+        continue;
+      }
+      final String selector =
+          rule.getTargetingKeySelector().isEmpty()
+              ? DEFAULT_TARGETING_KEY
+              : rule.getTargetingKeySelector();
+      final Value unitValue = TargetingValues.getAttribute(context, selector);
+      if (unitValue == null) {
+        continue;
+      }
+      final String unit = unit(unitValue);
+      if (unit == null) {
+        assigned.setReason(ResolveReason.RESOLVE_REASON_TARGETING_KEY_ERROR);
+        return resolved.setReason(ResolveReason.RESOLVE_REASON_TARGETING_KEY_ERROR).build();
+      }
+      // hashed once per rule, for both the segment bitsets and the assignment
+      final long unitHash = Bucketing.hash(state.getAccount(), unit);
+      if (!segmentMatches(state, segment.getName(), context, unitHash, 0)) {
+        continue;
+      }
+
+      final Flag.Rule.AssignmentSpec spec = rule.getAssignmentSpec();
+      final int bucket = Bucketing.bucket(unitHash, spec.getBucketCount());
+      final Flag.Rule.Assignment assignment = findAssignment(spec, bucket);
+      if (assignment == null) {
+        continue;
+      }
+      if (assignment.hasFallthrough()) {
+        fallthroughs.add(
+            FallthroughAssignment.newBuilder()
+                .setRule(rule.getName())
+                .setAssignmentId(assignment.getAssignmentId())
+                .setTargetingKey(unit)
+                .setTargetingKeySelector(selector)
+                .build());
+        continue;
+      }
+
+      assigned
+          .setReason(ResolveReason.RESOLVE_REASON_MATCH)
+          .setRule(rule.getName())
+          .setSegment(segment.getName())
+          .setTargetingKey(unit)
+          .setTargetingKeySelector(selector)
+          .setAssignmentId(assignment.getAssignmentId())
+          .addAllFallthroughAssignments(fallthroughs);
+      resolved.setReason(ResolveReason.RESOLVE_REASON_MATCH);
+      if (assignment.hasVariant()) {
+        final Flag.Variant variant = findVariant(flag, assignment.getVariant().getVariant());
+        if (variant != null) {
+          assigned.setVariant(variant.getName());
+          resolved.setVariant(variant.getName()).setValue(variant.getValue());
+        }
+      }
+      return resolved.build();
+    }
+    assigned
+        .setReason(ResolveReason.RESOLVE_REASON_NO_SEGMENT_MATCH)
+        .addAllFallthroughAssignments(fallthroughs);
+    return resolved.setReason(ResolveReason.RESOLVE_REASON_NO_SEGMENT_MATCH).build();
+  }
+
+  private static boolean segmentMatches(
+      LocalResolverState state, String segment, Struct context, long unitHash, int depth) {
+    final TargetingCompiler.CompiledTargeting targeting = state.getTargeting(segment);
+    if (targeting == null || depth > MAX_SEGMENT_DEPTH) {
+      return false;
+    }
+    if (!targeting.matchesAll()
+        && !targeting.matches(
+            context, nested -> segmentMatches(state, nested, context, unitHash, depth + 1))) {
+      return false;
+    }
+    return state.getBitset(segment).get(Bucketing.bucket(unitHash, Bucketing.BITSET_BUCKETS));
+  }
+
+  @Nullable
+  private static Flag.Rule.Assignment findAssignment(Flag.Rule.AssignmentSpec spec, int bucket) {
+    for (Flag.Rule.Assignment assignment : spec.getAssignmentsList()) {
+      for (Flag.Rule.BucketRange range : assignment.getBucketRangesList()) {
+        if (range.getLower() <= bucket && bucket < range.getUpper()) {
+          return assignment;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Flag.Variant findVariant(Flag flag, String name) {
+    for (Flag.Variant variant : flag.getVariantsList()) {
+      if (variant.getName().equals(name)) {
+        return variant;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the randomization unit of a targeting key, or null if it's of an invalid type. */
+  @Nullable
+  private static String unit(Value value) {
+    if (value.hasStringValue()) {
+      return value.getStringValue();
+    }
+    if (value.hasNumberValue()) {
+      final double number = value.getNumberValue();
+      if (number == Math.rint(number) && !Double.isInfinite(number)) {
+        return Long.toString((long) number);
+      }
+    }
+    return null;
+  }
+
+  private void logAssigned(
+      FlagLogWriter flagLogs,
+      ClientCredential credential,
+      String client,
+      ResolveTokenV1.Builder token,
+      boolean isProvider) {
+    final Timestamp now = clock.getTimestamp();
+    final FlagAssigned.Builder event =
+        FlagAssigned.newBuilder()
+            .setResolveId(token.getResolveId())
+            .setClientInfo(
+                ClientInfo.newBuilder()
+                    .setClient(client)
+                    .setClientCredential(credential.getName())
+                    .setSdk(isProvider ? PROVIDER_SDK : SDK));
+    for (ResolveTokenV1.AssignedFlag assigned : token.getAssignmentsMap().values()) {
+      flagLogs.countResolve(
+          assigned.getFlag(),
+          assigned.getVariant(),
+          assigned.getRule(),
+          assigned.getAssignmentId());
+      final FlagAssigned.AppliedFlag.Builder applied =
+          FlagAssigned.AppliedFlag.newBuilder()
+              .setFlag(assigned.getFlag())
+              .setTargetingKey(assigned.getTargetingKey())
+              .setTargetingKeySelector(assigned.getTargetingKeySelector())
+              .setAssignmentId(assigned.getAssignmentId())
+              .setRule(assigned.getRule())
+              .addAllFallthroughAssignments(assigned.getFallthroughAssignmentsList())
+              .setApplyTime(now);
+      if (assigned.getReason() == ResolveReason.RESOLVE_REASON_MATCH) {
+        applied.setAssignmentInfo(
+            FlagAssigned.AssignmentInfo.newBuilder()
+                .setSegment(assigned.getSegment())
+                .setVariant(assigned.getVariant()));
+      } else if (assigned.getReason() == ResolveReason.RESOLVE_REASON_NO_SEGMENT_MATCH) {
+        applied.setDefaultAssignment(
+            FlagAssigned.DefaultAssignment.newBuilder()
+                .setReason(
+                    FlagAssigned.DefaultAssignment.DefaultAssignmentReason.NO_SEGMENT_MATCH));
+      } else {
+        // nothing was assigned, for example because of an invalid targeting key
+        continue;
+      }
+      event.addFlags(applied);
+    }
+    flagLogs.countClient(client, credential.getName(), token.getEvaluationContext());
+    if (event.getFlagsCount() > 0) {
+      flagLogs.write(event.build());
+    }
+  }
+
+  private static String clientName(ClientCredential credential) {
+    final String name = credential.getName();
+    final int index = name.indexOf("/credentials/");
+    return index < 0 ? name : name.substring(0, index);
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,177 @@
+package com.spotify.confidence;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.util.JsonFormat;
+import com.spotify.confidence.shaded.flags.admin.v1.Flag;
+import com.spotify.confidence.shaded.flags.admin.v1.ResolverState;
+import com.spotify.confidence.shaded.flags.admin.v1.Segment;
+import com.spotify.confidence.shaded.iam.v1.ClientCredential;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An indexed, immutable view of a {@link ResolverState}, with the packed segment bitsets decoded
+ * and the segment targeting compiled up front.
+ */
+final class LocalResolverState {
+  private final String account;
+  private final ResolverState definition;
+  private final Map<String, Flag> flags;
+  private final Map<String, Segment> segments;
+  private final Map<String, TargetingCompiler.CompiledTargeting> targetings;
+  private final Map<String, SegmentBitset> bitsets;
+  private final Map<String, ClientCredential> credentialsBySecret;
+
+  private LocalResolverState(
+      String account,
+      ResolverState definition,
+      Map<String, Flag> flags,
+      Map<String, Segment> segments,
+      Map<String, TargetingCompiler.CompiledTargeting> targetings,
+      Map<String, SegmentBitset> bitsets,
+      Map<String, ClientCredential> credentialsBySecret) {
+    this.account = account;
+    this.definition = definition;
+    this.flags = flags;
+    this.segments = segments;
+    this.targetings = targetings;
+    this.bitsets = bitsets;
+    this.credentialsBySecret = credentialsBySecret;
+  }
+
+  static LocalResolverState fromProto(ResolverState state, String account) {
+    final ImmutableMap.Builder<String, SegmentBitset> bitsets = ImmutableMap.builder();
+    for (ResolverState.PackedBitset packed : state.getBitsetsList()) {
+      switch (packed.getBitsetCase()) {
+        case GZIPPED_BITSET:
+          bitsets.put(
+              packed.getSegment(),
+              SegmentBitset.fromGzipped(packed.getGzippedBitset(), Bucketing.BITSET_BUCKETS));
+          break;
+        case FULL_BITSET:
+          bitsets.put(
+              packed.getSegment(),
+              packed.getFullBitset() ? SegmentBitset.FULL : SegmentBitset.EMPTY);
+          break;
+        default:
+          break;
+      }
+    }
+    return create(state.toBuilder().clearBitsets().build(), account, bitsets.build());
+  }
+
+  /** Creates a state from a definition without packed bitsets and its already decoded bitsets. */
+  static LocalResolverState create(
+      ResolverState definition, String account, Map<String, SegmentBitset> bitsets) {
+    final ImmutableMap.Builder<String, Flag> flags = ImmutableMap.builder();
+    definition.getFlagsList().forEach(flag -> flags.put(flag.getName(), flag));
+    final ImmutableMap.Builder<String, Segment> segments = ImmutableMap.builder();
+    final ImmutableMap.Builder<String, TargetingCompiler.CompiledTargeting> targetings =
+        ImmutableMap.builder();
+    for (Segment segment : definition.getSegmentsNoBitsetsList()) {
+      segments.put(segment.getName(), segment);
+      targetings.put(segment.getName(), TargetingCompiler.compile(segment.getTargeting()));
+    }
+    final Map<String, ClientCredential> credentials = new HashMap<>();
+    definition.getClientCredentialsList().stream()
+        .filter(ClientCredential::hasClientSecret)
+        .forEach(
+            credential -> credentials.put(credential.getClientSecret().getSecret(), credential));
+    return new LocalResolverState(
+        account,
+        definition,
+        flags.build(),
+        segments.build(),
+        targetings.build(),
+        ImmutableMap.copyOf(bitsets),
+        ImmutableMap.copyOf(credentials));
+  }
+
+  /**
+   * Loads a state from a file holding a serialized {@link ResolverState}. Files with a {@code
+   * .json} extension are parsed as the JSON representation of the state, and files written by
+   * {@link ResolverStateSnapshot} are memory mapped.
+   */
+  static LocalResolverState fromFile(Path path, String account) throws IOException {
+    if (ResolverStateSnapshot.isSnapshot(path)) {
+      return ResolverStateSnapshot.read(path, account);
+    }
+    final ResolverState state;
+    if (path.getFileName().toString().endsWith(".json")) {
+      final ResolverState.Builder builder = ResolverState.newBuilder();
+      JsonFormat.parser()
+          .ignoringUnknownFields()
+          .merge(Files.readString(path, StandardCharsets.UTF_8), builder);
+      state = builder.build();
+    } else {
+      try (InputStream inputStream = Files.newInputStream(path)) {
+        state = ResolverState.parseFrom(inputStream);
+      }
+    }
+    return fromProto(state, account);
+  }
+
+  String getAccount() {
+    return account;
+  }
+
+  /** The state this was created from, without the packed bitsets. */
+  ResolverState getDefinition() {
+    return definition;
+  }
+
+  Map<String, SegmentBitset> getBitsets() {
+    return bitsets;
+  }
+
+  @Nullable
+  Flag getFlag(String name) {
+    return flags.get(name);
+  }
+
+  Collection<Flag> getFlags() {
+    return flags.values();
+  }
+
+  @Nullable
+  Segment getSegment(String name) {
+    return segments.get(name);
+  }
+
+  /** Returns the compiled targeting of a segment, or null if there is no such segment. */
+  @Nullable
+  TargetingCompiler.CompiledTargeting getTargeting(String segment) {
+    return targetings.get(segment);
+  }
+
+  /**
+   * Returns the bitset of a segment. A segment without a bitset in the state, for example one that
+   * was truncated, has an empty bitset, so that it is allocated to no unit rather than to all.
+   */
+  SegmentBitset getBitset(String segment) {
+    return bitsets.getOrDefault(segment, SegmentBitset.EMPTY);
+  }
+
+  /** The off-heap memory held by the bitset of a segment, in bytes. */
+  long getBitsetBytes(String segment) {
+    final SegmentBitset bitset = bitsets.get(segment);
+    return bitset == null ? 0 : bitset.getOffHeapBytes();
+  }
+
+  /** The off-heap memory held by all segment bitsets, in bytes. */
+  long getBitsetBytes() {
+    return bitsets.values().stream().mapToLong(SegmentBitset::getOffHeapBytes).sum();
+  }
+
+  @Nullable
+  ClientCredential getCredential(String clientSecret) {
+    return credentialsBySecret.get(clientSecret);
+  }
+}
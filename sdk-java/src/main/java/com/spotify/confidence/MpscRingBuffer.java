@@ -0,0 +1,80 @@
+package com.spotify.confidence;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
+
+/**
+ * A bounded, lock-free multi-producer single-consumer queue backed by a preallocated array.
+ *
+ * <p>A producer claims a slot with a single CAS on the tail sequence, which only has to be retried
+ * when another producer claimed the same slot first, and then publishes its element into the slot.
+ * The consumer treats a claimed slot that has not been published yet as the end of the queue. When
+ * every slot holds an element that has not been consumed, {@link #offer} fails rather than waits.
+ */
+class MpscRingBuffer<E> implements EventQueue<E> {
+  private final AtomicReferenceArray<E> slots;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  // only advanced by the consumer
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * @param capacity the number of slots, rounded up to the next power of two
+   */
+  MpscRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    if (capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity must be at most 2^30");
+    }
+    final int slotCount = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.slots = new AtomicReferenceArray<>(slotCount);
+    this.mask = slotCount - 1;
+  }
+
+  @Override
+  public boolean offer(E element) {
+    Objects.requireNonNull(element);
+    long claimed;
+    do {
+      claimed = tail.get();
+      if (claimed - head.get() > mask) {
+        return false;
+      }
+    } while (!tail.compareAndSet(claimed, claimed + 1));
+    slots.lazySet(index(claimed), element);
+    return true;
+  }
+
+  @Override
+  @Nullable
+  public E poll() {
+    final long next = head.getPlain();
+    final int index = index(next);
+    final E element = slots.get(index);
+    if (element == null) {
+      return null;
+    }
+    // free the slot before the head moves past it, so that producers never overwrite an element
+    slots.lazySet(index, null);
+    head.lazySet(next + 1);
+    return element;
+  }
+
+  @Override
+  public int size() {
+    final long consumed = head.get();
+    return (int) Math.min(tail.get() - consumed, capacity());
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  private int index(long sequence) {
+    return (int) sequence & mask;
+  }
+}
@@ -0,0 +1,98 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.Value;
+import com.spotify.confidence.events.v1.Event;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An event as it was emitted, holding only references to its immutable values. It is converted to
+ * its proto by the thread that batches events, so that emitting threads never pay for it.
+ *
+ * <p>Memory is accounted for by {@link #estimatedSize()}, which approximates the serialized size of
+ * the event by walking its values without allocating.
+ */
+class PendingEvent {
+  // the event time, and the tags and lengths of the event fields
+  private static final int EVENT_OVERHEAD_BYTES = 20;
+  // the tags and lengths of a map entry, its key and its value
+  private static final int ENTRY_OVERHEAD_BYTES = 6;
+  private static final int NUMBER_BYTES = 9;
+  private static final int TIMESTAMP_BYTES = 27;
+  private static final int DATE_BYTES = 12;
+
+  private final String name;
+  private final ConfidenceValue.Struct context;
+  private final Optional<ConfidenceValue.Struct> data;
+  private final Instant eventTime;
+  private final int estimatedSize;
+
+  PendingEvent(
+      String name,
+      ConfidenceValue.Struct context,
+      Optional<ConfidenceValue.Struct> data,
+      Instant eventTime) {
+    this.name = name;
+    this.context = context;
+    this.data = data;
+    this.eventTime = eventTime;
+    this.estimatedSize =
+        EVENT_OVERHEAD_BYTES
+            + EventSenderEngineImpl.EVENT_NAME_PREFIX.length()
+            + name.length()
+            + data.map(PendingEvent::estimateFields).orElse(0)
+            + ENTRY_OVERHEAD_BYTES
+            + "context".length()
+            + estimate(context);
+  }
+
+  int estimatedSize() {
+    return estimatedSize;
+  }
+
+  Event toEvent() {
+    return toEvent(context.toProto());
+  }
+
+  /** Builds the event, reusing the encoding of contexts seen before. */
+  Event toEvent(ContextEncoder contextEncoder) {
+    return toEvent(contextEncoder.encode(context));
+  }
+
+  private Event toEvent(Value encodedContext) {
+    return EventUploader.event(name, encodedContext, data)
+        .setEventTime(Clock.timestampOf(eventTime))
+        .build();
+  }
+
+  private static int estimate(ConfidenceValue value) {
+    if (value instanceof ConfidenceValue.Struct) {
+      return 2 + estimateFields((ConfidenceValue.Struct) value);
+    } else if (value.isList()) {
+      int size = 2;
+      for (ConfidenceValue element : value.asList()) {
+        size += 2 + estimate(element);
+      }
+      return size;
+    } else if (value.isString()) {
+      return 2 + value.asString().length();
+    } else if (value.isInteger() || value.isDouble()) {
+      return NUMBER_BYTES;
+    } else if (value.isTimestamp()) {
+      return TIMESTAMP_BYTES;
+    } else if (value.isDate()) {
+      return DATE_BYTES;
+    }
+    // booleans and nulls
+    return 2;
+  }
+
+  private static int estimateFields(ConfidenceValue.Struct struct) {
+    int size = 0;
+    for (Map.Entry<String, ConfidenceValue> field : struct.asMap().entrySet()) {
+      size += ENTRY_OVERHEAD_BYTES + field.getKey().length() + estimate(field.getValue());
+    }
+    return size;
+  }
+}
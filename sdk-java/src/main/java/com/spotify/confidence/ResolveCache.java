@@ -0,0 +1,165 @@
+package com.spotify.confidence;
+
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * A bounded cache of resolve responses keyed by {@link ResolveKey}. Entries expire after a fixed
+ * TTL and the least recently used entries are evicted once either the entry or byte budget is
+ * exceeded.
+ *
+ * <p>Only resolves that are not applied by the backend may be cached, since a response served from
+ * the cache never reaches it. Flags of cached responses are applied when they are read instead, by
+ * a {@link FlagApplier}.
+ */
+class ResolveCache {
+  // rough per-entry bookkeeping cost (map node, entry object, key object)
+  private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+  private final Clock clock;
+  private final Duration ttl;
+  private final int maxEntries;
+  private final long maxBytes;
+  private final LinkedHashMap<ResolveKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long currentBytes = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  ResolveCache(Clock clock, Duration ttl, int maxEntries, long maxBytes) {
+    if (ttl.isNegative() || ttl.isZero()) {
+      throw new IllegalArgumentException("ttl must be positive");
+    }
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    this.clock = clock;
+    this.ttl = ttl;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  @Nullable
+  synchronized ResolveFlagsResponse get(ResolveKey key) {
+    final Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    if (!clock.get().isBefore(entry.expiresAt)) {
+      remove(key, entry);
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.response;
+  }
+
+  synchronized void put(ResolveKey key, ResolveFlagsResponse response) {
+    final long size = ENTRY_OVERHEAD_BYTES + key.estimatedSize() + response.getSerializedSize();
+    if (size > maxBytes) {
+      return;
+    }
+    final Entry previous = entries.put(key, new Entry(response, clock.get().plus(ttl), size));
+    if (previous != null) {
+      currentBytes -= previous.size;
+    }
+    currentBytes += size;
+    evictIfNeeded();
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    currentBytes = 0;
+  }
+
+  Stats stats() {
+    final int size;
+    final long bytes;
+    synchronized (this) {
+      size = entries.size();
+      bytes = currentBytes;
+    }
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), size, bytes);
+  }
+
+  private void evictIfNeeded() {
+    final Iterator<Map.Entry<ResolveKey, Entry>> iterator = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || currentBytes > maxBytes) && iterator.hasNext()) {
+      final Entry eldest = iterator.next().getValue();
+      iterator.remove();
+      currentBytes -= eldest.size;
+      evictions.increment();
+    }
+  }
+
+  private void remove(ResolveKey key, Entry entry) {
+    entries.remove(key);
+    currentBytes -= entry.size;
+  }
+
+  private static class Entry {
+    private final ResolveFlagsResponse response;
+    private final Instant expiresAt;
+    private final long size;
+
+    private Entry(ResolveFlagsResponse response, Instant expiresAt, long size) {
+      this.response = response;
+      this.expiresAt = expiresAt;
+      this.size = size;
+    }
+  }
+
+  static class Stats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+    private final long bytes;
+
+    Stats(long hits, long misses, long evictions, int entries, long bytes) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.entries = entries;
+      this.bytes = bytes;
+    }
+
+    long getHits() {
+      return hits;
+    }
+
+    long getMisses() {
+      return misses;
+    }
+
+    long getEvictions() {
+      return evictions;
+    }
+
+    int getEntries() {
+      return entries;
+    }
+
+    long getBytes() {
+      return bytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "ResolveCache.Stats{hits=%d, misses=%d, evictions=%d, entries=%d, bytes=%d}",
+          hits, misses, evictions, entries, bytes);
+    }
+  }
+}
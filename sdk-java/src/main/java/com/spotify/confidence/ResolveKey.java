@@ -0,0 +1,75 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Struct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Identifies a single flag resolve: the flag name plus a canonical fingerprint of the evaluation
+ * context. Two contexts with the same fields produce the same fingerprint regardless of map
+ * iteration order, since the context is serialized deterministically.
+ */
+final class ResolveKey {
+  private final String flag;
+  private final ByteString contextFingerprint;
+  private final int hashCode;
+
+  private ResolveKey(String flag, ByteString contextFingerprint) {
+    this.flag = flag;
+    this.contextFingerprint = contextFingerprint;
+    this.hashCode = 31 * flag.hashCode() + contextFingerprint.hashCode();
+  }
+
+  static ResolveKey of(String flag, Struct evaluationContext) {
+    return new ResolveKey(flag, fingerprint(evaluationContext));
+  }
+
+  static ByteString fingerprint(Struct evaluationContext) {
+    final ByteString.Output output = ByteString.newOutput(evaluationContext.getSerializedSize());
+    final CodedOutputStream codedOutput = CodedOutputStream.newInstance(output);
+    codedOutput.useDeterministicSerialization();
+    try {
+      evaluationContext.writeTo(codedOutput);
+      codedOutput.flush();
+    } catch (IOException e) {
+      // writing to an in-memory buffer does not fail
+      throw new UncheckedIOException(e);
+    }
+    return output.toByteString();
+  }
+
+  String getFlag() {
+    return flag;
+  }
+
+  ByteString getContextFingerprint() {
+    return contextFingerprint;
+  }
+
+  /** Approximate number of bytes retained by this key. */
+  long estimatedSize() {
+    return 2L * flag.length() + contextFingerprint.size();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof ResolveKey)) return false;
+    final ResolveKey other = (ResolveKey) o;
+    return hashCode == other.hashCode
+        && flag.equals(other.flag)
+        && contextFingerprint.equals(other.contextFingerprint);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return "ResolveKey{flag=" + flag + ", contextBytes=" + contextFingerprint.size() + "}";
+  }
+}
@@ -0,0 +1,278 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.spotify.confidence.shaded.flags.admin.v1.ResolverState;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+
+/**
+ * Keeps a {@link LocalResolverState} up to date by periodically fetching it from a {@link
+ * ResolverStateSource} on a background thread.
+ *
+ * <p>A fetched state is decoded and compiled before it's published with a single atomic swap, so
+ * readers never block and always see a complete state. Payloads identical to the previous one are
+ * skipped without being parsed. Refreshes are spread out by a random jitter of the interval, so
+ * that many instances started together don't fetch in lockstep.
+ *
+ * <p>With a snapshot file configured, each published state is also written as a {@link
+ * ResolverStateSnapshot}, and a recent enough snapshot is loaded on construction, so flags can be
+ * resolved before the first fetch completes.
+ */
+final class ResolverStateRefresher implements Supplier<LocalResolverState>, Closeable {
+  static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(30);
+  static final double DEFAULT_JITTER = 0.1;
+  static final Duration DEFAULT_MAX_SNAPSHOT_AGE = Duration.ofDays(7);
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(ResolverStateRefresher.class);
+
+  private final ResolverStateSource source;
+  private final String account;
+  private final Clock clock;
+  private final Duration interval;
+  private final double jitter;
+  @Nullable private final Path snapshotFile;
+  private final ScheduledExecutorService scheduler;
+  private final ConfidenceMetrics metrics;
+  private final AtomicReference<LocalResolverState> state = new AtomicReference<>();
+  private final Histogram compileMicros = new Histogram();
+  private final LongAdder published = new LongAdder();
+  private final LongAdder unchanged = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  @Nullable private volatile Instant confirmedAt;
+  // only accessed while holding the lock of this refresher
+  @Nullable private HashCode lastPayloadHash;
+  private volatile boolean closed = false;
+
+  ResolverStateRefresher(
+      ResolverStateSource source,
+      String account,
+      Clock clock,
+      Duration interval,
+      double jitter,
+      @Nullable Path snapshotFile,
+      Duration maxSnapshotAge) {
+    this(
+        source,
+        account,
+        clock,
+        interval,
+        jitter,
+        snapshotFile,
+        maxSnapshotAge,
+        ConfidenceMetrics.NOOP);
+  }
+
+  ResolverStateRefresher(
+      ResolverStateSource source,
+      String account,
+      Clock clock,
+      Duration interval,
+      double jitter,
+      @Nullable Path snapshotFile,
+      Duration maxSnapshotAge,
+      ConfidenceMetrics metrics) {
+    if (interval.isNegative() || interval.isZero()) {
+      throw new IllegalArgumentException("interval must be positive");
+    }
+    if (jitter < 0 || jitter >= 1) {
+      throw new IllegalArgumentException("jitter must be in [0, 1)");
+    }
+    this.source = source;
+    this.account = account;
+    this.clock = clock;
+    this.interval = interval;
+    this.jitter = jitter;
+    this.snapshotFile = snapshotFile;
+    this.metrics = metrics;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-resolver-state-%d")
+                .setDaemon(true)
+                .build());
+    if (snapshotFile != null) {
+      warmStart(snapshotFile, maxSnapshotAge);
+    }
+    metrics.registerGauge(
+        ConfidenceMetrics.RESOLVER_STATE_AGE_MILLIS,
+        () -> {
+          final Duration age = getStateAge();
+          return age == null ? -1 : age.toMillis();
+        });
+    metrics.registerCounter(ConfidenceMetrics.RESOLVER_STATE_PUBLISHED, this::getPublishedCount);
+    metrics.registerCounter(ConfidenceMetrics.RESOLVER_STATE_UNCHANGED, this::getUnchangedCount);
+    metrics.registerCounter(ConfidenceMetrics.RESOLVER_STATE_FAILURES, this::getFailureCount);
+  }
+
+  ResolverStateRefresher(
+      ResolverStateSource source, String account, Clock clock, @Nullable Path snapshotFile) {
+    this(
+        source,
+        account,
+        clock,
+        DEFAULT_INTERVAL,
+        DEFAULT_JITTER,
+        snapshotFile,
+        DEFAULT_MAX_SNAPSHOT_AGE);
+  }
+
+  private void warmStart(Path snapshotFile, Duration maxSnapshotAge) {
+    final LocalResolverState snapshot =
+        ResolverStateSnapshot.tryRead(snapshotFile, account, maxSnapshotAge, clock);
+    if (snapshot == null) {
+      return;
+    }
+    try {
+      confirmedAt = ResolverStateSnapshot.readWrittenAt(snapshotFile);
+    } catch (IOException e) {
+      // replaced since it was read, its age is unknown but bounded by the max age
+      confirmedAt = clock.get().minus(maxSnapshotAge);
+    }
+    state.set(snapshot);
+    log.info("Loaded resolver state snapshot written at {}", confirmedAt);
+  }
+
+  /** Starts refreshing in the background, beginning with an immediate fetch. */
+  void start() {
+    schedule(0);
+  }
+
+  /** Returns the current state, or null if no state has been loaded yet. */
+  @Override
+  @Nullable
+  public LocalResolverState get() {
+    return state.get();
+  }
+
+  /**
+   * Fetches the state and publishes it if it changed. Returns whether a new state was published.
+   * Failures are logged and leave the current state in place.
+   */
+  @VisibleForTesting
+  synchronized boolean refresh() {
+    final byte[] payload;
+    try {
+      payload = source.fetch();
+    } catch (IOException | RuntimeException e) {
+      failures.increment();
+      log.warn("Failed to fetch resolver state", e);
+      return false;
+    }
+    final String sourceAccount = source.account();
+    if (sourceAccount != null && !sourceAccount.equals(account)) {
+      // bucketing with the wrong account would silently assign units to other variants
+      failures.increment();
+      log.error(
+          "Rejecting resolver state of account {}, expected account {}", sourceAccount, account);
+      return false;
+    }
+    final Instant fetchedAt = clock.get();
+    final HashCode hash = Hashing.murmur3_128().hashBytes(payload);
+    if (hash.equals(lastPayloadHash)) {
+      unchanged.increment();
+      confirmedAt = fetchedAt;
+      return false;
+    }
+
+    final long start = System.nanoTime();
+    final LocalResolverState next;
+    try {
+      next = LocalResolverState.fromProto(ResolverState.parseFrom(payload), account);
+    } catch (InvalidProtocolBufferException | RuntimeException e) {
+      failures.increment();
+      log.warn("Failed to decode resolver state", e);
+      return false;
+    }
+    final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    compileMicros.record(micros);
+    metrics.recordDistribution(ConfidenceMetrics.RESOLVER_STATE_COMPILE_MICROS, micros);
+    state.set(next);
+    lastPayloadHash = hash;
+    confirmedAt = fetchedAt;
+    published.increment();
+
+    if (snapshotFile != null) {
+      try {
+        ResolverStateSnapshot.write(next, snapshotFile, clock);
+      } catch (IOException e) {
+        log.warn("Failed to write resolver state snapshot to {}", snapshotFile, e);
+      }
+    }
+    return true;
+  }
+
+  private void refreshAndReschedule() {
+    try {
+      refresh();
+    } finally {
+      schedule(nextDelayMillis(interval, jitter, ThreadLocalRandom.current()));
+    }
+  }
+
+  private void schedule(long delayMillis) {
+    if (closed) {
+      return;
+    }
+    try {
+      scheduler.schedule(this::refreshAndReschedule, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // closed concurrently
+    }
+  }
+
+  /** The interval, shifted by a uniformly random fraction of at most {@code jitter} either way. */
+  static long nextDelayMillis(Duration interval, double jitter, Random random) {
+    final double factor = 1 + jitter * (2 * random.nextDouble() - 1);
+    return Math.max(1, Math.round(interval.toMillis() * factor));
+  }
+
+  /**
+   * How long ago the source last returned the current state, or null if no state has been loaded.
+   * For a state loaded from a snapshot, this is the time since the snapshot was written.
+   */
+  @Nullable
+  Duration getStateAge() {
+    final Instant at = confirmedAt;
+    return at == null ? null : Duration.between(at, clock.get());
+  }
+
+  /** The time spent decoding and compiling fetched states, in microseconds. */
+  Histogram getCompileMicros() {
+    return compileMicros;
+  }
+
+  long getPublishedCount() {
+    return published.sum();
+  }
+
+  long getUnchangedCount() {
+    return unchanged.sum();
+  }
+
+  long getFailureCount() {
+    return failures.sum();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    scheduler.shutdownNow();
+  }
+}
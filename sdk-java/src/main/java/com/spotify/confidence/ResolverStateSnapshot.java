@@ -0,0 +1,210 @@
+package com.spotify.confidence;
+
+import com.spotify.confidence.shaded.flags.admin.v1.ResolverState;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+
+/**
+ * Persists a {@link LocalResolverState} to a file that can be memory mapped on startup, so that
+ * flags can be resolved before the first state has been fetched.
+ *
+ * <p>The file starts with a fixed size header holding a magic number, the format version, the time
+ * the snapshot was written and the length and CRC32C of the payload. The payload holds the account,
+ * the {@link ResolverState} without its packed bitsets, and the decoded segment bitsets. The
+ * bitsets are used straight from the mapped file, so loading a snapshot never decompresses or
+ * copies them.
+ *
+ * <p>Snapshots are written to a temporary file that is atomically moved into place, so a reader
+ * never sees a partially written snapshot, and a mapped snapshot stays valid when it's replaced.
+ */
+final class ResolverStateSnapshot {
+  private static final Logger log = org.slf4j.LoggerFactory.getLogger(ResolverStateSnapshot.class);
+
+  static final int MAGIC = 0x43464e53; // "CFNS"
+  static final int VERSION = 1;
+  // magic, version, written at, payload length, payload crc, reserved
+  static final int HEADER_BYTES = 32;
+
+  private ResolverStateSnapshot() {}
+
+  static void write(LocalResolverState state, Path path, Clock clock) throws IOException {
+    final Path absolute = path.toAbsolutePath();
+    final Path temp =
+        Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        channel.position(HEADER_BYTES);
+        final CRC32C crc = new CRC32C();
+        final DataOutputStream output =
+            new DataOutputStream(
+                new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+        writePayload(state, output);
+        output.flush();
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header
+            .putInt(MAGIC)
+            .putInt(VERSION)
+            .putLong(clock.get().toEpochMilli())
+            .putLong(output.size())
+            .putInt((int) crc.getValue())
+            .putInt(0)
+            .flip();
+        channel.write(header, 0);
+        channel.force(true);
+      }
+      Files.move(
+          temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static void writePayload(LocalResolverState state, DataOutputStream output)
+      throws IOException {
+    writeString(output, state.getAccount());
+    final byte[] definition = state.getDefinition().toByteArray();
+    output.writeInt(definition.length);
+    output.write(definition);
+    output.writeInt(state.getBitsets().size());
+    for (Map.Entry<String, SegmentBitset> entry : state.getBitsets().entrySet()) {
+      writeString(output, entry.getKey());
+      entry.getValue().write(output, HEADER_BYTES);
+    }
+  }
+
+  /**
+   * Reads a snapshot, returning null if it's missing, corrupt, written for another account or older
+   * than {@code maxAge}. The reason a snapshot is not used is logged.
+   */
+  @Nullable
+  static LocalResolverState tryRead(Path path, String account, Duration maxAge, Clock clock) {
+    try {
+      return read(path, account, maxAge, clock);
+    } catch (NoSuchFileException e) {
+      log.info("No resolver state snapshot found at {}", path);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Ignoring resolver state snapshot at {}: {}", path, e.getMessage());
+    }
+    return null;
+  }
+
+  /** Reads a snapshot regardless of its age, failing if it's invalid. */
+  static LocalResolverState read(Path path, String account) throws IOException {
+    return read(path, account, null, null);
+  }
+
+  private static LocalResolverState read(
+      Path path, String account, @Nullable Duration maxAge, @Nullable Clock clock)
+      throws IOException {
+    final ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+        throw new IOException("Invalid snapshot size " + size);
+      }
+      // the mapping stays valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a resolver state snapshot");
+    }
+    final int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version " + version);
+    }
+    final Instant writtenAt = Instant.ofEpochMilli(buffer.getLong());
+    if (maxAge != null && clock != null && writtenAt.plus(maxAge).isBefore(clock.get())) {
+      throw new IOException("Snapshot written at " + writtenAt + " is stale");
+    }
+    final long payloadLength = buffer.getLong();
+    if (payloadLength != buffer.limit() - HEADER_BYTES) {
+      throw new IOException("Snapshot is truncated");
+    }
+    final int expectedCrc = buffer.getInt();
+    final CRC32C crc = new CRC32C();
+    crc.update(buffer.duplicate().position(HEADER_BYTES));
+    if ((int) crc.getValue() != expectedCrc) {
+      throw new IOException("Snapshot checksum mismatch");
+    }
+
+    try {
+      buffer.position(HEADER_BYTES);
+      final String snapshotAccount = readString(buffer);
+      if (!snapshotAccount.equals(account)) {
+        throw new IOException("Snapshot is for account " + snapshotAccount);
+      }
+      final int definitionLength = buffer.getInt();
+      final ResolverState definition =
+          ResolverState.parseFrom(buffer.slice().limit(definitionLength));
+      buffer.position(buffer.position() + definitionLength);
+      final int bitsetCount = buffer.getInt();
+      final Map<String, SegmentBitset> bitsets = new HashMap<>();
+      for (int i = 0; i < bitsetCount; i++) {
+        final String segment = readString(buffer);
+        bitsets.put(segment, SegmentBitset.read(buffer));
+      }
+      return LocalResolverState.create(definition, account, bitsets);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Snapshot is corrupt", e);
+    }
+  }
+
+  /** Whether a file starts with the snapshot magic number. */
+  static boolean isSnapshot(Path path) throws IOException {
+    final ByteBuffer header = readHeader(path);
+    return header.remaining() >= Integer.BYTES && header.getInt() == MAGIC;
+  }
+
+  /** Reads the time a snapshot was written, without validating its payload. */
+  static Instant readWrittenAt(Path path) throws IOException {
+    final ByteBuffer header = readHeader(path);
+    if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+      throw new IOException("Not a resolver state snapshot");
+    }
+    return Instant.ofEpochMilli(header.getLong(2 * Integer.BYTES));
+  }
+
+  private static ByteBuffer readHeader(Path path) throws IOException {
+    try (InputStream inputStream = Files.newInputStream(path)) {
+      return ByteBuffer.wrap(inputStream.readNBytes(HEADER_BYTES));
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    final int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid string length " + length);
+    }
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
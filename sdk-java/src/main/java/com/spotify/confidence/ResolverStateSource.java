@@ -0,0 +1,54 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.Beta;
+import io.grpc.ManagedChannel;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import javax.annotation.Nullable;
+
+/**
+ * Fetches the resolver state used to resolve flags in-process, see {@link
+ * Confidence.Builder#localResolverStateSource}.
+ *
+ * <p>A source is called from a single background thread, and may block while fetching.
+ */
+@Beta
+@FunctionalInterface
+public interface ResolverStateSource {
+
+  /** Returns the current state, serialized as a {@code ResolverState} protobuf message. */
+  byte[] fetch() throws IOException;
+
+  /**
+   * The account the last fetched state belongs to, or null if the source doesn't know. A fetched
+   * state is rejected if this differs from the account it was configured for, as the account salts
+   * bucketing.
+   */
+  @Nullable
+  default String account() {
+    return null;
+  }
+
+  /** A source that reads the state from a file, for example one kept up to date by a sidecar. */
+  static ResolverStateSource fromFile(Path path) {
+    return () -> Files.readAllBytes(path);
+  }
+
+  /** A source that downloads the state with an HTTP GET request. */
+  static ResolverStateSource fromUri(URI uri, Duration timeout) {
+    return new HttpResolverStateSource(uri, timeout);
+  }
+
+  /**
+   * A source that downloads the state from the signed URI handed out by the Confidence resolver
+   * state service on the given channel. The channel must carry the credentials of the account,
+   * which the service reports along with the URI.
+   */
+  static ResolverStateSource fromChannel(ManagedChannel channel, Duration timeout) {
+    return new GrpcResolverStateSource(channel, timeout, Instant::now);
+  }
+}
@@ -0,0 +1,210 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * The bucket allocation of a segment, decoded from a packed bitset.
+ *
+ * <p>The buckets are split into chunks of {@value #CHUNK_BITS} bits. Chunks where no bucket or
+ * every bucket is allocated take no storage, the remaining chunks are stored as plain bitmaps in a
+ * single direct {@link ByteBuffer}, so that large allocations are kept off the Java heap. Checking
+ * a bucket is a constant time lookup. Bitsets with every bucket allocated, or none, share the
+ * {@link #FULL} and {@link #EMPTY} instances.
+ *
+ * <p>A bitset read from a snapshot file uses the mapped file for its bitmaps instead, see {@link
+ * ResolverStateSnapshot}.
+ *
+ * <p>Bit {@code n} is bit {@code n % 8} of byte {@code n / 8}, the layout of {@link
+ * java.util.BitSet#toByteArray()}.
+ */
+final class SegmentBitset {
+  static final int CHUNK_BITS = 1 << 16;
+  private static final int CHUNK_BYTES = CHUNK_BITS / 8;
+  private static final int EMPTY_CHUNK = -1;
+  private static final int FULL_CHUNK = -2;
+  private static final byte KIND_EMPTY = 0;
+  private static final byte KIND_FULL = 1;
+  private static final byte KIND_CHUNKED = 2;
+
+  static final SegmentBitset EMPTY = new SegmentBitset(new int[0], EMPTY_CHUNK, null);
+  static final SegmentBitset FULL = new SegmentBitset(new int[0], FULL_CHUNK, null);
+
+  // byte offset of each chunk in the buffer, or EMPTY_CHUNK/FULL_CHUNK
+  private final int[] chunks;
+  // the kind of the chunks past the end of the chunks array
+  private final int tail;
+  @Nullable private final ByteBuffer bitmaps;
+
+  private SegmentBitset(int[] chunks, int tail, @Nullable ByteBuffer bitmaps) {
+    this.chunks = chunks;
+    this.tail = tail;
+    this.bitmaps = bitmaps;
+  }
+
+  /** Decodes a gzipped bitset covering {@code buckets} buckets. */
+  static SegmentBitset fromGzipped(ByteString gzipped, int buckets) {
+    try (GZIPInputStream inputStream = new GZIPInputStream(gzipped.newInput())) {
+      return decode(inputStream, buckets);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to decompress segment bitset", e);
+    }
+  }
+
+  static SegmentBitset fromBytes(byte[] bytes, int buckets) {
+    try {
+      return decode(new ByteArrayInputStream(bytes), buckets);
+    } catch (IOException e) {
+      // not thrown by a byte array stream
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Reads the bitset one chunk at a time, so that the full bitmap is never materialized on heap.
+   * Buckets past the end of the input are not allocated.
+   */
+  private static SegmentBitset decode(InputStream inputStream, int buckets) throws IOException {
+    if (buckets <= 0) {
+      throw new IllegalArgumentException("buckets must be positive");
+    }
+    final int totalBytes = (buckets + 7) / 8;
+    final int chunkCount = (totalBytes + CHUNK_BYTES - 1) / CHUNK_BYTES;
+    final int[] chunks = new int[chunkCount];
+    final List<byte[]> bitmaps = new ArrayList<>();
+    final byte[] chunk = new byte[CHUNK_BYTES];
+    boolean allFull = true;
+    boolean allEmpty = true;
+    for (int i = 0; i < chunkCount; i++) {
+      final int expected = Math.min(CHUNK_BYTES, totalBytes - i * CHUNK_BYTES);
+      final int read = inputStream.readNBytes(chunk, 0, expected);
+      Arrays.fill(chunk, read, CHUNK_BYTES, (byte) 0);
+      final int kind = classify(chunk, expected, buckets - i * CHUNK_BITS);
+      if (kind == EMPTY_CHUNK || kind == FULL_CHUNK) {
+        chunks[i] = kind;
+      } else {
+        chunks[i] = bitmaps.size() * CHUNK_BYTES;
+        bitmaps.add(Arrays.copyOf(chunk, CHUNK_BYTES));
+      }
+      allFull &= chunks[i] == FULL_CHUNK;
+      allEmpty &= chunks[i] == EMPTY_CHUNK;
+    }
+    if (allFull) {
+      return FULL;
+    }
+    if (allEmpty) {
+      return EMPTY;
+    }
+    final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(bitmaps.size() * CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    bitmaps.forEach(buffer::put);
+    return new SegmentBitset(chunks, EMPTY_CHUNK, buffer);
+  }
+
+  /** Returns EMPTY_CHUNK or FULL_CHUNK if the chunk is uniform over its valid bits, otherwise 0. */
+  private static int classify(byte[] chunk, int length, int validBits) {
+    final int fullBytes = Math.min(length, validBits / 8);
+    boolean empty = true;
+    boolean full = true;
+    for (int i = 0; i < fullBytes && (empty || full); i++) {
+      empty &= chunk[i] == 0;
+      full &= chunk[i] == (byte) 0xFF;
+    }
+    if (fullBytes < length) {
+      // a trailing partial byte, where only the low bits are buckets
+      final int mask = (1 << (validBits % 8)) - 1;
+      empty &= (chunk[fullBytes] & mask) == 0;
+      full &= (chunk[fullBytes] & mask) == mask;
+    }
+    return empty ? EMPTY_CHUNK : full ? FULL_CHUNK : 0;
+  }
+
+  boolean get(int bucket) {
+    final int chunk = bucket >>> 16;
+    final int offset = chunk < chunks.length ? chunks[chunk] : tail;
+    if (offset < 0) {
+      return offset == FULL_CHUNK;
+    }
+    final long word = bitmaps.getLong(offset + ((bucket & (CHUNK_BITS - 1)) >>> 6) * Long.BYTES);
+    return (word & (1L << bucket)) != 0;
+  }
+
+  /** The number of bytes of off-heap memory held by this bitset, direct or memory mapped. */
+  long getOffHeapBytes() {
+    return bitmaps == null ? 0 : bitmaps.capacity();
+  }
+
+  /**
+   * Writes this bitset in the layout read by {@link #read(ByteBuffer)}. The bitmaps are aligned to
+   * 8 bytes, given the number of bytes already written before the output.
+   */
+  void write(DataOutputStream output, long offset) throws IOException {
+    if (this == EMPTY || this == FULL) {
+      output.writeByte(this == EMPTY ? KIND_EMPTY : KIND_FULL);
+      return;
+    }
+    output.writeByte(KIND_CHUNKED);
+    output.writeInt(chunks.length);
+    for (int chunk : chunks) {
+      output.writeInt(chunk);
+    }
+    output.writeInt(bitmaps.capacity());
+    final long position = offset + output.size();
+    for (long i = position; i % Long.BYTES != 0; i++) {
+      output.writeByte(0);
+    }
+    final ByteBuffer source = bitmaps.duplicate();
+    source.clear();
+    final byte[] chunk = new byte[CHUNK_BYTES];
+    while (source.hasRemaining()) {
+      source.get(chunk);
+      output.write(chunk);
+    }
+  }
+
+  /**
+   * Reads a bitset written by {@link #write}, advancing the position of the buffer. The bitmaps are
+   * used in place, so a memory mapped buffer is never copied.
+   */
+  static SegmentBitset read(ByteBuffer buffer) {
+    final byte kind = buffer.get();
+    switch (kind) {
+      case KIND_EMPTY:
+        return EMPTY;
+      case KIND_FULL:
+        return FULL;
+      case KIND_CHUNKED:
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown bitset kind " + kind);
+    }
+    final int[] chunks = new int[buffer.getInt()];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = buffer.getInt();
+    }
+    final int length = buffer.getInt();
+    while (buffer.position() % Long.BYTES != 0) {
+      buffer.get();
+    }
+    for (int chunk : chunks) {
+      if (chunk >= 0 && (chunk % CHUNK_BYTES != 0 || chunk + CHUNK_BYTES > length)) {
+        throw new IllegalArgumentException("Bitset chunk out of bounds: " + chunk);
+      }
+    }
+    final ByteBuffer bitmaps = buffer.slice().limit(length);
+    buffer.position(buffer.position() + length);
+    return new SegmentBitset(
+        chunks, EMPTY_CHUNK, bitmaps.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN));
+  }
+}
@@ -0,0 +1,508 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.Value;
+import com.spotify.confidence.shaded.flags.types.v1.Expression;
+import com.spotify.confidence.shaded.flags.types.v1.Targeting;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Compiles {@link Targeting} into a {@link CompiledTargeting} that can be evaluated without walking
+ * protobuf maps and oneofs.
+ *
+ * <p>Criteria references are resolved, attribute paths are split, and rule values are parsed into
+ * their comparable form once. Set rules become hash sets per value type. The operands of {@code
+ * and} and {@code or} are reordered so that cheap checks run before expensive ones.
+ */
+final class TargetingCompiler {
+
+  private TargetingCompiler() {}
+
+  static CompiledTargeting compile(Targeting targeting) {
+    return new CompiledTargeting(compile(targeting.getExpression(), targeting));
+  }
+
+  private static Node compile(Expression expression, Targeting targeting) {
+    switch (expression.getExpressionCase()) {
+      case REF:
+        final Targeting.Criterion criterion = targeting.getCriteriaMap().get(expression.getRef());
+        return criterion == null ? Constant.FALSE : compile(criterion);
+      case NOT:
+        final Node inner = compile(expression.getNot(), targeting);
+        if (inner instanceof Constant) {
+          return inner == Constant.TRUE ? Constant.FALSE : Constant.TRUE;
+        }
+        return new Not(inner);
+      case AND:
+        return junction(expression.getAnd(), targeting, true);
+      case OR:
+        return junction(expression.getOr(), targeting, false);
+      default:
+        return Constant.TRUE;
+    }
+  }
+
+  private static Node junction(Expression.Operands operands, Targeting targeting, boolean isAnd) {
+    final Constant identity = isAnd ? Constant.TRUE : Constant.FALSE;
+    final Constant absorbing = isAnd ? Constant.FALSE : Constant.TRUE;
+    final List<Node> nodes = new ArrayList<>();
+    for (Expression operand : operands.getOperandsList()) {
+      final Node node = compile(operand, targeting);
+      if (node == absorbing) {
+        return absorbing;
+      }
+      if (node != identity) {
+        nodes.add(node);
+      }
+    }
+    if (nodes.isEmpty()) {
+      return identity;
+    }
+    if (nodes.size() == 1) {
+      return nodes.get(0);
+    }
+    // evaluation has no side effects, so cheap operands can safely short-circuit expensive ones
+    nodes.sort(Comparator.comparingInt(Node::cost));
+    final Node[] array = nodes.toArray(new Node[0]);
+    return isAnd ? new And(array) : new Or(array);
+  }
+
+  private static Node compile(Targeting.Criterion criterion) {
+    switch (criterion.getCriterionCase()) {
+      case ATTRIBUTE:
+        return compile(criterion.getAttribute());
+      case SEGMENT:
+        return new SegmentNode(criterion.getSegment().getSegment());
+      default:
+        return Constant.FALSE;
+    }
+  }
+
+  private static Node compile(Targeting.Criterion.AttributeCriterion criterion) {
+    final String[] path = criterion.getAttributeName().split("\\.", -1);
+    switch (criterion.getRuleCase()) {
+      case EQ_RULE:
+        return attribute(path, equalsAny(List.of(criterion.getEqRule().getValue())));
+      case SET_RULE:
+        return attribute(path, equalsAny(criterion.getSetRule().getValuesList()));
+      case RANGE_RULE:
+        return attribute(path, range(criterion.getRangeRule()));
+      case ANY_RULE:
+        return new ListNode(path, compile(criterion.getAnyRule().getRule()), true);
+      case ALL_RULE:
+        return new ListNode(path, compile(criterion.getAllRule().getRule()), false);
+      default:
+        return Constant.FALSE;
+    }
+  }
+
+  private static Node attribute(String[] path, @Nullable ValuePredicate predicate) {
+    return predicate == null ? Constant.FALSE : new AttributeNode(path, predicate);
+  }
+
+  /** Compiles the rule of an any/all rule, a null predicate never matches. */
+  private static ValuePredicate compile(Targeting.InnerRule rule) {
+    final ValuePredicate predicate;
+    switch (rule.getRuleCase()) {
+      case EQ_RULE:
+        predicate = equalsAny(List.of(rule.getEqRule().getValue()));
+        break;
+      case SET_RULE:
+        predicate = equalsAny(rule.getSetRule().getValuesList());
+        break;
+      case RANGE_RULE:
+        predicate = range(rule.getRangeRule());
+        break;
+      default:
+        predicate = null;
+    }
+    return predicate == null ? value -> false : predicate;
+  }
+
+  @Nullable
+  private static ValuePredicate equalsAny(List<Targeting.Value> values) {
+    final Map<Targeting.Value.ValueCase, Set<Object>> byType =
+        new EnumMap<>(Targeting.Value.ValueCase.class);
+    for (Targeting.Value value : values) {
+      final Comparable<?> parsed = parse(value);
+      if (parsed != null) {
+        byType.computeIfAbsent(value.getValueCase(), type -> new HashSet<>()).add(parsed);
+      }
+    }
+    if (byType.isEmpty()) {
+      return null;
+    }
+    if (byType.size() == 1) {
+      final Map.Entry<Targeting.Value.ValueCase, Set<Object>> entry =
+          byType.entrySet().iterator().next();
+      return new InSet(entry.getKey(), entry.getValue());
+    }
+    final InSet[] sets =
+        byType.entrySet().stream()
+            .map(entry -> new InSet(entry.getKey(), entry.getValue()))
+            .toArray(InSet[]::new);
+    return value -> {
+      for (InSet set : sets) {
+        if (set.test(value)) {
+          return true;
+        }
+      }
+      return false;
+    };
+  }
+
+  @Nullable
+  private static ValuePredicate range(Targeting.RangeRule range) {
+    Bound start = null;
+    Bound end = null;
+    switch (range.getStartCase()) {
+      case START_INCLUSIVE:
+        start = Bound.of(range.getStartInclusive(), true);
+        if (start == null) return null;
+        break;
+      case START_EXCLUSIVE:
+        start = Bound.of(range.getStartExclusive(), false);
+        if (start == null) return null;
+        break;
+      default:
+        break;
+    }
+    switch (range.getEndCase()) {
+      case END_INCLUSIVE:
+        end = Bound.of(range.getEndInclusive(), true);
+        if (end == null) return null;
+        break;
+      case END_EXCLUSIVE:
+        end = Bound.of(range.getEndExclusive(), false);
+        if (end == null) return null;
+        break;
+      default:
+        break;
+    }
+    return new InRange(start, end);
+  }
+
+  @Nullable
+  private static Comparable<?> parse(Targeting.Value value) {
+    switch (value.getValueCase()) {
+      case BOOL_VALUE:
+        return value.getBoolValue();
+      case NUMBER_VALUE:
+        return value.getNumberValue();
+      case STRING_VALUE:
+        return value.getStringValue();
+      case TIMESTAMP_VALUE:
+        final Timestamp timestamp = value.getTimestampValue();
+        return Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+      case VERSION_VALUE:
+        return TargetingValues.SemanticVersion.parse(value.getVersionValue().getVersion());
+      default:
+        return null;
+    }
+  }
+
+  /** A compiled targeting program. Instances are immutable and safe to share between threads. */
+  static final class CompiledTargeting {
+    private final Node root;
+
+    private CompiledTargeting(Node root) {
+      this.root = root;
+    }
+
+    boolean matches(Struct context, Predicate<String> segmentMatcher) {
+      return root.test(context, segmentMatcher);
+    }
+
+    /** Whether the targeting matches every context, so it doesn't need to be evaluated. */
+    boolean matchesAll() {
+      return root == Constant.TRUE;
+    }
+  }
+
+  private interface Node {
+    boolean test(Struct context, Predicate<String> segmentMatcher);
+
+    /** A rough relative cost of evaluating this node, used to order operands. */
+    int cost();
+  }
+
+  private interface ValuePredicate {
+    boolean test(Value value);
+  }
+
+  private enum Constant implements Node {
+    TRUE,
+    FALSE;
+
+    @Override
+    public boolean test(Struct context, Predicate<String> segmentMatcher) {
+      return this == TRUE;
+    }
+
+    @Override
+    public int cost() {
+      return 0;
+    }
+  }
+
+  private static final class Not implements Node {
+    private final Node inner;
+
+    private Not(Node inner) {
+      this.inner = inner;
+    }
+
+    @Override
+    public boolean test(Struct context, Predicate<String> segmentMatcher) {
+      return !inner.test(context, segmentMatcher);
+    }
+
+    @Override
+    public int cost() {
+      return inner.cost();
+    }
+  }
+
+  private static final class And implements Node {
+    private final Node[] operands;
+    private final int cost;
+
+    private And(Node[] operands) {
+      this.operands = operands;
+      this.cost = totalCost(operands);
+    }
+
+    @Override
+    public boolean test(Struct context, Predicate<String> segmentMatcher) {
+      for (Node operand : operands) {
+        if (!operand.test(context, segmentMatcher)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int cost() {
+      return cost;
+    }
+  }
+
+  private static final class Or implements Node {
+    private final Node[] operands;
+    private final int cost;
+
+    private Or(Node[] operands) {
+      this.operands = operands;
+      this.cost = totalCost(operands);
+    }
+
+    @Override
+    public boolean test(Struct context, Predicate<String> segmentMatcher) {
+      for (Node operand : operands) {
+        if (operand.test(context, segmentMatcher)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public int cost() {
+      return cost;
+    }
+  }
+
+  private static int totalCost(Node[] operands) {
+    int cost = 0;
+    for (Node operand : operands) {
+      cost += operand.cost();
+    }
+    return cost;
+  }
+
+  private static final class SegmentNode implements Node {
+    private final String segment;
+
+    private SegmentNode(String segment) {
+      this.segment = segment;
+    }
+
+    @Override
+    public boolean test(Struct context, Predicate<String> segmentMatcher) {
+      return segmentMatcher.test(segment);
+    }
+
+    @Override
+    public int cost() {
+      // nested targeting plus a bucket hash
+      return 100;
+    }
+  }
+
+  private static final class AttributeNode implements Node {
+    private final String[] path;
+    private final ValuePredicate predicate;
+
+    private AttributeNode(String[] path, ValuePredicate predicate) {
+      this.path = path;
+      this.predicate = predicate;
+    }
+
+    @Override
+    public boolean test(Struct context, Predicate<String> segmentMatcher) {
+      final Value value = lookup(context, path);
+      return value != null && predicate.test(value);
+    }
+
+    @Override
+    public int cost() {
+      return path.length;
+    }
+  }
+
+  private static final class ListNode implements Node {
+    private final String[] path;
+    private final ValuePredicate predicate;
+    private final boolean any;
+
+    private ListNode(String[] path, ValuePredicate predicate, boolean any) {
+      this.path = path;
+      this.predicate = predicate;
+      this.any = any;
+    }
+
+    @Override
+    public boolean test(Struct context, Predicate<String> segmentMatcher) {
+      final Value value = lookup(context, path);
+      if (value == null || !value.hasListValue()) {
+        // an empty list matches "all" but not "any"
+        return !any;
+      }
+      for (Value item : value.getListValue().getValuesList()) {
+        if (predicate.test(item) == any) {
+          return any;
+        }
+      }
+      return !any;
+    }
+
+    @Override
+    public int cost() {
+      return path.length + 10;
+    }
+  }
+
+  private static final class InSet implements ValuePredicate {
+    private final Targeting.Value.ValueCase type;
+    private final Set<Object> values;
+
+    private InSet(Targeting.Value.ValueCase type, Set<Object> values) {
+      this.type = type;
+      this.values = values;
+    }
+
+    @Override
+    public boolean test(Value value) {
+      final Comparable<?> converted = TargetingValues.convert(value, type);
+      return converted != null && values.contains(converted);
+    }
+  }
+
+  private static final class InRange implements ValuePredicate {
+    @Nullable private final Bound start;
+    @Nullable private final Bound end;
+
+    private InRange(@Nullable Bound start, @Nullable Bound end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public boolean test(Value value) {
+      if (start != null) {
+        final int comparison = start.compare(value);
+        if (comparison == Bound.INCOMPARABLE
+            || comparison < 0
+            || (comparison == 0 && !start.inclusive)) {
+          return false;
+        }
+      }
+      if (end != null) {
+        final int comparison = end.compare(value);
+        return comparison != Bound.INCOMPARABLE
+            && (comparison < 0 || (comparison == 0 && end.inclusive));
+      }
+      return true;
+    }
+  }
+
+  private static final class Bound {
+    static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+    private final Targeting.Value.ValueCase type;
+    private final Comparable<Object> value;
+    private final boolean inclusive;
+
+    private Bound(Targeting.Value.ValueCase type, Comparable<Object> value, boolean inclusive) {
+      this.type = type;
+      this.value = value;
+      this.inclusive = inclusive;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    static Bound of(Targeting.Value value, boolean inclusive) {
+      switch (value.getValueCase()) {
+        case NUMBER_VALUE:
+        case TIMESTAMP_VALUE:
+        case VERSION_VALUE:
+          final Comparable<?> parsed = parse(value);
+          return parsed == null
+              ? null
+              : new Bound(value.getValueCase(), (Comparable<Object>) parsed, inclusive);
+        default:
+          // only numbers, timestamps and versions can be ordered
+          return null;
+      }
+    }
+
+    /** Compares a context value to this bound, returning the sign of {@code value - bound}. */
+    @SuppressWarnings("unchecked")
+    int compare(Value attribute) {
+      final Comparable<?> converted = TargetingValues.convert(attribute, type);
+      if (converted == null) {
+        return INCOMPARABLE;
+      }
+      return Integer.signum(((Comparable<Object>) converted).compareTo(value));
+    }
+  }
+
+  @Nullable
+  private static Value lookup(Struct context, String[] path) {
+    Struct current = context;
+    for (int i = 0; ; i++) {
+      final Value value = current.getFieldsMap().get(path[i]);
+      if (value == null || value.hasNullValue()) {
+        return null;
+      }
+      if (i == path.length - 1) {
+        return value;
+      }
+      if (!value.hasStructValue()) {
+        return null;
+      }
+      current = value.getStructValue();
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.spotify.confidence;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.spotify.confidence.shaded.flags.types.v1.Targeting;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import javax.annotation.Nullable;
+
+/**
+ * Reads attributes from an evaluation context and converts them to the types of the values in
+ * {@link Targeting} rules.
+ */
+final class TargetingValues {
+
+  private TargetingValues() {}
+
+  /** Converts a context value to the type of a rule value, or returns null if not possible. */
+  @Nullable
+  static Comparable<?> convert(Value attribute, Targeting.Value.ValueCase type) {
+    switch (type) {
+      case BOOL_VALUE:
+        if (attribute.hasBoolValue()) return attribute.getBoolValue();
+        if (attribute.hasStringValue()) {
+          final String string = attribute.getStringValue();
+          if ("true".equalsIgnoreCase(string)) return true;
+          if ("false".equalsIgnoreCase(string)) return false;
+        }
+        return null;
+      case NUMBER_VALUE:
+        if (attribute.hasNumberValue()) return attribute.getNumberValue();
+        if (attribute.hasStringValue()) {
+          try {
+            return Double.parseDouble(attribute.getStringValue());
+          } catch (NumberFormatException e) {
+            return null;
+          }
+        }
+        return null;
+      case STRING_VALUE:
+        return attribute.hasStringValue() ? attribute.getStringValue() : null;
+      case TIMESTAMP_VALUE:
+        return attribute.hasStringValue() ? parseInstant(attribute.getStringValue()) : null;
+      case VERSION_VALUE:
+        return attribute.hasStringValue()
+            ? SemanticVersion.parse(attribute.getStringValue())
+            : null;
+      default:
+        return null;
+    }
+  }
+
+  @Nullable
+  private static Instant parseInstant(String value) {
+    try {
+      return Instant.parse(value);
+    } catch (DateTimeParseException e) {
+      try {
+        return OffsetDateTime.parse(value).toInstant();
+      } catch (DateTimeParseException ignored) {
+        return null;
+      }
+    }
+  }
+
+  /** Looks up a possibly nested attribute using a dot separated path. */
+  @Nullable
+  static Value getAttribute(Struct context, String path) {
+    Struct current = context;
+    int start = 0;
+    while (true) {
+      final int dot = path.indexOf('.', start);
+      final String name = dot < 0 ? path.substring(start) : path.substring(start, dot);
+      final Value value = current.getFieldsMap().get(name);
+      if (value == null || value.hasNullValue()) {
+        return null;
+      }
+      if (dot < 0) {
+        return value;
+      }
+      if (!value.hasStructValue()) {
+        return null;
+      }
+      current = value.getStructValue();
+      start = dot + 1;
+    }
+  }
+
+  /** A version of the form {@code major.minor.patch}, where trailing parts may be left out. */
+  static final class SemanticVersion implements Comparable<SemanticVersion> {
+    private final int[] parts;
+
+    private SemanticVersion(int[] parts) {
+      this.parts = parts;
+    }
+
+    @Nullable
+    static SemanticVersion parse(String version) {
+      final String[] split = version.split("\\.", -1);
+      if (split.length == 0 || split.length > 4) {
+        return null;
+      }
+      final int[] parts = new int[split.length];
+      try {
+        for (int i = 0; i < split.length; i++) {
+          parts[i] = Integer.parseInt(split[i]);
+          if (parts[i] < 0) return null;
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      return new SemanticVersion(parts);
+    }
+
+    @Override
+    public int compareTo(SemanticVersion other) {
+      final int length = Math.max(parts.length, other.parts.length);
+      for (int i = 0; i < length; i++) {
+        final int a = i < parts.length ? parts[i] : 0;
+        final int b = i < other.parts.length ? other.parts[i] : 0;
+        if (a != b) {
+          return Integer.compare(a, b);
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof SemanticVersion && compareTo((SemanticVersion) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      // trailing zeros are ignored so that 1.2 and 1.2.0 hash the same
+      int length = parts.length;
+      while (length > 0 && parts[length - 1] == 0) {
+        length--;
+      }
+      int hash = 1;
+      for (int i = 0; i < length; i++) {
+        hash = 31 * hash + parts[i];
+      }
+      return hash;
+    }
+  }
+}
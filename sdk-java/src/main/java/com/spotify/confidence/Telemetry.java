@@ -3,47 +3,88 @@ package com.spotify.confidence;
 import com.google.common.annotations.VisibleForTesting;
 import com.spotify.confidence.shaded.flags.resolver.v1.ResolveReason;
 import com.spotify.telemetry.v1.LibraryTraces;
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationErrorCode;
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationReason;
 import com.spotify.telemetry.v1.Monitoring;
 import com.spotify.telemetry.v1.Platform;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
 import javax.annotation.Nullable;
 
+/**
+ * Records resolve latencies and flag evaluations, which are sent to the backend in a header of the
+ * next resolve request.
+ *
+ * <p>Memory use is fixed regardless of how many values are recorded: evaluations are counted per
+ * reason and error code, and latencies in a {@link Histogram}. A snapshot turns the counts back
+ * into one trace per evaluation or latency, the latter at the lower bound of its histogram bucket.
+ * To keep the header small, a snapshot holds at most {@link #MAX_TRACES_PER_SNAPSHOT} traces, taken
+ * from every count in proportion to its size. Whatever doesn't fit is left for the next snapshot,
+ * so every recorded value is eventually sent.
+ */
 public class Telemetry {
-  private final ConcurrentLinkedQueue<LibraryTraces.Trace> traces = new ConcurrentLinkedQueue<>();
+  // about 4 KiB once encoded in a header
+  static final int MAX_TRACES_PER_SNAPSHOT = 300;
+  private static final EvaluationReason[] REASONS = EvaluationReason.values();
+  private static final EvaluationErrorCode[] ERROR_CODES = EvaluationErrorCode.values();
+  private static final String[] REASON_LABELS = labels(REASONS, "EVALUATION_REASON_");
+  private static final String[] ERROR_CODE_LABELS = labels(ERROR_CODES, "EVALUATION_ERROR_CODE_");
+
+  // indexed by the ordinals of the reason and error code
+  private final LongAdder[] evaluations = new LongAdder[REASONS.length * ERROR_CODES.length];
+  private final Histogram latencies = new Histogram();
+  // the number of values recorded since the last snapshot
+  private final LongAdder unreported = new LongAdder();
   private final boolean isProvider;
+  private final ConfidenceMetrics metrics;
 
   public Telemetry() {
-    this.isProvider = false;
+    this(false);
   }
 
   public Telemetry(boolean isProvider) {
+    this(isProvider, ConfidenceMetrics.NOOP);
+  }
+
+  /**
+   * @param isProvider whether the SDK is used as an OpenFeature provider
+   * @param metrics also receives every evaluation
+   */
+  public Telemetry(boolean isProvider, ConfidenceMetrics metrics) {
     this.isProvider = isProvider;
+    this.metrics = metrics;
+    for (int i = 0; i < evaluations.length; i++) {
+      evaluations[i] = new LongAdder();
+    }
   }
 
   public void appendLatency(long latency) {
-    traces.add(
-        LibraryTraces.Trace.newBuilder()
-            .setId(LibraryTraces.TraceId.TRACE_ID_RESOLVE_LATENCY)
-            .setRequestTrace(
-                LibraryTraces.Trace.RequestTrace.newBuilder()
-                    .setMillisecondDuration(latency)
-                    .setStatus(LibraryTraces.Trace.RequestTrace.Status.STATUS_SUCCESS)
-                    .build())
-            .build());
-  }
-
-  public void appendEvaluation(
-      LibraryTraces.Trace.EvaluationTrace.EvaluationReason reason,
-      LibraryTraces.Trace.EvaluationTrace.EvaluationErrorCode errorCode) {
-    traces.add(
-        LibraryTraces.Trace.newBuilder()
-            .setId(LibraryTraces.TraceId.TRACE_ID_FLAG_EVALUATION)
-            .setEvaluationTrace(
-                LibraryTraces.Trace.EvaluationTrace.newBuilder()
-                    .setReason(reason)
-                    .setErrorCode(errorCode)
-                    .build())
-            .build());
+    latencies.record(latency);
+    unreported.increment();
+  }
+
+  public void appendEvaluation(EvaluationReason reason, EvaluationErrorCode errorCode) {
+    evaluations[reason.ordinal() * ERROR_CODES.length + errorCode.ordinal()].increment();
+    unreported.increment();
+    metrics.recordEvaluation(
+        REASON_LABELS[reason.ordinal()], ERROR_CODE_LABELS[errorCode.ordinal()]);
+  }
+
+  /** The lower case names of enum values, without their common prefix. */
+  private static String[] labels(Enum<?>[] values, String prefix) {
+    return Arrays.stream(values)
+        .map(Enum::name)
+        .map(name -> name.startsWith(prefix) ? name.substring(prefix.length()) : name)
+        .map(name -> name.toLowerCase(Locale.ROOT))
+        .toArray(String[]::new);
+  }
+
+  /** The number of latencies and evaluations recorded since the last snapshot. */
+  long getUnreportedCount() {
+    return unreported.sum();
   }
 
   public static LibraryTraces.Trace.EvaluationTrace.EvaluationReason mapReason(
@@ -105,14 +146,55 @@ public class Telemetry {
     }
   }
 
+  /** Returns the traces recorded since the last snapshot. */
   public Monitoring getSnapshot() {
-    final Monitoring snapshot = getSnapshotInternal();
-    clear();
-    return snapshot;
+    return snapshot(true);
   }
 
+  /** Returns the traces recorded since the last snapshot, without resetting them. */
   @VisibleForTesting
   public Monitoring getSnapshotInternal() {
+    return snapshot(false);
+  }
+
+  private Monitoring snapshot(boolean reset) {
+    // latencies and evaluations share one array of counts, latencies first
+    final long[] counts = new long[Histogram.BUCKET_COUNT + evaluations.length];
+    for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+      counts[i] = latencies.getBucketCount(i);
+    }
+    for (int i = 0; i < evaluations.length; i++) {
+      counts[Histogram.BUCKET_COUNT + i] = evaluations[i].sum();
+    }
+    allot(counts, MAX_TRACES_PER_SNAPSHOT);
+    if (reset) {
+      // values recorded while taking the snapshot, and those that didn't fit, are left for the next
+      for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+        counts[i] = latencies.takeBucketCount(i, counts[i]);
+      }
+      for (int i = 0; i < evaluations.length; i++) {
+        evaluations[i].add(-counts[Histogram.BUCKET_COUNT + i]);
+      }
+      unreported.add(-total(counts));
+    }
+
+    final List<LibraryTraces.Trace> traces = new ArrayList<>();
+    for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+      if (counts[i] > 0) {
+        addTraces(traces, latencyTrace(Histogram.bucketLowerBound(i)), counts[i]);
+      }
+    }
+    for (int i = 0; i < evaluations.length; i++) {
+      final EvaluationReason reason = REASONS[i / ERROR_CODES.length];
+      final EvaluationErrorCode errorCode = ERROR_CODES[i % ERROR_CODES.length];
+      // unrecognized values can't be set on a trace, and are never recorded
+      final long count = counts[Histogram.BUCKET_COUNT + i];
+      if (count > 0
+          && reason != EvaluationReason.UNRECOGNIZED
+          && errorCode != EvaluationErrorCode.UNRECOGNIZED) {
+        addTraces(traces, evaluationTrace(reason, errorCode), count);
+      }
+    }
     final LibraryTraces libraryTraces =
         LibraryTraces.newBuilder()
             .setLibrary(
@@ -129,8 +211,75 @@ public class Telemetry {
         .build();
   }
 
-  private void clear() {
-    traces.clear();
+  /**
+   * Lowers the counts to at most {@code budget} in total, in proportion to their size. The part of
+   * the budget lost to rounding goes first to counts that would otherwise get nothing, so that rare
+   * values aren't held back for as long as frequent ones keep the total above the budget, and then
+   * to the others in order.
+   */
+  @VisibleForTesting
+  static void allot(long[] counts, long budget) {
+    final long total = total(counts);
+    if (total <= budget) {
+      return;
+    }
+    final long[] recorded = counts.clone();
+    long left = budget;
+    for (int i = 0; i < counts.length; i++) {
+      // a double keeps count * budget from overflowing, but may round up past the budget
+      counts[i] = Math.min(left, (long) ((double) recorded[i] * budget / total));
+      left -= counts[i];
+    }
+    for (int i = 0; i < counts.length && left > 0; i++) {
+      if (recorded[i] > 0 && counts[i] == 0) {
+        counts[i] = 1;
+        left--;
+      }
+    }
+    for (int i = 0; i < counts.length && left > 0; i++) {
+      if (counts[i] < recorded[i]) {
+        counts[i]++;
+        left--;
+      }
+    }
+  }
+
+  private static long total(long[] counts) {
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    return total;
+  }
+
+  private static void addTraces(
+      List<LibraryTraces.Trace> traces, LibraryTraces.Trace trace, long count) {
+    for (long i = 0; i < count; i++) {
+      traces.add(trace);
+    }
+  }
+
+  private static LibraryTraces.Trace latencyTrace(long latency) {
+    return LibraryTraces.Trace.newBuilder()
+        .setId(LibraryTraces.TraceId.TRACE_ID_RESOLVE_LATENCY)
+        .setRequestTrace(
+            LibraryTraces.Trace.RequestTrace.newBuilder()
+                .setMillisecondDuration(latency)
+                .setStatus(LibraryTraces.Trace.RequestTrace.Status.STATUS_SUCCESS)
+                .build())
+        .build();
+  }
+
+  private static LibraryTraces.Trace evaluationTrace(
+      EvaluationReason reason, EvaluationErrorCode errorCode) {
+    return LibraryTraces.Trace.newBuilder()
+        .setId(LibraryTraces.TraceId.TRACE_ID_FLAG_EVALUATION)
+        .setEvaluationTrace(
+            LibraryTraces.Trace.EvaluationTrace.newBuilder()
+                .setReason(reason)
+                .setErrorCode(errorCode)
+                .build())
+        .build();
   }
 
   public boolean isProvider() {
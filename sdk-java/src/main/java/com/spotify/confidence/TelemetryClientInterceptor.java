@@ -1,17 +1,62 @@
 package com.spotify.confidence;
 
-import com.spotify.telemetry.v1.Monitoring;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.*;
+import java.io.Closeable;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
-public class TelemetryClientInterceptor implements ClientInterceptor {
+/**
+ * Attaches the recorded {@link Telemetry} to resolve requests, in a header.
+ *
+ * <p>The header is encoded on a background thread, once per interval or as soon as a full snapshot
+ * of telemetry has been recorded, so a resolve only attaches a string that is ready. A header is
+ * sent once. Telemetry is not snapshot again until the previous header has been sent, so what is
+ * recorded in the meantime carries over to the next header.
+ */
+public class TelemetryClientInterceptor implements ClientInterceptor, Closeable {
   public static final Metadata.Key<String> HEADER_KEY =
       Metadata.Key.of("X-CONFIDENCE-TELEMETRY", Metadata.ASCII_STRING_MARSHALLER);
+  static final Duration DEFAULT_ENCODE_INTERVAL = Duration.ofSeconds(10);
   private final @Nullable Telemetry telemetry;
+  private final @Nullable ScheduledExecutorService encoder;
+  private final AtomicReference<String> header = new AtomicReference<>();
+  private final AtomicBoolean encodeRequested = new AtomicBoolean();
 
   public TelemetryClientInterceptor(@Nullable Telemetry telemetry) {
+    this(telemetry, DEFAULT_ENCODE_INTERVAL);
+  }
+
+  /**
+   * @param telemetry the telemetry to attach, or null to attach none
+   * @param encodeInterval how often the header is encoded
+   */
+  public TelemetryClientInterceptor(@Nullable Telemetry telemetry, Duration encodeInterval) {
+    if (encodeInterval.isNegative() || encodeInterval.isZero()) {
+      throw new IllegalArgumentException("encodeInterval must be positive");
+    }
     this.telemetry = telemetry;
+    if (telemetry == null) {
+      this.encoder = null;
+      return;
+    }
+    this.encoder =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("confidence-telemetry-%d")
+                .setDaemon(true)
+                .build());
+    final long intervalMillis = encodeInterval.toMillis();
+    encoder.scheduleWithFixedDelay(
+        this::encodeHeader, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
   }
 
   @Override
@@ -22,13 +67,50 @@ public class TelemetryClientInterceptor implements ClientInterceptor {
       @Override
       public void start(Listener<RespT> responseListener, Metadata headers) {
         if (telemetry != null) {
-          final Monitoring telemetrySnapshot = telemetry.getSnapshot();
-          final String base64Telemetry =
-              Base64.getEncoder().encodeToString(telemetrySnapshot.toByteArray());
-          headers.put(HEADER_KEY, base64Telemetry);
+          final String encoded = header.getAndSet(null);
+          if (encoded != null) {
+            headers.put(HEADER_KEY, encoded);
+          }
+          if (telemetry.getUnreportedCount() >= Telemetry.MAX_TRACES_PER_SNAPSHOT) {
+            requestEncode();
+          }
         }
         super.start(responseListener, headers);
       }
     };
   }
+
+  private void requestEncode() {
+    if (!encodeRequested.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      encoder.execute(
+          () -> {
+            encodeRequested.set(false);
+            encodeHeader();
+          });
+    } catch (RejectedExecutionException e) {
+      // closed
+    }
+  }
+
+  /**
+   * Encodes the telemetry recorded since the last header, unless the last header has not been sent
+   * yet. Only called on the encoder thread, outside of tests.
+   */
+  @VisibleForTesting
+  public void encodeHeader() {
+    if (telemetry == null || header.get() != null || telemetry.getUnreportedCount() == 0) {
+      return;
+    }
+    header.set(Base64.getEncoder().encodeToString(telemetry.getSnapshot().toByteArray()));
+  }
+
+  @Override
+  public void close() {
+    if (encoder != null) {
+      encoder.shutdownNow();
+    }
+  }
 }
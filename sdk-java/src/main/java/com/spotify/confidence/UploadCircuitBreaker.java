@@ -0,0 +1,182 @@
+package com.spotify.confidence;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops every event upload of an engine while the backend keeps failing them, so that an outage is
+ * waited out by one timer rather than by a retry loop per batch.
+ *
+ * <p>The breaker opens after a number of consecutive failed upload attempts. While open, no batch
+ * is uploaded. Once the open duration has passed it is half-open, and a single batch is uploaded as
+ * a probe: if that succeeds the breaker closes, otherwise it opens again for twice as long, up to a
+ * maximum. Any successful upload closes the breaker and resets the open duration. Only the probe
+ * decides whether a half-open breaker opens again, so uploads are tagged with the token returned
+ * when they start, which tells the probe apart from batches started before the breaker opened.
+ */
+class UploadCircuitBreaker {
+  static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  static final Duration DEFAULT_MIN_OPEN_DURATION = Duration.ofSeconds(1);
+  static final Duration DEFAULT_MAX_OPEN_DURATION = Duration.ofSeconds(60);
+
+  /** The token of every upload that is not a probe. */
+  static final long NOT_A_PROBE = 0;
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long minOpenNanos;
+  private final long maxOpenNanos;
+  private final LongSupplier nanoTime;
+  // read without the lock by the polling thread, which only checks it for every batch
+  private volatile State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openNanos;
+  private long openUntilNanos;
+  // the token of the probe in flight, if any
+  private long probe = NOT_A_PROBE;
+  private long probesStarted;
+  private long stateSinceNanos;
+  private long timesOpened;
+  private final Map<State, Long> nanosInState = new EnumMap<>(State.class);
+
+  UploadCircuitBreaker() {
+    this(
+        DEFAULT_FAILURE_THRESHOLD,
+        DEFAULT_MIN_OPEN_DURATION,
+        DEFAULT_MAX_OPEN_DURATION,
+        System::nanoTime);
+  }
+
+  /**
+   * @param failureThreshold the number of consecutive failed attempts that opens the breaker
+   * @param minOpenDuration how long the breaker stays open after it first opens
+   * @param maxOpenDuration how long the breaker stays open at most after failed probes
+   * @param nanoTime the source of time
+   */
+  UploadCircuitBreaker(
+      int failureThreshold,
+      Duration minOpenDuration,
+      Duration maxOpenDuration,
+      LongSupplier nanoTime) {
+    if (failureThreshold <= 0) {
+      throw new IllegalArgumentException("failureThreshold must be positive");
+    }
+    if (minOpenDuration.isNegative()
+        || minOpenDuration.isZero()
+        || maxOpenDuration.compareTo(minOpenDuration) < 0) {
+      throw new IllegalArgumentException("open durations must be positive and ordered");
+    }
+    this.failureThreshold = failureThreshold;
+    this.minOpenNanos = minOpenDuration.toNanos();
+    this.maxOpenNanos = maxOpenDuration.toNanos();
+    this.nanoTime = nanoTime;
+    this.openNanos = minOpenNanos;
+    this.stateSinceNanos = nanoTime.getAsLong();
+  }
+
+  /**
+   * Whether a batch may be uploaded now. Turns an open breaker half-open once its open duration has
+   * passed, after which a single batch may be uploaded until its outcome is recorded.
+   */
+  boolean permitsUpload() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    synchronized (this) {
+      if (state == State.OPEN && nanoTime.getAsLong() - openUntilNanos >= 0) {
+        transition(State.HALF_OPEN);
+      }
+      return state == State.CLOSED || (state == State.HALF_OPEN && probe == NOT_A_PROBE);
+    }
+  }
+
+  /**
+   * Records that a batch is being uploaded, which makes it the probe of a half-open breaker without
+   * one.
+   *
+   * @return the token to record the outcome of the upload with, {@link #NOT_A_PROBE} unless the
+   *     upload is the probe
+   */
+  long onUploadStarted() {
+    if (state == State.CLOSED) {
+      return NOT_A_PROBE;
+    }
+    synchronized (this) {
+      if (state == State.HALF_OPEN && probe == NOT_A_PROBE) {
+        probe = ++probesStarted;
+        return probe;
+      }
+      return NOT_A_PROBE;
+    }
+  }
+
+  /**
+   * Records the outcome of an upload attempt.
+   *
+   * @param failed whether the whole batch failed
+   * @param token the token returned when the upload started
+   */
+  synchronized void recordUpload(boolean failed, long token) {
+    if (!failed) {
+      consecutiveFailures = 0;
+      openNanos = minOpenNanos;
+      probe = NOT_A_PROBE;
+      if (state != State.CLOSED) {
+        transition(State.CLOSED);
+      }
+      return;
+    }
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN && token != NOT_A_PROBE && token == probe) {
+      probe = NOT_A_PROBE;
+      openNanos = Math.min(maxOpenNanos, openNanos * 2);
+      open();
+    } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+      open();
+    }
+    // failures of batches started before the breaker opened, or before the probe, don't extend it
+  }
+
+  private void open() {
+    openUntilNanos = nanoTime.getAsLong() + openNanos;
+    timesOpened++;
+    transition(State.OPEN);
+  }
+
+  private void transition(State to) {
+    final long now = nanoTime.getAsLong();
+    nanosInState.merge(state, now - stateSinceNanos, Long::sum);
+    stateSinceNanos = now;
+    state = to;
+  }
+
+  /** How long until an open breaker lets a probe through, or zero if it is not open. */
+  synchronized long nanosUntilProbe() {
+    return state == State.OPEN ? Math.max(0, openUntilNanos - nanoTime.getAsLong()) : 0;
+  }
+
+  State getState() {
+    return state;
+  }
+
+  /** The total time spent in a state, including the time spent in the current state so far. */
+  synchronized Duration getTimeInState(State of) {
+    long nanos = nanosInState.getOrDefault(of, 0L);
+    if (state == of) {
+      nanos += nanoTime.getAsLong() - stateSinceNanos;
+    }
+    return Duration.ofNanos(nanos);
+  }
+
+  /** The number of times the breaker opened, including after failed probes. */
+  synchronized long getOpenCount() {
+    return timesOpened;
+  }
+}
@@ -0,0 +1,66 @@
+package com.spotify.confidence;
+
+import com.google.common.annotations.Beta;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How the thread that batches and uploads events waits while there is not yet a full batch to send,
+ * see {@link Confidence.Builder#eventQueue}.
+ */
+@Beta
+public enum WaitStrategy {
+  /** Parks until a full batch is queued or the flush interval has passed. Uses no CPU when idle. */
+  PARK {
+    @Override
+    void await(BooleanSupplier ready, long deadlineNanos) {
+      LockSupport.parkNanos(deadlineNanos - System.nanoTime());
+    }
+  },
+
+  /**
+   * Spins for a few microseconds before parking, which picks up bursts of events without the cost
+   * of being unparked.
+   */
+  SPIN_THEN_PARK {
+    @Override
+    void await(BooleanSupplier ready, long deadlineNanos) {
+      for (int i = 0; i < SPINS; i++) {
+        if (ready.getAsBoolean()) {
+          return;
+        }
+        Thread.onSpinWait();
+      }
+      PARK.await(ready, deadlineNanos);
+    }
+  },
+
+  /**
+   * Never parks, and yields the CPU between checks for new events instead. Emitting threads never
+   * have to unpark it, at the cost of keeping a core busy.
+   */
+  YIELD {
+    @Override
+    void await(BooleanSupplier ready, long deadlineNanos) {
+      Thread.yield();
+    }
+
+    @Override
+    boolean parks() {
+      return false;
+    }
+  };
+
+  private static final int SPINS = 1_000;
+
+  /**
+   * Waits once, returning early when {@code ready} holds or the deadline has passed. Callers must
+   * check their condition again after returning, as the wait may also end spuriously.
+   */
+  abstract void await(BooleanSupplier ready, long deadlineNanos);
+
+  /** Whether the waiting thread has to be unparked when it becomes ready. */
+  boolean parks() {
+    return true;
+  }
+}
@@ -0,0 +1,269 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class AggregatingEventSenderTest {
+  private static final ConfidenceValue.Struct CONTEXT =
+      ConfidenceValue.of(Map.of("targeting_key", ConfidenceValue.of("user-1")));
+
+  private final RecordingEventSender delegate = new RecordingEventSender();
+  // windows are sent by flushing, long before the window has passed
+  private final AggregatingEventSender sender =
+      new AggregatingEventSender(delegate, Set.of("impression"), Duration.ofHours(1), 2);
+
+  @AfterEach
+  void afterEach() throws IOException {
+    sender.close();
+  }
+
+  @Test
+  public void identicalEventsAreSentOnceWithTheirCount() {
+    for (int i = 0; i < 1000; i++) {
+      sender.emit("impression", CONTEXT, Optional.of(data("home")));
+    }
+    sender.emit("impression", CONTEXT, Optional.of(data("search")));
+    assertThat(delegate.emitted).isEmpty();
+
+    sender.flush();
+
+    assertThat(delegate.emitted)
+        .extracting(emitted -> emitted.data)
+        .containsExactlyInAnyOrder(countedData("home", 1000), countedData("search", 1));
+    assertThat(delegate.emitted)
+        .allSatisfy(emitted -> assertThat(emitted.context).isEqualTo(CONTEXT));
+    assertThat(delegate.flushes).isEqualTo(1);
+    assertThat(sender.getAggregatedEventCount()).isEqualTo(1001);
+    assertThat(sender.getSentAggregateCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void otherEventsArePassedThrough() {
+    sender.emit("navigate", CONTEXT, Optional.of(data("home")));
+
+    assertThat(delegate.emitted).extracting(emitted -> emitted.data).containsExactly(data("home"));
+  }
+
+  @Test
+  public void eventsBeyondTheKeyLimitArePassedThrough() {
+    sender.emit("impression", CONTEXT, Optional.of(data("home")));
+    sender.emit("impression", CONTEXT, Optional.of(data("search")));
+    sender.emit("impression", CONTEXT, Optional.of(data("library")));
+    sender.emit("impression", CONTEXT, Optional.of(data("home")));
+
+    assertThat(delegate.emitted)
+        .extracting(emitted -> emitted.data)
+        .containsExactly(data("library"));
+    assertThat(sender.getPassedThroughEventCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void idleAggregatesMakeRoomForNewOnes() {
+    sender.emit("impression", CONTEXT, Optional.of(data("home")));
+    sender.emit("impression", CONTEXT, Optional.of(data("search")));
+    sender.flush();
+    // both aggregates were idle for a window
+    sender.flush();
+
+    sender.emit("impression", CONTEXT, Optional.of(data("library")));
+    sender.flush();
+
+    assertThat(delegate.emitted)
+        .extracting(emitted -> emitted.data)
+        .containsExactlyInAnyOrder(
+            countedData("home", 1), countedData("search", 1), countedData("library", 1));
+    assertThat(sender.getPassedThroughEventCount()).isZero();
+  }
+
+  @Test
+  public void closeSendsTheOpenWindow() throws IOException {
+    sender.emit("impression", CONTEXT, Optional.of(data("home")));
+
+    sender.close();
+
+    assertThat(delegate.emitted)
+        .extracting(emitted -> emitted.data)
+        .containsExactly(countedData("home", 1));
+    assertThat(delegate.closed).isTrue();
+  }
+
+  @Test
+  public void concurrentEventsAreAllCounted() {
+    final int threads = 4;
+    final int perThread = 50_000;
+    final CompletableFuture<?>[] emitting =
+        IntStream.range(0, threads)
+            .mapToObj(
+                thread ->
+                    CompletableFuture.runAsync(
+                        () -> {
+                          for (int i = 0; i < perThread; i++) {
+                            sender.emit("impression", CONTEXT, Optional.of(data("home")));
+                            if (i % 10_000 == 0) {
+                              sender.sendWindow();
+                            }
+                          }
+                        }))
+            .toArray(CompletableFuture[]::new);
+    CompletableFuture.allOf(emitting).join();
+    sender.flush();
+
+    final long counted =
+        delegate.emitted.stream()
+            .mapToLong(emitted -> emitted.data.get(AggregatingEventSender.COUNT_FIELD).asInteger())
+            .sum();
+    assertThat(counted).isEqualTo(threads * perThread);
+  }
+
+  @Test
+  public void fingerprintIgnoresFieldOrder() {
+    final ConfidenceValue.Struct struct =
+        ConfidenceValue.of(
+            ImmutableMap.of(
+                "a", ConfidenceValue.of(1),
+                "b",
+                    ConfidenceValue.of(
+                        List.of(ConfidenceValue.of("x"), ConfidenceValue.of(true)))));
+    final ConfidenceValue.Struct reordered =
+        ConfidenceValue.of(
+            ImmutableMap.of(
+                "b", ConfidenceValue.of(List.of(ConfidenceValue.of("x"), ConfidenceValue.of(true))),
+                "a", ConfidenceValue.of(1)));
+
+    assertThat(AggregatingEventSender.fingerprint(reordered))
+        .isEqualTo(AggregatingEventSender.fingerprint(struct));
+    assertThat(AggregatingEventSender.fingerprint(data("home")))
+        .isNotEqualTo(AggregatingEventSender.fingerprint(data("search")));
+    assertThat(
+            AggregatingEventSender.fingerprint(
+                ConfidenceValue.of(Map.of("a", ConfidenceValue.of(1)))))
+        .isNotEqualTo(
+            AggregatingEventSender.fingerprint(
+                ConfidenceValue.of(Map.of("a", ConfidenceValue.of(1.5)))));
+  }
+
+  @Test
+  public void eventsWithTheSameFingerprintAreAggregatedApart() {
+    // "Aa" and "BB" have the same hash
+    assertThat(AggregatingEventSender.fingerprint(data("Aa")))
+        .isEqualTo(AggregatingEventSender.fingerprint(data("BB")));
+
+    sender.emit("impression", CONTEXT, Optional.of(data("Aa")));
+    sender.emit("impression", CONTEXT, Optional.of(data("BB")));
+    sender.emit("impression", CONTEXT, Optional.of(data("BB")));
+    sender.flush();
+
+    assertThat(delegate.emitted)
+        .extracting(emitted -> emitted.data)
+        .containsExactlyInAnyOrder(countedData("Aa", 1), countedData("BB", 2));
+  }
+
+  @Test
+  public void eventsWithACountArePassedThrough() {
+    final ConfidenceValue.Struct counted = countedData("home", 7);
+
+    sender.emit("impression", CONTEXT, Optional.of(counted));
+    sender.flush();
+
+    assertThat(delegate.emitted).extracting(emitted -> emitted.data).containsExactly(counted);
+    assertThat(sender.getPassedThroughEventCount()).isEqualTo(1);
+    assertThat(sender.getAggregatedEventCount()).isZero();
+  }
+
+  @Test
+  public void eventsAreLimitedBeforeTheyAreAggregated() throws IOException {
+    final EventLimits limits =
+        new EventLimits(
+            Map.of(
+                "impression", EventLimits.Limit.NONE.withRateLimit(1, 3),
+                "navigate", EventLimits.Limit.NONE.withSampleRate(0)),
+            () -> 0L);
+    final AggregatingEventSender limited =
+        new AggregatingEventSender(delegate, Set.of("impression"), Duration.ofHours(1), 2, limits);
+    for (int i = 0; i < 10; i++) {
+      limited.emit("impression", CONTEXT, Optional.of(data("home")));
+      limited.emit("navigate", CONTEXT, Optional.of(data("home")));
+    }
+    limited.flush();
+    limited.close();
+
+    // only admitted events are counted, and the delegate sends the aggregate without limits
+    assertThat(delegate.emitted)
+        .extracting(emitted -> emitted.data)
+        .containsExactly(countedData("home", 3));
+    assertThat(limits.getRateLimitedCount("impression")).isEqualTo(7);
+    assertThat(limits.getSampledOutCount("navigate")).isEqualTo(10);
+  }
+
+  @Test
+  public void invalidSettingsAreRejected() {
+    assertThatThrownBy(
+            () -> new AggregatingEventSender(delegate, Set.of("impression"), Duration.ZERO, 2))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("window must be positive");
+    assertThatThrownBy(
+            () ->
+                new AggregatingEventSender(
+                    delegate, Set.of("impression"), Duration.ofSeconds(1), 0))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("maxKeys must be positive");
+  }
+
+  private static ConfidenceValue.Struct data(String screen) {
+    return ConfidenceValue.of(Map.of("screen", ConfidenceValue.of(screen)));
+  }
+
+  private static ConfidenceValue.Struct countedData(String screen, int count) {
+    return ConfidenceValue.of(
+        Map.of(
+            "screen",
+            ConfidenceValue.of(screen),
+            AggregatingEventSender.COUNT_FIELD,
+            ConfidenceValue.of(count)));
+  }
+
+  private static class Emitted {
+    private final ConfidenceValue.Struct context;
+    private final ConfidenceValue.Struct data;
+
+    private Emitted(ConfidenceValue.Struct context, ConfidenceValue.Struct data) {
+      this.context = context;
+      this.data = data;
+    }
+  }
+
+  private static class RecordingEventSender implements EventSenderEngine {
+    private final List<Emitted> emitted = new CopyOnWriteArrayList<>();
+    private volatile int flushes;
+    private volatile boolean closed;
+
+    @Override
+    public void emit(
+        String name, ConfidenceValue.Struct context, Optional<ConfidenceValue.Struct> data) {
+      emitted.add(new Emitted(context, data.orElse(ConfidenceValue.Struct.EMPTY)));
+    }
+
+    @Override
+    public void flush() {
+      flushes++;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class BatchLimitsTest {
+  private static final long FAST = Duration.ofMillis(10).toNanos();
+  private static final long SLOW = Duration.ofSeconds(2).toNanos();
+
+  @Test
+  public void fixedLimitsNeverChange() {
+    final BatchLimits limits = BatchLimits.fixed(25, 1000);
+
+    limits.recordUpload(SLOW, true);
+
+    assertThat(limits.maxEvents()).isEqualTo(25);
+    assertThat(limits.maxBytes()).isEqualTo(1000);
+  }
+
+  @Test
+  public void adaptiveLimitsGrowUpToTheirMaximumWhileUploadsAreHealthy() {
+    final BatchLimits limits = BatchLimits.adaptive(25, 100, 64_000, Duration.ofSeconds(1));
+
+    limits.recordUpload(FAST, false);
+    assertThat(limits.maxEvents()).isEqualTo(28);
+    for (int i = 0; i < 100; i++) {
+      limits.recordUpload(FAST, false);
+    }
+
+    assertThat(limits.maxEvents()).isEqualTo(100);
+    assertThat(limits.maxBytes()).isEqualTo(64_000);
+  }
+
+  @Test
+  public void adaptiveLimitsHalveOnFailuresAndRecover() {
+    final BatchLimits limits = BatchLimits.adaptive(64, 64, 64_000, Duration.ofSeconds(1));
+
+    limits.recordUpload(FAST, true);
+    assertThat(limits.maxEvents()).isEqualTo(32);
+    assertThat(limits.maxBytes()).isEqualTo(32_000);
+    for (int i = 0; i < 20; i++) {
+      limits.recordUpload(FAST, true);
+    }
+    assertThat(limits.maxEvents()).isEqualTo(1);
+    assertThat(limits.maxBytes()).isEqualTo(BatchLimits.MIN_ADAPTIVE_BYTES);
+
+    // the error rate has to decay before the limits grow again
+    limits.recordUpload(FAST, false);
+    assertThat(limits.maxEvents()).isEqualTo(1);
+    for (int i = 0; i < 100; i++) {
+      limits.recordUpload(FAST, false);
+    }
+    assertThat(limits.maxEvents()).isEqualTo(64);
+    assertThat(limits.maxBytes()).isEqualTo(64_000);
+  }
+
+  @Test
+  public void adaptiveLimitsShrinkWhileUploadsAreSlow() {
+    final BatchLimits limits = BatchLimits.adaptive(64, 64, 64_000, Duration.ofSeconds(1));
+
+    for (int i = 0; i < 10; i++) {
+      limits.recordUpload(SLOW, false);
+    }
+
+    assertThat(limits.maxEvents()).isLessThan(64);
+    assertThat(limits.maxBytes()).isLessThan(64_000);
+  }
+
+  @Test
+  public void limitsMustBePositive() {
+    assertThatThrownBy(() -> BatchLimits.fixed(0, 1000))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("maxEvents must be positive");
+    assertThatThrownBy(() -> BatchLimits.adaptive(1, 1, 1000, Duration.ZERO))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("targetLatency must be positive");
+  }
+}
@@ -0,0 +1,170 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolvedFlag;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BatchingFlagResolverTest {
+  private final RecordingFlagResolver delegate = new RecordingFlagResolver();
+  private BatchingFlagResolver resolver =
+      new BatchingFlagResolver(delegate, Duration.ofMillis(20), 3, Duration.ofSeconds(1));
+
+  @AfterEach
+  void afterEach() {
+    resolver.close();
+  }
+
+  @Test
+  public void resolvesWithSameContextShareOneRequest() throws Exception {
+    final CompletableFuture<ResolveFlagsResponse> a = resolver.resolve("flags/a", user("1"), false);
+    final CompletableFuture<ResolveFlagsResponse> b = resolver.resolve("flags/b", user("1"), false);
+
+    final ResolveFlagsResponse first = a.get(1, TimeUnit.SECONDS);
+    final ResolveFlagsResponse second = b.get(1, TimeUnit.SECONDS);
+
+    assertThat(delegate.requests).containsExactly(List.of("flags/a", "flags/b"));
+    assertThat(first.getResolvedFlagsList())
+        .extracting(ResolvedFlag::getFlag)
+        .containsExactly("flags/a");
+    assertThat(second.getResolvedFlagsList())
+        .extracting(ResolvedFlag::getFlag)
+        .containsExactly("flags/b");
+    assertThat(first.getResolveToken()).isEqualTo(second.getResolveToken());
+    assertThat(resolver.getBatchSizes().getCount()).isEqualTo(1);
+    assertThat(resolver.getBatchSizes().getMax()).isEqualTo(2);
+  }
+
+  @Test
+  public void resolvesWithDifferentContextsAreNotMerged() throws Exception {
+    final CompletableFuture<ResolveFlagsResponse> a = resolver.resolve("flags/a", user("1"), false);
+    final CompletableFuture<ResolveFlagsResponse> b = resolver.resolve("flags/a", user("2"), false);
+
+    a.get(1, TimeUnit.SECONDS);
+    b.get(1, TimeUnit.SECONDS);
+
+    assertThat(delegate.requests).containsExactly(List.of("flags/a"), List.of("flags/a"));
+  }
+
+  @Test
+  public void fullBatchIsSentWithoutWaiting() {
+    resolver.close();
+    resolver =
+        new BatchingFlagResolver(delegate, Duration.ofSeconds(10), 2, Duration.ofSeconds(10));
+
+    final CompletableFuture<ResolveFlagsResponse> a = resolver.resolve("flags/a", user("1"), false);
+    final CompletableFuture<ResolveFlagsResponse> b = resolver.resolve("flags/b", user("1"), false);
+
+    assertThat(a).isCompleted();
+    assertThat(b).isCompleted();
+    assertThat(delegate.requests).containsExactly(List.of("flags/a", "flags/b"));
+  }
+
+  @Test
+  public void sameFlagResolvedTwiceIsRequestedOnce() throws Exception {
+    final CompletableFuture<ResolveFlagsResponse> a = resolver.resolve("flags/a", user("1"), false);
+    final CompletableFuture<ResolveFlagsResponse> b = resolver.resolve("flags/a", user("1"), false);
+
+    assertThat(a.get(1, TimeUnit.SECONDS)).isSameAs(b.get(1, TimeUnit.SECONDS));
+    assertThat(delegate.requests).containsExactly(List.of("flags/a"));
+  }
+
+  @Test
+  public void failureIsPropagatedToEveryResolve() {
+    delegate.failure = new IllegalStateException("boom");
+
+    final CompletableFuture<ResolveFlagsResponse> a = resolver.resolve("flags/a", user("1"), false);
+    final CompletableFuture<ResolveFlagsResponse> b = resolver.resolve("flags/b", user("1"), false);
+
+    assertThatThrownBy(() -> a.get(1, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> b.get(1, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void closeSendsOpenBatches() {
+    resolver.close();
+    resolver =
+        new BatchingFlagResolver(delegate, Duration.ofSeconds(10), 10, Duration.ofSeconds(10));
+    final CompletableFuture<ResolveFlagsResponse> a = resolver.resolve("flags/a", user("1"), false);
+
+    resolver.close();
+
+    assertThat(a).isCompleted();
+  }
+
+  @Test
+  public void invalidConfigurationIsRejected() {
+    assertThatThrownBy(
+            () -> new BatchingFlagResolver(delegate, Duration.ZERO, 1, Duration.ofSeconds(1)))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("window must be positive");
+    assertThatThrownBy(
+            () ->
+                new BatchingFlagResolver(delegate, Duration.ofSeconds(2), 1, Duration.ofSeconds(1)))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("maxWait must not be shorter than window");
+    assertThatThrownBy(
+            () ->
+                new BatchingFlagResolver(delegate, Duration.ofSeconds(1), 0, Duration.ofSeconds(1)))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("maxBatchSize must be positive");
+  }
+
+  @Test
+  public void histogramBucketsBoundTheirValues() {
+    for (long value : new long[] {0, 1, 7, 8, 9, 15, 16, 1000, 123_456_789L, Long.MAX_VALUE}) {
+      final int index = Histogram.bucketIndex(value);
+      assertThat(Histogram.bucketLowerBound(index)).isLessThanOrEqualTo(value);
+      assertThat(Histogram.bucketUpperBound(index)).isGreaterThanOrEqualTo(value);
+    }
+    final Histogram histogram = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertThat(histogram.getCount()).isEqualTo(100);
+    assertThat(histogram.getSum()).isEqualTo(5050);
+    assertThat(histogram.valueAtQuantile(0.5)).isBetween(50L, 55L);
+    assertThat(histogram.valueAtQuantile(1.0)).isEqualTo(100);
+  }
+
+  private static Struct user(String id) {
+    return Structs.of("user", Values.of(id));
+  }
+
+  private static class RecordingFlagResolver implements FlagResolver {
+    final List<List<String>> requests = new CopyOnWriteArrayList<>();
+    volatile RuntimeException failure;
+
+    @Override
+    public CompletableFuture<ResolveFlagsResponse> resolve(
+        List<String> flags, Struct context, Boolean isProvider) {
+      requests.add(flags);
+      if (failure != null) {
+        return CompletableFuture.failedFuture(failure);
+      }
+      final ResolveFlagsResponse.Builder response =
+          ResolveFlagsResponse.newBuilder()
+              .setResolveToken(ByteString.copyFromUtf8("token"))
+              .setResolveId("id");
+      flags.forEach(flag -> response.addResolvedFlags(ResolvedFlag.newBuilder().setFlag(flag)));
+      return CompletableFuture.completedFuture(response.build());
+    }
+
+    @Override
+    public void close() {}
+  }
+}
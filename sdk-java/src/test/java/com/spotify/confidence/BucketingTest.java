@@ -0,0 +1,85 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class BucketingTest {
+
+  // salt, unit, hash, bucket of 1M, bucket of 100, computed with Guava's murmur3_128 and the
+  // formula of Bucketing. They pin that formula, including edge cases like an empty salt, but are
+  // not taken from the resolver backend, so they don't show that assignments agree with it.
+  private static final String[][] REGRESSION_VECTORS = {
+    {"account", "user-1", "24e7af1cfb65da61", "829286", "86"},
+    {"account", "", "2196d82be9770251", "394021", "21"},
+    {"", "", "9fda94484a2141a0", "232154", "54"},
+    {"accounts/abc", "1234567890abcdef", "575929b8f41d11b9", "827867", "67"},
+    {"accounts/abc", "user-\uD83D\uDE42-\u00FC", "2bd8993e4b0ea4bd", "167243", "43"},
+    {"a", "0123456789abcdefghij0123456789", "9b86bb243252e845", "973060", "60"},
+    {"account", "\u65E5\u672C\u8A9E", "a8635fdc887afc76", "840839", "39"},
+  };
+
+  @Test
+  public void regressionVectors() {
+    for (String[] vector : REGRESSION_VECTORS) {
+      final String salt = vector[0];
+      final String unit = vector[1];
+      assertThat(Bucketing.hash(salt, unit))
+          .describedAs("hash of %s|%s", salt, unit)
+          .isEqualTo(Long.parseUnsignedLong(vector[2], 16));
+      assertThat(Bucketing.bucket(salt, unit, Bucketing.BITSET_BUCKETS))
+          .isEqualTo(Integer.parseInt(vector[3]));
+      assertThat(Bucketing.bucket(salt, unit, 100)).isEqualTo(Integer.parseInt(vector[4]));
+    }
+  }
+
+  @Test
+  public void matchesGuavaMurmur3ForRandomUnits() {
+    final Random random = new Random(11);
+    for (int i = 0; i < 10_000; i++) {
+      final String unit = randomString(random, random.nextInt(i < 9_990 ? 64 : 100_000));
+      assertThat(Bucketing.hash("accounts/test", unit))
+          .describedAs("unit %s", unit)
+          .isEqualTo(guavaHash("accounts/test|" + unit));
+    }
+  }
+
+  @Test
+  public void unpairedSurrogatesAreEncodedLikeStringGetBytes() {
+    for (String unit : new String[] {"\uD83D", "a\uDE42b", "\uDE42\uD83D", "x\uD83D"}) {
+      assertThat(Bucketing.hash("s", unit)).isEqualTo(guavaHash("s|" + unit));
+    }
+  }
+
+  private static long guavaHash(String saltedUnit) {
+    return Hashing.murmur3_128().hashString(saltedUnit, StandardCharsets.UTF_8).asLong();
+  }
+
+  /** Mixes ascii, two and three byte chars, surrogate pairs and unpaired surrogates. */
+  private static String randomString(Random random, int length) {
+    final StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      switch (random.nextInt(5)) {
+        case 0:
+          builder.append((char) (0x80 + random.nextInt(0x780)));
+          break;
+        case 1:
+          builder.append((char) (0x800 + random.nextInt(0xD000)));
+          break;
+        case 2:
+          builder.appendCodePoint(0x10000 + random.nextInt(0x100000));
+          break;
+        case 3:
+          builder.append((char) (Character.MIN_SURROGATE + random.nextInt(0x800)));
+          break;
+        default:
+          builder.append((char) random.nextInt(0x80));
+          break;
+      }
+    }
+    return builder.toString();
+  }
+}
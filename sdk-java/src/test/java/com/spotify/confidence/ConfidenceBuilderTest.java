@@ -0,0 +1,67 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConfidenceBuilderTest {
+  private static final Path STATE_FILE = Path.of("resolver-state.pb");
+
+  private final ManagedChannel channel = InProcessChannelBuilder.forName("builder-test").build();
+
+  @AfterEach
+  void afterEach() {
+    channel.shutdownNow();
+  }
+
+  @Test
+  public void deferredApplyCantBeCombinedWithLocalResolve() {
+    assertThatThrownBy(
+            () ->
+                Confidence.builder("secret")
+                    .localResolverState(STATE_FILE, "account")
+                    .deferredApply(true)
+                    .build())
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("deferredApply");
+  }
+
+  @Test
+  public void stateFileCantBeCombinedWithStateSource() {
+    assertThatThrownBy(
+            () ->
+                Confidence.builder("secret")
+                    .localResolverState(STATE_FILE, "account")
+                    .localResolverStateSource(
+                        ResolverStateSource.fromFile(STATE_FILE), "account", Duration.ofMinutes(1))
+                    .build())
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("localResolverStateSource");
+  }
+
+  @Test
+  public void localResolverOptionsRequireALocalResolver() {
+    assertThatThrownBy(() -> Confidence.builder("secret").localResolverSnapshot(STATE_FILE).build())
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("localResolverSnapshot");
+    assertThatThrownBy(() -> Confidence.builder("secret").localResolverFlagLogs(channel).build())
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("localResolverFlagLogs");
+  }
+
+  @Test
+  public void resolveCacheRequiresDeferredApply() {
+    assertThatThrownBy(
+            () ->
+                Confidence.builder("secret")
+                    .resolveCache(Duration.ofMinutes(1), 10, 1024 * 1024)
+                    .build())
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("resolveCache");
+  }
+}
@@ -470,6 +470,9 @@ final class ConfidenceIntegrationTest {
             LibraryTraces.Trace.EvaluationTrace.EvaluationErrorCode
                 .EVALUATION_ERROR_CODE_UNSPECIFIED);
 
+    // the header is encoded in the background, and sent with the next request
+    telemetryInterceptor.encodeHeader();
+    assertThat(telemetry.getSnapshotInternal().getLibraryTraces(0).getTracesList()).isEmpty();
     confidence.withContext(SAMPLE_CONTEXT).getEvaluation("flag.prop-Y", 1000);
 
     // verify that the grpc request contains telemetry data in the header
@@ -0,0 +1,247 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.Struct;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationErrorCode;
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationReason;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
+import org.junit.jupiter.api.Test;
+
+class ConfidenceMetricsTest {
+  private final RecordingMetrics metrics = new RecordingMetrics();
+  private final FakeClock clock = new FakeClock();
+
+  @Test
+  public void engineRegistersItsStateAndRecordsUploadsAndDrops() throws Exception {
+    final FakeUploader uploader = new FakeUploader();
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(1, BatchLimits.DEFAULT_MAX_BYTES),
+            uploader,
+            clock,
+            EventSenderEngineImpl.DEFAULT_MAX_FLUSH_INTERVAL,
+            EventSenderEngineImpl.DEFAULT_MAX_MEMORY_CONSUMPTION,
+            EventQueue.unbounded(),
+            WaitStrategy.PARK,
+            EventSenderEngineImpl.DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+            null,
+            null,
+            metrics);
+    assertThat(metrics.gauges)
+        .containsOnlyKeys(
+            ConfidenceMetrics.EVENT_QUEUE_SIZE,
+            ConfidenceMetrics.EVENT_MEMORY_BYTES,
+            ConfidenceMetrics.EVENT_UPLOADS_IN_FLIGHT,
+            ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_STATE,
+            ConfidenceMetrics.EVENT_BATCH_SIZE_TARGET,
+            ConfidenceMetrics.EVENT_BATCH_BYTES_TARGET);
+    // without a spill, nothing is spilled or replayed
+    assertThat(metrics.counters)
+        .containsOnlyKeys(
+            ConfidenceMetrics.EVENTS_RETRIED,
+            ConfidenceMetrics.EVENTS_ABANDONED,
+            ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_OPENED,
+            ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_CLOSED_MILLIS,
+            ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_OPEN_MILLIS,
+            ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_HALF_OPEN_MILLIS);
+    assertThat(metrics.gauges.get(ConfidenceMetrics.EVENT_BATCH_SIZE_TARGET).getAsLong())
+        .isEqualTo(1);
+    assertThat(metrics.gauges.get(ConfidenceMetrics.EVENT_BATCH_BYTES_TARGET).getAsLong())
+        .isEqualTo(BatchLimits.DEFAULT_MAX_BYTES);
+
+    engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    engine.close();
+    engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+
+    assertThat(metrics.uploadedEvents).containsExactly(1);
+    assertThat(metrics.dropped).containsExactly(ConfidenceMetrics.DROPPED_CLOSED);
+    assertThat(metrics.gauges.get(ConfidenceMetrics.EVENT_MEMORY_BYTES).getAsLong()).isZero();
+    assertThat(metrics.counters.get(ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_OPENED).getAsLong())
+        .isZero();
+    assertThat(
+            metrics.counters.get(ConfidenceMetrics.EVENT_CIRCUIT_BREAKER_OPEN_MILLIS).getAsLong())
+        .isZero();
+  }
+
+  @Test
+  public void limitsRecordDropsWithTheEventName() {
+    final EventLimits limits =
+        new EventLimits(
+            Map.of(
+                "impression", EventLimits.Limit.NONE.withRateLimit(1, 1),
+                "navigate", EventLimits.Limit.NONE.withSampleRate(0)),
+            () -> 0L,
+            metrics);
+
+    limits.admit("impression");
+    limits.admit("impression");
+    limits.admit("navigate");
+
+    assertThat(metrics.dropped)
+        .containsExactlyInAnyOrder(
+            ConfidenceMetrics.DROPPED_RATE_LIMITED + "/impression",
+            ConfidenceMetrics.DROPPED_SAMPLED + "/navigate");
+  }
+
+  @Test
+  public void refresherRegistersItsStateAndRecordsCompileTimes() {
+    clock.setCurrentTimeSeconds(100);
+    final ResolverStateRefresher refresher =
+        new ResolverStateRefresher(
+            () -> LocalFlagResolverTest.state().toByteArray(),
+            "account",
+            clock,
+            Duration.ofHours(1),
+            0,
+            null,
+            Duration.ofDays(1),
+            metrics);
+    assertThat(metrics.gauges.get(ConfidenceMetrics.RESOLVER_STATE_AGE_MILLIS).getAsLong())
+        .isEqualTo(-1);
+
+    refresher.refresh();
+    refresher.refresh();
+    clock.setCurrentTimeSeconds(102);
+    refresher.close();
+
+    assertThat(metrics.gauges.get(ConfidenceMetrics.RESOLVER_STATE_AGE_MILLIS).getAsLong())
+        .isEqualTo(2000);
+    assertThat(metrics.counters.get(ConfidenceMetrics.RESOLVER_STATE_PUBLISHED).getAsLong())
+        .isEqualTo(1);
+    assertThat(metrics.counters.get(ConfidenceMetrics.RESOLVER_STATE_UNCHANGED).getAsLong())
+        .isEqualTo(1);
+    assertThat(metrics.counters.get(ConfidenceMetrics.RESOLVER_STATE_FAILURES).getAsLong())
+        .isZero();
+    assertThat(metrics.distributions.get(ConfidenceMetrics.RESOLVER_STATE_COMPILE_MICROS))
+        .hasSize(1);
+  }
+
+  @Test
+  public void clientRecordsResolvesAndRegistersCacheCounters() {
+    final FlagResolver flagResolver =
+        new FlagResolver() {
+          @Override
+          public void close() {}
+
+          @Override
+          public CompletableFuture<ResolveFlagsResponse> resolve(
+              List<String> flags, Struct context, Boolean isProvider) {
+            return CompletableFuture.completedFuture(ResolveFlagsResponse.getDefaultInstance());
+          }
+        };
+    final FlagResolverClientImpl client =
+        new FlagResolverClientImpl(
+            flagResolver,
+            null,
+            new ResolveCache(clock, Duration.ofMinutes(1), 10, 1024 * 1024),
+            null,
+            new FlagApplier((token, flags) -> CompletableFuture.completedFuture(true), clock),
+            metrics);
+
+    client.resolveFlags("flags/a", ConfidenceValue.Struct.EMPTY).join();
+    client.resolveFlags("flags/a", ConfidenceValue.Struct.EMPTY).join();
+    client.close();
+
+    assertThat(metrics.resolves).isEqualTo(1);
+    assertThat(metrics.counters.get(ConfidenceMetrics.RESOLVE_CACHE_HITS).getAsLong()).isEqualTo(1);
+    assertThat(metrics.counters.get(ConfidenceMetrics.RESOLVE_CACHE_MISSES).getAsLong())
+        .isEqualTo(1);
+    assertThat(metrics.counters.get(ConfidenceMetrics.RESOLVE_CACHE_EVICTIONS).getAsLong())
+        .isZero();
+  }
+
+  @Test
+  public void batchingResolverRecordsBatchSizesAndBatchedResolves() {
+    final FlagResolver flagResolver =
+        new FlagResolver() {
+          @Override
+          public void close() {}
+
+          @Override
+          public CompletableFuture<ResolveFlagsResponse> resolve(
+              List<String> flags, Struct context, Boolean isProvider) {
+            return CompletableFuture.completedFuture(ResolveFlagsResponse.getDefaultInstance());
+          }
+        };
+    final BatchingFlagResolver resolver =
+        new BatchingFlagResolver(
+            flagResolver, Duration.ofSeconds(10), 2, Duration.ofSeconds(10), metrics);
+
+    resolver.resolve("flags/a", Struct.getDefaultInstance(), false);
+    resolver.resolve("flags/b", Struct.getDefaultInstance(), false).join();
+    resolver.close();
+
+    assertThat(metrics.counters.get(ConfidenceMetrics.RESOLVE_BATCHED).getAsLong()).isEqualTo(2);
+    assertThat(metrics.distributions.get(ConfidenceMetrics.RESOLVE_BATCH_SIZE)).containsExactly(2L);
+  }
+
+  @Test
+  public void telemetryRecordsEvaluations() {
+    new Telemetry(false, metrics)
+        .appendEvaluation(
+            EvaluationReason.EVALUATION_REASON_TARGETING_MATCH,
+            EvaluationErrorCode.EVALUATION_ERROR_CODE_UNSPECIFIED);
+
+    assertThat(metrics.evaluations).containsExactly("targeting_match/unspecified");
+  }
+
+  private static class RecordingMetrics implements ConfidenceMetrics {
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> counters = new ConcurrentHashMap<>();
+    private final Map<String, Queue<Long>> distributions = new ConcurrentHashMap<>();
+    private final Queue<Integer> uploadedEvents = new ConcurrentLinkedQueue<>();
+    private final Queue<String> dropped = new ConcurrentLinkedQueue<>();
+    private final Queue<String> evaluations = new ConcurrentLinkedQueue<>();
+    private volatile int resolves;
+
+    @Override
+    public void registerGauge(String name, LongSupplier value) {
+      gauges.put(name, value);
+    }
+
+    @Override
+    public void registerCounter(String name, LongSupplier total) {
+      counters.put(name, total);
+    }
+
+    @Override
+    public void recordDistribution(String name, long value) {
+      distributions.computeIfAbsent(name, n -> new ConcurrentLinkedQueue<>()).add(value);
+    }
+
+    @Override
+    public synchronized void recordResolve(long latencyNanos, boolean failed) {
+      resolves++;
+    }
+
+    @Override
+    public void recordEvaluation(String reason, String errorCode) {
+      evaluations.add(reason + "/" + errorCode);
+    }
+
+    @Override
+    public void recordEventDropped(String reason) {
+      dropped.add(reason);
+    }
+
+    @Override
+    public void recordEventDropped(String reason, String eventName) {
+      dropped.add(reason + "/" + eventName);
+    }
+
+    @Override
+    public void recordEventUpload(long latencyNanos, int events, boolean failed) {
+      uploadedEvents.add(events);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.protobuf.ByteString;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+final class ConfidenceSnapshotTest {
+  private final FakeEventSenderEngine fakeEngine = new FakeEventSenderEngine(new FakeClock());
+  private final RecordingFlagResolverClient resolverClient = new RecordingFlagResolverClient();
+  private Confidence confidence;
+
+  @BeforeEach
+  void beforeEach() {
+    confidence = Confidence.create(fakeEngine, resolverClient, "clientKey");
+    confidence.setContext(Map.of("user", ConfidenceValue.of("user-1")));
+  }
+
+  @Test
+  void snapshotServesEvaluationsWithoutFurtherResolves() {
+    final Confidence snapshot = confidence.withResolvedSnapshot();
+
+    assertThat(snapshot.getValue("flag.prop-E", 20)).isEqualTo(50);
+    assertThat(snapshot.getValue("flag.prop-A", true)).isFalse();
+    assertThat(resolverClient.bulkResolves).containsExactly(List.of());
+    assertThat(resolverClient.singleResolves).isEmpty();
+  }
+
+  @Test
+  void flagMissingFromFullSnapshotIsNotFound() {
+    final Confidence snapshot = confidence.withResolvedSnapshot();
+
+    final FlagEvaluation<Integer> evaluation = snapshot.getEvaluation("other-flag.prop", 20);
+
+    assertThat(evaluation.getValue()).isEqualTo(20);
+    assertThat(evaluation.getErrorType()).contains(ErrorType.FLAG_NOT_FOUND);
+    assertThat(resolverClient.singleResolves).isEmpty();
+  }
+
+  @Test
+  void flagMissingFromExplicitSnapshotIsResolvedRemotely() {
+    final Confidence snapshot = confidence.prefetch("flag").join();
+    assertThat(resolverClient.bulkResolves).containsExactly(List.of("flags/flag"));
+
+    snapshot.getValue("flag.prop-E", 20);
+    snapshot.getValue("other-flag.prop", 20);
+
+    assertThat(resolverClient.singleResolves).containsExactly("flags/other-flag");
+  }
+
+  @Test
+  void changingContextDiscardsSnapshot() {
+    final Confidence snapshot = confidence.withResolvedSnapshot();
+    snapshot.updateContextEntry("country", ConfidenceValue.of("SE"));
+
+    snapshot.getValue("flag.prop-E", 20);
+
+    assertThat(resolverClient.singleResolves).containsExactly("flags/flag");
+    assertThat(snapshot.getContext().asMap())
+        .containsEntry("user", ConfidenceValue.of("user-1"))
+        .containsEntry("country", ConfidenceValue.of("SE"));
+  }
+
+  @Test
+  void settingContextKeepsInheritedContext() {
+    final Confidence snapshot = confidence.withResolvedSnapshot();
+    snapshot.setContext(ConfidenceValue.of(Map.of("country", ConfidenceValue.of("SE"))));
+
+    snapshot.getValue("flag.prop-E", 20);
+
+    assertThat(resolverClient.singleResolves).containsExactly("flags/flag");
+    assertThat(snapshot.getContext().asMap())
+        .containsOnly(
+            Map.entry("user", ConfidenceValue.of("user-1")),
+            Map.entry("country", ConfidenceValue.of("SE")));
+
+    snapshot.removeContextEntry("user");
+    assertThat(snapshot.getContext().asMap())
+        .containsOnly(Map.entry("country", ConfidenceValue.of("SE")));
+  }
+
+  @Test
+  void onlyFlagsReadFromTheSnapshotAreApplied() {
+    final Confidence snapshot = confidence.withResolvedSnapshot();
+    assertThat(resolverClient.applied).isEmpty();
+
+    snapshot.getValue("flag.prop-E", 20);
+
+    assertThat(resolverClient.applied).containsExactly("flags/flag");
+  }
+
+  @Test
+  void prefetchRequiresFlagsToBeAppliedWhenRead() {
+    resolverClient.appliesWhenRead = false;
+
+    assertThatThrownBy(() -> confidence.prefetch("flag"))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("deferredApply");
+    assertThatThrownBy(() -> confidence.withResolvedSnapshot())
+        .isInstanceOf(IllegalStateException.class);
+    assertThat(resolverClient.bulkResolves).isEmpty();
+  }
+
+  @Test
+  void snapshotKeepsContextItWasResolvedFor() {
+    final Confidence snapshot = confidence.withResolvedSnapshot();
+    confidence.updateContextEntry("user", ConfidenceValue.of("user-2"));
+
+    assertThat(snapshot.getContext().asMap()).containsEntry("user", ConfidenceValue.of("user-1"));
+  }
+
+  private static class RecordingFlagResolverClient
+      extends ResolverClientTestUtils.FakeFlagResolverClient {
+    final List<String> singleResolves = new ArrayList<>();
+    final List<List<String>> bulkResolves = new ArrayList<>();
+    final List<String> applied = new ArrayList<>();
+    boolean appliesWhenRead = true;
+
+    @Override
+    public CompletableFuture<ResolveFlagsResponse> resolveFlags(
+        String flag, ConfidenceValue.Struct context) {
+      singleResolves.add(flag);
+      return super.resolveFlags(flag, context);
+    }
+
+    @Override
+    public CompletableFuture<ResolveFlagsResponse> resolveFlags(
+        List<String> flags, ConfidenceValue.Struct context) {
+      bulkResolves.add(flags);
+      return super.resolveFlags(flags, context);
+    }
+
+    @Override
+    public void applyFlag(String flag, ByteString resolveToken) {
+      applied.add(flag);
+    }
+
+    @Override
+    public boolean appliesWhenRead() {
+      return appliesWhenRead;
+    }
+  }
+}
@@ -301,6 +301,12 @@ final class ConfidenceTest {
       throw new RuntimeException("Crashing while performing network call");
     }
 
+    @Override
+    public CompletableFuture<ResolveFlagsResponse> resolveFlags(
+        List<String> flags, Struct context) {
+      throw new RuntimeException("Crashing while performing network call");
+    }
+
     @Override
     public void close() throws IOException {
       // NOOP
@@ -0,0 +1,69 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.Value;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ContextEncoderTest {
+  private static final ConfidenceValue.Struct DEVICE =
+      ConfidenceValue.of(
+          Map.of(
+              "os", ConfidenceValue.of("android"),
+              "model", ConfidenceValue.of("pixel"),
+              "experiments",
+                  ConfidenceValue.of(List.of(ConfidenceValue.of("a"), ConfidenceValue.of("b")))));
+
+  @Test
+  public void encodesContextsLikeToProto() {
+    final ConfidenceValue.Struct context =
+        ConfidenceValue.of(Map.of("targeting_key", ConfidenceValue.of("user-1"), "device", DEVICE));
+
+    assertThat(new ContextEncoder().encode(context)).isEqualTo(context.toProto());
+  }
+
+  @Test
+  public void reusesTheEncodingOfTheSameContext() {
+    final ContextEncoder encoder = new ContextEncoder();
+    final ConfidenceValue.Struct context = ConfidenceValue.of(Map.of("device", DEVICE));
+
+    final Value first = encoder.encode(context);
+
+    assertThat(encoder.encode(context)).isSameAs(first);
+    assertThat(encoder.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void reusesTheEncodingOfEntriesInNewContexts() {
+    final ContextEncoder encoder = new ContextEncoder();
+
+    final Value first =
+        encoder.encode(
+            ConfidenceValue.of(
+                Map.of("targeting_key", ConfidenceValue.of("user-1"), "device", DEVICE)));
+    final Value second =
+        encoder.encode(
+            ConfidenceValue.of(
+                Map.of("targeting_key", ConfidenceValue.of("user-2"), "device", DEVICE)));
+
+    assertThat(second.getStructValue().getFieldsOrThrow("device"))
+        .isSameAs(first.getStructValue().getFieldsOrThrow("device"));
+    assertThat(encoder.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void startsOverWhenFull() {
+    final ContextEncoder encoder = new ContextEncoder(2);
+    final ConfidenceValue.Struct context = ConfidenceValue.of(Map.of("device", DEVICE));
+    encoder.encode(context);
+
+    // the device entry and the context fill the cache, so the next context clears it
+    encoder.encode(ConfidenceValue.of(Map.of("country", ConfidenceValue.of("SE"))));
+    encoder.encode(context);
+
+    assertThat(encoder.getHitCount()).isZero();
+    assertThat(encoder.getMissCount()).isEqualTo(5);
+  }
+}
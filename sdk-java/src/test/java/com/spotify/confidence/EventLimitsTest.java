@@ -0,0 +1,87 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class EventLimitsTest {
+  private final AtomicLong nanoTime = new AtomicLong(123_456_789);
+
+  @Test
+  public void eventsWithoutLimitsAreAdmitted() {
+    final EventLimits limits =
+        limits(Map.of("impression", EventLimits.Limit.NONE.withSampleRate(0)));
+
+    assertThat(limits.admit("navigate")).isTrue();
+    assertThat(limits.getSampledOutCount("navigate")).isZero();
+  }
+
+  @Test
+  public void eventsAreSampledByName() {
+    final EventLimits limits =
+        limits(
+            Map.of(
+                "impression", EventLimits.Limit.NONE.withSampleRate(0.25),
+                "error", EventLimits.Limit.NONE.withSampleRate(0)));
+
+    final long admitted =
+        IntStream.range(0, 100_000).filter(i -> limits.admit("impression")).count();
+
+    assertThat((double) admitted).isCloseTo(25_000, within(1_000.0));
+    assertThat(limits.getSampledOutCount("impression")).isEqualTo(100_000 - admitted);
+    assertThat(limits.admit("error")).isFalse();
+    assertThat(limits.getSampledOutCount("error")).isEqualTo(1);
+  }
+
+  @Test
+  public void rateLimitAllowsABurstAndRefillsOverTime() {
+    final EventLimits limits =
+        limits(Map.of("impression", EventLimits.Limit.NONE.withRateLimit(10, 3)));
+
+    assertThat(IntStream.range(0, 5).filter(i -> limits.admit("impression")).count()).isEqualTo(3);
+    assertThat(limits.getRateLimitedCount("impression")).isEqualTo(2);
+
+    // a token is refilled every 100ms
+    nanoTime.addAndGet(150_000_000);
+    assertThat(limits.admit("impression")).isTrue();
+    assertThat(limits.admit("impression")).isFalse();
+
+    // the bucket holds no more than the burst after a long pause
+    nanoTime.addAndGet(10_000_000_000L);
+    assertThat(IntStream.range(0, 5).filter(i -> limits.admit("impression")).count()).isEqualTo(3);
+    assertThat(limits.getRateLimitedCount("impression")).isEqualTo(5);
+  }
+
+  @Test
+  public void sampledOutEventsTakeNoTokens() {
+    final EventLimits limits =
+        limits(Map.of("impression", EventLimits.Limit.NONE.withSampleRate(0).withRateLimit(10, 1)));
+
+    limits.admit("impression");
+
+    assertThat(limits.getSampledOutCount("impression")).isEqualTo(1);
+    assertThat(limits.getRateLimitedCount("impression")).isZero();
+  }
+
+  @Test
+  public void invalidLimitsAreRejected() {
+    assertThatThrownBy(() -> EventLimits.Limit.NONE.withSampleRate(1.5))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("sampleRate must be between 0 and 1");
+    assertThatThrownBy(() -> EventLimits.Limit.NONE.withRateLimit(0, 1))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("eventsPerSecond must be positive");
+    assertThatThrownBy(() -> EventLimits.Limit.NONE.withRateLimit(1, 0))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("burst must be positive");
+  }
+
+  private EventLimits limits(Map<String, EventLimits.Limit> limits) {
+    return new EventLimits(limits, nanoTime::get);
+  }
+}
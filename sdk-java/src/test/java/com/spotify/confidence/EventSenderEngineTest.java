@@ -8,12 +8,17 @@ import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.protobuf.Struct;
 import com.google.protobuf.Value;
+import com.spotify.confidence.events.v1.Event;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class EventSenderEngineTest {
 
@@ -225,8 +230,8 @@ public class EventSenderEngineTest {
 
     engine.flush();
 
-    // wait for the upload to be triggered
-    Thread.sleep(100);
+    // wait for the upload to be triggered, long before the flush interval has passed
+    awaitUntil(() -> alwaysSucceedUploader.uploadCalls.size() == 1);
 
     // assert
     assertThat(alwaysSucceedUploader.uploadCalls.size()).isEqualTo(1);
@@ -334,21 +339,19 @@ public class EventSenderEngineTest {
 
   @Test
   public void testEngineWillRejectEventsIfOverMemoryThreshold() throws IOException {
-    final var expectedEvent =
-        EventUploader.event("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty())
-            .setEventTime(clock.getTimestamp())
-            .build();
+    final int eventSize =
+        new PendingEvent("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty(), clock.get())
+            .estimatedSize();
 
     final FakeUploader fakeUploader = new FakeUploader();
 
     // set up the engine so that it cannot support more than 1 event in memory
     final EventSenderEngineImpl engine =
-        new EventSenderEngineImpl(
-            10, fakeUploader, clock, DEFAULT_MAX_FLUSH_INTERVAL, expectedEvent.getSerializedSize());
+        new EventSenderEngineImpl(10, fakeUploader, clock, DEFAULT_MAX_FLUSH_INTERVAL, eventSize);
 
     // send two events
     engine.emit("navigate", ConfidenceValue.of(Map.of()), Optional.empty());
-    assertThat(engine.getEstimatedMemoryConsumption()).isEqualTo(expectedEvent.getSerializedSize());
+    assertThat(engine.getEstimatedMemoryConsumption()).isEqualTo(eventSize);
     engine.emit("navigate", ConfidenceValue.of(Map.of()), Optional.empty());
 
     engine.close();
@@ -366,4 +369,403 @@ public class EventSenderEngineTest {
         .isInstanceOf(IllegalArgumentException.class)
         .hasMessage("maxFlushInterval must be positive");
   }
+
+  @Test
+  public void testRingBufferEngineUploadsWithEveryWaitStrategy() throws Exception {
+    for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+      final FakeUploader alwaysSucceedUploader = new FakeUploader();
+      final EventSenderEngine engine =
+          new EventSenderEngineImpl(
+              BatchLimits.fixed(6, BatchLimits.DEFAULT_MAX_BYTES),
+              alwaysSucceedUploader,
+              clock,
+              Duration.ofMillis(200),
+              DEFAULT_MAX_MEMORY_CONSUMPTION,
+              new MpscRingBuffer<>(16),
+              waitStrategy,
+              DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+              null,
+              null);
+
+      for (int i = 0; i < 7; i++) {
+        engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+      }
+      // the full batch is sent right away, the remaining event once the flush interval passed
+      awaitUntil(() -> alwaysSucceedUploader.uploadCalls.size() == 1);
+      assertThat(alwaysSucceedUploader.uploadCalls.peek()).hasSize(6);
+      awaitUntil(() -> alwaysSucceedUploader.uploadCalls.size() == 2);
+
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+      engine.flush();
+      awaitUntil(() -> alwaysSucceedUploader.uploadCalls.size() == 3);
+      engine.close();
+      assertThat(alwaysSucceedUploader.uploadCalls)
+          .describedAs("uploads with %s", waitStrategy)
+          .extracting(List::size)
+          .containsExactly(6, 1, 1);
+    }
+  }
+
+  @Test
+  public void testRingBufferEngineDropsEventsWhenFull() throws IOException {
+    final FakeUploader alwaysSucceedUploader = new FakeUploader();
+    final int numEvents = 1000;
+    // the polling thread is not woken up before a full batch is queued, which never fits
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(numEvents, BatchLimits.DEFAULT_MAX_BYTES),
+            alwaysSucceedUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            new MpscRingBuffer<>(4),
+            WaitStrategy.PARK,
+            DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+            null,
+            null);
+
+    for (int i = 0; i < numEvents; i++) {
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    engine.close();
+
+    final int uploadedEventCount =
+        alwaysSucceedUploader.uploadCalls.stream().mapToInt(List::size).sum();
+    assertThat(uploadedEventCount).isPositive().isLessThan(numEvents);
+    assertThat(engine.getEstimatedMemoryConsumption()).isZero();
+  }
+
+  @Test
+  public void multiThreadRingBufferTest() throws IOException {
+    final int numberOfEvents = 100000;
+    final int maxBatchSize = 30;
+
+    final FakeUploader alwaysSucceedUploader = new FakeUploader();
+    final EventSenderEngine engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(maxBatchSize, BatchLimits.DEFAULT_MAX_BYTES),
+            alwaysSucceedUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            new MpscRingBuffer<>(numberOfEvents),
+            WaitStrategy.SPIN_THEN_PARK,
+            DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+            null,
+            null);
+    final CompletableFuture<?>[] eventTasks = new CompletableFuture[numberOfEvents];
+    for (int i = 0; i < numberOfEvents; i++) {
+      eventTasks[i] =
+          CompletableFuture.runAsync(
+              () ->
+                  engine.emit(
+                      "navigate",
+                      ConfidenceValue.of(ImmutableMap.of("key", ConfidenceValue.of("size"))),
+                      Optional.empty()));
+    }
+    CompletableFuture.allOf(eventTasks).join();
+    engine.close();
+
+    final int uploadedEventCount =
+        alwaysSucceedUploader.uploadCalls.stream().mapToInt(List::size).sum();
+    assertThat(uploadedEventCount).isEqualTo(numberOfEvents);
+    assertThat(alwaysSucceedUploader.uploadCalls.size())
+        .isEqualTo((numberOfEvents + maxBatchSize - 1) / maxBatchSize);
+  }
+
+  @Test
+  public void testBatchesAreSplitBySerializedSize() throws Exception {
+    final int eventSize =
+        EventUploader.event("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty())
+            .setEventTime(clock.getTimestamp())
+            .build()
+            .getSerializedSize();
+    final FakeUploader alwaysSucceedUploader = new FakeUploader();
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(100, 2 * eventSize + eventSize / 2),
+            alwaysSucceedUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            EventQueue.unbounded(),
+            WaitStrategy.PARK,
+            DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+            null,
+            null);
+
+    for (int i = 0; i < 5; i++) {
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    // the polling thread is woken up by the size of the queued events, long before the flush
+    // interval has passed
+    awaitUntil(() -> alwaysSucceedUploader.uploadCalls.size() == 2);
+    engine.close();
+
+    assertThat(alwaysSucceedUploader.uploadCalls).extracting(List::size).containsExactly(2, 2, 1);
+    assertThat(engine.getEstimatedMemoryConsumption()).isZero();
+  }
+
+  @Test
+  public void testAdaptiveBatchesShrinkWhenUploadsFail() throws Exception {
+    final FakeUploader failingOnceUploader = new FakeUploader(List.of(1));
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.adaptive(8, 8, BatchLimits.DEFAULT_MAX_BYTES, Duration.ofMinutes(1)),
+            failingOnceUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            EventQueue.unbounded(),
+            WaitStrategy.PARK,
+            DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+            null,
+            null);
+
+    for (int i = 0; i < 8; i++) {
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    awaitUntil(() -> engine.getBatchSizeTarget() < 8);
+    engine.close();
+
+    assertThat(engine.getBatchBytesTarget()).isLessThan(BatchLimits.DEFAULT_MAX_BYTES);
+  }
+
+  @Test
+  public void testUploadsAreLimitedToTheInFlightLanes() throws Exception {
+    final Queue<CompletableFuture<Boolean>> inFlight = new ConcurrentLinkedQueue<>();
+    final EventUploader neverCompletingUploader =
+        events -> {
+          final CompletableFuture<Boolean> attempt = new CompletableFuture<>();
+          inFlight.add(attempt);
+          return attempt;
+        };
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(1, BatchLimits.DEFAULT_MAX_BYTES),
+            neverCompletingUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            EventQueue.unbounded(),
+            WaitStrategy.PARK,
+            2,
+            null,
+            null);
+
+    for (int i = 0; i < 5; i++) {
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    awaitUntil(() -> inFlight.size() == 2);
+    Thread.sleep(100);
+    // the remaining events wait in the queue until a lane is free
+    assertThat(inFlight).hasSize(2);
+    assertThat(engine.getInFlightUploads()).isEqualTo(2);
+
+    inFlight.peek().complete(true);
+    awaitUntil(() -> inFlight.size() == 3);
+    assertThat(engine.getInFlightUploads()).isEqualTo(2);
+
+    inFlight.forEach(attempt -> attempt.complete(true));
+    awaitUntil(() -> inFlight.size() == 5);
+    inFlight.forEach(attempt -> attempt.complete(true));
+    engine.close();
+    assertThat(engine.getInFlightUploads()).isZero();
+  }
+
+  @Test
+  public void testOutageParksEventsUntilACircuitBreakerProbeSucceeds() throws Exception {
+    final FakeUploader uploader = new FakeUploader(List.of(1, 2, 3, 4, 5));
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            1, uploader, clock, DEFAULT_MAX_FLUSH_INTERVAL, DEFAULT_MAX_MEMORY_CONSUMPTION);
+
+    for (int i = 0; i < UploadCircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    awaitUntil(() -> engine.getCircuitBreakerState() == UploadCircuitBreaker.State.OPEN);
+    engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    Thread.sleep(100);
+    // the new event waits in the queue while the breaker is open
+    assertThat(uploader.uploadCalls).hasSize(5);
+
+    // the first retry probes the backend, after which the rest follow
+    awaitUntil(() -> uploader.uploadCalls.size() == 11);
+    assertThat(engine.getCircuitBreakerState()).isEqualTo(UploadCircuitBreaker.State.CLOSED);
+    assertThat(engine.getCircuitBreakerOpenCount()).isEqualTo(1);
+    assertThat(engine.getTimeInCircuitBreakerState(UploadCircuitBreaker.State.OPEN))
+        .isGreaterThanOrEqualTo(UploadCircuitBreaker.DEFAULT_MIN_OPEN_DURATION);
+    engine.close();
+  }
+
+  @Test
+  public void testRateLimitedEventsAreDroppedOnEmit() throws IOException {
+    final FakeUploader alwaysSucceedUploader = new FakeUploader();
+    final EventLimits limits =
+        new EventLimits(
+            Map.of("navigate", EventLimits.Limit.NONE.withRateLimit(1, 2)), ConfidenceMetrics.NOOP);
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(DEFAULT_BATCH_SIZE, BatchLimits.DEFAULT_MAX_BYTES),
+            alwaysSucceedUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            EventQueue.unbounded(),
+            WaitStrategy.PARK,
+            DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+            null,
+            limits);
+
+    for (int i = 0; i < 5; i++) {
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+      engine.emit("purchase", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    engine.close();
+
+    assertThat(alwaysSucceedUploader.uploadCalls.stream().flatMap(List::stream))
+        .extracting(Event::getEventDefinition)
+        .filteredOn(name -> name.endsWith("navigate"))
+        .hasSize(2);
+    assertThat(alwaysSucceedUploader.uploadCalls.stream().mapToInt(List::size).sum()).isEqualTo(7);
+    assertThat(limits.getRateLimitedCount("navigate")).isEqualTo(3);
+  }
+
+  @Test
+  public void testOnlyEventsRejectedOnTheirOwnAreRetried() throws Exception {
+    final Queue<List<Event>> uploadCalls = new ConcurrentLinkedQueue<>();
+    final EventUploader partiallyFailingUploader =
+        new EventUploader() {
+          @Override
+          public CompletableFuture<Boolean> upload(List<Event> events) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public CompletableFuture<Result> uploadReportingFailures(List<Event> events) {
+            uploadCalls.add(events);
+            // the second event of the first batch is rejected for a reason that may pass
+            return CompletableFuture.completedFuture(
+                uploadCalls.size() == 1
+                    ? Result.withRetryableEvents(List.of(events.get(1)))
+                    : Result.UPLOADED);
+          }
+        };
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            3,
+            partiallyFailingUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION);
+
+    for (int i = 0; i < 3; i++) {
+      engine.emit("navigate" + i, ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    awaitUntil(() -> uploadCalls.size() == 2);
+    engine.close();
+
+    assertThat(uploadCalls).extracting(List::size).containsExactly(3, 1);
+    assertThat(uploadCalls)
+        .last()
+        .satisfies(
+            retried ->
+                assertThat(retried.get(0).getEventDefinition())
+                    .isEqualTo(EVENT_NAME_PREFIX + "navigate1"));
+    assertThat(engine.getRetriedEventCount()).isEqualTo(1);
+    assertThat(engine.getEstimatedMemoryConsumption()).isZero();
+  }
+
+  @Test
+  public void testOverloadIsSpilledToDiskAndReplayed(@TempDir Path tempDir) throws Exception {
+    final int eventSize =
+        new PendingEvent("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty(), clock.get())
+            .estimatedSize();
+    final Queue<CompletableFuture<Boolean>> blocked = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean blocking = new AtomicBoolean(true);
+    final FakeUploader alwaysSucceedUploader = new FakeUploader();
+    final EventUploader uploader =
+        events -> {
+          if (blocking.get()) {
+            final CompletableFuture<Boolean> attempt = new CompletableFuture<>();
+            blocked.add(attempt);
+            return attempt.thenCompose(ignored -> alwaysSucceedUploader.upload(events));
+          }
+          return alwaysSucceedUploader.upload(events);
+        };
+    final EventSpill spill = new EventSpill(tempDir, 2 * eventSize + eventSize / 2, 1 << 20, 4096);
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(1, BatchLimits.DEFAULT_MAX_BYTES),
+            uploader,
+            clock,
+            Duration.ofMillis(50),
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            EventQueue.unbounded(),
+            WaitStrategy.PARK,
+            1,
+            spill,
+            null);
+
+    for (int i = 0; i < 5; i++) {
+      engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    }
+    // one event is being uploaded and one waits for a lane, the rest didn't fit in memory
+    awaitUntil(() -> blocked.size() == 1);
+    assertThat(spill.getSpilledCount()).isEqualTo(3);
+
+    blocking.set(false);
+    blocked.forEach(attempt -> attempt.complete(true));
+    awaitUntil(() -> alwaysSucceedUploader.uploadCalls.size() == 5);
+    engine.close();
+
+    assertThat(spill.getReplayedCount()).isEqualTo(3);
+    assertThat(spill.hasRecords()).isFalse();
+  }
+
+  @Test
+  public void testBatchesPendingOnCloseAreSpilled(@TempDir Path tempDir) throws Exception {
+    final CompletableFuture<Void> isUploadCalled = new CompletableFuture<>();
+    final EventUploader neverCompletingUploader =
+        events -> {
+          isUploadCalled.complete(null);
+          return new CompletableFuture<>();
+        };
+    final EventSpill spill = new EventSpill(tempDir, DEFAULT_MAX_MEMORY_CONSUMPTION, 1 << 20, 4096);
+    final EventSenderEngineImpl engine =
+        new EventSenderEngineImpl(
+            BatchLimits.fixed(1, BatchLimits.DEFAULT_MAX_BYTES),
+            neverCompletingUploader,
+            clock,
+            DEFAULT_MAX_FLUSH_INTERVAL,
+            DEFAULT_MAX_MEMORY_CONSUMPTION,
+            EventQueue.unbounded(),
+            WaitStrategy.PARK,
+            DEFAULT_MAX_IN_FLIGHT_UPLOADS,
+            spill,
+            null);
+
+    engine.emit("navigate", ConfidenceValue.Struct.EMPTY, Optional.empty());
+    isUploadCalled.join();
+    // skip waiting for the pending upload
+    Thread.currentThread().interrupt();
+    engine.close();
+    assertThat(Thread.interrupted()).isTrue();
+    // the interrupted close doesn't wait for the polling thread, which may cancel the batch later
+    awaitUntil(() -> spill.getSpilledCount() == 1);
+
+    final EventSpill nextProcess =
+        new EventSpill(tempDir, DEFAULT_MAX_MEMORY_CONSUMPTION, 1 << 20, 4096);
+    assertThat(nextProcess.replayNext())
+        .extracting(Event::getEventDefinition)
+        .containsExactly(EVENT_NAME_PREFIX + "navigate");
+  }
+
+  private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
 }
@@ -0,0 +1,115 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.spotify.confidence.events.v1.Event;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EventSpillTest {
+  @TempDir Path tempDir;
+
+  @Test
+  public void spilledEventsAreReplayedByTheNextInstance() throws IOException {
+    final List<Event> events = events(3);
+    try (EventSpill spill = spill(EventSpill.DEFAULT_SEGMENT_BYTES)) {
+      events.forEach(event -> assertThat(spill.append(event)).isTrue());
+      assertThat(spill.getSpilledCount()).isEqualTo(3);
+    }
+
+    final EventSpill spill = spill(EventSpill.DEFAULT_SEGMENT_BYTES);
+    assertThat(spill.hasRecords()).isTrue();
+    assertThat(spill.replayNext()).isEqualTo(events);
+    assertThat(spill.replayNext()).isEmpty();
+    assertThat(spill.hasRecords()).isFalse();
+    assertThat(spill.getReplayedCount()).isEqualTo(3);
+    assertThat(segments()).isEmpty();
+  }
+
+  @Test
+  public void segmentsRotateUntilTheSizeCapIsReached() throws IOException {
+    final List<Event> events = events(20);
+    final int recordBytes = EventSpill.RECORD_HEADER_BYTES + events.get(0).getSerializedSize();
+    // two records per segment, and at most three segments
+    final long segmentBytes = EventSpill.HEADER_BYTES + 2L * recordBytes;
+    final EventSpill spill = new EventSpill(tempDir, 1, 3 * segmentBytes, segmentBytes);
+
+    final long appended = events.stream().filter(spill::append).count();
+
+    assertThat(appended).isEqualTo(6);
+    assertThat(spill.getDroppedCount()).isEqualTo(14);
+    assertThat(segments()).hasSize(3);
+    final List<Event> replayed = new ArrayList<>();
+    for (List<Event> segment = spill.replayNext(); !segment.isEmpty(); ) {
+      replayed.addAll(segment);
+      segment = spill.replayNext();
+    }
+    assertThat(replayed).isEqualTo(events.subList(0, 6));
+  }
+
+  @Test
+  public void closedSpillNeitherAppendsNorReplays() throws IOException {
+    final List<Event> events = events(2);
+    final EventSpill spill = spill(EventSpill.DEFAULT_SEGMENT_BYTES);
+    assertThat(spill.append(events.get(0))).isTrue();
+    spill.close();
+
+    assertThat(spill.append(events.get(1))).isFalse();
+    assertThat(spill.getDroppedCount()).isEqualTo(1);
+    assertThat(spill.replayNext()).isEmpty();
+    assertThat(segments()).hasSize(1);
+    assertThat(spill(EventSpill.DEFAULT_SEGMENT_BYTES).replayNext()).containsExactly(events.get(0));
+  }
+
+  @Test
+  public void corruptRecordEndsTheSegment() throws IOException {
+    final List<Event> events = events(3);
+    try (EventSpill spill = spill(EventSpill.DEFAULT_SEGMENT_BYTES)) {
+      events.forEach(spill::append);
+    }
+    final Path segment = segments().get(0);
+    final byte[] bytes = Files.readAllBytes(segment);
+    final int secondPayload =
+        EventSpill.HEADER_BYTES
+            + EventSpill.RECORD_HEADER_BYTES
+            + events.get(0).getSerializedSize()
+            + EventSpill.RECORD_HEADER_BYTES;
+    bytes[secondPayload] ^= 0x01;
+    Files.write(segment, bytes);
+
+    assertThat(spill(EventSpill.DEFAULT_SEGMENT_BYTES).replayNext()).containsExactly(events.get(0));
+  }
+
+  private EventSpill spill(long segmentBytes) throws IOException {
+    return new EventSpill(tempDir, 1, 10 * segmentBytes, segmentBytes);
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> files = Files.list(tempDir)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  static List<Event> events(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(
+            i ->
+                EventUploader.event(
+                        "navigate",
+                        ConfidenceValue.Struct.EMPTY,
+                        Optional.of(
+                            ConfidenceValue.of(Map.of("index", ConfidenceValue.of(1000 + i)))))
+                    .build())
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,179 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.ByteString;
+import com.spotify.confidence.shaded.flags.resolver.v1.AppliedFlag;
+import dev.failsafe.RetryPolicy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class FlagApplierTest {
+  private static final ByteString TOKEN_A = ByteString.copyFromUtf8("token-a");
+  private static final ByteString TOKEN_B = ByteString.copyFromUtf8("token-b");
+
+  private final FakeClock clock = new FakeClock();
+  private final FakeApplyUploader uploader = new FakeApplyUploader();
+
+  @Test
+  public void appliesAreGroupedByResolveToken() {
+    final FlagApplier applier = applier(10, 100);
+    clock.setCurrentTimeSeconds(1337);
+
+    applier.apply("flags/a", TOKEN_A);
+    applier.apply("flags/b", TOKEN_A);
+    applier.apply("flags/a", TOKEN_B);
+    applier.close();
+
+    final Map<ByteString, List<String>> uploaded =
+        uploader.uploads.stream()
+            .collect(
+                Collectors.toMap(
+                    upload -> upload.resolveToken,
+                    upload ->
+                        upload.flags.stream()
+                            .map(AppliedFlag::getFlag)
+                            .collect(Collectors.toList())));
+    assertThat(uploaded)
+        .containsOnly(
+            Map.entry(TOKEN_A, List.of("flags/a", "flags/b")),
+            Map.entry(TOKEN_B, List.of("flags/a")));
+    assertThat(uploader.uploads.peek().flags.get(0).getApplyTime().getSeconds()).isEqualTo(1337);
+  }
+
+  @Test
+  public void repeatedAppliesAreSentOnce() {
+    final FlagApplier applier = applier(10, 100);
+
+    applier.apply("flags/a", TOKEN_A);
+    applier.apply("flags/a", TOKEN_A);
+    applier.flush();
+    applier.apply("flags/a", TOKEN_A);
+    applier.close();
+
+    assertThat(uploader.uploads).hasSize(1);
+    assertThat(uploader.uploads.peek().flags).hasSize(1);
+  }
+
+  @Test
+  public void appliesOfTheSameBytesSplitDifferentlyAreBothSent() {
+    final FlagApplier applier = applier(10, 100);
+
+    applier.apply("flags/a", ByteString.copyFromUtf8("b-token"));
+    applier.apply("flags/ab", ByteString.copyFromUtf8("-token"));
+    applier.close();
+
+    assertThat(uploader.uploads).hasSize(2);
+  }
+
+  @Test
+  public void fullBatchIsSentWithoutWaitingForTheFlushInterval() throws Exception {
+    final FlagApplier applier = applier(2, 100);
+
+    applier.apply("flags/a", TOKEN_A);
+    applier.apply("flags/b", TOKEN_A);
+
+    awaitUntil(() -> !uploader.uploads.isEmpty());
+    assertThat(uploader.uploads).hasSize(1);
+    applier.close();
+  }
+
+  @Test
+  public void appliesBeyondTheBoundAreDropped() throws Exception {
+    uploader.pending = new CompletableFuture<>();
+    final FlagApplier applier = applier(1, 2);
+
+    applier.apply("flags/a", TOKEN_A);
+    applier.apply("flags/b", TOKEN_A);
+    applier.flush();
+    applier.apply("flags/c", TOKEN_A);
+
+    assertThat(applier.getDroppedCount()).isEqualTo(1);
+    assertThat(applier.getOutstandingCount()).isEqualTo(2);
+
+    // uploads are issued asynchronously, both must hold the first future before it's swapped
+    awaitUntil(() -> uploader.uploads.size() == 2);
+    final CompletableFuture<Boolean> firstUploads = uploader.pending;
+    uploader.pending = new CompletableFuture<>();
+    firstUploads.complete(true);
+    awaitUntil(() -> applier.getOutstandingCount() == 0);
+    applier.apply("flags/c", TOKEN_A);
+    assertThat(applier.getOutstandingCount()).isEqualTo(1);
+    uploader.pending.complete(true);
+    applier.close();
+  }
+
+  @Test
+  public void failedUploadsAreRetried() {
+    uploader.failuresLeft.set(1);
+    final FlagApplier applier = applier(10, 100);
+
+    applier.apply("flags/a", TOKEN_A);
+    applier.close();
+
+    assertThat(uploader.uploads).hasSize(2);
+  }
+
+  @Test
+  public void emptyResolveTokenIsIgnored() {
+    final FlagApplier applier = applier(10, 100);
+
+    applier.apply("flags/a", ByteString.EMPTY);
+    applier.close();
+
+    assertThat(uploader.uploads).isEmpty();
+  }
+
+  private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
+
+  private FlagApplier applier(int maxBatchSize, int maxPendingApplies) {
+    // retry right away, so that retries don't wait for a real backoff
+    return new FlagApplier(
+        uploader,
+        clock,
+        maxBatchSize,
+        Duration.ofMinutes(1),
+        maxPendingApplies,
+        1000,
+        RetryPolicy.<Boolean>builder().handleResult(false).withMaxAttempts(3).build());
+  }
+
+  private static class FakeApplyUploader implements ApplyUploader {
+    final Queue<Upload> uploads = new ConcurrentLinkedQueue<>();
+    final AtomicInteger failuresLeft = new AtomicInteger();
+    volatile CompletableFuture<Boolean> pending;
+
+    @Override
+    public CompletableFuture<Boolean> upload(ByteString resolveToken, List<AppliedFlag> flags) {
+      uploads.add(new Upload(resolveToken, flags));
+      if (pending != null) {
+        return pending;
+      }
+      return CompletableFuture.completedFuture(failuresLeft.getAndDecrement() <= 0);
+    }
+  }
+
+  private static class Upload {
+    final ByteString resolveToken;
+    final List<AppliedFlag> flags;
+
+    Upload(ByteString resolveToken, List<AppliedFlag> flags) {
+      this.resolveToken = resolveToken;
+      this.flags = flags;
+    }
+  }
+}
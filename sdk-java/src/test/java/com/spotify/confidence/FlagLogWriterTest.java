@@ -0,0 +1,203 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.admin.v1.ClientResolveInfo;
+import com.spotify.confidence.shaded.flags.admin.v1.EvaluationContextSchemaField;
+import com.spotify.confidence.shaded.flags.admin.v1.FlagResolveInfo;
+import com.spotify.confidence.shaded.flags.resolver.v1.InternalFlagLoggerServiceGrpc;
+import com.spotify.confidence.shaded.flags.resolver.v1.WriteFlagLogsRequest;
+import com.spotify.confidence.shaded.flags.resolver.v1.WriteFlagLogsResponse;
+import com.spotify.confidence.shaded.flags.resolver.v1.events.FlagAssigned;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FlagLogWriterTest {
+  private final Queue<WriteFlagLogsRequest> written = new ConcurrentLinkedQueue<>();
+  private final FlagLogUploader uploader =
+      request -> {
+        written.add(request);
+        return CompletableFuture.completedFuture(true);
+      };
+  private Server server;
+  private ManagedChannel channel;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    final String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(new FakeFlagLoggerService())
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+  }
+
+  @AfterEach
+  void afterEach() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  @Test
+  public void localResolvesAreWrittenToTheFlagLoggerService() {
+    final FlagLogWriter writer =
+        new FlagLogWriter(new GrpcFlagLogUploader(channel, 5_000), 10, Duration.ofMinutes(1), 100);
+    final FakeClock clock = new FakeClock();
+    clock.setCurrentTimeSeconds(1337);
+    final LocalResolverState state =
+        LocalResolverState.fromProto(LocalFlagResolverTest.state(), "account");
+    final LocalFlagResolver resolver = new LocalFlagResolver(() -> state, "secret", writer, clock);
+
+    resolver
+        .resolve(
+            List.of("flags/flag"),
+            Structs.of("targeting_key", Values.of("user-1"), "country", Values.of("SE")),
+            false)
+        .join();
+    writer.close();
+
+    assertThat(written).hasSize(1);
+    final WriteFlagLogsRequest request = written.peek();
+    final FlagAssigned.AppliedFlag applied = request.getFlagAssigned(0).getFlags(0);
+    assertThat(applied.getFlag()).isEqualTo("flags/flag");
+    assertThat(applied.getTargetingKey()).isEqualTo("user-1");
+    assertThat(applied.getAssignmentInfo().getVariant()).isEqualTo("flags/flag/variants/on");
+    assertThat(applied.getApplyTime().getSeconds()).isEqualTo(1337);
+    assertThat(request.getFlagAssigned(0).getClientInfo().getClient()).isEqualTo("clients/client");
+    assertThat(request.getFlagResolveInfo(0).getVariantResolveInfo(0).getCount()).isEqualTo(1);
+    assertThat(request.getClientResolveInfo(0).getSchema(0).getSchemaMap())
+        .containsEntry("country", EvaluationContextSchemaField.Kind.STRING_KIND);
+  }
+
+  @Test
+  public void identicalResolvesAreCollapsedIntoCounters() throws Exception {
+    final FlagLogWriter writer = writer(10, 100);
+
+    for (int i = 0; i < 3; i++) {
+      writer.countResolve("flags/a", "flags/a/variants/on", "flags/a/rules/r", "assignment-1");
+    }
+    writer.countResolve("flags/a", "flags/a/variants/off", "flags/a/rules/r", "assignment-2");
+    writer.countResolve("flags/a", "", "", "");
+    writer.flush();
+
+    awaitUntil(() -> written.size() == 1);
+    final FlagResolveInfo info = written.peek().getFlagResolveInfo(0);
+    assertThat(info.getVariantResolveInfoList())
+        .extracting(
+            FlagResolveInfo.VariantResolveInfo::getVariant,
+            FlagResolveInfo.VariantResolveInfo::getCount)
+        .containsExactly(
+            tuple("", 1L), tuple("flags/a/variants/off", 1L), tuple("flags/a/variants/on", 3L));
+    assertThat(info.getRuleResolveInfo(0).getCount()).isEqualTo(4);
+    assertThat(info.getRuleResolveInfo(0).getAssignmentResolveInfoCount()).isEqualTo(2);
+
+    // nothing new to write
+    writer.close();
+    assertThat(written).hasSize(1);
+  }
+
+  @Test
+  public void schemasAreCollectedPerClient() throws Exception {
+    final FlagLogWriter writer = writer(10, 100);
+
+    writer.countClient(
+        "clients/a",
+        "clients/a/credentials/c",
+        Structs.of("user", Values.of(Structs.of("age", Values.of(3))), "beta", Values.of(true)));
+    writer.countClient("clients/a", "clients/a/credentials/c", Structs.of("beta", Values.of(true)));
+    writer.countClient("clients/a", "clients/a/credentials/c", Structs.of("beta", Values.of(true)));
+    writer.close();
+
+    final ClientResolveInfo info = written.peek().getClientResolveInfo(0);
+    assertThat(info.getSchemaList())
+        .extracting(ClientResolveInfo.EvaluationContextSchemaInstance::getSchemaMap)
+        .containsExactlyInAnyOrder(
+            Map.of(
+                "user.age", EvaluationContextSchemaField.Kind.NUMBER_KIND,
+                "beta", EvaluationContextSchemaField.Kind.BOOL_KIND),
+            Map.of("beta", EvaluationContextSchemaField.Kind.BOOL_KIND));
+  }
+
+  @Test
+  public void eventsBeyondCapacityAreDroppedAndReported() {
+    final FlagLogWriter writer = writer(10, 2);
+
+    for (int i = 0; i < 3; i++) {
+      writer.write(event("resolve-" + i));
+    }
+    writer.flush();
+    writer.write(event("resolve-3"));
+    writer.close();
+
+    assertThat(writer.getDroppedCount()).isEqualTo(1);
+    assertThat(written)
+        .extracting(
+            WriteFlagLogsRequest::getFlagAssignedCount,
+            request -> request.getTelemetryData().getDroppedEvents())
+        .containsExactlyInAnyOrder(tuple(2, 1L), tuple(1, 0L));
+  }
+
+  @Test
+  public void fullBatchIsWrittenWithoutWaitingForTheFlushInterval() throws Exception {
+    final FlagLogWriter writer = writer(2, 100);
+
+    writer.write(event("resolve-1"));
+    writer.write(event("resolve-2"));
+    writer.write(event("resolve-3"));
+
+    awaitUntil(() -> !written.isEmpty());
+    assertThat(written.peek().getFlagAssignedCount()).isEqualTo(2);
+    writer.close();
+    assertThat(written).hasSize(2);
+    assertThat(writer.getBufferedCount()).isZero();
+  }
+
+  private FlagLogWriter writer(int maxBatchSize, int capacity) {
+    return new FlagLogWriter(uploader, maxBatchSize, Duration.ofMinutes(1), capacity);
+  }
+
+  private static FlagAssigned event(String resolveId) {
+    return FlagAssigned.newBuilder()
+        .setResolveId(resolveId)
+        .addFlags(FlagAssigned.AppliedFlag.newBuilder().setFlag("flags/a"))
+        .build();
+  }
+
+  private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
+
+  private class FakeFlagLoggerService
+      extends InternalFlagLoggerServiceGrpc.InternalFlagLoggerServiceImplBase {
+    @Override
+    public void writeFlagLogs(
+        WriteFlagLogsRequest request, StreamObserver<WriteFlagLogsResponse> responseObserver) {
+      written.add(request);
+      responseObserver.onNext(WriteFlagLogsResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+}
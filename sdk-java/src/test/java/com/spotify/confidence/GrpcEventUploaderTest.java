@@ -172,6 +172,23 @@ class GrpcEventUploaderTest {
     assertThat(result).isTrue();
   }
 
+  @Test
+  public void testReportsEventsRejectedForRetryableReasons()
+      throws ExecutionException, InterruptedException {
+    fakedEventsService.resultType = ResultType.MIXED_EVENT_ERRORS;
+    final var batch =
+        List.of(
+            event("event1", contextStruct("c1"), Optional.of(messageStruct("m1"))).build(),
+            event("event2", contextStruct("c2"), Optional.of(messageStruct("m2"))).build(),
+            event("event3", contextStruct("c3"), Optional.of(messageStruct("m3"))).build());
+
+    final EventUploader.Result result = uploader.uploadReportingFailures(batch).get();
+
+    assertThat(result.batchFailed()).isFalse();
+    assertThat(result.retryableEvents()).containsExactly(batch.get(2));
+    assertThat(uploader.upload(batch).get()).isTrue();
+  }
+
   @Test
   public void testServiceThrows() throws ExecutionException, InterruptedException {
     fakedEventsService.resultType = ResultType.REQUEST_ERROR;
@@ -197,6 +214,7 @@ class GrpcEventUploaderTest {
   private enum ResultType {
     REQUEST_ERROR,
     FIRST_EVENT_ERROR,
+    MIXED_EVENT_ERRORS,
     SUCCESS
   }
 
@@ -226,6 +244,21 @@ class GrpcEventUploaderTest {
                         .build())
                 .build());
         responseObserver.onCompleted();
+      } else if (resultType == ResultType.MIXED_EVENT_ERRORS) {
+        responseObserver.onNext(
+            PublishEventsResponse.newBuilder()
+                .addErrors(
+                    EventError.newBuilder()
+                        .setIndex(0)
+                        .setReason(Reason.EVENT_DEFINITION_NOT_FOUND)
+                        .build())
+                .addErrors(
+                    EventError.newBuilder()
+                        .setIndex(2)
+                        .setReason(Reason.REASON_UNSPECIFIED)
+                        .build())
+                .build());
+        responseObserver.onCompleted();
       } else {
         responseObserver.onNext(PublishEventsResponse.newBuilder().build());
         responseObserver.onCompleted();
@@ -0,0 +1,146 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.protobuf.Timestamp;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolverStateServiceGrpc;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolverStateUriRequest;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolverStateUriResponse;
+import com.sun.net.httpserver.HttpServer;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GrpcResolverStateSourceTest {
+  private static final byte[] STATE = LocalFlagResolverTest.state().toByteArray();
+
+  private final FakeClock clock = new FakeClock();
+  private final AtomicInteger uriRequests = new AtomicInteger();
+  private final AtomicInteger downloads = new AtomicInteger();
+  private volatile Status uriStatus = Status.OK;
+  private volatile int httpStatus = 200;
+  private HttpServer httpServer;
+  private Server server;
+  private ManagedChannel channel;
+  private GrpcResolverStateSource source;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    httpServer.createContext(
+        "/state",
+        exchange -> {
+          downloads.incrementAndGet();
+          final byte[] body = httpStatus == 200 ? STATE : new byte[0];
+          exchange.sendResponseHeaders(httpStatus, body.length == 0 ? -1 : body.length);
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    httpServer.start();
+
+    final String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(new FakeResolverStateService())
+            .build()
+            .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    clock.setCurrentTimeSeconds(1_000);
+    source = new GrpcResolverStateSource(channel, Duration.ofSeconds(5), clock);
+  }
+
+  @AfterEach
+  void afterEach() {
+    channel.shutdownNow();
+    server.shutdownNow();
+    httpServer.stop(0);
+  }
+
+  @Test
+  public void stateIsDownloadedFromTheSignedUri() throws IOException {
+    assertThat(source.fetch()).isEqualTo(STATE);
+    assertThat(source.fetch()).isEqualTo(STATE);
+
+    assertThat(uriRequests).hasValue(1);
+    assertThat(downloads).hasValue(2);
+  }
+
+  @Test
+  public void accountIsTheOneReportedWithTheUri() throws IOException {
+    assertThat(source.account()).isNull();
+
+    source.fetch();
+
+    assertThat(source.account()).isEqualTo("account");
+  }
+
+  @Test
+  public void uriIsRenewedBeforeItExpires() throws IOException {
+    source.fetch();
+    // the uri expires after an hour
+    clock.setCurrentTimeSeconds(1_000 + 3_600 - GrpcResolverStateSource.EXPIRY_MARGIN.toSeconds());
+
+    source.fetch();
+
+    assertThat(uriRequests).hasValue(2);
+  }
+
+  @Test
+  public void failedDownloadRenewsTheUri() throws IOException {
+    source.fetch();
+    httpStatus = 403;
+
+    assertThatThrownBy(source::fetch).isInstanceOf(IOException.class).hasMessageContaining("403");
+    httpStatus = 200;
+    source.fetch();
+
+    assertThat(uriRequests).hasValue(2);
+  }
+
+  @Test
+  public void failedUriRequestFailsTheFetch() {
+    uriStatus = Status.UNAUTHENTICATED;
+
+    assertThatThrownBy(source::fetch)
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("UNAUTHENTICATED");
+    assertThat(downloads).hasValue(0);
+  }
+
+  private class FakeResolverStateService
+      extends ResolverStateServiceGrpc.ResolverStateServiceImplBase {
+    @Override
+    public void resolverStateUri(
+        ResolverStateUriRequest request,
+        StreamObserver<ResolverStateUriResponse> responseObserver) {
+      uriRequests.incrementAndGet();
+      if (!uriStatus.isOk()) {
+        responseObserver.onError(uriStatus.asRuntimeException());
+        return;
+      }
+      responseObserver.onNext(
+          ResolverStateUriResponse.newBuilder()
+              .setSignedUri(
+                  "http://localhost:" + httpServer.getAddress().getPort() + "/state?signature=x")
+              .setExpireTime(
+                  Timestamp.newBuilder().setSeconds(clock.get().getEpochSecond() + 3_600))
+              .setAccount("account")
+              .build());
+      responseObserver.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+
+class InFlightResolvesTest {
+  private final InFlightResolves inFlightResolves = new InFlightResolves();
+  private final List<CompletableFuture<ResolveFlagsResponse>> upstreamCalls =
+      new CopyOnWriteArrayList<>();
+
+  @Test
+  public void identicalConcurrentResolvesShareOneCall() {
+    final CompletableFuture<ResolveFlagsResponse> first = resolve("flags/a", "user-1");
+    final CompletableFuture<ResolveFlagsResponse> second = resolve("flags/a", "user-1");
+    final CompletableFuture<ResolveFlagsResponse> other = resolve("flags/a", "user-2");
+
+    assertThat(upstreamCalls).hasSize(2);
+    assertThat(inFlightResolves.getCoalescedCount()).isEqualTo(1);
+
+    final ResolveFlagsResponse response =
+        ResolveFlagsResponse.newBuilder().setResolveId("id").build();
+    upstreamCalls.get(0).complete(response);
+
+    assertThat(first.join()).isSameAs(response);
+    assertThat(second.join()).isSameAs(response);
+    assertThat(other).isNotDone();
+    assertThat(inFlightResolves.getInFlightCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void completedCallsAreNotReused() {
+    resolve("flags/a", "user-1");
+    upstreamCalls.get(0).complete(ResolveFlagsResponse.getDefaultInstance());
+
+    resolve("flags/a", "user-1");
+
+    assertThat(upstreamCalls).hasSize(2);
+    assertThat(inFlightResolves.getCoalescedCount()).isZero();
+  }
+
+  @Test
+  public void failuresAreSharedWithAllCallers() {
+    final CompletableFuture<ResolveFlagsResponse> first = resolve("flags/a", "user-1");
+    final CompletableFuture<ResolveFlagsResponse> second = resolve("flags/a", "user-1");
+
+    upstreamCalls.get(0).completeExceptionally(new IllegalStateException("boom"));
+
+    assertThat(first).isCompletedExceptionally();
+    assertThat(second).isCompletedExceptionally();
+    assertThat(inFlightResolves.getInFlightCount()).isZero();
+  }
+
+  @Test
+  public void cancellingOneCallerKeepsTheCallAlive() {
+    final CompletableFuture<ResolveFlagsResponse> first = resolve("flags/a", "user-1");
+    final CompletableFuture<ResolveFlagsResponse> second = resolve("flags/a", "user-1");
+
+    first.cancel(true);
+
+    assertThat(upstreamCalls.get(0)).isNotCancelled();
+    upstreamCalls.get(0).complete(ResolveFlagsResponse.getDefaultInstance());
+    assertThat(second).isCompleted();
+  }
+
+  @Test
+  public void cancellingAllCallersCancelsTheCall() {
+    final CompletableFuture<ResolveFlagsResponse> first = resolve("flags/a", "user-1");
+    final CompletableFuture<ResolveFlagsResponse> second = resolve("flags/a", "user-1");
+
+    first.cancel(true);
+    second.cancel(true);
+
+    assertThat(upstreamCalls.get(0)).isCancelled();
+    assertThat(inFlightResolves.getInFlightCount()).isZero();
+
+    // a later resolve starts a fresh call
+    resolve("flags/a", "user-1");
+    assertThat(upstreamCalls).hasSize(2);
+  }
+
+  private CompletableFuture<ResolveFlagsResponse> resolve(String flag, String user) {
+    final Struct context = Structs.of("user", Values.of(user));
+    return inFlightResolves.resolve(
+        ResolveKey.of(flag, context),
+        () -> {
+          final CompletableFuture<ResolveFlagsResponse> call = new CompletableFuture<>();
+          upstreamCalls.add(call);
+          return call;
+        });
+  }
+}
@@ -0,0 +1,277 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.admin.v1.Flag;
+import com.spotify.confidence.shaded.flags.admin.v1.ResolverState;
+import com.spotify.confidence.shaded.flags.admin.v1.Segment;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveReason;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveToken;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolvedFlag;
+import com.spotify.confidence.shaded.flags.types.v1.Expression;
+import com.spotify.confidence.shaded.flags.types.v1.FlagSchema;
+import com.spotify.confidence.shaded.flags.types.v1.Targeting;
+import com.spotify.confidence.shaded.iam.v1.Client;
+import com.spotify.confidence.shaded.iam.v1.ClientCredential;
+import io.grpc.StatusRuntimeException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LocalFlagResolverTest {
+  private static final String SECRET = "secret";
+
+  @TempDir Path tempDir;
+  private LocalFlagResolver resolver;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    final Path stateFile = tempDir.resolve("state.pb");
+    Files.write(stateFile, state().toByteArray());
+    resolver = new LocalFlagResolver(LocalResolverState.fromFile(stateFile, "account"), SECRET);
+  }
+
+  @Test
+  public void matchingRuleAssignsItsVariant() {
+    final ResolvedFlag resolved = resolveOne("flags/flag", context("user-1", "SE"));
+
+    assertThat(resolved.getReason()).isEqualTo(ResolveReason.RESOLVE_REASON_MATCH);
+    assertThat(resolved.getVariant()).isEqualTo("flags/flag/variants/on");
+    assertThat(resolved.getValue()).isEqualTo(Structs.of("enabled", Values.of(true)));
+    assertThat(resolved.getFlagSchema().getSchemaMap()).containsKey("enabled");
+  }
+
+  @Test
+  public void rulesAreTriedInOrder() {
+    final ResolvedFlag resolved = resolveOne("flags/flag", context("user-1", "DK"));
+
+    assertThat(resolved.getVariant()).isEqualTo("flags/flag/variants/off");
+  }
+
+  @Test
+  public void segmentWithEmptyBitsetNeverMatches() {
+    final ResolvedFlag resolved = resolveOne("flags/unallocated", context("user-1", "SE"));
+
+    assertThat(resolved.getReason()).isEqualTo(ResolveReason.RESOLVE_REASON_NO_SEGMENT_MATCH);
+    assertThat(resolved.getVariant()).isEmpty();
+  }
+
+  @Test
+  public void segmentWithoutBitsetNeverMatches() {
+    final ResolverState truncated =
+        state().toBuilder()
+            .clearBitsets()
+            .addBitsets(
+                ResolverState.PackedBitset.newBuilder()
+                    .setSegment("segments/sweden")
+                    .setFullBitset(false))
+            .build();
+    final LocalFlagResolver truncatedResolver =
+        new LocalFlagResolver(LocalResolverState.fromProto(truncated, "account"), SECRET);
+
+    final ResolvedFlag resolved =
+        truncatedResolver
+            .resolve("flags/flag", context("user-1", "SE"), false)
+            .join()
+            .getResolvedFlags(0);
+
+    assertThat(resolved.getReason()).isEqualTo(ResolveReason.RESOLVE_REASON_NO_SEGMENT_MATCH);
+    assertThat(resolved.getVariant()).isEmpty();
+  }
+
+  @Test
+  public void missingTargetingKeySkipsRules() {
+    final ResolvedFlag resolved = resolveOne("flags/flag", Structs.of("country", Values.of("SE")));
+
+    assertThat(resolved.getReason()).isEqualTo(ResolveReason.RESOLVE_REASON_NO_SEGMENT_MATCH);
+  }
+
+  @Test
+  public void invalidTargetingKeyIsReported() {
+    final ResolvedFlag resolved =
+        resolveOne("flags/flag", Structs.of("targeting_key", Values.of(true)));
+
+    assertThat(resolved.getReason()).isEqualTo(ResolveReason.RESOLVE_REASON_TARGETING_KEY_ERROR);
+  }
+
+  @Test
+  public void archivedAndForeignFlagsAreLeftOut() {
+    final ResolveFlagsResponse response =
+        resolver.resolve(List.of(), context("user-1", "SE"), false).join();
+
+    assertThat(response.getResolvedFlagsList())
+        .extracting(ResolvedFlag::getFlag)
+        .containsExactlyInAnyOrder("flags/flag", "flags/unallocated");
+  }
+
+  @Test
+  public void resolveTokenDescribesAssignments() throws Exception {
+    final ResolveFlagsResponse response =
+        resolver.resolve(List.of("flags/flag"), context("user-1", "SE"), false).join();
+
+    final ResolveToken token = ResolveToken.parseFrom(response.getResolveToken());
+    assertThat(token.getTokenV1().getResolveId()).isEqualTo(response.getResolveId());
+    assertThat(token.getTokenV1().getAssignmentsMap().get("flags/flag").getVariant())
+        .isEqualTo("flags/flag/variants/on");
+    assertThat(token.getTokenV1().getAssignmentsMap().get("flags/flag").getTargetingKey())
+        .isEqualTo("user-1");
+  }
+
+  @Test
+  public void unknownClientSecretFails() {
+    final LocalFlagResolver other = new LocalFlagResolver(stateFromProto(), "unknown");
+
+    assertThatThrownBy(() -> other.resolve(List.of(), context("user-1", "SE"), false).get())
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(StatusRuntimeException.class);
+  }
+
+  @Test
+  public void stateCanBeLoadedFromJson() throws IOException {
+    final Path stateFile = tempDir.resolve("state.json");
+    Files.writeString(stateFile, JsonFormat.printer().print(state()));
+
+    final LocalFlagResolver jsonResolver =
+        new LocalFlagResolver(LocalResolverState.fromFile(stateFile, "account"), SECRET);
+
+    assertThat(
+            jsonResolver
+                .resolve(List.of("flags/flag"), context("user-1", "SE"), false)
+                .join()
+                .getResolvedFlags(0)
+                .getVariant())
+        .isEqualTo("flags/flag/variants/on");
+  }
+
+  private ResolvedFlag resolveOne(String flag, Struct context) {
+    final ResolveFlagsResponse response = resolver.resolve(flag, context, false).join();
+    assertThat(response.getResolvedFlagsList()).hasSize(1);
+    return response.getResolvedFlags(0);
+  }
+
+  private static Struct context(String targetingKey, String country) {
+    return Structs.of("targeting_key", Values.of(targetingKey), "country", Values.of(country));
+  }
+
+  private static LocalResolverState stateFromProto() {
+    return LocalResolverState.fromProto(state(), "account");
+  }
+
+  static ResolverState state() {
+    final Targeting swedenOnly =
+        Targeting.newBuilder()
+            .putCriteria(
+                "country",
+                Targeting.Criterion.newBuilder()
+                    .setAttribute(
+                        Targeting.Criterion.AttributeCriterion.newBuilder()
+                            .setAttributeName("country")
+                            .setEqRule(
+                                Targeting.EqRule.newBuilder()
+                                    .setValue(Targeting.Value.newBuilder().setStringValue("SE"))))
+                    .build())
+            .setExpression(Expression.newBuilder().setRef("country"))
+            .build();
+    return ResolverState.newBuilder()
+        .addClients(Client.newBuilder().setName("clients/client"))
+        .addClientCredentials(
+            ClientCredential.newBuilder()
+                .setName("clients/client/credentials/credential")
+                .setClientSecret(ClientCredential.ClientSecret.newBuilder().setSecret(SECRET)))
+        .addSegmentsNoBitsets(
+            Segment.newBuilder().setName("segments/sweden").setTargeting(swedenOnly))
+        .addSegmentsNoBitsets(Segment.newBuilder().setName("segments/everyone"))
+        .addSegmentsNoBitsets(Segment.newBuilder().setName("segments/nobody"))
+        .addBitsets(
+            ResolverState.PackedBitset.newBuilder()
+                .setSegment("segments/sweden")
+                .setFullBitset(true))
+        .addBitsets(
+            ResolverState.PackedBitset.newBuilder()
+                .setSegment("segments/everyone")
+                .setFullBitset(true))
+        .addBitsets(
+            ResolverState.PackedBitset.newBuilder()
+                .setSegment("segments/nobody")
+                .setGzippedBitset(gzip(new byte[Bucketing.BITSET_BUCKETS / 8])))
+        .addFlags(
+            flag("flags/flag", "clients/client")
+                .addRules(rule("segments/sweden", "flags/flag/variants/on"))
+                .addRules(rule("segments/everyone", "flags/flag/variants/off")))
+        .addFlags(
+            flag("flags/unallocated", "clients/client")
+                .addRules(rule("segments/nobody", "flags/unallocated/variants/on")))
+        .addFlags(
+            flag("flags/archived", "clients/client")
+                .setState(Flag.State.ARCHIVED)
+                .addRules(rule("segments/everyone", "flags/archived/variants/on")))
+        .addFlags(
+            flag("flags/other-client", "clients/other")
+                .addRules(rule("segments/everyone", "flags/other-client/variants/on")))
+        .build();
+  }
+
+  private static Flag.Builder flag(String name, String client) {
+    return Flag.newBuilder()
+        .setName(name)
+        .setState(Flag.State.ACTIVE)
+        .addClients(client)
+        .setSchema(
+            FlagSchema.StructFlagSchema.newBuilder()
+                .putSchema(
+                    "enabled",
+                    FlagSchema.newBuilder()
+                        .setBoolSchema(FlagSchema.BoolFlagSchema.getDefaultInstance())
+                        .build()))
+        .addVariants(
+            Flag.Variant.newBuilder()
+                .setName(name + "/variants/on")
+                .setValue(Structs.of("enabled", Values.of(true))))
+        .addVariants(
+            Flag.Variant.newBuilder()
+                .setName(name + "/variants/off")
+                .setValue(Structs.of("enabled", Values.of(false))));
+  }
+
+  private static Flag.Rule rule(String segment, String variant) {
+    return Flag.Rule.newBuilder()
+        .setName(segment.replace("segments/", "rules/"))
+        .setSegment(segment)
+        .setEnabled(true)
+        .setAssignmentSpec(
+            Flag.Rule.AssignmentSpec.newBuilder()
+                .setBucketCount(100)
+                .addAssignments(
+                    Flag.Rule.Assignment.newBuilder()
+                        .setAssignmentId(variant)
+                        .setVariant(
+                            Flag.Rule.Assignment.VariantAssignment.newBuilder().setVariant(variant))
+                        .addBucketRanges(
+                            Flag.Rule.BucketRange.newBuilder().setLower(0).setUpper(100))))
+        .build();
+  }
+
+  static ByteString gzip(byte[] bytes) {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write(bytes);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return ByteString.copyFrom(output.toByteArray());
+  }
+}
@@ -0,0 +1,84 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class MpscRingBufferTest {
+
+  @Test
+  public void capacityIsRoundedUpToAPowerOfTwo() {
+    assertThat(new MpscRingBuffer<>(1).capacity()).isEqualTo(1);
+    assertThat(new MpscRingBuffer<>(5).capacity()).isEqualTo(8);
+    assertThat(new MpscRingBuffer<>(8).capacity()).isEqualTo(8);
+    assertThatThrownBy(() -> new MpscRingBuffer<>(0))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("capacity must be positive");
+  }
+
+  @Test
+  public void offerFailsWhenFullAndSlotsAreReusedOncePolled() {
+    final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertThat(buffer.offer(i)).isTrue();
+    }
+    assertThat(buffer.offer(4)).isFalse();
+    assertThat(buffer.size()).isEqualTo(4);
+
+    assertThat(buffer.poll()).isEqualTo(0);
+    assertThat(buffer.offer(4)).isTrue();
+
+    final List<Integer> polled = new ArrayList<>();
+    for (Integer element = buffer.poll(); element != null; element = buffer.poll()) {
+      polled.add(element);
+    }
+    assertThat(polled).containsExactly(1, 2, 3, 4);
+    assertThat(buffer.size()).isZero();
+  }
+
+  @Test
+  @Timeout(10)
+  public void concurrentProducersLoseNoElements() {
+    final int producers = 4;
+    final int perProducer = 5_000;
+    final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(64);
+    final CompletableFuture<?>[] producing = new CompletableFuture[producers];
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      producing[p] =
+          CompletableFuture.runAsync(
+              () -> {
+                for (int i = 0; i < perProducer; i++) {
+                  while (!buffer.offer(producer * perProducer + i)) {
+                    // yield rather than spin, so that the consumer runs even on a single cpu
+                    Thread.yield();
+                  }
+                }
+              });
+    }
+
+    // elements of each producer arrive in the order they were offered
+    final int[] lastSeen = new int[producers];
+    Arrays.fill(lastSeen, -1);
+    int consumed = 0;
+    while (consumed < producers * perProducer) {
+      final Integer element = buffer.poll();
+      if (element == null) {
+        Thread.yield();
+        continue;
+      }
+      final int producer = element / perProducer;
+      assertThat(element % perProducer).isEqualTo(lastSeen[producer] + 1);
+      lastSeen[producer] = element % perProducer;
+      consumed++;
+    }
+    CompletableFuture.allOf(producing).join();
+    assertThat(buffer.poll()).isNull();
+  }
+}
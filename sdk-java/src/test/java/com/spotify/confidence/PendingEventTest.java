@@ -0,0 +1,63 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.spotify.confidence.events.v1.Event;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class PendingEventTest {
+  private static final Instant EVENT_TIME = Instant.parse("2024-05-01T12:30:15.123Z");
+
+  @Test
+  public void buildsTheSameEventAsEmitting() {
+    final ConfidenceValue.Struct context =
+        ConfidenceValue.of(Map.of("targeting_key", ConfidenceValue.of("user-1")));
+    final Optional<ConfidenceValue.Struct> data =
+        Optional.of(ConfidenceValue.of(Map.of("screen", ConfidenceValue.of("home"))));
+
+    final Event event = new PendingEvent("navigate", context, data, EVENT_TIME).toEvent();
+
+    assertThat(event)
+        .isEqualTo(
+            EventUploader.event("navigate", context, data)
+                .setEventTime(Clock.timestampOf(EVENT_TIME))
+                .build())
+        .isEqualTo(
+            new PendingEvent("navigate", context, data, EVENT_TIME).toEvent(new ContextEncoder()));
+  }
+
+  @Test
+  public void estimatedSizeIsCloseToTheSerializedSize() {
+    final ConfidenceValue.Struct context =
+        ConfidenceValue.of(
+            Map.of(
+                "targeting_key", ConfidenceValue.of("8c5c4f5b-3fa9-4b13-9d0e-4a4c5c62f1d2"),
+                "country", ConfidenceValue.of("SE"),
+                "premium", ConfidenceValue.of(true),
+                "visits", ConfidenceValue.of(1234)));
+    final ConfidenceValue.Struct data =
+        ConfidenceValue.of(
+            Map.of(
+                "tracks",
+                    ConfidenceValue.of(List.of(ConfidenceValue.of("a"), ConfidenceValue.of("b"))),
+                "since", ConfidenceValue.of(LocalDate.of(2024, 5, 1)),
+                "at", ConfidenceValue.of(EVENT_TIME),
+                "score", ConfidenceValue.of(0.5)));
+
+    for (PendingEvent pending :
+        List.of(
+            new PendingEvent(
+                "navigate", ConfidenceValue.Struct.EMPTY, Optional.empty(), EVENT_TIME),
+            new PendingEvent("play", context, Optional.of(data), EVENT_TIME))) {
+      final int serializedSize = pending.toEvent().getSerializedSize();
+      assertThat((double) pending.estimatedSize())
+          .isCloseTo(serializedSize, within(serializedSize * 0.25));
+    }
+  }
+}
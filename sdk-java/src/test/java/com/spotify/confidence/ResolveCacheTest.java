@@ -0,0 +1,167 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolveFlagsResponse;
+import com.spotify.confidence.shaded.flags.resolver.v1.ResolvedFlag;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ResolveCacheTest {
+  private final FakeClock clock = new FakeClock();
+
+  @Test
+  public void contextFingerprintIsIndependentOfFieldOrder() {
+    final Struct first =
+        Struct.newBuilder()
+            .putFields("a", Values.of("1"))
+            .putFields("b", Values.of(Structs.of("x", Values.of(1), "y", Values.of(2))))
+            .build();
+    final Struct second =
+        Struct.newBuilder()
+            .putFields("b", Values.of(Structs.of("y", Values.of(2), "x", Values.of(1))))
+            .putFields("a", Values.of("1"))
+            .build();
+
+    assertThat(ResolveKey.of("flags/a", first)).isEqualTo(ResolveKey.of("flags/a", second));
+    assertThat(ResolveKey.of("flags/a", first)).isNotEqualTo(ResolveKey.of("flags/b", first));
+  }
+
+  @Test
+  public void entriesExpireAfterTtl() {
+    final ResolveCache cache = new ResolveCache(clock, Duration.ofSeconds(10), 10, 1024 * 1024);
+    final ResolveKey key = key("flags/a", "user-1");
+    cache.put(key, response("flags/a"));
+
+    clock.setCurrentTimeSeconds(9);
+    assertThat(cache.get(key)).isEqualTo(response("flags/a"));
+
+    clock.setCurrentTimeSeconds(10);
+    assertThat(cache.get(key)).isNull();
+
+    final ResolveCache.Stats stats = cache.stats();
+    assertThat(stats.getHits()).isEqualTo(1);
+    assertThat(stats.getMisses()).isEqualTo(1);
+    assertThat(stats.getEntries()).isZero();
+    assertThat(stats.getBytes()).isZero();
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedWhenFull() {
+    final ResolveCache cache = new ResolveCache(clock, Duration.ofMinutes(1), 2, 1024 * 1024);
+    cache.put(key("flags/a", "user-1"), response("flags/a"));
+    cache.put(key("flags/b", "user-1"), response("flags/b"));
+    // touch a so that b becomes the eldest entry
+    cache.get(key("flags/a", "user-1"));
+    cache.put(key("flags/c", "user-1"), response("flags/c"));
+
+    assertThat(cache.get(key("flags/b", "user-1"))).isNull();
+    assertThat(cache.get(key("flags/a", "user-1"))).isNotNull();
+    assertThat(cache.get(key("flags/c", "user-1"))).isNotNull();
+    assertThat(cache.stats().getEvictions()).isEqualTo(1);
+  }
+
+  @Test
+  public void evictsWhenByteBudgetIsExceeded() {
+    final ResolveCache probe = new ResolveCache(clock, Duration.ofMinutes(1), 100, 1024 * 1024);
+    probe.put(key("flags/a", "user-1"), response("flags/a"));
+    final long entrySize = probe.stats().getBytes();
+
+    final ResolveCache cache = new ResolveCache(clock, Duration.ofMinutes(1), 100, entrySize * 2);
+    cache.put(key("flags/a", "user-1"), response("flags/a"));
+    cache.put(key("flags/a", "user-2"), response("flags/a"));
+    cache.put(key("flags/a", "user-3"), response("flags/a"));
+
+    final ResolveCache.Stats stats = cache.stats();
+    assertThat(stats.getEntries()).isEqualTo(2);
+    assertThat(stats.getBytes()).isLessThanOrEqualTo(entrySize * 2);
+    assertThat(stats.getEvictions()).isEqualTo(1);
+    assertThat(cache.get(key("flags/a", "user-1"))).isNull();
+  }
+
+  @Test
+  public void rejectsInvalidConfiguration() {
+    assertThatThrownBy(() -> new ResolveCache(clock, Duration.ZERO, 1, 1))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("ttl must be positive");
+    assertThatThrownBy(() -> new ResolveCache(clock, Duration.ofSeconds(1), 0, 1))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("maxEntries must be positive");
+  }
+
+  @Test
+  public void clientServesRepeatedResolvesFromCache() {
+    final AtomicInteger resolveCalls = new AtomicInteger();
+    final FlagResolver flagResolver =
+        new FlagResolver() {
+          @Override
+          public void close() {}
+
+          @Override
+          public CompletableFuture<ResolveFlagsResponse> resolve(
+              List<String> flags, Struct context, Boolean isProvider) {
+            resolveCalls.incrementAndGet();
+            return CompletableFuture.completedFuture(response(flags.get(0)));
+          }
+        };
+    final FlagResolverClientImpl client =
+        new FlagResolverClientImpl(
+            flagResolver,
+            null,
+            new ResolveCache(clock, Duration.ofMinutes(1), 10, 1024 * 1024),
+            null,
+            new FlagApplier((token, flags) -> CompletableFuture.completedFuture(true), clock));
+    final ConfidenceValue.Struct context =
+        ConfidenceValue.Struct.builder().set("user", ConfidenceValue.of("user-1")).build();
+
+    client.resolveFlags("flags/a", context).join();
+    client.resolveFlags("flags/a", context).join();
+    client.resolveFlags("flags/b", context).join();
+    client.close();
+
+    assertThat(resolveCalls.get()).isEqualTo(2);
+    assertThat(client.getResolveCacheStats().getHits()).isEqualTo(1);
+  }
+
+  @Test
+  public void clientOnlyCachesResolvesThatAreAppliedWhenRead() {
+    final FlagResolver flagResolver =
+        new FlagResolver() {
+          @Override
+          public void close() {}
+
+          @Override
+          public CompletableFuture<ResolveFlagsResponse> resolve(
+              List<String> flags, Struct context, Boolean isProvider) {
+            return CompletableFuture.completedFuture(response(flags.get(0)));
+          }
+        };
+
+    assertThatThrownBy(
+            () ->
+                new FlagResolverClientImpl(
+                    flagResolver,
+                    null,
+                    new ResolveCache(clock, Duration.ofMinutes(1), 10, 1024 * 1024),
+                    null,
+                    null))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static ResolveKey key(String flag, String user) {
+    return ResolveKey.of(flag, Structs.of("user", Values.of(user)));
+  }
+
+  private static ResolveFlagsResponse response(String flag) {
+    return ResolveFlagsResponse.newBuilder()
+        .addResolvedFlags(ResolvedFlag.newBuilder().setFlag(flag).setVariant(flag + "/variants/a"))
+        .build();
+  }
+}
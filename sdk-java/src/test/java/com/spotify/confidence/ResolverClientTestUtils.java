@@ -29,6 +29,13 @@ public class ResolverClientTestUtils {
       return CompletableFuture.completedFuture(response);
     }
 
+    @Override
+    public CompletableFuture<ResolveFlagsResponse> resolveFlags(
+        List<String> flags, ConfidenceValue.Struct context) {
+      flags.forEach(flag -> resolves.put(flag, context));
+      return CompletableFuture.completedFuture(response);
+    }
+
     @Override
     public void close() {
       closed = true;
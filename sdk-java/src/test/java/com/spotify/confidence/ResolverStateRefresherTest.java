@@ -0,0 +1,207 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.admin.v1.ResolverState;
+import io.grpc.StatusRuntimeException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResolverStateRefresherTest {
+  private static final String ACCOUNT = "account";
+
+  @TempDir Path tempDir;
+  private final FakeClock clock = new FakeClock();
+  private final AtomicReference<byte[]> payload =
+      new AtomicReference<>(LocalFlagResolverTest.state().toByteArray());
+  private final ResolverStateSource source =
+      () -> {
+        final byte[] bytes = payload.get();
+        if (bytes == null) {
+          throw new IOException("unavailable");
+        }
+        return bytes;
+      };
+  private ResolverStateRefresher refresher;
+
+  @AfterEach
+  void afterEach() {
+    if (refresher != null) {
+      refresher.close();
+    }
+  }
+
+  @Test
+  public void fetchedStateIsPublished() {
+    refresher = refresher(null);
+    assertThat(refresher.get()).isNull();
+
+    assertThat(refresher.refresh()).isTrue();
+
+    assertThat(refresher.get().getFlag("flags/flag")).isNotNull();
+    assertThat(refresher.getPublishedCount()).isEqualTo(1);
+    assertThat(refresher.getCompileMicros().getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void unchangedPayloadIsSkipped() {
+    refresher = refresher(null);
+    refresher.refresh();
+    final LocalResolverState first = refresher.get();
+
+    payload.set(payload.get().clone());
+    assertThat(refresher.refresh()).isFalse();
+
+    assertThat(refresher.get()).isSameAs(first);
+    assertThat(refresher.getUnchangedCount()).isEqualTo(1);
+    assertThat(refresher.getCompileMicros().getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void failuresKeepTheCurrentState() {
+    refresher = refresher(null);
+    refresher.refresh();
+    final LocalResolverState first = refresher.get();
+
+    payload.set(null);
+    assertThat(refresher.refresh()).isFalse();
+    payload.set(new byte[] {1, 2, 3});
+    assertThat(refresher.refresh()).isFalse();
+
+    assertThat(refresher.get()).isSameAs(first);
+    assertThat(refresher.getFailureCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void stateOfAnotherAccountIsRejected() {
+    final ResolverStateSource otherAccount =
+        new ResolverStateSource() {
+          @Override
+          public byte[] fetch() {
+            return payload.get();
+          }
+
+          @Override
+          public String account() {
+            return "other-account";
+          }
+        };
+    refresher =
+        new ResolverStateRefresher(
+            otherAccount, ACCOUNT, clock, Duration.ofHours(1), 0, null, Duration.ofDays(1));
+
+    assertThat(refresher.refresh()).isFalse();
+
+    assertThat(refresher.get()).isNull();
+    assertThat(refresher.getFailureCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void stateAgeIsTheTimeSinceTheLastFetch() {
+    refresher = refresher(null);
+    assertThat(refresher.getStateAge()).isNull();
+    clock.setCurrentTimeSeconds(100);
+    refresher.refresh();
+
+    clock.setCurrentTimeSeconds(130);
+    assertThat(refresher.getStateAge()).isEqualTo(Duration.ofSeconds(30));
+    refresher.refresh();
+    assertThat(refresher.getStateAge()).isZero();
+  }
+
+  @Test
+  public void snapshotIsUsedUntilTheFirstFetch() {
+    final Path snapshot = tempDir.resolve("state.snapshot");
+    clock.setCurrentTimeSeconds(100);
+    refresher(snapshot).refresh();
+    assertThat(Files.exists(snapshot)).isTrue();
+
+    payload.set(null);
+    clock.setCurrentTimeSeconds(160);
+    refresher = refresher(snapshot);
+
+    assertThat(refresher.get().getFlag("flags/flag")).isNotNull();
+    assertThat(refresher.getStateAge()).isEqualTo(Duration.ofMinutes(1));
+  }
+
+  @Test
+  public void resolverSeesRefreshedState() {
+    refresher = refresher(null);
+    final LocalFlagResolver resolver = new LocalFlagResolver(refresher, "secret");
+    assertThat(resolver.resolve("flags/flag", Struct.getDefaultInstance(), false))
+        .failsWithin(Duration.ZERO)
+        .withThrowableOfType(Exception.class)
+        .withCauseInstanceOf(StatusRuntimeException.class);
+
+    refresher.refresh();
+    assertThat(resolveAll(resolver)).isNotEmpty();
+
+    payload.set(LocalFlagResolverTest.state().toBuilder().clearFlags().build().toByteArray());
+    refresher.refresh();
+    assertThat(resolveAll(resolver)).isEmpty();
+  }
+
+  @Test
+  public void startedRefresherFetchesInTheBackground() throws Exception {
+    refresher =
+        new ResolverStateRefresher(
+            source, ACCOUNT, clock, Duration.ofMillis(10), 0.5, null, Duration.ofDays(1));
+    refresher.start();
+    awaitUntil(() -> refresher.get() != null);
+
+    payload.set(ResolverState.newBuilder().build().toByteArray());
+    awaitUntil(() -> refresher.get().getFlags().isEmpty());
+    refresher.close();
+  }
+
+  @Test
+  public void delaysAreJitteredWithinBounds() {
+    final Random random = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(ResolverStateRefresher.nextDelayMillis(Duration.ofSeconds(10), 0.2, random))
+          .isBetween(8_000L, 12_000L);
+    }
+    assertThat(ResolverStateRefresher.nextDelayMillis(Duration.ofSeconds(10), 0, random))
+        .isEqualTo(10_000L);
+  }
+
+  private ResolverStateRefresher refresher(Path snapshot) {
+    return new ResolverStateRefresher(
+        source, ACCOUNT, clock, Duration.ofHours(1), 0, snapshot, Duration.ofDays(1));
+  }
+
+  private static List<?> resolveAll(LocalFlagResolver resolver) {
+    try {
+      return resolver
+          .resolve(
+              List.of(),
+              Structs.of("targeting_key", Values.of("user"), "country", Values.of("SE")),
+              false)
+          .join()
+          .getResolvedFlagsList();
+    } catch (CompletionException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
+}
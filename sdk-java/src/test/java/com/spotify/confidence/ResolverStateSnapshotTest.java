@@ -0,0 +1,144 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.admin.v1.ResolverState;
+import com.spotify.confidence.shaded.flags.admin.v1.Segment;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResolverStateSnapshotTest {
+  private static final String ACCOUNT = "account";
+
+  @TempDir Path tempDir;
+  private final FakeClock clock = new FakeClock();
+  private final BitSet half = new BitSet(Bucketing.BITSET_BUCKETS);
+  private Path snapshot;
+  private LocalResolverState state;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    final Random random = new Random(3);
+    for (int i = 0; i < Bucketing.BITSET_BUCKETS; i++) {
+      if (random.nextBoolean()) half.set(i);
+    }
+    final ResolverState proto =
+        LocalFlagResolverTest.state().toBuilder()
+            .addSegmentsNoBitsets(Segment.newBuilder().setName("segments/half"))
+            .addBitsets(
+                ResolverState.PackedBitset.newBuilder()
+                    .setSegment("segments/half")
+                    .setGzippedBitset(LocalFlagResolverTest.gzip(half.toByteArray())))
+            .build();
+    state = LocalResolverState.fromProto(proto, ACCOUNT);
+    snapshot = tempDir.resolve("state.snapshot");
+    clock.setCurrentTimeSeconds(1_000);
+    ResolverStateSnapshot.write(state, snapshot, clock);
+  }
+
+  @Test
+  public void snapshotRoundTrips() {
+    final LocalResolverState read = readFresh();
+
+    assertThat(read).isNotNull();
+    assertThat(read.getDefinition()).isEqualTo(state.getDefinition());
+    assertThat(read.getBitset("segments/everyone")).isSameAs(SegmentBitset.FULL);
+    assertThat(read.getBitset("segments/nobody")).isSameAs(SegmentBitset.EMPTY);
+    assertThat(read.getBitsetBytes()).isEqualTo(state.getBitsetBytes());
+    final SegmentBitset bitset = read.getBitset("segments/half");
+    for (int bucket = 0; bucket < Bucketing.BITSET_BUCKETS; bucket += 7) {
+      if (bitset.get(bucket) != half.get(bucket)) {
+        assertThat(bitset.get(bucket)).describedAs("bucket %d", bucket).isEqualTo(half.get(bucket));
+      }
+    }
+  }
+
+  @Test
+  public void resolvesFromSnapshotFile() throws IOException {
+    final LocalFlagResolver resolver =
+        new LocalFlagResolver(LocalResolverState.fromFile(snapshot, ACCOUNT), "secret");
+
+    assertThat(
+            resolver
+                .resolve(
+                    List.of("flags/flag"),
+                    Structs.of("targeting_key", Values.of("user"), "country", Values.of("SE")),
+                    false)
+                .join()
+                .getResolvedFlags(0)
+                .getVariant())
+        .isEqualTo("flags/flag/variants/on");
+  }
+
+  @Test
+  public void corruptSnapshotIsIgnored() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(snapshot.toFile(), "rw")) {
+      file.seek(file.length() / 2);
+      final int value = file.read();
+      file.seek(file.length() / 2);
+      file.write(value ^ 0xFF);
+    }
+
+    assertThat(readFresh()).isNull();
+  }
+
+  @Test
+  public void truncatedSnapshotIsIgnored() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(snapshot.toFile(), "rw")) {
+      file.setLength(file.length() - 1);
+    }
+
+    assertThat(readFresh()).isNull();
+  }
+
+  @Test
+  public void staleSnapshotIsIgnored() {
+    clock.setCurrentTimeSeconds(1_000 + Duration.ofHours(2).toSeconds());
+
+    assertThat(readFresh()).isNull();
+  }
+
+  @Test
+  public void snapshotOfOtherAccountIsIgnored() {
+    assertThat(ResolverStateSnapshot.tryRead(snapshot, "other", Duration.ofHours(1), clock))
+        .isNull();
+  }
+
+  @Test
+  public void missingSnapshotIsIgnored() throws IOException {
+    Files.delete(snapshot);
+
+    assertThat(readFresh()).isNull();
+  }
+
+  @Test
+  public void newerSnapshotReplacesOlder() throws IOException {
+    final LocalResolverState mapped = readFresh();
+    final LocalResolverState empty =
+        LocalResolverState.fromProto(ResolverState.getDefaultInstance(), ACCOUNT);
+
+    ResolverStateSnapshot.write(empty, snapshot, clock);
+
+    assertThat(readFresh().getFlags()).isEmpty();
+    // the earlier mapping is unaffected by the file being replaced
+    assertThat(mapped.getBitset("segments/half").get(half.nextSetBit(0))).isTrue();
+    try (var files = Files.list(tempDir)) {
+      assertThat(files).containsExactly(snapshot);
+    }
+  }
+
+  private LocalResolverState readFresh() {
+    return ResolverStateSnapshot.tryRead(snapshot, ACCOUNT, Duration.ofHours(1), clock);
+  }
+}
@@ -0,0 +1,96 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+
+class SegmentBitsetTest {
+  private static final int BUCKETS = Bucketing.BITSET_BUCKETS;
+
+  @Test
+  public void decodedBitsetMatchesSource() {
+    final Random random = new Random(7);
+    final BitSet source = new BitSet(BUCKETS);
+    // a sparse chunk, a full chunk, an empty chunk and a dense tail
+    for (int i = 0; i < SegmentBitset.CHUNK_BITS; i++) {
+      if (random.nextInt(100) == 0) source.set(i);
+    }
+    source.set(SegmentBitset.CHUNK_BITS, 2 * SegmentBitset.CHUNK_BITS);
+    for (int i = 4 * SegmentBitset.CHUNK_BITS; i < BUCKETS; i++) {
+      if (random.nextBoolean()) source.set(i);
+    }
+
+    final SegmentBitset bitset = SegmentBitset.fromGzipped(gzip(source.toByteArray()), BUCKETS);
+
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      if (bitset.get(bucket) != source.get(bucket)) {
+        assertThat(bitset.get(bucket))
+            .describedAs("bucket %d", bucket)
+            .isEqualTo(source.get(bucket));
+      }
+    }
+  }
+
+  @Test
+  public void onlyMixedChunksAreStored() {
+    final BitSet source = new BitSet(BUCKETS);
+    source.set(0, 3 * SegmentBitset.CHUNK_BITS);
+    source.set(5 * SegmentBitset.CHUNK_BITS + 17);
+
+    final SegmentBitset bitset = SegmentBitset.fromBytes(source.toByteArray(), BUCKETS);
+
+    assertThat(bitset.getOffHeapBytes()).isEqualTo(SegmentBitset.CHUNK_BITS / 8);
+    assertThat(bitset.get(3 * SegmentBitset.CHUNK_BITS - 1)).isTrue();
+    assertThat(bitset.get(5 * SegmentBitset.CHUNK_BITS + 17)).isTrue();
+    assertThat(bitset.get(5 * SegmentBitset.CHUNK_BITS + 18)).isFalse();
+  }
+
+  @Test
+  public void uniformBitsetsShareSentinels() {
+    final byte[] ones = new byte[BUCKETS / 8];
+    Arrays.fill(ones, (byte) 0xFF);
+
+    assertThat(SegmentBitset.fromGzipped(gzip(ones), BUCKETS)).isSameAs(SegmentBitset.FULL);
+    assertThat(SegmentBitset.fromGzipped(gzip(new byte[BUCKETS / 8]), BUCKETS))
+        .isSameAs(SegmentBitset.EMPTY);
+    assertThat(SegmentBitset.fromBytes(new byte[0], BUCKETS)).isSameAs(SegmentBitset.EMPTY);
+    assertThat(SegmentBitset.FULL.get(BUCKETS - 1)).isTrue();
+    assertThat(SegmentBitset.FULL.getOffHeapBytes()).isZero();
+  }
+
+  @Test
+  public void bitsPastTheLastBucketAreIgnored() {
+    // 12 buckets, where the padding bits of the second byte are set
+    final SegmentBitset bitset = SegmentBitset.fromBytes(new byte[] {(byte) 0xFF, (byte) 0x0F}, 12);
+
+    assertThat(bitset).isSameAs(SegmentBitset.FULL);
+  }
+
+  @Test
+  public void stateAccountsForBitsetMemory() {
+    final LocalResolverState state =
+        LocalResolverState.fromProto(LocalFlagResolverTest.state(), "account");
+
+    assertThat(state.getBitset("segments/everyone")).isSameAs(SegmentBitset.FULL);
+    assertThat(state.getBitset("segments/nobody")).isSameAs(SegmentBitset.EMPTY);
+    assertThat(state.getBitsetBytes("segments/nobody")).isZero();
+    assertThat(state.getBitsetBytes()).isZero();
+  }
+
+  private static ByteString gzip(byte[] bytes) {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write(bytes);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return ByteString.copyFrom(output.toByteArray());
+  }
+}
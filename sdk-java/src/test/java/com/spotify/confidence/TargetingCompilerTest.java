@@ -0,0 +1,234 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.google.protobuf.util.Structs;
+import com.google.protobuf.util.Values;
+import com.spotify.confidence.shaded.flags.types.v1.Expression;
+import com.spotify.confidence.shaded.flags.types.v1.Targeting;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TargetingCompilerTest {
+
+  @Test
+  public void emptyTargetingMatchesAll() {
+    final TargetingCompiler.CompiledTargeting compiled =
+        TargetingCompiler.compile(Targeting.getDefaultInstance());
+
+    assertThat(compiled.matchesAll()).isTrue();
+    assertThat(compiled.matches(Struct.getDefaultInstance(), segment -> false)).isTrue();
+  }
+
+  @Test
+  public void constantSubExpressionsAreFolded() {
+    final Targeting targeting =
+        Targeting.newBuilder()
+            .setExpression(
+                Expression.newBuilder()
+                    .setOr(
+                        Expression.Operands.newBuilder()
+                            .addOperands(Expression.newBuilder().setRef("missing"))
+                            .addOperands(
+                                Expression.newBuilder()
+                                    .setNot(Expression.newBuilder().setRef("missing")))))
+            .build();
+
+    assertThat(TargetingCompiler.compile(targeting).matchesAll()).isTrue();
+  }
+
+  @Test
+  public void cheapOperandsAreEvaluatedBeforeSegments() {
+    final Targeting targeting =
+        Targeting.newBuilder()
+            .putCriteria("segment", segment("segments/expensive"))
+            .putCriteria("se", criterion(attribute("country").setEqRule(eq(string("SE")))))
+            .setExpression(and(ref("segment"), ref("se")))
+            .build();
+    final List<String> visited = new ArrayList<>();
+
+    final boolean matches =
+        TargetingCompiler.compile(targeting)
+            .matches(
+                Structs.of("country", Values.of("DK")),
+                segment -> {
+                  visited.add(segment);
+                  return true;
+                });
+
+    assertThat(matches).isFalse();
+    assertThat(visited).isEmpty();
+  }
+
+  @Test
+  public void versionSetsIgnoreTrailingZeros() {
+    final Targeting targeting =
+        single(
+            attribute("version")
+                .setSetRule(
+                    Targeting.SetRule.newBuilder()
+                        .addValues(version("1.2"))
+                        .addValues(version("3"))));
+    final TargetingCompiler.CompiledTargeting compiled = TargetingCompiler.compile(targeting);
+
+    assertThat(compiled.matches(Structs.of("version", Values.of("1.2.0")), s -> false)).isTrue();
+    assertThat(compiled.matches(Structs.of("version", Values.of("3.0.0.0")), s -> false)).isTrue();
+    assertThat(compiled.matches(Structs.of("version", Values.of("1.2.1")), s -> false)).isFalse();
+  }
+
+  @Test
+  public void numberRange() {
+    final Targeting targeting =
+        single(
+            attribute("age")
+                .setRangeRule(
+                    Targeting.RangeRule.newBuilder()
+                        .setStartInclusive(number(18))
+                        .setEndExclusive(number(30))));
+
+    assertThat(matches(targeting, Structs.of("age", Values.of(18)))).isTrue();
+    assertThat(matches(targeting, Structs.of("age", Values.of(30)))).isFalse();
+    assertThat(matches(targeting, Structs.of("age", Values.of("25")))).isTrue();
+    assertThat(matches(targeting, Structs.of("age", Values.of("old")))).isFalse();
+    assertThat(matches(targeting, Struct.getDefaultInstance())).isFalse();
+  }
+
+  @Test
+  public void incomparableValuesFailEndBounds() {
+    final Targeting targeting =
+        single(
+            attribute("age")
+                .setRangeRule(Targeting.RangeRule.newBuilder().setEndInclusive(number(30))));
+
+    assertThat(matches(targeting, Structs.of("age", Values.of(29)))).isTrue();
+    assertThat(matches(targeting, Structs.of("age", Values.of("old")))).isFalse();
+    assertThat(matches(targeting, Structs.of("age", Values.of(true)))).isFalse();
+  }
+
+  @Test
+  public void versionRange() {
+    final Targeting targeting =
+        single(
+            attribute("app.version")
+                .setRangeRule(
+                    Targeting.RangeRule.newBuilder()
+                        .setStartInclusive(
+                            Targeting.Value.newBuilder()
+                                .setVersionValue(
+                                    Targeting.SemanticVersion.newBuilder().setVersion("1.10")))));
+
+    assertThat(matches(targeting, app("1.10.0"))).isTrue();
+    assertThat(matches(targeting, app("1.9.9"))).isFalse();
+    assertThat(matches(targeting, app("2.0"))).isTrue();
+    assertThat(matches(targeting, app("latest"))).isFalse();
+  }
+
+  @Test
+  public void anyAndAllRules() {
+    final Targeting.InnerRule isA =
+        Targeting.InnerRule.newBuilder()
+            .setEqRule(Targeting.EqRule.newBuilder().setValue(string("a")))
+            .build();
+    final Targeting any =
+        single(attribute("tags").setAnyRule(Targeting.AnyRule.newBuilder().setRule(isA)));
+    final Targeting all =
+        single(attribute("tags").setAllRule(Targeting.AllRule.newBuilder().setRule(isA)));
+
+    assertThat(matches(any, tags("a", "b"))).isTrue();
+    assertThat(matches(all, tags("a", "b"))).isFalse();
+    assertThat(matches(all, tags("a", "a"))).isTrue();
+    assertThat(matches(any, Struct.getDefaultInstance())).isFalse();
+    assertThat(matches(all, Struct.getDefaultInstance())).isTrue();
+  }
+
+  @Test
+  public void expressionsCombineCriteria() {
+    final Targeting targeting =
+        Targeting.newBuilder()
+            .putCriteria("se", criterion(attribute("country").setEqRule(eq(string("SE")))))
+            .putCriteria("segment", segment("segments/beta"))
+            .setExpression(
+                Expression.newBuilder()
+                    .setAnd(
+                        Expression.Operands.newBuilder()
+                            .addOperands(Expression.newBuilder().setRef("se"))
+                            .addOperands(
+                                Expression.newBuilder()
+                                    .setNot(Expression.newBuilder().setRef("segment")))))
+            .build();
+    final Struct sweden = Structs.of("country", Values.of("SE"));
+
+    assertThat(TargetingCompiler.compile(targeting).matches(sweden, segment -> false)).isTrue();
+    assertThat(TargetingCompiler.compile(targeting).matches(sweden, segment -> true)).isFalse();
+  }
+
+  private static boolean matches(Targeting targeting, Struct context) {
+    return TargetingCompiler.compile(targeting).matches(context, segment -> false);
+  }
+
+  private static Targeting single(Targeting.Criterion.AttributeCriterion.Builder attribute) {
+    return Targeting.newBuilder()
+        .putCriteria("c", criterion(attribute))
+        .setExpression(ref("c"))
+        .build();
+  }
+
+  private static Expression ref(String ref) {
+    return Expression.newBuilder().setRef(ref).build();
+  }
+
+  private static Expression and(Expression... operands) {
+    return Expression.newBuilder()
+        .setAnd(Expression.Operands.newBuilder().addAllOperands(List.of(operands)))
+        .build();
+  }
+
+  private static Targeting.Criterion criterion(
+      Targeting.Criterion.AttributeCriterion.Builder attribute) {
+    return Targeting.Criterion.newBuilder().setAttribute(attribute).build();
+  }
+
+  private static Targeting.Criterion segment(String segment) {
+    return Targeting.Criterion.newBuilder()
+        .setSegment(Targeting.Criterion.SegmentCriterion.newBuilder().setSegment(segment))
+        .build();
+  }
+
+  private static Targeting.Criterion.AttributeCriterion.Builder attribute(String name) {
+    return Targeting.Criterion.AttributeCriterion.newBuilder().setAttributeName(name);
+  }
+
+  private static Targeting.EqRule eq(Targeting.Value value) {
+    return Targeting.EqRule.newBuilder().setValue(value).build();
+  }
+
+  private static Targeting.Value number(double value) {
+    return Targeting.Value.newBuilder().setNumberValue(value).build();
+  }
+
+  private static Targeting.Value string(String value) {
+    return Targeting.Value.newBuilder().setStringValue(value).build();
+  }
+
+  private static Targeting.Value version(String version) {
+    return Targeting.Value.newBuilder()
+        .setVersionValue(Targeting.SemanticVersion.newBuilder().setVersion(version))
+        .build();
+  }
+
+  private static Struct app(String version) {
+    return Structs.of("app", Values.of(Structs.of("version", Values.of(version))));
+  }
+
+  private static Struct tags(String... tags) {
+    final ListValue.Builder list = ListValue.newBuilder();
+    for (String tag : tags) {
+      list.addValues(Value.newBuilder().setStringValue(tag));
+    }
+    return Structs.of("tags", Value.newBuilder().setListValue(list).build());
+  }
+}
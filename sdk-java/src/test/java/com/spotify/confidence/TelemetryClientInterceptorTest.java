@@ -0,0 +1,74 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationErrorCode;
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationReason;
+import com.spotify.telemetry.v1.Monitoring;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import java.time.Duration;
+import java.util.Base64;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TelemetryClientInterceptorTest {
+  private final Telemetry telemetry = new Telemetry();
+  // encoded by the test only
+  private final TelemetryClientInterceptor interceptor =
+      new TelemetryClientInterceptor(telemetry, Duration.ofDays(1));
+
+  @AfterEach
+  public void tearDown() {
+    interceptor.close();
+  }
+
+  @Test
+  public void attachesEachEncodedHeaderOnce() throws Exception {
+    telemetry.appendLatency(5);
+    assertThat(startCall().containsKey(TelemetryClientInterceptor.HEADER_KEY)).isFalse();
+
+    interceptor.encodeHeader();
+
+    assertThat(tracesIn(startCall())).isEqualTo(1);
+    assertThat(startCall().containsKey(TelemetryClientInterceptor.HEADER_KEY)).isFalse();
+  }
+
+  @Test
+  public void telemetryRecordedBeforeAHeaderIsSentCarriesOver() throws Exception {
+    telemetry.appendLatency(5);
+    interceptor.encodeHeader();
+    telemetry.appendEvaluation(
+        EvaluationReason.EVALUATION_REASON_DEFAULT,
+        EvaluationErrorCode.EVALUATION_ERROR_CODE_UNSPECIFIED);
+    // the previous header has not been sent, so nothing is snapshot
+    interceptor.encodeHeader();
+
+    assertThat(tracesIn(startCall())).isEqualTo(1);
+    interceptor.encodeHeader();
+    assertThat(tracesIn(startCall())).isEqualTo(1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Metadata startCall() {
+    final Channel channel = mock(Channel.class);
+    when(channel.newCall(null, CallOptions.DEFAULT)).thenReturn(mock(ClientCall.class));
+    final Metadata headers = new Metadata();
+    interceptor
+        .interceptCall((MethodDescriptor<Object, Object>) null, CallOptions.DEFAULT, channel)
+        .start(mock(ClientCall.Listener.class), headers);
+    return headers;
+  }
+
+  private static int tracesIn(Metadata headers) throws Exception {
+    final String header = headers.get(TelemetryClientInterceptor.HEADER_KEY);
+    return Monitoring.parseFrom(Base64.getDecoder().decode(header))
+        .getLibraryTraces(0)
+        .getTracesCount();
+  }
+}
@@ -0,0 +1,102 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.spotify.telemetry.v1.LibraryTraces;
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationErrorCode;
+import com.spotify.telemetry.v1.LibraryTraces.Trace.EvaluationTrace.EvaluationReason;
+import com.spotify.telemetry.v1.Monitoring;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class TelemetryTest {
+  private final Telemetry telemetry = new Telemetry();
+
+  @Test
+  public void snapshotsContainATracePerRecordedValueAndReset() {
+    telemetry.appendLatency(3);
+    telemetry.appendLatency(3);
+    telemetry.appendEvaluation(
+        EvaluationReason.EVALUATION_REASON_ERROR,
+        EvaluationErrorCode.EVALUATION_ERROR_CODE_FLAG_NOT_FOUND);
+
+    assertThat(traces(telemetry.getSnapshotInternal())).hasSize(3);
+    final List<LibraryTraces.Trace> traces = traces(telemetry.getSnapshot());
+
+    assertThat(traces)
+        .extracting(trace -> trace.getRequestTrace().getMillisecondDuration())
+        .containsExactly(3L, 3L, 0L);
+    assertThat(traces.get(2).getEvaluationTrace().getReason())
+        .isEqualTo(EvaluationReason.EVALUATION_REASON_ERROR);
+    assertThat(traces.get(2).getEvaluationTrace().getErrorCode())
+        .isEqualTo(EvaluationErrorCode.EVALUATION_ERROR_CODE_FLAG_NOT_FOUND);
+    assertThat(traces(telemetry.getSnapshot())).isEmpty();
+  }
+
+  @Test
+  public void valuesBeyondASnapshotAreLeftForTheNext() {
+    for (int i = 0; i < 1000; i++) {
+      telemetry.appendEvaluation(
+          EvaluationReason.EVALUATION_REASON_TARGETING_MATCH,
+          EvaluationErrorCode.EVALUATION_ERROR_CODE_UNSPECIFIED);
+      telemetry.appendLatency(i % 2 == 0 ? 10 : 1000);
+    }
+    telemetry.appendEvaluation(
+        EvaluationReason.EVALUATION_REASON_ERROR,
+        EvaluationErrorCode.EVALUATION_ERROR_CODE_GENERAL);
+
+    final List<LibraryTraces.Trace> first = traces(telemetry.getSnapshot());
+    assertThat(first).hasSize(Telemetry.MAX_TRACES_PER_SNAPSHOT);
+    // the rare error is not held back behind the frequent values
+    assertThat(evaluationCounts(first)).containsEntry(EvaluationReason.EVALUATION_REASON_ERROR, 1L);
+
+    final List<LibraryTraces.Trace> all = new ArrayList<>(first);
+    while (telemetry.getUnreportedCount() > 0) {
+      final List<LibraryTraces.Trace> next = traces(telemetry.getSnapshot());
+      assertThat(next).hasSizeLessThanOrEqualTo(Telemetry.MAX_TRACES_PER_SNAPSHOT);
+      all.addAll(next);
+    }
+
+    assertThat(
+            all.stream()
+                .filter(LibraryTraces.Trace::hasRequestTrace)
+                .collect(
+                    Collectors.groupingBy(
+                        trace -> trace.getRequestTrace().getMillisecondDuration(),
+                        Collectors.counting())))
+        .containsEntry(10L, 500L)
+        // the lower bound of the bucket holding 1000
+        .containsEntry(960L, 500L);
+    assertThat(evaluationCounts(all))
+        .containsEntry(EvaluationReason.EVALUATION_REASON_TARGETING_MATCH, 1000L)
+        .containsEntry(EvaluationReason.EVALUATION_REASON_ERROR, 1L);
+  }
+
+  @Test
+  public void allotmentKeepsTheBudget() {
+    final long[] counts = {100, 3, 0, 1};
+    Telemetry.allot(counts, 10);
+    // what rounding leaves goes to the first count that got nothing
+    assertThat(counts).containsExactly(9, 1, 0, 0);
+
+    final long[] large = {Long.MAX_VALUE / 2, Long.MAX_VALUE / 2};
+    Telemetry.allot(large, 10);
+    assertThat(Arrays.stream(large).sum()).isBetween(1L, 10L);
+  }
+
+  private static Map<EvaluationReason, Long> evaluationCounts(List<LibraryTraces.Trace> traces) {
+    return traces.stream()
+        .filter(LibraryTraces.Trace::hasEvaluationTrace)
+        .collect(
+            Collectors.groupingBy(
+                trace -> trace.getEvaluationTrace().getReason(), Collectors.counting()));
+  }
+
+  private static List<LibraryTraces.Trace> traces(Monitoring snapshot) {
+    return snapshot.getLibraryTraces(0).getTracesList();
+  }
+}
@@ -0,0 +1,135 @@
+package com.spotify.confidence;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.spotify.confidence.UploadCircuitBreaker.State;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class UploadCircuitBreakerTest {
+  private final AtomicLong now = new AtomicLong();
+  private final UploadCircuitBreaker breaker =
+      new UploadCircuitBreaker(3, Duration.ofSeconds(1), Duration.ofSeconds(3), now::get);
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    breaker.recordUpload(true, UploadCircuitBreaker.NOT_A_PROBE);
+    breaker.recordUpload(true, UploadCircuitBreaker.NOT_A_PROBE);
+    breaker.recordUpload(false, UploadCircuitBreaker.NOT_A_PROBE);
+    breaker.recordUpload(true, UploadCircuitBreaker.NOT_A_PROBE);
+    breaker.recordUpload(true, UploadCircuitBreaker.NOT_A_PROBE);
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(breaker.permitsUpload()).isTrue();
+
+    breaker.recordUpload(true, UploadCircuitBreaker.NOT_A_PROBE);
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThat(breaker.permitsUpload()).isFalse();
+    assertThat(breaker.nanosUntilProbe()).isEqualTo(Duration.ofSeconds(1).toNanos());
+    assertThat(breaker.getOpenCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void letsASingleProbeThroughOnceHalfOpen() {
+    open();
+    advance(Duration.ofSeconds(1));
+
+    assertThat(breaker.permitsUpload()).isTrue();
+    assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+    final long probe = breaker.onUploadStarted();
+    assertThat(probe).isNotEqualTo(UploadCircuitBreaker.NOT_A_PROBE);
+    assertThat(breaker.permitsUpload()).isFalse();
+
+    breaker.recordUpload(false, probe);
+
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(breaker.permitsUpload()).isTrue();
+  }
+
+  @Test
+  public void onlyTheProbeDecidesTheOutcomeOfAHalfOpenBreaker() {
+    // started while closed, and still in flight once the breaker is half-open
+    final long earlier = breaker.onUploadStarted();
+    open();
+    advance(Duration.ofSeconds(1));
+    assertThat(breaker.permitsUpload()).isTrue();
+    final long probe = breaker.onUploadStarted();
+    assertThat(earlier).isEqualTo(UploadCircuitBreaker.NOT_A_PROBE);
+
+    breaker.recordUpload(true, earlier);
+
+    assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+    assertThat(breaker.getOpenCount()).isEqualTo(1);
+    assertThat(breaker.permitsUpload()).isFalse();
+
+    breaker.recordUpload(true, probe);
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThat(breaker.nanosUntilProbe()).isEqualTo(Duration.ofSeconds(2).toNanos());
+  }
+
+  @Test
+  public void failedProbesDoubleTheOpenDurationUpToItsMaximum() {
+    open();
+    failProbe();
+    assertThat(breaker.nanosUntilProbe()).isEqualTo(Duration.ofSeconds(2).toNanos());
+    failProbe();
+    assertThat(breaker.nanosUntilProbe()).isEqualTo(Duration.ofSeconds(3).toNanos());
+    assertThat(breaker.getOpenCount()).isEqualTo(3);
+
+    // a success resets the open duration
+    advance(Duration.ofSeconds(3));
+    breaker.permitsUpload();
+    breaker.recordUpload(false, breaker.onUploadStarted());
+    open();
+    assertThat(breaker.nanosUntilProbe()).isEqualTo(Duration.ofSeconds(1).toNanos());
+  }
+
+  @Test
+  public void tracksTheTimeSpentInEachState() {
+    advance(Duration.ofSeconds(5));
+    open();
+    advance(Duration.ofSeconds(1));
+    breaker.permitsUpload();
+    final long probe = breaker.onUploadStarted();
+    advance(Duration.ofMillis(200));
+    breaker.recordUpload(false, probe);
+    advance(Duration.ofSeconds(2));
+
+    assertThat(breaker.getTimeInState(State.CLOSED)).isEqualTo(Duration.ofSeconds(7));
+    assertThat(breaker.getTimeInState(State.OPEN)).isEqualTo(Duration.ofSeconds(1));
+    assertThat(breaker.getTimeInState(State.HALF_OPEN)).isEqualTo(Duration.ofMillis(200));
+  }
+
+  @Test
+  public void rejectsInvalidSettings() {
+    assertThatThrownBy(
+            () ->
+                new UploadCircuitBreaker(0, Duration.ofSeconds(1), Duration.ofSeconds(1), now::get))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("failureThreshold must be positive");
+    assertThatThrownBy(
+            () ->
+                new UploadCircuitBreaker(1, Duration.ofSeconds(2), Duration.ofSeconds(1), now::get))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("open durations must be positive and ordered");
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      breaker.recordUpload(true, UploadCircuitBreaker.NOT_A_PROBE);
+    }
+  }
+
+  private void failProbe() {
+    advance(Duration.ofNanos(breaker.nanosUntilProbe()));
+    assertThat(breaker.permitsUpload()).isTrue();
+    breaker.recordUpload(true, breaker.onUploadStarted());
+  }
+
+  private void advance(Duration duration) {
+    now.addAndGet(duration.toNanos());
+  }
+}